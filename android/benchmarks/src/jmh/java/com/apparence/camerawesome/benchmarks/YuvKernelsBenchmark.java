@@ -0,0 +1,115 @@
+package com.apparence.camerawesome.benchmarks;
+
+import com.apparence.camerawesome.image.YuvKernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of YUV_420_888 kernels on synthetic camera frames, run with the gc profiler for allocation rate.
+ * <p>
+ * Frames are laid out like most camera HALs deliver them: direct buffers, Y rows padded to a 256 bytes stride,
+ * U and V planes sharing one interleaved chroma plane (pixel stride 2), so each of them is one byte shorter
+ * than half of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class YuvKernelsBenchmark {
+
+    private static final int ROW_ALIGNMENT = 256;
+
+    @Param({"480p", "1080p", "4K"})
+    public String resolution;
+
+    private int width;
+
+    private int height;
+
+    private ByteBuffer yPlane;
+
+    private ByteBuffer uPlane;
+
+    private ByteBuffer vPlane;
+
+    @Setup
+    public void setup() {
+        switch (resolution) {
+            case "480p":
+                width = 640;
+                height = 480;
+                break;
+            case "1080p":
+                width = 1920;
+                height = 1080;
+                break;
+            case "4K":
+                width = 3840;
+                height = 2160;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown resolution " + resolution);
+        }
+        int rowStride = (width + ROW_ALIGNMENT - 1) / ROW_ALIGNMENT * ROW_ALIGNMENT;
+        Random random = new Random(42);
+        // last row is not padded
+        yPlane = randomDirectBuffer(rowStride * (height - 1) + width, random);
+        // V U V U ... rows, as in NV21
+        ByteBuffer chroma = randomDirectBuffer(rowStride * (height / 2 - 1) + width, random);
+        int planeSize = chroma.capacity() - 1;
+        chroma.position(0).limit(planeSize);
+        vPlane = chroma.slice();
+        chroma.position(1).limit(1 + planeSize);
+        uPlane = chroma.slice();
+    }
+
+    @Benchmark
+    public byte[] toNV21() {
+        rewindPlanes();
+        return YuvKernels.YUV_420_888toNV(yPlane, uPlane, vPlane, false);
+    }
+
+    @Benchmark
+    public byte[] toNV12() {
+        rewindPlanes();
+        return YuvKernels.YUV_420_888toNV(yPlane, uPlane, vPlane, true);
+    }
+
+    // stream conversion path (YuvToJpgConverter.convert)
+    @Benchmark
+    public byte[] toI420SemiPlanar() {
+        rewindPlanes();
+        return YuvKernels.YUV_420_888toI420SemiPlanar(yPlane, uPlane, vPlane, width, height, false);
+    }
+
+    @Benchmark
+    public byte[] toI420SemiPlanarDeInterleaved() {
+        rewindPlanes();
+        return YuvKernels.YUV_420_888toI420SemiPlanar(yPlane, uPlane, vPlane, width, height, true);
+    }
+
+    private void rewindPlanes() {
+        yPlane.rewind();
+        uPlane.rewind();
+        vPlane.rewind();
+    }
+
+    private static ByteBuffer randomDirectBuffer(int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        buffer.clear();
+        return buffer;
+    }
+}
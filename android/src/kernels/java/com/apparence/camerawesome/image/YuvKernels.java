@@ -0,0 +1,122 @@
+package com.apparence.camerawesome.image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV_420_888 pixel kernels used by {@link YuvToJpgConverter}.
+ * Kept free of android types so they can be benchmarked on any JVM (see android/benchmarks).
+ */
+public final class YuvKernels {
+
+    private YuvKernels() {
+    }
+
+    /**
+     * Copies Y, U and V planes one after another
+     *
+     * @param nv12 true = NV12 (V plane first), false = NV21
+     */
+    public static byte[] YUV_420_888toNV(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer, boolean nv12) {
+        return YUV_420_888toNV(yBuffer, uBuffer, vBuffer, nv12, null);
+    }
+
+    /**
+     * Same as {@link #YUV_420_888toNV(ByteBuffer, ByteBuffer, ByteBuffer, boolean)} written in given buffer
+     *
+     * @param reuse used if its size is the one of the 3 planes, a new array is allocated otherwise
+     */
+    public static byte[] YUV_420_888toNV(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer, boolean nv12,
+                                         byte[] reuse) {
+        int ySize = yBuffer.remaining();
+        int uSize = uBuffer.remaining();
+        int vSize = vBuffer.remaining();
+
+        byte[] nv = reuse != null && reuse.length == ySize + uSize + vSize ? reuse : new byte[ySize + uSize + vSize];
+
+        yBuffer.get(nv, 0, ySize);
+        if (nv12) {//U and V are swapped
+            vBuffer.get(nv, ySize, vSize);
+            uBuffer.get(nv, ySize + vSize, uSize);
+        } else {
+            uBuffer.get(nv, ySize, uSize);
+            vBuffer.get(nv, ySize + uSize, vSize);
+        }
+        return nv;
+    }
+
+    public static byte[] YUV_420_888toI420SemiPlanar(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer,
+                                                     int width, int height, boolean deInterleaveUV) {
+        return YUV_420_888toI420SemiPlanar(yBuffer, uBuffer, vBuffer, width, height, deInterleaveUV, null);
+    }
+
+    /**
+     * @param reuse output buffer of previous frame, see {@link #YUV_420_888toNV(ByteBuffer, ByteBuffer, ByteBuffer, boolean, byte[])}
+     */
+    public static byte[] YUV_420_888toI420SemiPlanar(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer,
+                                                     int width, int height, boolean deInterleaveUV, byte[] reuse) {
+        byte[] data = YUV_420_888toNV(yBuffer, uBuffer, vBuffer, deInterleaveUV, reuse);
+        int size = width * height;
+        if (deInterleaveUV) {
+            byte[] buffer = new byte[3 * width * height / 2];
+
+            // De-interleave U and V
+            for (int i = 0; i < size / 4; i += 1) {
+                buffer[i] = data[size + 2 * i + 1];
+                buffer[size / 4 + i] = data[size + 2 * i];
+            }
+            System.arraycopy(buffer, 0, data, size, size / 2);
+        } else {
+            for (int i = size; i < data.length; i += 2) {
+                byte b1 = data[i];
+                data[i] = data[i + 1];
+                data[i + 1] = b1;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Packs a region of a YUV_420_888 image in NV21, whatever planes row and pixel strides.
+     * Only region pixels are read. Region must start on even coordinates and have an even size,
+     * so each chroma sample covers the same 2x2 luma pixels as in the full image.
+     *
+     * @param reuse output buffer of previous frame, used if its size is the region one
+     */
+    public static byte[] YUV_420_888toNV21Region(ByteBuffer yBuffer, int yRowStride, int yPixelStride,
+                                                 ByteBuffer uBuffer, ByteBuffer vBuffer,
+                                                 int uvRowStride, int uvPixelStride,
+                                                 int left, int top, int width, int height, byte[] reuse) {
+        if (((left | top | width | height) & 1) != 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("region must have even position and size");
+        }
+        int ySize = width * height;
+        int size = ySize + ySize / 2;
+        byte[] nv21 = reuse != null && reuse.length == size ? reuse : new byte[size];
+
+        int position = yBuffer.position();
+        for (int row = 0; row < height; row++) {
+            int rowStart = (top + row) * yRowStride + left * yPixelStride;
+            if (yPixelStride == 1) {
+                yBuffer.position(rowStart);
+                yBuffer.get(nv21, row * width, width);
+            } else {
+                for (int column = 0, out = row * width; column < width; column++, out++) {
+                    nv21[out] = yBuffer.get(rowStart + column * yPixelStride);
+                }
+            }
+        }
+        yBuffer.position(position);
+
+        // chroma planes are subsampled by 2, NV21 interleaves them V first
+        int out = ySize;
+        int chromaLeft = left / 2 * uvPixelStride;
+        for (int row = top / 2, lastRow = (top + height) / 2; row < lastRow; row++) {
+            int index = row * uvRowStride + chromaLeft;
+            for (int column = 0; column < width / 2; column++, index += uvPixelStride) {
+                nv21[out++] = vBuffer.get(index);
+                nv21[out++] = uBuffer.get(index);
+            }
+        }
+        return nv21;
+    }
+}
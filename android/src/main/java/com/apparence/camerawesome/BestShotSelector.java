@@ -0,0 +1,156 @@
+package com.apparence.camerawesome;
+
+import android.media.Image;
+import android.os.Handler;
+import android.util.Log;
+
+import com.apparence.camerawesome.processor.SharpnessScorer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps jpeg photos of a burst and writes the sharpest one.
+ * Each burst request also targets stream output, so each photo is matched with the stream frame of the same
+ * capture by sensor timestamp and gets its sharpness score. Photos whose frame was dropped are not scored,
+ * if no photo could be scored the first one is written.
+ */
+class BestShotSelector {
+
+    private static final String TAG = BestShotSelector.class.getName();
+
+    // stream frames are scored on converter workers, they can come after their jpeg
+    private static final long SCORE_WAIT_MS = 300;
+
+    private static final long SCORE_RETRY_MS = 20;
+
+    private final SharpnessScorer scorer;
+
+    private final File file;
+
+    private final Handler ioHandler;
+
+    private final CameraPicture.OnImageResult onResultListener;
+
+    // ------ guarded by this ------
+
+    private final byte[][] jpegs;
+
+    private final long[] timestamps;
+
+    private int received;
+
+    private int failed;
+
+    private long scoreDeadlineMs;
+
+    /**
+     * @param captures  photos of the burst
+     * @param ioHandler handler receiving photos, used to wait for scores (scores are not waited if null)
+     */
+    BestShotSelector(int captures, SharpnessScorer scorer, File file, Handler ioHandler,
+                     CameraPicture.OnImageResult onResultListener) {
+        this.scorer = scorer;
+        this.file = file;
+        this.ioHandler = ioHandler;
+        this.onResultListener = onResultListener;
+        this.jpegs = new byte[captures][];
+        this.timestamps = new long[captures];
+    }
+
+    /**
+     * Copies jpeg, image can be closed once returned
+     */
+    void onImage(Image image) {
+        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+        byte[] jpeg = new byte[buffer.remaining()];
+        buffer.get(jpeg);
+        synchronized (this) {
+            if (received >= jpegs.length) {
+                return;
+            }
+            jpegs[received] = jpeg;
+            timestamps[received] = image.getTimestamp();
+            received++;
+        }
+        selectIfComplete();
+    }
+
+    /**
+     * Called when a capture of the burst failed, its photo will never come
+     */
+    void onCaptureFailed() {
+        synchronized (this) {
+            failed++;
+        }
+        if (ioHandler != null) {
+            ioHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    selectIfComplete();
+                }
+            });
+        } else {
+            selectIfComplete();
+        }
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private void selectIfComplete() {
+        synchronized (this) {
+            if (received + failed < jpegs.length || scoreDeadlineMs != 0) {
+                return;
+            }
+            scoreDeadlineMs = System.currentTimeMillis() + SCORE_WAIT_MS;
+        }
+        select();
+    }
+
+    private void select() {
+        final int count;
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        boolean allScored = true;
+        synchronized (this) {
+            count = received;
+            for (int i = 0; i < count; i++) {
+                double score = scorer.getScore(timestamps[i]);
+                if (Double.isNaN(score)) {
+                    allScored = false;
+                } else if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            if (!allScored && ioHandler != null && System.currentTimeMillis() < scoreDeadlineMs) {
+                ioHandler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        select();
+                    }
+                }, SCORE_RETRY_MS);
+                return;
+            }
+        }
+        if (count == 0) {
+            onResultListener.onFailure("CAPTURE_FAILED");
+            return;
+        }
+        if (best < 0) {
+            Log.w(TAG, "select: no photo could be scored, first one is kept");
+            best = 0;
+        }
+        Log.d(TAG, "select: photo " + best + " of " + count + " kept, sharpness " + bestScore);
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(jpegs[best]);
+            onResultListener.onSuccess();
+        } catch (IOException e) {
+            onResultListener.onFailure("IOError");
+        }
+    }
+}
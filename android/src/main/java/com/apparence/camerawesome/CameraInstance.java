@@ -0,0 +1,407 @@
+package com.apparence.camerawesome;
+
+import android.app.Activity;
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.RequiresApi;
+
+import com.apparence.camerawesome.CameraSettingsManager.CameraSettingsHandler;
+import com.apparence.camerawesome.cache.CameraCharacteristicsCache;
+import com.apparence.camerawesome.governor.StreamGovernor;
+import com.apparence.camerawesome.governor.StreamGovernorController;
+import com.apparence.camerawesome.metadata.CaptureMetadataStream;
+import com.apparence.camerawesome.processor.FrameProcessorRegistry;
+import com.apparence.camerawesome.processor.FrameProcessorStream;
+import com.apparence.camerawesome.processor.LumaStatisticsStream;
+import com.apparence.camerawesome.processor.MotionDetector;
+import com.apparence.camerawesome.processor.SharpnessScorer;
+import com.apparence.camerawesome.sensors.DeviceOrientationSensor;
+import com.apparence.camerawesome.sizes.SizeCandidate;
+import com.apparence.camerawesome.sizes.SizeNegotiator;
+import com.apparence.camerawesome.surface.FlutterSurfaceFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.view.TextureRegistry;
+
+/**
+ * Everything needed to run one camera: its own threads, setup, session, preview texture, picture,
+ * state machine and stream channels.
+ * The plugin can run several instances together, each one is identified by an id.
+ * The {@link #DEFAULT_ID} instance uses the historical channel names so single camera apps are unchanged.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CameraInstance {
+
+    private static final String TAG = CameraInstance.class.getName();
+
+    public static final String DEFAULT_ID = "default";
+
+    private final String id;
+
+    private final Handler mainHandler;
+
+    private final CameraThreads cameraThreads;
+
+    private volatile CameraSensor sensor;
+
+    private final CameraSetup cameraSetup;
+
+    private final CameraSession cameraSession;
+
+    private final FlutterSurfaceFactory surfaceFactory;
+
+    private final CameraPreview cameraPreview;
+
+    private final CameraPicture cameraPicture;
+
+    private final CameraSettingsManager settingsManager;
+
+    private final CameraStateManager cameraStateManager;
+
+    private final StreamGovernorController streamGovernorController;
+
+    private final FrameProcessorStream frameProcessorStream;
+
+    // enabled from flutter, null if motion detection is off
+    private MotionDetector motionDetector;
+
+    private final SharpnessScorer sharpnessScorer = new SharpnessScorer();
+
+    // best shot captures running, scorer is registered while some are
+    private int sharpnessScorerUsers;
+
+    // photos being taken, motion auto capture is skipped while there is one
+    private final AtomicInteger capturesInFlight = new AtomicInteger();
+
+    private final EventChannel imageStreamChannel;
+
+    private final EventChannel streamGovernorChannel;
+
+    private final EventChannel captureMetadataChannel;
+
+    private final EventChannel frameProcessorsChannel;
+
+    private final EventChannel lumaStatisticsChannel;
+
+    private final DeviceOrientationSensor orientationSensor;
+
+    // true while this instance keeps orientation sensor running
+    private boolean orientationHeld;
+
+    /**
+     * Creates all camera classes, camera device is not opened
+     *
+     * @param id            instance id, also used to name its event channels
+     * @param cameraThreads threads owned by this instance, quit on dispose
+     */
+    CameraInstance(String id, CameraThreads cameraThreads, Context applicationContext, Activity activity,
+                   BinaryMessenger messenger, TextureRegistry textureRegistry, Handler mainHandler,
+                   DeviceOrientationSensor orientationSensor, CameraCharacteristicsCache characteristicsCache,
+                   CameraSetup.OnCharacteristicsChanged onCharacteristicsChanged, CameraSensor sensor,
+                   StartupMode startupMode, boolean streamImages,
+                   FrameProcessorRegistry frameProcessors) throws CameraAccessException {
+        this.id = id;
+        this.mainHandler = mainHandler;
+        this.orientationSensor = orientationSensor;
+        this.cameraThreads = cameraThreads;
+        try {
+            // init setup
+            cameraSetup = new CameraSetup(applicationContext, activity, orientationSensor,
+                    characteristicsCache, cameraThreads.getIoHandler());
+            cameraSetup.setOnCharacteristicsChanged(onCharacteristicsChanged);
+            chooseSensor(sensor);
+        } catch (CameraAccessException e) {
+            cameraThreads.quit();
+            throw e;
+        }
+        // init camera session builder
+        cameraSession = new CameraSession(cameraThreads.getCameraHandler());
+        cameraSession.setStartupMode(startupMode);
+        // init preview with camera caracteristics we needs
+        surfaceFactory = new FlutterSurfaceFactory(textureRegistry);
+        cameraPreview = new CameraPreview(
+                cameraSession,
+                cameraSetup.getCharacteristicsModel(),
+                surfaceFactory,
+                mainHandler,
+                cameraThreads.getFrameHandler(),
+                streamImages);
+        // init picture recorder
+        cameraPicture = new CameraPicture(applicationContext, cameraPreview, cameraSession, cameraSetup.getCharacteristicsModel(),
+                cameraThreads.getCameraHandler(), cameraThreads.getIoHandler());
+        // init settings manager
+        List<CameraSettingsHandler> handlers = new ArrayList<CameraSettingsHandler>();
+        handlers.add(cameraPreview);
+        handlers.add(cameraPicture);
+        settingsManager = new CameraSettingsManager(cameraSetup.getCharacteristicsModel(), handlers);
+        // init state listener
+        cameraStateManager = new CameraStateManager(applicationContext, cameraPreview, cameraPicture, cameraSession,
+                cameraThreads.getCameraHandler());
+        // set camera sessions listeners
+        List<CameraSession.OnCaptureSession> onCaptureSessionListners = new ArrayList<CameraSession.OnCaptureSession>();
+        onCaptureSessionListners.add(cameraPreview);
+        onCaptureSessionListners.add(cameraPicture);
+        cameraSession.setOnCaptureSessionListenerList(onCaptureSessionListners);
+        // init stream governor
+        streamGovernorController = new StreamGovernorController(applicationContext, cameraThreads.getCameraHandler(),
+                mainHandler, createStreamQualityApplier());
+        cameraPreview.setConversionListener(streamGovernorController);
+        // init capture metadata stream
+        CaptureMetadataStream captureMetadataStream = new CaptureMetadataStream(cameraThreads.getFrameHandler(), mainHandler);
+        cameraPreview.setCaptureMetadataStream(captureMetadataStream);
+        // init frame processors, run on stream images before encoding
+        frameProcessorStream = new FrameProcessorStream(frameProcessors, new FrameProcessorRegistry(),
+                cameraThreads.getFrameHandler(), mainHandler);
+        cameraPreview.setFrameProcessorStream(frameProcessorStream);
+        LumaStatisticsStream lumaStatisticsStream = new LumaStatisticsStream(frameProcessorStream.getInstanceRegistry(),
+                cameraThreads.getCameraHandler(), mainHandler, new Runnable() {
+            @Override
+            public void run() {
+                attachImageStream();
+            }
+        });
+        // init event channels
+        imageStreamChannel = new EventChannel(messenger, channelName("camerawesome/images", id));
+        streamGovernorChannel = new EventChannel(messenger, channelName("camerawesome/streamGovernor", id));
+        captureMetadataChannel = new EventChannel(messenger, channelName("camerawesome/captureMetadata", id));
+        frameProcessorsChannel = new EventChannel(messenger, channelName("camerawesome/frameProcessors", id));
+        lumaStatisticsChannel = new EventChannel(messenger, channelName("camerawesome/lumaStatistics", id));
+        setStreamHandlersOnMainThread(cameraPreview, streamGovernorController, captureMetadataStream,
+                frameProcessorStream, lumaStatisticsStream);
+    }
+
+    /**
+     * @return base name for default instance, base/id otherwise
+     */
+    public static String channelName(String base, String id) {
+        return DEFAULT_ID.equals(id) ? base : base + "/" + id;
+    }
+
+    /**
+     * Chooses camera of given sensor, camera device is not switched
+     */
+    void chooseSensor(CameraSensor sensor) throws CameraAccessException {
+        cameraSetup.chooseCamera(sensor);
+        this.sensor = sensor;
+    }
+
+    /**
+     * Smallest supported stream size covering given one, must be called on camera thread
+     *
+     * @return null if it cannot be read
+     */
+    Size chooseStreamSize(int width, int height, int fps) {
+        try {
+            Size previewSize = cameraPreview.getPreviewSize() != null
+                    ? cameraPreview.getPreviewSize()
+                    : new Size(CameraPreview.MAX_PREVIEW_WIDTH, CameraPreview.MAX_PREVIEW_HEIGHT);
+            SizeNegotiator.Request request = new SizeNegotiator.Request()
+                    .setDisplaySize(previewSize.getWidth(), previewSize.getHeight())
+                    .setTargetFps(fps)
+                    .setStreamSize(width, height);
+            SizeCandidate stream = cameraSetup.createSizeNegotiator().negotiate(request).getStream();
+            if (stream != null) {
+                return new Size(stream.getWidth(), stream.getHeight());
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "chooseStreamSize: cannot read stream sizes", e);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces motion detector of this camera, must be called on camera thread.
+     * If camera runs without stream output it is added, see {@link #attachImageStream()}.
+     *
+     * @param detector null to stop motion detection
+     */
+    void setMotionDetector(MotionDetector detector) {
+        FrameProcessorRegistry builtInProcessors = frameProcessorStream.getInstanceRegistry();
+        if (motionDetector != null) {
+            builtInProcessors.unregister(motionDetector);
+        }
+        motionDetector = detector;
+        if (detector == null) {
+            // stream output is kept until next session, removing it would need a refresh too
+            return;
+        }
+        builtInProcessors.register(detector);
+        attachImageStream();
+    }
+
+    /**
+     * Registers sharpness scorer until {@link #releaseSharpnessScorer()}, scoring costs nothing otherwise
+     */
+    synchronized SharpnessScorer acquireSharpnessScorer() {
+        if (sharpnessScorerUsers++ == 0) {
+            frameProcessorStream.getInstanceRegistry().register(sharpnessScorer);
+        }
+        return sharpnessScorer;
+    }
+
+    synchronized void releaseSharpnessScorer() {
+        if (sharpnessScorerUsers > 0 && --sharpnessScorerUsers == 0) {
+            frameProcessorStream.getInstanceRegistry().unregister(sharpnessScorer);
+        }
+    }
+
+    /**
+     * Must be followed by {@link #endCapture()} once photo is written or failed
+     */
+    void beginCapture() {
+        capturesInFlight.incrementAndGet();
+    }
+
+    void endCapture() {
+        capturesInFlight.decrementAndGet();
+    }
+
+    boolean isCapturing() {
+        return capturesInFlight.get() > 0;
+    }
+
+    /**
+     * Adds stream output to a running session once a built-in processor needs images, must be called on camera thread
+     */
+    void attachImageStream() {
+        if (cameraSession.getCaptureSession() != null && !cameraSession.isPreviewOnly()
+                && cameraPreview.attachPreviewStream()) {
+            cameraSession.refresh();
+        }
+    }
+
+    /**
+     * Keeps orientation sensor running while camera is started, pictures and videos orientation comes from it
+     */
+    synchronized void holdOrientation() {
+        if (!orientationHeld) {
+            orientationHeld = true;
+            orientationSensor.acquire();
+        }
+    }
+
+    synchronized void releaseOrientation() {
+        if (orientationHeld) {
+            orientationHeld = false;
+            orientationSensor.release();
+        }
+    }
+
+    /**
+     * Releases threads, preview texture, stream channels and camera availability callback,
+     * camera must have been stopped before
+     */
+    void dispose() {
+        releaseOrientation();
+        setStreamHandlersOnMainThread(null, null, null, null, null);
+        surfaceFactory.release();
+        cameraThreads.getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                streamGovernorController.stop();
+            }
+        });
+        // unregisters camera availability callback on camera thread, quitSafely lets it run
+        cameraStateManager.dispose();
+        cameraThreads.quit();
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    /**
+     * Event channels handlers are registered on platform thread
+     */
+    private void setStreamHandlersOnMainThread(final EventChannel.StreamHandler imageStreamHandler,
+                                               final EventChannel.StreamHandler streamGovernorHandler,
+                                               final EventChannel.StreamHandler captureMetadataHandler,
+                                               final EventChannel.StreamHandler frameProcessorsHandler,
+                                               final EventChannel.StreamHandler lumaStatisticsHandler) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                imageStreamChannel.setStreamHandler(imageStreamHandler);
+                streamGovernorChannel.setStreamHandler(streamGovernorHandler);
+                captureMetadataChannel.setStreamHandler(captureMetadataHandler);
+                frameProcessorsChannel.setStreamHandler(frameProcessorsHandler);
+                lumaStatisticsChannel.setStreamHandler(lumaStatisticsHandler);
+            }
+        });
+    }
+
+    /**
+     * Governor decisions lower stream jpeg quality, size and fps without touching profile
+     */
+    private StreamGovernorController.QualityApplier createStreamQualityApplier() {
+        return new StreamGovernorController.QualityApplier() {
+            @Override
+            public void apply(StreamGovernor.Quality quality) {
+                Size streamSize = chooseStreamSize(quality.streamWidth, quality.streamHeight, quality.maxFps);
+                cameraPreview.setStreamLimits(quality.jpegQuality, quality.maxFps, streamSize);
+            }
+        };
+    }
+
+    // ------------------------------------------------------
+    // GETTERS
+    // ------------------------------------------------------
+
+    public String getId() {
+        return id;
+    }
+
+    public CameraSensor getSensor() {
+        return sensor;
+    }
+
+    public String getCameraId() {
+        return cameraSetup.getCameraId();
+    }
+
+    public CameraThreads getCameraThreads() {
+        return cameraThreads;
+    }
+
+    CameraSetup getCameraSetup() {
+        return cameraSetup;
+    }
+
+    public CameraSession getCameraSession() {
+        return cameraSession;
+    }
+
+    public CameraPreview getCameraPreview() {
+        return cameraPreview;
+    }
+
+    public CameraPicture getCameraPicture() {
+        return cameraPicture;
+    }
+
+    public CameraSettingsManager getSettingsManager() {
+        return settingsManager;
+    }
+
+    public CameraStateManager getCameraStateManager() {
+        return cameraStateManager;
+    }
+
+    public StreamGovernorController getStreamGovernorController() {
+        return streamGovernorController;
+    }
+
+    public FrameProcessorStream getFrameProcessorStream() {
+        return frameProcessorStream;
+    }
+}
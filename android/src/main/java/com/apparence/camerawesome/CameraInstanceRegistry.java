@@ -0,0 +1,116 @@
+package com.apparence.camerawesome;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Camera instances by id and the camera each one holds.
+ * A camera is admitted only if it can run together with cameras held by other instances,
+ * according to sets of concurrent cameras reported by the device.
+ * Without this information (before Android R) only one camera can be held at a time.
+ */
+public class CameraInstanceRegistry<T> {
+
+    private final Set<Set<String>> concurrentCameraIds;
+
+    private final Map<String, T> instances = new HashMap<>();
+
+    private final Map<String, String> cameraIds = new HashMap<>();
+
+    /**
+     * @param concurrentCameraIds sets of camera ids that can be opened together, null if unknown
+     */
+    public CameraInstanceRegistry(Set<Set<String>> concurrentCameraIds) {
+        this.concurrentCameraIds = concurrentCameraIds;
+    }
+
+    /**
+     * @return true if instance can hold this camera with cameras held by all other instances
+     */
+    public synchronized boolean canAdmit(String instanceId, String cameraId) {
+        Set<String> required = new HashSet<>();
+        for (Map.Entry<String, String> entry : cameraIds.entrySet()) {
+            if (!entry.getKey().equals(instanceId)) {
+                required.add(entry.getValue());
+            }
+        }
+        if (required.contains(cameraId)) {
+            // same sensor can't be opened twice
+            return false;
+        }
+        if (required.isEmpty()) {
+            return true;
+        }
+        if (concurrentCameraIds == null) {
+            return false;
+        }
+        required.add(cameraId);
+        for (Set<String> concurrentSet : concurrentCameraIds) {
+            if (concurrentSet.containsAll(required)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers instance holding given camera, replaces previous instance with same id
+     *
+     * @return previous instance with this id, null if none
+     * @throws IllegalStateException if camera cannot run with other instances cameras
+     */
+    public synchronized T admit(String instanceId, String cameraId, T instance) {
+        if (!canAdmit(instanceId, cameraId)) {
+            throw new IllegalStateException("camera " + cameraId + " cannot run together with " + getHeldCameraIds());
+        }
+        cameraIds.put(instanceId, cameraId);
+        return instances.put(instanceId, instance);
+    }
+
+    /**
+     * Instance switches to another camera
+     *
+     * @throws IllegalStateException if camera cannot run with other instances cameras
+     */
+    public synchronized void switchCamera(String instanceId, String cameraId) {
+        if (!instances.containsKey(instanceId)) {
+            throw new IllegalStateException("unknown instance " + instanceId);
+        }
+        if (!canAdmit(instanceId, cameraId)) {
+            throw new IllegalStateException("camera " + cameraId + " cannot run together with " + getHeldCameraIds());
+        }
+        cameraIds.put(instanceId, cameraId);
+    }
+
+    /**
+     * @return removed instance, null if none
+     */
+    public synchronized T release(String instanceId) {
+        cameraIds.remove(instanceId);
+        return instances.remove(instanceId);
+    }
+
+    public synchronized T get(String instanceId) {
+        return instances.get(instanceId);
+    }
+
+    public synchronized String getCameraId(String instanceId) {
+        return cameraIds.get(instanceId);
+    }
+
+    public synchronized Collection<T> getInstances() {
+        return new ArrayList<>(instances.values());
+    }
+
+    public synchronized Set<String> getHeldCameraIds() {
+        return new HashSet<>(cameraIds.values());
+    }
+
+    public synchronized int size() {
+        return instances.size();
+    }
+}
@@ -8,13 +8,14 @@ import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.TotalCaptureResult;
 import android.media.Image;
-import android.media.ImageReader;
 import android.media.MediaCodec;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
 import android.util.Log;
 import android.util.Range;
 import android.util.Size;
@@ -23,41 +24,80 @@ import android.view.Surface;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.apparence.camerawesome.image.ImageReaderStreamFactory;
+import com.apparence.camerawesome.image.ImageStream;
+import com.apparence.camerawesome.image.ImageStreamFactory;
+import com.apparence.camerawesome.metrics.LatencyHistogram;
+import com.apparence.camerawesome.metrics.PerformanceMetrics;
+import com.apparence.camerawesome.metrics.StripedCounter;
 import com.apparence.camerawesome.models.CameraCharacteristicsModel;
 import com.apparence.camerawesome.models.FlashMode;
+import com.apparence.camerawesome.processor.SharpnessScorer;
+import com.apparence.camerawesome.recorder.FlightRecorder;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class CameraPicture implements CameraSession.OnCaptureSession, CameraSettingsManager.CameraSettingsHandler {
 
     private static String TAG = CameraPicture.class.getName();
 
+    private static final LatencyHistogram TAKE_PICTURE_LATENCY =
+            PerformanceMetrics.getInstance().histogram(PerformanceMetrics.PICTURE_TAKE);
+
+    private static final StripedCounter TAKE_PICTURE_FAILURES =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.PICTURE_FAILURES);
+
+    private static final FlightRecorder RECORDER = FlightRecorder.getInstance();
+
     private static final int RECORDER_VIDEO_BITRATE = 10_000_000;
     private static final int RECORDER_VIDEO_FRAME_RATE = 30;
 
     private final CameraSession mCameraSession;
 
-    private CameraCharacteristicsModel mCameraCharacteristics;
+    private volatile CameraCharacteristicsModel mCameraCharacteristics;
+
+    private volatile CameraDevice mCameraDevice;
+
+    private volatile ImageStream pictureImageReader;
+
+    // replaced picture reader, closed once new session is configured
+    private volatile ImageStream staleImageReader;
 
-    private CameraDevice mCameraDevice;
+    // true from first refresh after camera opened until dispose, sizes set before only take effect on next refresh
+    private boolean outputsPrepared;
 
-    private ImageReader pictureImageReader;
+    private ImageStreamFactory imageStreamFactory = new ImageReaderStreamFactory();
 
-    private Size photoSize;
+    private volatile Size photoSize;
 
-    private Size videoSize;
+    private volatile Size videoSize;
 
-    private boolean autoFocus;
+    private volatile boolean autoFocus;
 
     private CaptureRequest.Builder takePhotoRequestBuilder;
 
     private int orientation;
 
-    private FlashMode flashMode;
+    // photos of current capture, more than one for a best shot burst
+    private int burstSize = 1;
+
+    // stream output added to burst requests so their frames are scored
+    private Surface burstStreamSurface;
+
+    private BestShotSelector bestShotSelector;
+
+    private volatile FlashMode flashMode;
+
+    private volatile int manualBrightness;
+
+    // device default if not set
+    private volatile Integer jpegQuality;
 
     private MediaRecorder recorder;
 
@@ -67,13 +107,28 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
 
     private CameraPreview cameraPreview;
 
+    private final Handler cameraHandler;
+
+    private final Handler ioHandler;
+
     // Defaults to false because permission check doesn't include the RECORD_AUDIO permission
     // because it's optional so it's up to the user of this package to request that permission
     // and enable recording of audio.
-    private boolean enableAudio = false;
+    private volatile boolean enableAudio = false;
 
     public CameraPicture(Context context, CameraPreview cameraPreview, CameraSession cameraSession, final CameraCharacteristicsModel cameraCharacteristics) {
+        this(context, cameraPreview, cameraSession, cameraCharacteristics, null, null);
+    }
+
+    /**
+     * @param cameraHandler handler receiving capture callbacks (current looper if null)
+     * @param ioHandler     handler used to write pictures (current looper if null)
+     */
+    public CameraPicture(Context context, CameraPreview cameraPreview, CameraSession cameraSession, final CameraCharacteristicsModel cameraCharacteristics,
+                         Handler cameraHandler, Handler ioHandler) {
         this.context = context;
+        this.cameraHandler = cameraHandler;
+        this.ioHandler = ioHandler;
         this.cameraPreview = cameraPreview;
         mCameraSession = cameraSession;
         mCameraCharacteristics = cameraCharacteristics;
@@ -89,23 +144,32 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
      */
     public void setPhotoSize(int width, int height) {
         this.photoSize = new Size(width, height);
-        refresh();
+        refreshPreparedOutputs();
     }
 
     public void setVideoSize(int width, int height) {
         this.videoSize = new Size(width, height);
-        refresh();
+        refreshPreparedOutputs();
     }
 
     public Size getPhotoSize() {
         return photoSize;
     }
 
-    public void refresh() {
+    /**
+     * Creates picture and video outputs, can be called from command and camera threads
+     */
+    public synchronized void refresh() {
+        outputsPrepared = true;
         setAutoFocus(this.autoFocus);
 
         if (photoSize != null) {
-            pictureImageReader = ImageReader.newInstance(photoSize.getWidth(), photoSize.getHeight(), ImageFormat.JPEG, 2);
+            if (pictureImageReader != null) {
+                // current session may still use it, closed once the new one is configured
+                closeStaleReader();
+                staleImageReader = pictureImageReader;
+            }
+            pictureImageReader = imageStreamFactory.build(photoSize.getWidth(), photoSize.getHeight(), ImageFormat.JPEG, 2);
             mCameraSession.addPictureSurface(pictureImageReader.getSurface());
         }
 
@@ -176,34 +240,83 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
      * @param onResultListener fires on success / failure
      * @throws CameraAccessException if camera is not available
      */
-    public void takePicture(final CameraDevice cameraDevice, final String filePath, final int orientation, final OnImageResult onResultListener) throws CameraAccessException {
+    public void takePicture(final CameraDevice cameraDevice, final String filePath, final int orientation, OnImageResult resultListener) throws CameraAccessException {
+        takePicture(cameraDevice, filePath, orientation, 1, null, resultListener);
+    }
+
+    /**
+     * Takes a burst of pictures and only saves the sharpest one.
+     * Burst requests also target stream output, the scorer must be registered as a frame processor to score
+     * their frames. Without stream output the burst fails with NO_STREAM_OUTPUT, an unscored photo is never saved.
+     *
+     * @param burstSize pictures of the burst, 1 takes a single picture
+     * @param scorer    scores stream frames, required for a burst
+     * @throws CameraAccessException if camera is not available
+     */
+    public void takePicture(final CameraDevice cameraDevice, final String filePath, final int orientation,
+                            int burstSize, SharpnessScorer scorer, OnImageResult resultListener) throws CameraAccessException {
+        final OnImageResult onResultListener = measureTakePicture(resultListener);
         final File file = new File(filePath);
         this.mCameraDevice = cameraDevice;
         this.orientation = orientation;
         if (file.exists()) {
             Log.e(TAG, "takePicture : PATH NOT FOUND");
+            onResultListener.onFailure("FILE_EXISTS");
             return;
         }
         if (photoSize == null) {
             Log.e(TAG, "takePicture : NO SIZE SET");
+            onResultListener.onFailure("NO_PICTURE_SIZE");
             return;
         }
         if (mCameraSession.getCaptureSession() == null) {
             Log.e(TAG, "takePicture: mCameraSession.getCaptureSession() is null");
+            onResultListener.onFailure("NO_CAPTURE_SESSION");
             return;
         }
-        pictureImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
-            @Override
-            public void onImageAvailable(ImageReader reader) {
-                try (Image image = reader.acquireNextImage()) {
-                    ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                    CameraPicture.this.writeToFile(buffer, file);
-                    onResultListener.onSuccess();
-                } catch (IOException e) {
-                    onResultListener.onFailure("IOError");
+        if (pictureImageReader == null) {
+            // with PREVIEW_FIRST startup picture output is only added after the first preview frame
+            Log.e(TAG, "takePicture: picture output not attached yet");
+            onResultListener.onFailure("NO_CAPTURE_SESSION");
+            return;
+        }
+        Surface streamSurface = cameraPreview != null ? cameraPreview.getStreamSurface() : null;
+        if (burstSize > 1 && (scorer == null || streamSurface == null)) {
+            // images must be streamed or a processor registered before start
+            Log.e(TAG, "takePicture: no stream output to score a burst");
+            onResultListener.onFailure("NO_STREAM_OUTPUT");
+            return;
+        }
+        if (burstSize > 1) {
+            this.burstSize = burstSize;
+            this.burstStreamSurface = streamSurface;
+            final BestShotSelector selector = new BestShotSelector(burstSize, scorer, file, ioHandler, onResultListener);
+            this.bestShotSelector = selector;
+            pictureImageReader.setOnImageAvailableListener(new ImageStream.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageStream stream) {
+                    try (Image image = stream.acquireNextImage()) {
+                        selector.onImage(image);
+                    }
                 }
-            }
-        }, null);
+            }, ioHandler);
+        } else {
+            this.burstSize = 1;
+            this.burstStreamSurface = null;
+            this.bestShotSelector = null;
+            pictureImageReader.setOnImageAvailableListener(new ImageStream.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageStream stream) {
+                    try (Image image = stream.acquireNextImage()) {
+                        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                        CameraPicture.this.writeToFile(buffer, file);
+                        onResultListener.onSuccess();
+                    } catch (IOException e) {
+                        onResultListener.onFailure("IOError");
+                    }
+                }
+            }, ioHandler);
+        }
         if (autoFocus) {
             mCameraSession.setState(CameraPictureStates.STATE_REQUEST_FOCUS);
         } else {
@@ -211,6 +324,28 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
         }
     }
 
+    /**
+     * Records time from takePicture call to file written, or a failure
+     */
+    private static OnImageResult measureTakePicture(final OnImageResult onResultListener) {
+        final long startNanos = System.nanoTime();
+        return new OnImageResult() {
+            @Override
+            public void onSuccess() {
+                TAKE_PICTURE_LATENCY.recordSince(startNanos);
+                RECORDER.record(FlightRecorder.Event.PICTURE_SAVED);
+                onResultListener.onSuccess();
+            }
+
+            @Override
+            public void onFailure(String error) {
+                TAKE_PICTURE_FAILURES.increment();
+                RECORDER.record(FlightRecorder.Event.PICTURE_FAILED);
+                onResultListener.onFailure(error);
+            }
+        };
+    }
+
     public void setFlashMode(FlashMode flashMode) {
         if (!mCameraCharacteristics.hasFlashAvailable()) {
             return;
@@ -218,6 +353,13 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
         this.flashMode = flashMode;
     }
 
+    /**
+     * Creates picture output, ImageReader by default
+     */
+    public void setImageStreamFactory(ImageStreamFactory imageStreamFactory) {
+        this.imageStreamFactory = imageStreamFactory;
+    }
+
     public void setCameraCharacteristics(CameraCharacteristicsModel mCameraCharacteristics) {
         this.mCameraCharacteristics = mCameraCharacteristics;
     }
@@ -226,15 +368,21 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
         this.autoFocus = autoFocus && mCameraCharacteristics.hasAutoFocus();
     }
 
+    public void setJpegQuality(int jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
     public void setRecordAudioEnabled(boolean enableAudio) {
         this.enableAudio = enableAudio;
     }
 
-    public void dispose() {
+    public synchronized void dispose() {
+        outputsPrepared = false;
         if (pictureImageReader != null) {
             pictureImageReader.close();
             pictureImageReader = null;
         }
+        closeStaleReader();
         if (recorder != null) {
             recorder.release();
             recorder = null;
@@ -250,8 +398,15 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
     // ---------------------------------------------------
 
     private void captureStillPicture() throws CameraAccessException {
+        if (mCameraSession.getCaptureSession() == null) {
+            Log.e(TAG, "captureStillPicture: camera stopped while waiting focus");
+            return;
+        }
         takePhotoRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
         takePhotoRequestBuilder.addTarget(pictureImageReader.getSurface());
+        if (jpegQuality != null) {
+            takePhotoRequestBuilder.set(CaptureRequest.JPEG_QUALITY, jpegQuality.byteValue());
+        }
         switch (flashMode) {
             case NONE:
                 takePhotoRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
@@ -268,23 +423,77 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
                 takePhotoRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
                 break;
         }
+        takePhotoRequestBuilder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, manualBrightness);
         takePhotoRequestBuilder.set(CaptureRequest.SCALER_CROP_REGION, mCameraSession.getZoomArea());
         takePhotoRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, orientation);
         mCameraSession.getCaptureSession().stopRepeating();
-        mCameraSession.getCaptureSession().capture(takePhotoRequestBuilder.build(), mCaptureCallback, null);
+        RECORDER.record(FlightRecorder.Event.CAPTURE_SUBMIT);
+        if (burstSize > 1) {
+            takePhotoRequestBuilder.addTarget(burstStreamSurface);
+            CaptureRequest request = takePhotoRequestBuilder.build();
+            List<CaptureRequest> burst = new ArrayList<>(burstSize);
+            for (int i = 0; i < burstSize; i++) {
+                burst.add(request);
+            }
+            mCameraSession.getCaptureSession().captureBurst(burst,
+                    createBurstCaptureCallback(burstSize, bestShotSelector), cameraHandler);
+        } else {
+            mCameraSession.getCaptureSession().capture(takePhotoRequestBuilder.build(), mCaptureCallback, cameraHandler);
+        }
     }
 
     private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
         @Override
         public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
-            if (mCameraSession.getState() != null && mCameraSession.getState().equals(STATE_REQUEST_PHOTO_AFTER_FOCUS)) {
-                mCameraSession.setState(STATE_RELEASE_FOCUS);
-            } else {
-                mCameraSession.setState(CameraPictureStates.STATE_RESTART_PREVIEW_REQUEST);
-            }
+            RECORDER.record(FlightRecorder.Event.CAPTURE_COMPLETED);
+            onStillCaptureCompleted();
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            RECORDER.record(FlightRecorder.Event.CAPTURE_FAILED, failure.getReason());
         }
     };
 
+    /**
+     * Preview restarts once the last capture of the burst is done
+     */
+    private CameraCaptureSession.CaptureCallback createBurstCaptureCallback(final int captures,
+                                                                            final BestShotSelector selector) {
+        return new CameraCaptureSession.CaptureCallback() {
+            private int done;
+
+            @Override
+            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                           @NonNull TotalCaptureResult result) {
+                RECORDER.record(FlightRecorder.Event.CAPTURE_COMPLETED);
+                onBurstCaptureDone();
+            }
+
+            @Override
+            public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                        @NonNull CaptureFailure failure) {
+                RECORDER.record(FlightRecorder.Event.CAPTURE_FAILED, failure.getReason());
+                selector.onCaptureFailed();
+                onBurstCaptureDone();
+            }
+
+            private void onBurstCaptureDone() {
+                if (++done == captures) {
+                    onStillCaptureCompleted();
+                }
+            }
+        };
+    }
+
+    private void onStillCaptureCompleted() {
+        if (mCameraSession.getState() != null && mCameraSession.getState().equals(STATE_REQUEST_PHOTO_AFTER_FOCUS)) {
+            mCameraSession.setState(STATE_RELEASE_FOCUS);
+        } else {
+            mCameraSession.setState(CameraPictureStates.STATE_RESTART_PREVIEW_REQUEST);
+        }
+    }
+
     private void refreshFocus() {
         final CaptureRequest.Builder captureBuilder;
         try {
@@ -306,13 +515,29 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
             };
             mCameraSession.getCaptureSession().stopRepeating();
             mCameraSession.getCaptureSession().abortCaptures();
-            mCameraSession.getCaptureSession().capture(captureBuilder.build(), CaptureCallback, null);
-        } catch (CameraAccessException e) {
+            mCameraSession.getCaptureSession().capture(captureBuilder.build(), CaptureCallback, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
             Log.e(TAG, "refreshFocus: ", e);
             e.printStackTrace();
         }
     }
 
+    /**
+     * Outputs are only rebuilt while camera uses them, a closed camera must not keep readers open
+     */
+    private synchronized void refreshPreparedOutputs() {
+        if (outputsPrepared) {
+            refresh();
+        }
+    }
+
+    private void closeStaleReader() {
+        if (staleImageReader != null) {
+            staleImageReader.close();
+            staleImageReader = null;
+        }
+    }
+
     private void writeToFile(ByteBuffer buffer, File file) throws IOException {
         // outputstream is autoclosed by the try
         try (FileOutputStream outputStream = new FileOutputStream(file)) {
@@ -353,6 +578,9 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
     @Override
     public void onConfigured(@NonNull CameraCaptureSession session) {
         this.mCameraSession.setCaptureSession(session);
+        synchronized (this) {
+            closeStaleReader();
+        }
     }
 
     @Override
@@ -374,7 +602,8 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
                     refreshFocus();
                     break;
             }
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalStateException e) {
+            // session closed while waiting focus
             Log.e(TAG, "onStateChanged: ", e);
         }
     }
@@ -384,7 +613,14 @@ public class CameraPicture implements CameraSession.OnCaptureSession, CameraSett
     // ------------------------------------------------------
     @Override
     public void refreshConfiguration(CameraSettingsManager.CameraSettings settings) {
-        takePhotoRequestBuilder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, settings.manualBrightness);
+        // applied on next capture request
+        this.manualBrightness = settings.manualBrightness;
+        if (settings.flashMode != null) {
+            this.flashMode = settings.flashMode;
+        }
+        if (settings.autoFocus != null) {
+            this.autoFocus = settings.autoFocus && mCameraCharacteristics.hasAutoFocus();
+        }
     }
 
     // --------------------------------------------------
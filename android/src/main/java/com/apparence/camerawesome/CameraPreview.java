@@ -11,12 +11,13 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.media.Image;
-import android.media.ImageReader;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Rational;
 import android.util.Size;
 import android.util.Log;
+import android.util.Range;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
@@ -25,14 +26,23 @@ import androidx.annotation.VisibleForTesting;
 
 import com.apparence.camerawesome.image.ImgConverter;
 import com.apparence.camerawesome.image.ImgConverterThreaded;
+import com.apparence.camerawesome.image.ImageReaderStreamFactory;
+import com.apparence.camerawesome.image.ImageStream;
+import com.apparence.camerawesome.image.ImageStreamFactory;
+import com.apparence.camerawesome.image.StreamRegion;
 import com.apparence.camerawesome.image.YuvToJpgConverter;
+import com.apparence.camerawesome.metadata.CaptureMetadataStream;
+import com.apparence.camerawesome.metrics.PerformanceMetrics;
+import com.apparence.camerawesome.metrics.StripedCounter;
 import com.apparence.camerawesome.models.CameraCharacteristicsModel;
 import com.apparence.camerawesome.models.FlashMode;
+import com.apparence.camerawesome.processor.FrameProcessorStream;
 import com.apparence.camerawesome.surface.SurfaceFactory;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.flutter.plugin.common.EventChannel;
 
@@ -46,6 +56,12 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
 
     private static final String TAG = CameraPreview.class.getName();
 
+    private static final StripedCounter FRAMES =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.PREVIEW_FRAMES);
+
+    private static final StripedCounter REQUEST_SUBMITS =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.PREVIEW_REQUEST_SUBMITS);
+
     public static final int MAX_PREVIEW_WIDTH = 1920;
 
     public static final int MAX_PREVIEW_HEIGHT = 1080;
@@ -54,30 +70,61 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
 
     private final SurfaceFactory surfaceFactory;
 
-    private Size previewSize;
+    private volatile Size previewSize;
+
+    // size of image stream, preview size is used if not set
+    private volatile Size streamSize;
+
+    // stream reader depth and converter workers used until a profile is set
+    static final int DEFAULT_READER_DEPTH = 2;
+
+    private static final int DEFAULT_CONVERTER_WORKERS = 1;
+
+    // null until a profile is requested, camera and stream defaults are kept
+    private volatile PerformanceProfile performanceProfile;
 
-    private Handler mainHandler;
+    // fps limit under profile max (0 if none), set by stream governor
+    private volatile int fpsLimit;
 
-    private Handler mBackgroundHandler;
+    private volatile ImgConverterThreaded.ConversionListener conversionListener;
 
-    private CaptureRequest.Builder mPreviewRequestBuilder;
+    private volatile CaptureMetadataStream captureMetadataStream;
 
-    private CameraCaptureSession mCaptureSession;
+    private volatile FrameProcessorStream frameProcessorStream;
+
+    private volatile Handler mainHandler;
+
+    // capture results and stream images are received on this thread
+    private final Handler frameHandler;
+
+    private volatile CaptureRequest.Builder mPreviewRequestBuilder;
+
+    private volatile CameraCaptureSession mCaptureSession;
 
     private CaptureRequest mPreviewRequest;
 
-    private boolean autoFocus;
+    private volatile boolean autoFocus;
+
+    private volatile FlashMode flashMode;
 
-    private FlashMode flashMode;
+    private volatile float mZoom;
 
-    private float mZoom;
+    private volatile int manualBrightness;
+
+    // settings changes are merged in one repeating request per frame
+    private final RepeatingRequestUpdater requestUpdater;
+
+    private final ZoomAnimator zoomAnimator;
 
     private Rect mInitialCropRegion;
 
-    private CameraCharacteristicsModel mCameraCharacteristics;
+    private volatile CameraCharacteristicsModel mCameraCharacteristics;
 
     private Surface previewSurface;
 
+    // replaced preview surface, released once new session is configured
+    private Surface stalePreviewSurface;
+
     private SurfaceTexture surfaceTexture;
 
     private int orientation;
@@ -85,15 +132,33 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     private boolean streamPreviewImages;
 
     // used to send image stream to flutter side
-    private EventChannel.EventSink previewStreamSink;
+    private volatile EventChannel.EventSink previewStreamSink;
+
+    private ImageStream pictureImageReader;
+
+    // replaced stream reader, closed once new session is configured
+    private ImageStream staleStreamReader;
+
+    private ImageStreamFactory imageStreamFactory = new ImageReaderStreamFactory();
 
-    private ImageReader pictureImageReader;
+    public CameraPreview(final CameraSession cameraSession,
+                         final CameraCharacteristicsModel mCameraCharacteristics,
+                         final SurfaceFactory surfaceFactory,
+                         final Handler mainHandler,
+                         final boolean streamPreviewImages) {
+        this(cameraSession, mCameraCharacteristics, surfaceFactory, mainHandler, null, streamPreviewImages);
+    }
 
+    /**
+     * @param frameHandler handler of the thread receiving capture results and stream images (current looper if null)
+     */
     public CameraPreview(final CameraSession cameraSession,
                          final CameraCharacteristicsModel mCameraCharacteristics,
                          final SurfaceFactory surfaceFactory,
                          final Handler mainHandler,
+                         final Handler frameHandler,
                          final boolean streamPreviewImages) {
+        this.frameHandler = frameHandler;
         this.flashMode = FlashMode.NONE;
         this.mCameraSession = cameraSession;
         this.mCameraCharacteristics = mCameraCharacteristics;
@@ -101,12 +166,35 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
         this.orientation = 270;
         this.streamPreviewImages = streamPreviewImages;
         this.mainHandler = mainHandler;
+        this.requestUpdater = new RepeatingRequestUpdater(cameraSession.getCameraHandler(), new RepeatingRequestUpdater.RequestSubmitter() {
+            @Override
+            public boolean submit() {
+                return applySettings();
+            }
+        });
+        this.zoomAnimator = new ZoomAnimator(new ZoomAnimator.ZoomTarget() {
+            @Override
+            public float getZoom() {
+                return mZoom;
+            }
+
+            @Override
+            public void applyZoom(float zoom) {
+                mZoom = zoom;
+                requestUpdater.invalidate();
+            }
+        });
         setAutoFocus(true);
     }
 
     void createCameraPreviewSession(final CameraDevice cameraDevice) throws CameraAccessException {
         if (previewSize == null)
             this.previewSize = new Size(MAX_PREVIEW_WIDTH, MAX_PREVIEW_HEIGHT);
+        // on Android O+ session configuration starts while preview surface is being created
+        boolean deferPreviewSurface = mCameraSession.isPreviewOnly() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+        if (deferPreviewSurface) {
+            mCameraSession.createDeferredPreviewSession(cameraDevice, previewSize);
+        }
         // create surface
         previewSurface = surfaceFactory.build(previewSize);
         // create preview
@@ -115,28 +203,57 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
         mInitialCropRegion = mPreviewRequestBuilder.get(CaptureRequest.SCALER_CROP_REGION);
         mCameraSession.setZoomArea(mInitialCropRegion);
         initPreviewRequest();
-        // only start preview ImageReader if asked for it
-        if (streamPreviewImages) {
+        // only start preview ImageReader if asked for it (later if session starts with preview only)
+        if (isImageStreamNeeded() && !mCameraSession.isPreviewOnly()) {
             initPreviewStream();
         }
         mPreviewRequestBuilder.addTarget(previewSurface);
         mCameraSession.addPreviewSurface(previewSurface);
-        mCameraSession.createCameraCaptureSession(cameraDevice);
+        if (!deferPreviewSurface) {
+            mCameraSession.createCameraCaptureSession(cameraDevice);
+        }
+    }
+
+    /**
+     * Adds stream output if it has been skipped at startup
+     *
+     * @return true if output was added, session must then be recreated
+     */
+    boolean attachPreviewStream() {
+        if (isImageStreamNeeded() && pictureImageReader == null && mPreviewRequestBuilder != null) {
+            initPreviewStream();
+            return true;
+        }
+        return false;
     }
 
     public void lockFocus() {
-        mCameraSession.setState(STATE_WAITING_LOCK);
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
-        refreshConfiguration();
+        if (mPreviewRequestBuilder == null) {
+            throw new IllegalStateException("preview not started");
+        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                mCameraSession.setState(STATE_WAITING_LOCK);
+                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START);
+                refreshConfiguration();
+            }
+        });
     }
 
     public void unlockFocus() {
+        // camera may have been stopped while picture was written
+        if (mCaptureSession == null) {
+            mCameraSession.setState(null);
+            return;
+        }
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
         mCameraSession.setState(null);
         initPreviewRequest();
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureFocusedCallback, null);
-        } catch (CameraAccessException ignored) {
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureFocusedCallback, frameHandler);
+        } catch (CameraAccessException | IllegalStateException ignored) {
+            // session replaced or closed, next one restarts preview
         }
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
         refreshConfiguration();
@@ -150,6 +267,14 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
         return previewSurface;
     }
 
+    /**
+     * @return surface of stream images output, null if session has none
+     */
+    public Surface getStreamSurface() {
+        ImageStream reader = pictureImageReader;
+        return reader != null && !mCameraSession.isPreviewOnly() ? reader.getSurface() : null;
+    }
+
     public Long getFlutterTexture() {
         if (this.surfaceFactory == null) {
             throw new RuntimeException("surface factory null");
@@ -159,10 +284,30 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
 
     public void dispose() {
         if (mCaptureSession != null) {
-            // release surface
             mCameraSession.clearSurface();
-            previewSurface.release();
             mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        // camera may be stopped before session is configured, surface and readers are released anyway
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+        if (stalePreviewSurface != null) {
+            stalePreviewSurface.release();
+            stalePreviewSurface = null;
+        }
+        if (pictureImageReader != null) {
+            pictureImageReader.close();
+            pictureImageReader = null;
+        }
+        if (staleStreamReader != null) {
+            staleStreamReader.close();
+            staleStreamReader = null;
+        }
+        if (imgConverterThread != null) {
+            imgConverterThread.dispose();
+            imgConverterThread = null;
         }
     }
 
@@ -178,14 +323,168 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
         return this.previewSize;
     }
 
+    /**
+     * Image stream doesn't have to be as big as preview, used on next session
+     */
+    public void setStreamSize(int width, int height) {
+        this.streamSize = new Size(width, height);
+    }
+
+    public Size getStreamSize() {
+        return streamSize != null ? streamSize : previewSize;
+    }
+
+    /**
+     * Changes preview and stream sizes on camera thread. If the camera is started their outputs are
+     * rebuilt and the session is recreated once with them, else sizes are used by next session.
+     *
+     * @param newPreviewSize  preview size, current one is kept if null
+     * @param newStreamSize   stream size, current one is kept if null
+     * @param refreshSession  recreate session even if sizes didn't change (another output was replaced)
+     */
+    public void setOutputSizes(final Size newPreviewSize, final Size newStreamSize, final boolean refreshSession) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                Size previousStreamSize = getStreamSize();
+                boolean outputsChanged = false;
+                if (newPreviewSize != null && !newPreviewSize.equals(previewSize)) {
+                    setPreviewSize(newPreviewSize.getWidth(), newPreviewSize.getHeight());
+                    outputsChanged = replacePreviewSurface();
+                }
+                if (newStreamSize != null) {
+                    streamSize = newStreamSize;
+                }
+                if (pictureImageReader != null && mPreviewRequestBuilder != null
+                        && !getStreamSize().equals(previousStreamSize)) {
+                    replaceStreamReader();
+                    outputsChanged = true;
+                }
+                if ((outputsChanged || refreshSession) && mCaptureSession != null) {
+                    mCameraSession.refresh();
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies fps range, converter workers and stream quality live.
+     * Stream session is only recreated if its size or reader depth changed, camera device stays open.
+     *
+     * @param streamSize supported stream size for this profile, current one is kept if null
+     */
+    public void setPerformanceProfile(final PerformanceProfile profile, final Size streamSize) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                PerformanceProfile previous = performanceProfile;
+                performanceProfile = profile;
+                fpsLimit = 0;
+                if (imgConverterThread != null) {
+                    imgConverterThread.setWorkers(profile.getConverterWorkers());
+                }
+                int previousReaderDepth = previous != null ? previous.getReaderDepth() : DEFAULT_READER_DEPTH;
+                applyStreamChanges(profile.getStreamJpegQuality(), streamSize,
+                        previousReaderDepth != profile.getReaderDepth());
+            }
+        });
+    }
+
+    /**
+     * Lowers stream cost without changing profile, see {@link com.apparence.camerawesome.governor.StreamGovernor}
+     *
+     * @param jpegQuality quality of stream frames
+     * @param fpsLimit    max fps, profile range is used if 0 or above it
+     * @param streamSize  supported stream size, current one is kept if null
+     */
+    public void setStreamLimits(final int jpegQuality, final int fpsLimit, final Size streamSize) {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                CameraPreview.this.fpsLimit = fpsLimit;
+                applyStreamChanges(jpegQuality, streamSize, false);
+            }
+        });
+    }
+
+    public void setConversionListener(ImgConverterThreaded.ConversionListener conversionListener) {
+        this.conversionListener = conversionListener;
+        if (imgConverterThread != null) {
+            imgConverterThread.setConversionListener(conversionListener);
+        }
+    }
+
+    /**
+     * Converts stream images before they are sent to flutter, {@link YuvToJpgConverter} by default.
+     * Used from next stream start.
+     */
+    public void setStreamConverter(ImgConverter streamConverter) {
+        this.streamConverter = streamConverter;
+    }
+
+    /**
+     * Only this region of stream images is encoded and sent to flutter, changed from next frame
+     * without restarting session. Works with default {@link YuvToJpgConverter} only.
+     *
+     * @param region null to send whole images
+     */
+    public void setStreamRegion(StreamRegion region) {
+        this.streamRegion = region;
+        ImgConverterThreaded converterThread = imgConverterThread;
+        if (converterThread != null && converterThread.getConverter() instanceof YuvToJpgConverter) {
+            ((YuvToJpgConverter) converterThread.getConverter()).setRegion(region);
+        }
+    }
+
+    /**
+     * Creates image stream output, ImageReader by default
+     */
+    public void setImageStreamFactory(ImageStreamFactory imageStreamFactory) {
+        this.imageStreamFactory = imageStreamFactory;
+    }
+
+    /**
+     * Each preview capture result is given to this stream on frame thread
+     */
+    public void setCaptureMetadataStream(CaptureMetadataStream captureMetadataStream) {
+        this.captureMetadataStream = captureMetadataStream;
+    }
+
+    /**
+     * Runs frame processors on stream images, stream output is also created on next session
+     * when flutter doesn't stream images but a processor is registered
+     */
+    public void setFrameProcessorStream(FrameProcessorStream frameProcessorStream) {
+        this.frameProcessorStream = frameProcessorStream;
+        ImgConverterThreaded converterThread = imgConverterThread;
+        if (converterThread != null) {
+            converterThread.setImageAnalyzer(frameProcessorStream);
+        }
+    }
+
+    /**
+     * @return true if images are streamed to flutter
+     */
+    public boolean isStreamingImages() {
+        return streamPreviewImages;
+    }
+
+    private boolean isImageStreamNeeded() {
+        FrameProcessorStream processors = frameProcessorStream;
+        return streamPreviewImages || (processors != null && processors.isActive());
+    }
+
+    public PerformanceProfile getPerformanceProfile() {
+        return performanceProfile;
+    }
+
     public void setmCameraCharacteristics(CameraCharacteristicsModel mCameraCharacteristics) {
         this.mCameraCharacteristics = mCameraCharacteristics;
     }
 
     public void setAutoFocus(boolean autoFocus) {
         this.autoFocus = autoFocus && mCameraCharacteristics.hasAutoFocus();
-        initPreviewRequest();
-        refreshConfiguration();
+        requestUpdater.invalidate();
     }
 
     public void setFlashMode(FlashMode flashMode) {
@@ -193,14 +492,31 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
             return;
         }
         this.flashMode = flashMode;
-        initPreviewRequest();
-        refreshConfiguration();
+        requestUpdater.invalidate();
     }
 
     public void setZoom(float zoom) {
-        this.mZoom = zoom;
-        updateZoom();
-        refreshConfiguration();
+        zoomAnimator.setZoom(zoom);
+    }
+
+    /**
+     * Animates zoom to target, crop region is then computed once per frame on camera thread
+     *
+     * @param zoom       target zoom between 0 and 1
+     * @param durationMs animation duration
+     * @param curve      easing curve
+     */
+    public void zoomTo(float zoom, long durationMs, ZoomAnimator.Curve curve) {
+        if (mCaptureSession == null) {
+            // no frames to animate on
+            setZoom(zoom);
+            return;
+        }
+        zoomAnimator.zoomTo(zoom, durationMs, curve);
+    }
+
+    public RepeatingRequestUpdater getRequestUpdater() {
+        return requestUpdater;
     }
 
     // ------------------------------------------------------
@@ -233,16 +549,73 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
         }
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, autoFocus ? CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE : CaptureRequest.CONTROL_AF_MODE_OFF);
+        PerformanceProfile profile = performanceProfile;
+        if (profile == null) {
+            return;
+        }
+        Range<Integer> fpsRange = fpsLimit > 0
+                ? profile.chooseFpsRange(mCameraCharacteristics.getAeTargetFpsRanges(), fpsLimit)
+                : profile.chooseFpsRange(mCameraCharacteristics.getAeTargetFpsRanges());
+        if (fpsRange != null) {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+        }
     }
 
-    private void refreshConfiguration() {
+    /**
+     * Rebuilds preview request with latest settings values, called by {@link RepeatingRequestUpdater} on camera thread
+     *
+     * @return true if request has been submitted
+     */
+    private boolean applySettings() {
+        if (mPreviewRequestBuilder == null) {
+            return false;
+        }
+        initPreviewRequest();
+        updateZoom();
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, manualBrightness);
+        return refreshConfiguration();
+    }
+
+    private boolean refreshConfiguration() {
         if (mCaptureSession == null) {
-            return;
+            return false;
         }
         try {
-            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureFocusedCallback, null);
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureFocusedCallback, frameHandler);
+            REQUEST_SUBMITS.increment();
+            return true;
         } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
             Log.e(TAG, "refreshConfiguration", e);
+            return false;
+        }
+    }
+
+    /**
+     * Must run on camera thread
+     */
+    private void applyStreamChanges(int jpegQuality, Size newStreamSize, boolean readerDepthChanged) {
+        Size previousStreamSize = getStreamSize();
+        if (newStreamSize != null) {
+            streamSize = newStreamSize;
+        }
+        if (imgConverterThread != null && imgConverterThread.getConverter() instanceof YuvToJpgConverter) {
+            ((YuvToJpgConverter) imgConverterThread.getConverter()).setJpegQuality(jpegQuality);
+        }
+        boolean streamChanged = readerDepthChanged
+                || (previousStreamSize != null && !previousStreamSize.equals(getStreamSize()));
+        if (streamChanged && pictureImageReader != null && mCaptureSession != null) {
+            reconfigureStream();
+        } else {
+            requestUpdater.invalidate();
+        }
+    }
+
+    private void runOnCameraThread(Runnable runnable) {
+        Handler cameraHandler = mCameraSession.getCameraHandler();
+        if (cameraHandler == null || cameraHandler.getLooper() == Looper.myLooper()) {
+            runnable.run();
+        } else {
+            cameraHandler.post(runnable);
         }
     }
 
@@ -286,7 +659,18 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     @Override
     public void onConfigured(@NonNull CameraCaptureSession session) {
         mCaptureSession = session;
-        refreshConfiguration();
+        if (staleStreamReader != null) {
+            staleStreamReader.close();
+            staleStreamReader = null;
+        }
+        if (stalePreviewSurface != null) {
+            stalePreviewSurface.release();
+            stalePreviewSurface = null;
+        }
+        // settings changed while there was no session are applied now
+        if (!requestUpdater.flush()) {
+            refreshConfiguration();
+        }
     }
 
     @Override
@@ -321,7 +705,7 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     private void runPrecaptureSequence() {
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureFocusedCallback, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureFocusedCallback, frameHandler);
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to run precapture sequence.", e);
@@ -331,6 +715,14 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     private CameraCaptureSession.CaptureCallback mCaptureFocusedCallback = new CameraCaptureSession.CaptureCallback() {
         @Override
         public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            FRAMES.increment();
+            mCameraSession.onFrameCompleted();
+            requestUpdater.onFrame();
+            zoomAnimator.onFrame(System.nanoTime());
+            CaptureMetadataStream metadataStream = captureMetadataStream;
+            if (metadataStream != null) {
+                metadataStream.onCaptureCompleted(result);
+            }
             processCapture(result);
         }
 
@@ -392,37 +784,125 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     // PREVIEW STREAM FLUTTER CHANNEL
     // ------------------------------------------------------
 
-    private ImgConverterThreaded imgConverterThread;
+    private volatile ImgConverterThreaded imgConverterThread;
+
+    private ImgConverter streamConverter;
+
+    private volatile StreamRegion streamRegion;
+
+    // latest converted frame waiting for main thread, a newer one replaces it instead of queuing
+    private final AtomicReference<byte[]> pendingStreamFrame = new AtomicReference<>();
+
+    // listener, consumer and main thread runnable are reused for every frame so streaming doesn't allocate
+    private final Runnable sendStreamFrame = new Runnable() {
+        @Override
+        public void run() {
+            byte[] result = pendingStreamFrame.getAndSet(null);
+            EventChannel.EventSink sink = previewStreamSink;
+            if (result != null && sink != null) {
+                sink.success(result);
+            }
+        }
+    };
+
+    private final ImgConverterThreaded.Consumer streamFrameConsumer = new ImgConverterThreaded.Consumer() {
+        @Override
+        public void process(byte[] result) {
+            Handler handler = mainHandler;
+            if (result == null || result.length == 0 || handler == null) {
+                return;
+            }
+            if (pendingStreamFrame.getAndSet(result) == null) {
+                handler.post(sendStreamFrame);
+            }
+        }
+    };
+
+    private final ImageStream.OnImageAvailableListener streamImageListener = new ImageStream.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageStream stream) {
+            ImgConverterThreaded converterThread = imgConverterThread;
+            if (converterThread == null) {
+                return;
+            }
+            boolean encode = previewStreamSink != null && mainHandler != null;
+            FrameProcessorStream processors = frameProcessorStream;
+            if (encode || (processors != null && processors.isActive())) {
+                // without flutter listener images are only analyzed, never encoded
+                converterThread.process(stream, encode ? streamFrameConsumer : null);
+            }
+        }
+    };
 
     private void initPreviewStream() {
-        imgConverterThread = new ImgConverterThreaded(new YuvToJpgConverter());
-        // create preview stream surface YUV_420_888
-        pictureImageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
-        pictureImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
-            @Override
-            public void onImageAvailable(ImageReader reader) {
-                if (previewStreamSink != null && mainHandler != null) {
-                    imgConverterThread.process(reader, new ImgConverterThreaded.Consumer() {
-                        @Override
-                        public void process(final byte[] result) {
-                            final Runnable myRunnable = new Runnable() {
-                                @Override
-                                public void run() {
-                                    if (result != null && result.length > 0
-                                            && previewStreamSink != null && mainHandler != null)
-                                        previewStreamSink.success(result);
-                                }
-                            };
-                            mainHandler.post(myRunnable);
-                        }
-                    });
+        PerformanceProfile profile = performanceProfile;
+        if (imgConverterThread == null) {
+            ImgConverter converter = streamConverter;
+            if (converter == null) {
+                converter = new YuvToJpgConverter();
+            }
+            if (converter instanceof YuvToJpgConverter) {
+                if (profile != null) {
+                    ((YuvToJpgConverter) converter).setJpegQuality(profile.getStreamJpegQuality());
                 }
+                ((YuvToJpgConverter) converter).setRegion(streamRegion);
             }
-        }, null);
+            imgConverterThread = new ImgConverterThreaded(converter,
+                    profile != null ? profile.getConverterWorkers() : DEFAULT_CONVERTER_WORKERS);
+            imgConverterThread.setConversionListener(conversionListener);
+            imgConverterThread.setImageAnalyzer(frameProcessorStream);
+        }
+        // create preview stream surface YUV_420_888
+        Size size = getStreamSize();
+        pictureImageReader = imageStreamFactory.build(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888,
+                profile != null ? profile.getReaderDepth() : DEFAULT_READER_DEPTH);
+        pictureImageReader.setOnImageAvailableListener(streamImageListener, frameHandler);
         mCameraSession.addPreviewStreamSurface(pictureImageReader.getSurface());
         mPreviewRequestBuilder.addTarget(pictureImageReader.getSurface());
     }
 
+    /**
+     * Replaces stream reader and recreates capture session on the same device
+     */
+    private void reconfigureStream() {
+        replaceStreamReader();
+        mCameraSession.refresh();
+    }
+
+    /**
+     * New stream reader at current stream size, used by next session
+     */
+    private void replaceStreamReader() {
+        mPreviewRequestBuilder.removeTarget(pictureImageReader.getSurface());
+        pictureImageReader.setOnImageAvailableListener(null, null);
+        // previous reconfigure may not be configured yet, its reader is not used by any session anymore
+        if (staleStreamReader != null) {
+            staleStreamReader.close();
+        }
+        staleStreamReader = pictureImageReader;
+        initPreviewStream();
+    }
+
+    /**
+     * New preview surface at current preview size on the same flutter texture, used by next session
+     *
+     * @return false if preview isn't started yet
+     */
+    private boolean replacePreviewSurface() {
+        if (previewSurface == null || mPreviewRequestBuilder == null) {
+            return false;
+        }
+        mPreviewRequestBuilder.removeTarget(previewSurface);
+        if (stalePreviewSurface != null) {
+            stalePreviewSurface.release();
+        }
+        stalePreviewSurface = previewSurface;
+        previewSurface = surfaceFactory.build(previewSize);
+        mPreviewRequestBuilder.addTarget(previewSurface);
+        mCameraSession.addPreviewSurface(previewSurface);
+        return true;
+    }
+
     @Override
     public void onListen(Object arguments, EventChannel.EventSink events) {
         this.previewStreamSink = events;
@@ -432,7 +912,6 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     public void onCancel(Object arguments) {
         this.previewStreamSink.endOfStream();
         this.previewStreamSink = null;
-        this.imgConverterThread.dispose();
     }
 
     public void setMainHandler(Handler mainHandler) {
@@ -444,9 +923,17 @@ public class CameraPreview implements CameraSession.OnCaptureSession, EventChann
     // ------------------------------------------------------
     @Override
     public void refreshConfiguration(CameraSettingsManager.CameraSettings settings) {
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, settings.manualBrightness);
-        initPreviewRequest();
-        refreshConfiguration();
+        this.manualBrightness = settings.manualBrightness;
+        if (settings.flashMode != null) {
+            this.flashMode = settings.flashMode;
+        }
+        if (settings.zoom != null) {
+            zoomAnimator.setZoom(settings.zoom);
+        }
+        if (settings.autoFocus != null) {
+            this.autoFocus = settings.autoFocus && mCameraCharacteristics.hasAutoFocus();
+        }
+        requestUpdater.invalidate();
     }
 
     // ------------------------------------------------------
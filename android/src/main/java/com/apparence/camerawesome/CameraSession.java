@@ -1,21 +1,33 @@
 package com.apparence.camerawesome;
 
 import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.OutputConfiguration;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.util.Size;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.apparence.camerawesome.metrics.LatencyHistogram;
+import com.apparence.camerawesome.metrics.PerformanceMetrics;
+import com.apparence.camerawesome.metrics.StripedCounter;
+import com.apparence.camerawesome.recorder.FlightRecorder;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
@@ -23,6 +35,25 @@ public class CameraSession {
 
     private static final String TAG = CameraSession.class.getName();
 
+    private static final LatencyHistogram CONFIGURE_LATENCY =
+            PerformanceMetrics.getInstance().histogram(PerformanceMetrics.SESSION_CONFIGURE);
+
+    private static final LatencyHistogram FIRST_FRAME_LATENCY =
+            PerformanceMetrics.getInstance().histogram(PerformanceMetrics.SESSION_FIRST_FRAME);
+
+    private static final LatencyHistogram REFRESH_LATENCY =
+            PerformanceMetrics.getInstance().histogram(PerformanceMetrics.SESSION_REFRESH);
+
+    private static final StripedCounter REFRESHES =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.SESSION_REFRESHES);
+
+    private static final StripedCounter CONFIGURE_FAILURES =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.SESSION_CONFIGURE_FAILURES);
+
+    private static final FlightRecorder RECORDER = FlightRecorder.getInstance();
+
+    private static final String CONFIGURE_SPAN = "session.configure";
+
     private static final String PREVIEW_SURFACE_KEY = "PREVIEW_SURFACE_KEY";
 
     private static final String PHOTO_SURFACE_KEY = "PHOTO_SURFACE_KEY";
@@ -31,50 +62,154 @@ public class CameraSession {
 
     private static final String PREVIEW_STREAM_SURFACE_KEY = "PREVIEW_STREAM_SURFACE_KEY";
 
-    private CameraCaptureSession mCaptureSession;
+    private volatile CameraCaptureSession mCaptureSession;
+
+    private volatile List<OnCaptureSession> onCaptureSessionListenerList;
+
+    private final Map<String, Surface> surfaces = new ConcurrentHashMap<>();
+
+    private volatile CameraPictureStates state;
+
+    private volatile CameraDevice cameraDevice;
+
+    private volatile Rect zoomArea;
 
-    private List<OnCaptureSession> onCaptureSessionListenerList;
+    // session callbacks and state listeners run on this thread (current looper if null)
+    private final Handler cameraHandler;
 
-    private Map<String, Surface> surfaces = new HashMap();
+    private volatile StartupMode startupMode = StartupMode.ALL_OUTPUTS;
 
-    private CameraPictureStates state;
+    private DeferredOutputsProvider deferredOutputsProvider;
 
-    private CameraDevice cameraDevice;
+    private volatile boolean deferredOutputsAttached;
 
-    private Rect zoomArea;
+    // preview output waiting for its surface (Android O+ deferred configuration)
+    private OutputConfiguration deferredPreviewConfiguration;
+
+    private volatile long startRequestedNanos;
+
+    private volatile long configuredNanos;
+
+    private volatile long firstFrameNanos;
+
+    // when a session with every output was configured
+    private volatile long allOutputsNanos;
+
+    // when a refresh recreated the session, 0 if none pending
+    private volatile long refreshRequestedNanos;
+
+    public CameraSession() {
+        this(null);
+    }
+
+    public CameraSession(Handler cameraHandler) {
+        this.cameraHandler = cameraHandler;
+    }
 
     void createCameraCaptureSession(final CameraDevice cameraDevice) throws CameraAccessException {
         this.cameraDevice = cameraDevice;
-        cameraDevice.createCaptureSession(new ArrayList<>(surfaces.values()), new CameraCaptureSession.StateCallback() {
-            @Override
-            public void onConfigured(@NonNull CameraCaptureSession session) {
-                mCaptureSession = session;
-                if (onCaptureSessionListenerList != null) {
-                    for (OnCaptureSession onCaptureSession : onCaptureSessionListenerList) {
-                        onCaptureSession.onConfigured(session);
-                    }
-                }
-            }
+        List<Surface> sessionSurfaces;
+        if (isPreviewOnly()) {
+            sessionSurfaces = Collections.singletonList(surfaces.get(PREVIEW_SURFACE_KEY));
+        } else {
+            sessionSurfaces = new ArrayList<>(surfaces.values());
+        }
+        RECORDER.beginSpan(FlightRecorder.Event.SESSION_CONFIGURE, CONFIGURE_SPAN, spanCookie());
+        cameraDevice.createCaptureSession(sessionSurfaces, sessionStateCallback, cameraHandler);
+    }
 
-            @Override
-            public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                if (mCaptureSession != null) {
-                    mCaptureSession.close();
-                }
+    /**
+     * Starts configuring a session before the preview surface exists (Android O+)
+     * the preview surface must then be given with {@link #addPreviewSurface(Surface)}
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    void createDeferredPreviewSession(final CameraDevice cameraDevice, Size previewSize) throws CameraAccessException {
+        this.cameraDevice = cameraDevice;
+        OutputConfiguration previewConfiguration = new OutputConfiguration(previewSize, SurfaceTexture.class);
+        deferredPreviewConfiguration = previewConfiguration;
+        RECORDER.beginSpan(FlightRecorder.Event.SESSION_CONFIGURE, CONFIGURE_SPAN, spanCookie());
+        cameraDevice.createCaptureSessionByOutputConfigurations(
+                Collections.singletonList(previewConfiguration), sessionStateCallback, cameraHandler);
+    }
+
+    private final CameraCaptureSession.StateCallback sessionStateCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession session) {
+            if (!finalizeDeferredPreview(session)) {
+                return;
+            }
+            mCaptureSession = session;
+            RECORDER.endSpan(FlightRecorder.Event.SESSION_CONFIGURED, CONFIGURE_SPAN, spanCookie());
+            long nowNanos = System.nanoTime();
+            if (configuredNanos == 0) {
+                configuredNanos = nowNanos;
+                CONFIGURE_LATENCY.recordSince(startRequestedNanos);
+            }
+            if (allOutputsNanos == 0 && !isPreviewOnly()) {
+                allOutputsNanos = nowNanos;
+            }
+            if (refreshRequestedNanos != 0) {
+                REFRESH_LATENCY.recordSince(refreshRequestedNanos);
+                refreshRequestedNanos = 0;
+            }
+            if (onCaptureSessionListenerList != null) {
                 for (OnCaptureSession onCaptureSession : onCaptureSessionListenerList) {
-                    onCaptureSession.onConfigureFailed();
+                    onCaptureSession.onConfigured(session);
                 }
             }
-        }, null);
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            CONFIGURE_FAILURES.increment();
+            RECORDER.endSpan(FlightRecorder.Event.SESSION_CONFIGURE_FAILED, CONFIGURE_SPAN, spanCookie());
+            refreshRequestedNanos = 0;
+            deferredPreviewConfiguration = null;
+            if (mCaptureSession != null) {
+                mCaptureSession.close();
+            }
+            for (OnCaptureSession onCaptureSession : onCaptureSessionListenerList) {
+                onCaptureSession.onConfigureFailed();
+            }
+        }
+    };
+
+    private boolean finalizeDeferredPreview(CameraCaptureSession session) {
+        if (deferredPreviewConfiguration == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return true;
+        }
+        try {
+            session.finalizeOutputConfigurations(Collections.singletonList(deferredPreviewConfiguration));
+            deferredPreviewConfiguration = null;
+            return true;
+        } catch (CameraAccessException | IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "finalize deferred preview failed, using a regular session", e);
+            deferredPreviewConfiguration = null;
+            RECORDER.endSpan(FlightRecorder.Event.SESSION_CONFIGURE_FAILED, CONFIGURE_SPAN, spanCookie());
+            try {
+                createCameraCaptureSession(cameraDevice);
+            } catch (CameraAccessException ex) {
+                Log.e(TAG, "failed to recreate camera session", ex);
+            }
+            return false;
+        }
     }
 
     public void refresh() {
         // if session is active recreate session
         if (mCaptureSession != null) {
+            REFRESHES.increment();
+            RECORDER.record(FlightRecorder.Event.SESSION_REFRESH);
+            refreshRequestedNanos = System.nanoTime();
             try {
                 mCaptureSession.abortCaptures();
+            } catch (CameraAccessException | IllegalStateException e) {
+                // already closed by a previous refresh or a camera stop
+                Log.d(TAG, "refresh: previous session closed");
+            }
+            try {
                 this.createCameraCaptureSession(cameraDevice);
-            } catch (CameraAccessException e) {
+            } catch (CameraAccessException | IllegalStateException e) {
                 Log.e(TAG, "failed to recreate camera session");
             }
         }
@@ -90,6 +225,9 @@ public class CameraSession {
 
     public void addPreviewSurface(Surface surface) {
         this.surfaces.put(PREVIEW_SURFACE_KEY, surface);
+        if (deferredPreviewConfiguration != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            deferredPreviewConfiguration.addSurface(surface);
+        }
     }
 
     public void addPictureSurface(Surface surface) {
@@ -106,6 +244,7 @@ public class CameraSession {
 
     public void clearSurface() {
         this.surfaces.clear();
+        this.deferredPreviewConfiguration = null;
     }
 
     public List<Surface> getSurfaces() {
@@ -120,11 +259,115 @@ public class CameraSession {
         return cameraDevice;
     }
 
-    public void setState(CameraPictureStates state) {
+    /**
+     * State is changed immediately (frame thread reads it on each capture result)
+     * listeners are then notified on camera thread
+     */
+    public void setState(final CameraPictureStates state) {
         this.state = state;
-        for (OnCaptureSession onCaptureSession : onCaptureSessionListenerList) {
-            onCaptureSession.onStateChanged(this.state);
+        RECORDER.record(FlightRecorder.Event.PICTURE_STATE_CHANGED, state != null ? state.ordinal() : -1);
+        if (cameraHandler == null || cameraHandler.getLooper() == Looper.myLooper()) {
+            notifyStateChanged(state);
+            return;
         }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                notifyStateChanged(state);
+            }
+        });
+    }
+
+    public Handler getCameraHandler() {
+        return cameraHandler;
+    }
+
+    // ------------------------------------------------------
+    // STARTUP
+    // ------------------------------------------------------
+
+    public void setStartupMode(StartupMode startupMode) {
+        this.startupMode = startupMode;
+    }
+
+    public StartupMode getStartupMode() {
+        return startupMode;
+    }
+
+    public void setDeferredOutputsProvider(DeferredOutputsProvider deferredOutputsProvider) {
+        this.deferredOutputsProvider = deferredOutputsProvider;
+    }
+
+    /**
+     * True while session must only contain the preview output
+     */
+    public boolean isPreviewOnly() {
+        return startupMode == StartupMode.PREVIEW_FIRST && !deferredOutputsAttached;
+    }
+
+    /**
+     * Resets startup timings, called when camera open is requested
+     */
+    public void onStartRequested() {
+        startRequestedNanos = System.nanoTime();
+        configuredNanos = 0;
+        firstFrameNanos = 0;
+        allOutputsNanos = 0;
+        deferredOutputsAttached = false;
+    }
+
+    /**
+     * Called by preview on each capture result (frame thread) so keep it cheap
+     */
+    public void onFrameCompleted() {
+        if (firstFrameNanos != 0) {
+            return;
+        }
+        firstFrameNanos = System.nanoTime();
+        FIRST_FRAME_LATENCY.recordSince(startRequestedNanos);
+        if (!isPreviewOnly()) {
+            return;
+        }
+        Runnable attachOutputs = new Runnable() {
+            @Override
+            public void run() {
+                // camera may have been stopped since first frame
+                if (deferredOutputsAttached || cameraDevice == null || mCaptureSession == null) {
+                    return;
+                }
+                if (deferredOutputsProvider != null) {
+                    deferredOutputsProvider.prepareDeferredOutputs();
+                }
+                deferredOutputsAttached = true;
+                // other outputs can't be deferred, session is recreated with all of them
+                // allOutputsNanos is set once it is configured
+                refresh();
+            }
+        };
+        if (cameraHandler != null) {
+            cameraHandler.post(attachOutputs);
+        } else {
+            attachOutputs.run();
+        }
+    }
+
+    /**
+     * @return startup timings in ms since camera open has been requested (-1 if not reached yet)
+     */
+    public Map<String, Object> getStartupTimings() {
+        Map<String, Object> res = new HashMap<>();
+        res.put("startupMode", startupMode.name());
+        res.put("configuredMs", elapsedMs(configuredNanos));
+        res.put("firstFrameMs", elapsedMs(firstFrameNanos));
+        res.put("allOutputsMs", elapsedMs(allOutputsNanos));
+        return res;
+    }
+
+    private double elapsedMs(long nanos) {
+        if (nanos == 0 || startRequestedNanos == 0) {
+            return -1;
+        }
+        return (nanos - startRequestedNanos) / 1_000_000.0;
     }
 
     public CameraCaptureSession getCaptureSession() {
@@ -143,6 +386,25 @@ public class CameraSession {
         this.zoomArea = zoomArea;
     }
 
+    // one configure span at a time per session
+    private int spanCookie() {
+        return System.identityHashCode(this);
+    }
+
+    private void notifyStateChanged(CameraPictureStates state) {
+        for (OnCaptureSession onCaptureSession : onCaptureSessionListenerList) {
+            onCaptureSession.onStateChanged(state);
+        }
+    }
+
+    /**
+     * Creates outputs not needed for the first preview frame (photo, recorder, stream)
+     */
+    public interface DeferredOutputsProvider {
+
+        void prepareDeferredOutputs();
+    }
+
     /**
      * Used to signal that session is ready to all class using CameraSession
      */
@@ -5,11 +5,21 @@ import android.os.Build;
 import androidx.annotation.RequiresApi;
 
 import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+import com.apparence.camerawesome.models.FlashMode;
 
 import java.util.List;
+import java.util.Map;
 
 public class CameraSettingsManager {
 
+    public static final String FLASH_MODE = "flashMode";
+
+    public static final String ZOOM = "zoom";
+
+    public static final String AUTO_FOCUS = "autoFocus";
+
+    public static final String BRIGHTNESS = "brightness";
+
     private CameraCharacteristicsModel mCameraCharacteristics;
 
     private CameraSettings cameraSettings;
@@ -33,11 +43,104 @@ public class CameraSettingsManager {
         int maxCompensationRange = mCameraCharacteristics.getAeCompensationRange().getUpper();
         double stepCompensation = mCameraCharacteristics.getAeCompensationRatio().doubleValue();
         if (minCompensationRange != 0 && maxCompensationRange != 0) {
+            cameraSettings.clearChanges();
             cameraSettings.manualBrightness = (int) (minCompensationRange + (maxCompensationRange - minCompensationRange) * (value));
             refreshConfiguration();
         }
     }
 
+    /**
+     * Applies flash mode, zoom, auto focus and brightness together, handlers rebuild their request only once.
+     * Every value is checked against camera characteristics first, nothing is applied if one is invalid.
+     *
+     * @param settings map of {@link #FLASH_MODE}, {@link #ZOOM}, {@link #AUTO_FOCUS} and {@link #BRIGHTNESS},
+     *                 missing keys are left unchanged
+     * @throws IllegalArgumentException with the first invalid setting
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public void applySettings(Map<String, Object> settings) {
+        FlashMode flashMode = null;
+        Float zoom = null;
+        Boolean autoFocus = null;
+        Integer manualBrightness = null;
+        for (Map.Entry<String, Object> entry : settings.entrySet()) {
+            Object value = entry.getValue();
+            switch (entry.getKey()) {
+                case FLASH_MODE:
+                    flashMode = parseFlashMode(value);
+                    break;
+                case ZOOM:
+                    zoom = (float) parseRatio(ZOOM, value);
+                    break;
+                case AUTO_FOCUS:
+                    autoFocus = parseAutoFocus(value);
+                    break;
+                case BRIGHTNESS:
+                    manualBrightness = parseBrightness(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting " + entry.getKey());
+            }
+        }
+        cameraSettings.clearChanges();
+        cameraSettings.flashMode = flashMode;
+        cameraSettings.zoom = zoom;
+        cameraSettings.autoFocus = autoFocus;
+        if (manualBrightness != null) {
+            cameraSettings.manualBrightness = manualBrightness;
+        }
+        refreshConfiguration();
+    }
+
+    public void setCameraCharacteristics(CameraCharacteristicsModel mCameraCharacteristics) {
+        this.mCameraCharacteristics = mCameraCharacteristics;
+    }
+
+    private FlashMode parseFlashMode(Object value) {
+        FlashMode flashMode;
+        try {
+            flashMode = FlashMode.valueOf((String) value);
+        } catch (IllegalArgumentException | ClassCastException | NullPointerException e) {
+            throw new IllegalArgumentException("unknown flash mode " + value);
+        }
+        if (flashMode != FlashMode.NONE && !mCameraCharacteristics.hasFlashAvailable()) {
+            throw new IllegalArgumentException("flash is not available on this camera");
+        }
+        return flashMode;
+    }
+
+    private boolean parseAutoFocus(Object value) {
+        if (!(value instanceof Boolean)) {
+            throw new IllegalArgumentException("autoFocus must be a boolean");
+        }
+        if ((Boolean) value && !mCameraCharacteristics.hasAutoFocus()) {
+            throw new IllegalArgumentException("auto focus is not available on this camera");
+        }
+        return (Boolean) value;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private int parseBrightness(Object value) {
+        double brightness = parseRatio(BRIGHTNESS, value);
+        int minCompensationRange = mCameraCharacteristics.getAeCompensationRange().getLower();
+        int maxCompensationRange = mCameraCharacteristics.getAeCompensationRange().getUpper();
+        if (minCompensationRange == 0 && maxCompensationRange == 0) {
+            throw new IllegalArgumentException("brightness compensation is not available on this camera");
+        }
+        return (int) (minCompensationRange + (maxCompensationRange - minCompensationRange) * brightness);
+    }
+
+    private static double parseRatio(String key, Object value) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(key + " must be a number");
+        }
+        double ratio = ((Number) value).doubleValue();
+        if (ratio > 1 || ratio < 0) {
+            throw new IllegalArgumentException("Value for " + key + " must be between 0 and 1");
+        }
+        return ratio;
+    }
+
     private void refreshConfiguration() {
         if (cameraSettingsHandlers == null)
             return;
@@ -48,10 +151,24 @@ public class CameraSettingsManager {
 
     public class CameraSettings {
         int manualBrightness;
+
+        // only set when changed by last update, null otherwise
+        FlashMode flashMode;
+        Float zoom;
+        Boolean autoFocus;
+
+        private void clearChanges() {
+            flashMode = null;
+            zoom = null;
+            autoFocus = null;
+        }
     }
 
     public interface CameraSettingsHandler {
 
+        /**
+         * Called once per update, all changed values must be applied with a single request rebuild
+         */
         void refreshConfiguration(CameraSettings settings);
     }
 }
@@ -6,55 +6,81 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.os.Build;
+import android.os.Handler;
 import android.util.Log;
 import android.util.Size;
-import android.view.OrientationEventListener;
 import android.view.Surface;
 import android.view.WindowManager;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.apparence.camerawesome.cache.CameraCharacteristicsCache;
+import com.apparence.camerawesome.cache.CameraCharacteristicsSnapshot;
 import com.apparence.camerawesome.models.CameraCharacteristicsModel;
-import com.apparence.camerawesome.sensors.SensorOrientation;
+import com.apparence.camerawesome.sensors.DeviceOrientationSensor;
+import com.apparence.camerawesome.sizes.SizeCandidate;
+import com.apparence.camerawesome.sizes.SizeNegotiator;
+
+import java.util.ArrayList;
+import java.util.List;
 
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 class CameraSetup {
 
+    private static final String TAG = CameraSetup.class.getName();
+
     private Context context;
 
-    private String mCameraId;
+    private volatile String mCameraId;
 
     private CameraManager mCameraManager;
 
     private Activity activity;
 
-    private int currentOrientation = ORIENTATION_UNKNOWN;
-
-    private int sensorOrientation;
-
-    private OrientationEventListener orientationEventListener;
+    private volatile int sensorOrientation;
 
     private boolean facingFront;
 
-    private CameraCharacteristicsModel characteristicsModel;
+    private volatile CameraCharacteristicsModel characteristicsModel;
+
+    private volatile CameraCharacteristicsSnapshot snapshot;
 
-    private SensorOrientation sensorOrientationListener;
+    // acquired by camera instance while camera runs
+    private final DeviceOrientationSensor orientationSensor;
 
     private final int deviceNaturalOrientation;
 
-    CameraSetup(Context context, Activity activity, SensorOrientation sensorOrientationListener) {
+    private final CameraCharacteristicsCache characteristicsCache;
+
+    private final Handler backgroundHandler;
+
+    private OnCharacteristicsChanged onCharacteristicsChanged;
+
+    CameraSetup(Context context, Activity activity, DeviceOrientationSensor orientationSensor) {
+        this(context, activity, orientationSensor, null, null);
+    }
+
+    /**
+     * @param characteristicsCache persisted characteristics, setup won't wait for CameraManager if sensor is in it
+     * @param backgroundHandler    handler used to write and validate the cache
+     */
+    CameraSetup(Context context, Activity activity, DeviceOrientationSensor orientationSensor,
+                CameraCharacteristicsCache characteristicsCache, Handler backgroundHandler) {
         this.context = context;
         this.activity = activity;
-        this.sensorOrientationListener = sensorOrientationListener;
+        this.orientationSensor = orientationSensor;
         this.deviceNaturalOrientation = getDeviceNaturalOrientation(activity);
+        this.characteristicsCache = characteristicsCache;
+        this.backgroundHandler = backgroundHandler;
     }
 
     void chooseCamera(CameraSensor sensor) throws CameraAccessException {
@@ -63,53 +89,19 @@ class CameraSetup {
             throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "cannot init CameraStateManager");
         }
         facingFront = sensor.equals(CameraSensor.FRONT);
-        for (String cameraId : mCameraManager.getCameraIdList()) {
-            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
-            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-            if (facing == null
-                    || (sensor == CameraSensor.FRONT && facing != CameraCharacteristics.LENS_FACING_FRONT)
-                    || (sensor == CameraSensor.BACK && facing != CameraCharacteristics.LENS_FACING_BACK)) {
-                continue;
-            }
-            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            if (map == null) {
-                continue;
-            }
-            sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            this.characteristicsModel = new CameraCharacteristicsModel.Builder()
-                    .withMaxZoom(characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM))
-                    .withAvailablePreviewZone(characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE))
-                    .withAutoFocus(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES))
-                    .withFlash(characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE))
-                    .withAeCompensationRange(characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE))
-                    .withAeCompensationStep(characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_STEP))
-                    .build();
-            mCameraId = cameraId;
+        // repeat launch: use the persisted snapshot and check it later against the hardware
+        CameraCharacteristicsSnapshot cachedSnapshot = characteristicsCache != null ? characteristicsCache.get(sensor) : null;
+        if (cachedSnapshot != null && backgroundHandler != null) {
+            applySnapshot(cachedSnapshot);
+            validateSnapshotLater(sensor, cachedSnapshot);
             return;
         }
-        if (mCameraId == null) {
+        final CameraCharacteristicsSnapshot snapshot = readSnapshot(sensor);
+        if (snapshot == null) {
             throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "cannot find sensor");
         }
-    }
-
-    public void listenOrientation() {
-        if (orientationEventListener != null) {
-            return;
-        }
-        final OrientationEventListener orientationEventListener = new OrientationEventListener(activity.getApplicationContext()) {
-            @Override
-            public void onOrientationChanged(int i) {
-                if (i == ORIENTATION_UNKNOWN) {
-                    return;
-                }
-                currentOrientation = (i + 45) / 90 * 90;
-                if (currentOrientation == 360)
-                    currentOrientation = 0;
-                if (sensorOrientationListener != null)
-                    sensorOrientationListener.notify(currentOrientation);
-            }
-        };
-        orientationEventListener.enable();
+        applySnapshot(snapshot);
+        saveSnapshotLater(sensor, snapshot);
     }
 
     /**
@@ -132,12 +124,48 @@ class CameraSetup {
     }
 
     Size[] getOutputSizes() throws CameraAccessException {
-        if (mCameraManager == null) {
+        if (mCameraManager == null || snapshot == null) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "cannot init CameraStateManager");
+        }
+        return snapshot.getJpegSizes();
+    }
+
+    /**
+     * Reads every output size of current sensor with its frame and stall durations
+     * this queries CameraManager, don't call it on main thread
+     */
+    SizeNegotiator createSizeNegotiator() throws CameraAccessException {
+        if (mCameraManager == null || mCameraId == null) {
             throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "cannot init CameraStateManager");
         }
         CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(mCameraId);
         StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        return map.getOutputSizes(ImageFormat.JPEG);
+        if (map == null) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "no stream configuration");
+        }
+        List<SizeCandidate> previewCandidates = new ArrayList<>();
+        for (Size size : map.getOutputSizes(SurfaceTexture.class)) {
+            previewCandidates.add(new SizeCandidate(size.getWidth(), size.getHeight(),
+                    map.getOutputMinFrameDuration(SurfaceTexture.class, size), 0));
+        }
+        return new SizeNegotiator(
+                previewCandidates,
+                getSizeCandidates(map, ImageFormat.YUV_420_888),
+                getSizeCandidates(map, ImageFormat.JPEG));
+    }
+
+    private List<SizeCandidate> getSizeCandidates(StreamConfigurationMap map, int format) {
+        List<SizeCandidate> res = new ArrayList<>();
+        Size[] sizes = map.getOutputSizes(format);
+        if (sizes == null) {
+            return res;
+        }
+        for (Size size : sizes) {
+            res.add(new SizeCandidate(size.getWidth(), size.getHeight(),
+                    map.getOutputMinFrameDuration(format, size),
+                    map.getOutputStallDuration(format, size)));
+        }
+        return res;
     }
 
     /**
@@ -149,7 +177,7 @@ class CameraSetup {
      * @see CaptureRequest#JPEG_ORIENTATION
      */
     public int getOrientation(int requestedOrientation) {
-        int currentDeviceOrientationDegrees = currentOrientation;
+        int currentDeviceOrientationDegrees = getCurrentOrientation();
 
         if (requestedOrientation != Configuration.ORIENTATION_UNDEFINED) {
             // If we want to force portrait and the device natural orientation is landscape, or if
@@ -192,6 +220,110 @@ class CameraSetup {
         return characteristicsModel;
     }
 
+    public void setOnCharacteristicsChanged(OnCharacteristicsChanged onCharacteristicsChanged) {
+        this.onCharacteristicsChanged = onCharacteristicsChanged;
+    }
+
+    // --------------------------------------------
+    // CHARACTERISTICS CACHE
+    // --------------------------------------------
+
+    /**
+     * Camera {@link #chooseCamera(CameraSensor)} picks for this sensor, known before any instance is built
+     *
+     * @return null if device has no camera for this sensor
+     */
+    static String findCameraId(Context context, CameraCharacteristicsCache characteristicsCache, CameraSensor sensor)
+            throws CameraAccessException {
+        CameraCharacteristicsSnapshot cachedSnapshot = characteristicsCache != null ? characteristicsCache.get(sensor) : null;
+        if (cachedSnapshot != null) {
+            return cachedSnapshot.getCameraId();
+        }
+        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        if (cameraManager == null) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "cannot init CameraStateManager");
+        }
+        for (String cameraId : cameraManager.getCameraIdList()) {
+            if (isSensorCamera(cameraManager.getCameraCharacteristics(cameraId), sensor)) {
+                return cameraId;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSensorCamera(CameraCharacteristics characteristics, CameraSensor sensor) {
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        if (facing == null
+                || (sensor == CameraSensor.FRONT && facing != CameraCharacteristics.LENS_FACING_FRONT)
+                || (sensor == CameraSensor.BACK && facing != CameraCharacteristics.LENS_FACING_BACK)) {
+            return false;
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        return map != null;
+    }
+
+    private CameraCharacteristicsSnapshot readSnapshot(CameraSensor sensor) throws CameraAccessException {
+        for (String cameraId : mCameraManager.getCameraIdList()) {
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraId);
+            if (isSensorCamera(characteristics, sensor)) {
+                return CameraCharacteristicsSnapshot.from(cameraId, characteristics);
+            }
+        }
+        return null;
+    }
+
+    private void applySnapshot(CameraCharacteristicsSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.sensorOrientation = snapshot.getSensorOrientation();
+        this.characteristicsModel = snapshot.toModel();
+        this.mCameraId = snapshot.getCameraId();
+    }
+
+    private void saveSnapshotLater(final CameraSensor sensor, final CameraCharacteristicsSnapshot snapshot) {
+        if (characteristicsCache == null || backgroundHandler == null) {
+            return;
+        }
+        backgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                characteristicsCache.put(sensor, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Query the hardware in background and fix setup if it doesn't match what we had in cache
+     */
+    private void validateSnapshotLater(final CameraSensor sensor, final CameraCharacteristicsSnapshot cachedSnapshot) {
+        backgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CameraCharacteristicsSnapshot freshSnapshot = readSnapshot(sensor);
+                    if (freshSnapshot == null) {
+                        characteristicsCache.clear();
+                        return;
+                    }
+                    if (freshSnapshot.sameAs(cachedSnapshot)) {
+                        return;
+                    }
+                    Log.d(TAG, "validateSnapshot: hardware differs from cache, updating");
+                    characteristicsCache.put(sensor, freshSnapshot);
+                    // only update if user didn't switch sensor in the mean time
+                    if (snapshot != cachedSnapshot) {
+                        return;
+                    }
+                    applySnapshot(freshSnapshot);
+                    if (onCharacteristicsChanged != null) {
+                        onCharacteristicsChanged.onChanged(mCameraId, characteristicsModel);
+                    }
+                } catch (CameraAccessException e) {
+                    Log.e(TAG, "validateSnapshot: failed", e);
+                }
+            }
+        });
+    }
+
     // --------------------------------------------
     // GETTERS
     // --------------------------------------------
@@ -201,7 +333,12 @@ class CameraSetup {
     }
 
     public int getCurrentOrientation() {
-        return currentOrientation;
+        return orientationSensor != null ? orientationSensor.getCurrentOrientation() : ORIENTATION_UNKNOWN;
+    }
+
+    public interface OnCharacteristicsChanged {
+
+        void onChanged(String cameraId, CameraCharacteristicsModel characteristicsModel);
     }
 
 }
@@ -6,90 +6,352 @@ import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
 import com.apparence.camerawesome.exceptions.CameraManagerException;
+import com.apparence.camerawesome.metrics.LatencyHistogram;
+import com.apparence.camerawesome.metrics.PerformanceMetrics;
+import com.apparence.camerawesome.metrics.StripedCounter;
 import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+import com.apparence.camerawesome.recorder.FlightRecorder;
 
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
+import java.util.HashSet;
+import java.util.Set;
 
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.CompletableSource;
+import io.reactivex.rxjava3.functions.Supplier;
+import io.reactivex.rxjava3.subjects.CompletableSubject;
+
+import static com.apparence.camerawesome.exceptions.CameraManagerException.Codes.CANNOT_OPEN_CAMERA;
+import static com.apparence.camerawesome.exceptions.CameraManagerException.Codes.INTERRUPTED;
 import static com.apparence.camerawesome.exceptions.CameraManagerException.Codes.LOCKED;
 
+/**
+ * Open / close lifecycle of the camera device as a state machine.
+ * Every state change runs on the state handler thread, callers only get a {@link Completable}
+ * completing when the camera is opened (or closed) so no thread is ever parked waiting for the camera.
+ */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class CameraStateManager extends CameraDevice.StateCallback {
 
     private static final String TAG = CameraStateManager.class.getName();
 
+    private static final LatencyHistogram OPEN_LATENCY =
+            PerformanceMetrics.getInstance().histogram(PerformanceMetrics.CAMERA_OPEN);
+
+    private static final StripedCounter OPEN_FAILURES =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.CAMERA_OPEN_FAILURES);
+
+    private static final StripedCounter ERRORS =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.CAMERA_ERRORS);
+
+    private static final StripedCounter DISCONNECTS =
+            PerformanceMetrics.getInstance().counter(PerformanceMetrics.CAMERA_DISCONNECTS);
+
+    private static final FlightRecorder RECORDER = FlightRecorder.getInstance();
+
+    private static final String OPEN_SPAN = "camera.open";
+
+    // max time we wait for a camera used by another app or for the device to open
+    static final long OPEN_TIMEOUT_MS = 2500;
+
+    public enum State {
+        CLOSED,
+        WAITING_AVAILABILITY,
+        OPENING,
+        OPENED,
+        CLOSING
+    }
+
     private final CameraPreview mCameraPreview;
 
     private final CameraPicture mCameraPicture;
 
     private final CameraSession mCameraSession;
 
-    private HandlerThread mBackgroundThread;
+    private final Handler mStateHandler;
 
-    private Handler mBackgroundHandler;
+    private final CameraManager mCameraManager;
 
-    private Semaphore mCameraOpenCloseLock = new Semaphore(1);
+    private final Set<String> unavailableCameras = new HashSet<>();
 
-    private Context context;
+    // cameras we opened, unavailable because of us until the service reports them available again
+    private final Set<String> ownedCameras = new HashSet<>();
+
+    private boolean availabilityRegistered;
 
-    private CameraDevice mCameraDevice;
+    private Context context;
 
-    private OnCameraState mOnCameraStateListener;
+    private volatile CameraDevice mCameraDevice;
 
-    private boolean opened;
+    private volatile State state = State.CLOSED;
 
     private String cameraId;
 
+    // camera to open as soon as current one is closed
+    private String pendingOpenCameraId;
+
+    private CompletableSubject pendingOpenSubject;
+
+    // stop requested while camera was opening, close it as soon as it opens
+    private boolean closeRequested;
+
+    private CompletableSubject openSubject;
 
-    public CameraStateManager(Context context, final CameraPreview mCameraPreview, final CameraPicture mCameraPicture, CameraSession cameraSession) {
+    private CompletableSubject closeSubject;
+
+    // when openCamera has been called, for open latency
+    private long openRequestedNanos;
+
+    private final Runnable openTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (state == State.WAITING_AVAILABILITY) {
+                Log.e(TAG, "camera " + cameraId + " still used by another client");
+                state = State.CLOSED;
+                failOpen(new CameraManagerException(LOCKED));
+            } else if (state == State.OPENING) {
+                Log.e(TAG, "camera " + cameraId + " took too long to open");
+                endOpenSpan(FlightRecorder.Event.CAMERA_OPEN_FAILED);
+                closeRequested = true;
+                failOpen(new CameraManagerException(LOCKED));
+            }
+        }
+    };
+
+    private final CameraManager.AvailabilityCallback availabilityCallback = new CameraManager.AvailabilityCallback() {
+        @Override
+        public void onCameraAvailable(@NonNull String id) {
+            unavailableCameras.remove(id);
+            if (state == State.CLOSED || !id.equals(cameraId)) {
+                ownedCameras.remove(id);
+            }
+            if (state == State.WAITING_AVAILABILITY && id.equals(cameraId)) {
+                mStateHandler.removeCallbacks(openTimeoutRunnable);
+                openDevice();
+            }
+        }
+
+        @Override
+        public void onCameraUnavailable(@NonNull String id) {
+            unavailableCameras.add(id);
+        }
+    };
+
+    /**
+     * @param stateHandler handler of the thread running all state changes and camera device callbacks
+     */
+    public CameraStateManager(Context context, final CameraPreview mCameraPreview, final CameraPicture mCameraPicture,
+                              CameraSession cameraSession, Handler stateHandler) {
         this.mCameraPreview = mCameraPreview;
         this.mCameraPicture = mCameraPicture;
         this.mCameraSession = cameraSession;
         this.context = context;
-        this.opened = false;
+        this.mStateHandler = stateHandler;
+        this.mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.mCameraSession.setDeferredOutputsProvider(new CameraSession.DeferredOutputsProvider() {
+            @Override
+            public void prepareDeferredOutputs() {
+                mCameraPicture.refresh();
+                mCameraPreview.attachPreviewStream();
+            }
+        });
+        // current availability of each camera is sent right after registering
+        // so it is known before the first open request
+        this.mCameraManager.registerAvailabilityCallback(availabilityCallback, mStateHandler);
+        this.availabilityRegistered = true;
     }
 
-    public void startCamera(String cameraId) throws CameraManagerException {
+    /**
+     * Opens the camera, never blocks the caller
+     *
+     * @return completes when camera is opened and preview session requested
+     * fails with a {@link CameraManagerException} if the camera cannot be opened
+     */
+    public Completable startCamera(final String cameraId) {
         if (cameraId == null) {
-            throw new RuntimeException("A cameraId must be selected");
+            return Completable.error(new RuntimeException("A cameraId must be selected"));
         }
-        this.cameraId = cameraId;
-        startBackgroundThread();
-        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            if (!mCameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
-                throw new CameraManagerException(LOCKED);
+        return runOnStateThread(new Supplier<CompletableSource>() {
+            @Override
+            public CompletableSource get() {
+                return requestOpen(cameraId);
             }
-            manager.openCamera(cameraId, this, null);
-        } catch (CameraAccessException e) {
+        });
+    }
+
+    /**
+     * Closes the camera and all related sessions, never blocks the caller
+     *
+     * @return completes when the camera device is closed
+     */
+    public Completable stopCamera() {
+        return runOnStateThread(new Supplier<CompletableSource>() {
+            @Override
+            public CompletableSource get() {
+                return requestClose();
+            }
+        });
+    }
+
+    public Completable switchCamera(final String cameraId, final CameraCharacteristicsModel characteristicsModel) {
+        return runOnStateThread(new Supplier<CompletableSource>() {
+            @Override
+            public CompletableSource get() {
+                if (cameraId.equals(CameraStateManager.this.cameraId) && state != State.CLOSED) {
+                    return Completable.complete();
+                }
+                return requestClose().andThen(Completable.defer(new Supplier<CompletableSource>() {
+                    @Override
+                    public CompletableSource get() {
+                        mCameraSession.clearSurface();
+                        mCameraPicture.setCameraCharacteristics(characteristicsModel);
+                        mCameraPreview.setmCameraCharacteristics(characteristicsModel);
+                        Log.d(TAG, "switchCamera: previous camera closed");
+                        return requestOpen(cameraId);
+                    }
+                }));
+            }
+        });
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Handler getBackgroundThread() {
+        return mStateHandler;
+    }
+
+    public CameraDevice getCameraDevice() {
+        return mCameraDevice;
+    }
+
+    public void dispose() {
+        runOnStateThread(new Supplier<CompletableSource>() {
+            @Override
+            public CompletableSource get() {
+                if (availabilityRegistered) {
+                    mCameraManager.unregisterAvailabilityCallback(availabilityCallback);
+                    availabilityRegistered = false;
+                }
+                return Completable.complete();
+            }
+        }).subscribe();
+    }
+
+    // -----------------------------------------
+    // STATE MACHINE (state thread only)
+    // -----------------------------------------
+
+    private Completable requestOpen(String cameraId) {
+        switch (state) {
+            case OPENED:
+                if (cameraId.equals(this.cameraId)) {
+                    return Completable.complete();
+                }
+                return openAfterClose(cameraId);
+            case WAITING_AVAILABILITY:
+                if (cameraId.equals(this.cameraId)) {
+                    return openSubject;
+                }
+                requestClose();
+                return requestOpen(cameraId);
+            case OPENING:
+                if (cameraId.equals(this.cameraId) && !closeRequested) {
+                    return openSubject;
+                }
+                return openAfterClose(cameraId);
+            case CLOSING:
+                return openAfterClose(cameraId);
+            case CLOSED:
+            default:
+                this.cameraId = cameraId;
+                CompletableSubject subject = CompletableSubject.create();
+                openSubject = subject;
+                if (isUsedByAnotherClient(cameraId)) {
+                    // wait until it is released or timeout
+                    state = State.WAITING_AVAILABILITY;
+                    mStateHandler.postDelayed(openTimeoutRunnable, OPEN_TIMEOUT_MS);
+                    return subject;
+                }
+                openDevice();
+                return subject;
+        }
+    }
+
+    /**
+     * Current camera must be closed before opening the requested one
+     */
+    private Completable openAfterClose(String cameraId) {
+        pendingOpenCameraId = cameraId;
+        if (pendingOpenSubject == null) {
+            pendingOpenSubject = CompletableSubject.create();
+        }
+        CompletableSubject subject = pendingOpenSubject;
+        requestClose();
+        return subject;
+    }
+
+    private Completable requestClose() {
+        switch (state) {
+            case CLOSED:
+                return Completable.complete();
+            case WAITING_AVAILABILITY:
+                mStateHandler.removeCallbacks(openTimeoutRunnable);
+                state = State.CLOSED;
+                failOpen(new CameraManagerException(INTERRUPTED));
+                return Completable.complete();
+            case OPENING:
+                // camera service cannot cancel an open request, we close it in onOpened
+                closeRequested = true;
+                return newCloseSubject();
+            case CLOSING:
+                // closing after an error nobody waited for yet
+                return newCloseSubject();
+            case OPENED:
+            default:
+                CompletableSubject subject = newCloseSubject();
+                closeDevice();
+                return subject;
+        }
+    }
+
+    private void openDevice() {
+        state = State.OPENING;
+        ownedCameras.add(cameraId);
+        mCameraSession.onStartRequested();
+        closeRequested = false;
+        mStateHandler.postDelayed(openTimeoutRunnable, OPEN_TIMEOUT_MS);
+        openRequestedNanos = System.nanoTime();
+        RECORDER.beginSpan(FlightRecorder.Event.CAMERA_OPEN_REQUESTED, OPEN_SPAN, openSpanCookie());
+        try {
+            mCameraManager.openCamera(cameraId, this, mStateHandler);
+        } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
             Log.e(TAG, "CANNOT_OPEN_CAMERA: ", e);
-            throw new CameraManagerException(CameraManagerException.Codes.CANNOT_OPEN_CAMERA, e);
-        } catch (InterruptedException e) {
-            Log.e(TAG, "INTERRUPTED: ", e);
-            throw new CameraManagerException(CameraManagerException.Codes.INTERRUPTED, e);
+            endOpenSpan(FlightRecorder.Event.CAMERA_OPEN_FAILED);
+            mStateHandler.removeCallbacks(openTimeoutRunnable);
+            state = State.CLOSED;
+            failOpen(new CameraManagerException(CANNOT_OPEN_CAMERA, e));
         }
     }
 
-    public void switchCamera(String cameraId, CameraCharacteristicsModel characteristicsModel) throws CameraManagerException {
-        if (this.cameraId.equals(cameraId)) {
-            return;
+    private void closeDevice() {
+        state = State.CLOSING;
+        releaseSession();
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+        } else {
+            onDeviceClosed();
         }
-        stopCamera();
-        mCameraSession.clearSurface();
-        mCameraPicture.setCameraCharacteristics(characteristicsModel);
-        mCameraPreview.setmCameraCharacteristics(characteristicsModel);
-        startCamera(cameraId);
-        Log.d(TAG, "switchCamera: finished");
     }
 
-    public void stopCamera() {
+    private void releaseSession() {
         try {
             if (mCameraSession != null && mCameraSession.getCaptureSession() != null) {
                 try {
@@ -100,6 +362,7 @@ public class CameraStateManager extends CameraDevice.StateCallback {
                 } catch (CameraAccessException | IllegalStateException e) {
                     Log.e(TAG, "close camera session: failed");
                 }
+                mCameraSession.setCaptureSession(null);
             }
             if (mCameraPicture != null) {
                 mCameraPicture.dispose();
@@ -107,114 +370,163 @@ public class CameraStateManager extends CameraDevice.StateCallback {
             if (mCameraPreview != null) {
                 mCameraPreview.dispose();
             }
-            if (mCameraDevice != null) {
-                mCameraDevice.close();
-                mCameraDevice = null;
-            }
-            releaseSemaphore();
         } catch (IllegalStateException e) {
-            Log.e(TAG, "stopCamera: failed");
-        } finally {
-            mCameraOpenCloseLock.release();
-            this.opened = false;
+            Log.e(TAG, "releaseSession: failed");
         }
     }
 
-    public Handler getBackgroundThread() {
-        return mBackgroundHandler;
+    private void onDeviceClosed() {
+        mCameraDevice = null;
+        state = State.CLOSED;
+        closeRequested = false;
+        if (closeSubject != null) {
+            CompletableSubject subject = closeSubject;
+            closeSubject = null;
+            subject.onComplete();
+        }
+        if (pendingOpenCameraId != null) {
+            String nextCameraId = pendingOpenCameraId;
+            CompletableSubject subject = pendingOpenSubject;
+            pendingOpenCameraId = null;
+            pendingOpenSubject = null;
+            Completable next = requestOpen(nextCameraId);
+            if (subject != null) {
+                next.subscribe(subject);
+            }
+        }
     }
 
+    private CompletableSubject newCloseSubject() {
+        if (closeSubject == null) {
+            closeSubject = CompletableSubject.create();
+        }
+        return closeSubject;
+    }
 
-    @Override
-    public void onOpened(@NonNull CameraDevice camera) {
-        this.opened = true;
-        this.mCameraDevice = camera;
-        try {
-            mCameraPicture.refresh();
-            mCameraPreview.createCameraPreviewSession(mCameraDevice);
-            if (mOnCameraStateListener != null) {
-                this.mOnCameraStateListener.onOpened();
-            }
-        } catch (CameraAccessException e) {
-            if (mOnCameraStateListener != null) {
-                this.mOnCameraStateListener.onOpenError("CameraAccessException");
-            }
+    private void completeOpen() {
+        if (openSubject != null) {
+            CompletableSubject subject = openSubject;
+            openSubject = null;
+            subject.onComplete();
         }
     }
 
-    @Override
-    public void onDisconnected(@NonNull CameraDevice camera) {
-        Log.d(TAG, "onDisconnected");
-        stopCamera();
+    private void failOpen(Throwable error) {
+        if (openSubject != null) {
+            CompletableSubject subject = openSubject;
+            openSubject = null;
+            OPEN_FAILURES.increment();
+            subject.onError(error);
+        }
     }
 
-    @Override
-    public void onError(@NonNull CameraDevice camera, int error) {
-        if (this.opened) {
-            try {
-                releaseSemaphore();
-                mCameraPreview.dispose();
-                this.startCamera(cameraId);
-            } catch (CameraManagerException e) {
-                Log.e(TAG, "Restarting camera after error: failed", e);
-            }
-        } else {
-            stopCamera();
+    /**
+     * Ends camera open span if one is pending
+     */
+    private void endOpenSpan(FlightRecorder.Event event) {
+        if (openRequestedNanos == 0) {
+            return;
         }
+        openRequestedNanos = 0;
+        RECORDER.endSpan(event, OPEN_SPAN, openSpanCookie());
     }
 
-    public CameraDevice getCameraDevice() {
-        return mCameraDevice;
+    private int openSpanCookie() {
+        return System.identityHashCode(this);
     }
 
-    public void dispose() {
-        stopBackgroundThread();
+    /**
+     * Our own camera is unavailable until the service tells it is available again after we closed it,
+     * it must not be taken as locked by another app on a quick reopen
+     */
+    private boolean isUsedByAnotherClient(String cameraId) {
+        return unavailableCameras.contains(cameraId) && !ownedCameras.contains(cameraId);
+    }
+
+    /**
+     * Runs the given state change on state thread (directly if we already are on it)
+     */
+    private Completable runOnStateThread(final Supplier<CompletableSource> action) {
+        if (mStateHandler.getLooper() == Looper.myLooper()) {
+            return Completable.defer(action);
+        }
+        final CompletableSubject subject = CompletableSubject.create();
+        mStateHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Completable.defer(action).subscribe(subject);
+            }
+        });
+        return subject;
     }
 
     // -----------------------------------------
-    // Manage thread
+    // CameraDevice.StateCallback
     // -----------------------------------------
 
-    private void startBackgroundThread() {
-        if (mBackgroundThread != null) {
+    @Override
+    public void onOpened(@NonNull CameraDevice camera) {
+        mStateHandler.removeCallbacks(openTimeoutRunnable);
+        OPEN_LATENCY.recordSince(openRequestedNanos);
+        endOpenSpan(FlightRecorder.Event.CAMERA_OPENED);
+        this.mCameraDevice = camera;
+        if (closeRequested) {
+            closeDevice();
+            failOpen(new CameraManagerException(INTERRUPTED));
             return;
         }
-        mBackgroundThread = new HandlerThread("CameraBackground");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
-    }
-
-    private void stopBackgroundThread() {
-        if (mBackgroundThread == null)
-            return;
-        mBackgroundThread.quitSafely();
+        state = State.OPENED;
         try {
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            Log.e(TAG, "stopBackgroundThread: ", e);
+            // with PREVIEW_FIRST startup, picture outputs are created after the first frame
+            if (!mCameraSession.isPreviewOnly()) {
+                mCameraPicture.refresh();
+            }
+            mCameraPreview.createCameraPreviewSession(mCameraDevice);
+            completeOpen();
+        } catch (CameraAccessException | IllegalStateException e) {
+            // e.g. flutter texture not created in time, don't keep an unusable camera opened
+            Log.e(TAG, "onOpened: cannot start preview", e);
+            failOpen(new CameraManagerException(CANNOT_OPEN_CAMERA, e));
+            closeDevice();
         }
     }
 
-    private void releaseSemaphore() {
-        if (this.mCameraOpenCloseLock != null)
-            this.mCameraOpenCloseLock.release();
+    @Override
+    public void onClosed(@NonNull CameraDevice camera) {
+        Log.d(TAG, "onClosed");
+        RECORDER.record(FlightRecorder.Event.CAMERA_CLOSED);
+        if (camera == mCameraDevice) {
+            onDeviceClosed();
+        }
     }
 
-    // -----------------------------------------
-    /// OnStateCallback
-    // -----------------------------------------
-
-
-    public void setmOnCameraStateListener(OnCameraState mOnCameraStateListener) {
-        this.mOnCameraStateListener = mOnCameraStateListener;
+    @Override
+    public void onDisconnected(@NonNull CameraDevice camera) {
+        Log.d(TAG, "onDisconnected");
+        DISCONNECTS.increment();
+        RECORDER.record(FlightRecorder.Event.CAMERA_DISCONNECTED);
+        endOpenSpan(FlightRecorder.Event.CAMERA_OPEN_FAILED);
+        mStateHandler.removeCallbacks(openTimeoutRunnable);
+        this.mCameraDevice = camera;
+        failOpen(new CameraManagerException(CANNOT_OPEN_CAMERA));
+        closeDevice();
     }
 
-    public interface OnCameraState {
-        void onOpened();
-
-        void onOpenError(String reason);
+    @Override
+    public void onError(@NonNull CameraDevice camera, int error) {
+        Log.e(TAG, "onError: " + error);
+        ERRORS.increment();
+        RECORDER.record(FlightRecorder.Event.CAMERA_ERROR, error);
+        endOpenSpan(FlightRecorder.Event.CAMERA_OPEN_FAILED);
+        mStateHandler.removeCallbacks(openTimeoutRunnable);
+        this.mCameraDevice = camera;
+        if (state == State.OPENED && !closeRequested) {
+            // restart camera after it closed
+            pendingOpenCameraId = cameraId;
+        } else {
+            failOpen(new CameraManagerException(CANNOT_OPEN_CAMERA));
+        }
+        closeDevice();
     }
 
 }
@@ -0,0 +1,76 @@
+package com.apparence.camerawesome;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Threading model of a camera
+ * <ul>
+ * <li>camera thread: open / close device, configure sessions, submit requests</li>
+ * <li>frame thread: per frame results (capture callbacks, stream images), must stay short</li>
+ * <li>io thread: writing pictures and files</li>
+ * </ul>
+ * Nothing camera related should run on the platform main thread.
+ */
+public class CameraThreads {
+
+    private final HandlerThread cameraThread;
+
+    private final HandlerThread frameThread;
+
+    private final HandlerThread ioThread;
+
+    private final Handler cameraHandler;
+
+    private final Handler frameHandler;
+
+    private final Handler ioHandler;
+
+    public CameraThreads() {
+        cameraThread = new HandlerThread("CameraControl", Process.THREAD_PRIORITY_FOREGROUND);
+        frameThread = new HandlerThread("CameraFrames", Process.THREAD_PRIORITY_DISPLAY);
+        ioThread = new HandlerThread("CameraIO", Process.THREAD_PRIORITY_BACKGROUND);
+        cameraThread.start();
+        frameThread.start();
+        ioThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        frameHandler = new Handler(frameThread.getLooper());
+        ioHandler = new Handler(ioThread.getLooper());
+    }
+
+    /**
+     * Used for tests to run everything with given handlers
+     */
+    CameraThreads(Handler cameraHandler, Handler frameHandler, Handler ioHandler) {
+        this.cameraThread = null;
+        this.frameThread = null;
+        this.ioThread = null;
+        this.cameraHandler = cameraHandler;
+        this.frameHandler = frameHandler;
+        this.ioHandler = ioHandler;
+    }
+
+    public Handler getCameraHandler() {
+        return cameraHandler;
+    }
+
+    public Handler getFrameHandler() {
+        return frameHandler;
+    }
+
+    public Handler getIoHandler() {
+        return ioHandler;
+    }
+
+    /**
+     * Stops all threads once their pending work is done
+     */
+    public void quit() {
+        if (cameraThread != null) {
+            cameraThread.quitSafely();
+            frameThread.quitSafely();
+            ioThread.quitSafely();
+        }
+    }
+}
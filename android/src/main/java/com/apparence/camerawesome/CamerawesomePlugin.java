@@ -4,30 +4,48 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraManager;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.Size;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
-
-import com.apparence.camerawesome.CameraSettingsManager.CameraSettingsHandler;
-import com.apparence.camerawesome.exceptions.CameraManagerException;
+import androidx.annotation.VisibleForTesting;
+
+import com.apparence.camerawesome.cache.CameraCharacteristicsCache;
+import com.apparence.camerawesome.governor.StreamGovernor;
+import com.apparence.camerawesome.governor.StreamGovernorController;
+import com.apparence.camerawesome.image.StreamRegion;
+import com.apparence.camerawesome.metrics.PerformanceMetrics;
+import com.apparence.camerawesome.models.CameraCharacteristicsModel;
 import com.apparence.camerawesome.models.FlashMode;
+import com.apparence.camerawesome.processor.FrameProcessorRegistry;
+import com.apparence.camerawesome.processor.MotionDetector;
+import com.apparence.camerawesome.processor.SharpnessScorer;
+import com.apparence.camerawesome.recorder.FlightRecorder;
 import com.apparence.camerawesome.sensors.BasicLuminosityNotifier;
+import com.apparence.camerawesome.sensors.DeviceOrientationSensor;
 import com.apparence.camerawesome.sensors.LuminosityNotifier;
 import com.apparence.camerawesome.sensors.SensorOrientationListener;
-import com.apparence.camerawesome.surface.FlutterSurfaceFactory;
+import com.apparence.camerawesome.sizes.SizeDecision;
+import com.apparence.camerawesome.sizes.SizeNegotiator;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
@@ -40,6 +58,9 @@ import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
 import io.flutter.view.TextureRegistry;
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.functions.Action;
+import io.reactivex.rxjava3.functions.Consumer;
 
 /**
  * CamerawesomePlugin
@@ -51,11 +72,24 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
 
     private static final String TAG = CamerawesomePlugin.class.getName();
 
+    // init and takePhoto can wait for camera device and file writing
+    private static final long SLOW_COMMAND_TIMEOUT_MS = 10000;
+
+    // open or close camera device
+    private static final long CAMERA_STATE_COMMAND_TIMEOUT_MS = 8000;
+
+    // photo taken on motion, dispatched by the plugin itself so it runs after pending camera commands
+    private static final String MOTION_CAPTURE_METHOD = "motionCapture";
+
+    // largest bestOf burst, each photo is kept until the sharpest is picked,
+    // must stay below SharpnessScorer.HISTORY_SIZE so burst frame scores are still there
+    private static final int MAX_BEST_OF = 8;
+
     // application android context
     private Context applicationContext;
 
     // activity attached to plugin
-    private Activity pluginActivity;
+    private volatile Activity pluginActivity;
 
     // manage current required permissions
     private CameraPermissions cameraPermissions;
@@ -66,44 +100,37 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
     // Flutter event channel to listen orientation changes from sensor
     private EventChannel sensorOrientationChannel;
 
-    // Flutter images stream event channel
-    private EventChannel imageStreamChannel;
-
     // Fluter luminosity level event channel
     private EventChannel luminosityStreamChannel;
 
     // Flutter texture registry
     private TextureRegistry textureRegistry;
 
-    // handle setup of camera (get size, init...)
-    private CameraSetup mCameraSetup;
-
-    // handle camera settings
-    private CameraSettingsManager mSettingsManager;
+    // used to create event channels of each camera instance
+    private BinaryMessenger messenger;
 
     // handle luminosity change notifying
     private LuminosityNotifier mLuminosityNotifier;
 
-    // handle image preview of camera
-    private CameraPreview mCameraPreview;
+    // running cameras by instance id (setup, session, preview, picture, threads...)
+    private volatile CameraInstanceRegistry<CameraInstance> mCameraInstances;
 
-    // handle start, stop...
-    private CameraStateManager mCameraStateManager;
-
-    // handle camera taking picture
-    private CameraPicture mCameraPicture;
-
-    // handle the session between CameraPicture and CameraSession
-    private CameraSession mCameraSession;
+    // persisted camera characteristics to speed up setup
+    private CameraCharacteristicsCache mCharacteristicsCache;
 
     // listen sensor orientation
     private SensorOrientationListener mSensorOrientation = new SensorOrientationListener();
 
-    private HandlerThread backgroundThread;
+    // shared by all cameras, runs while orientation is listened or a camera is started
+    private DeviceOrientationSensor mOrientationSensor;
 
-    private Handler backgroundHandler;
+    private volatile Handler mainHandler;
 
-    private Handler mainHandler;
+    // runs camera method calls out of main thread
+    private CommandDispatcher commandDispatcher;
+
+    // native frame processors registered by host app, used by every camera instance
+    private final FrameProcessorRegistry frameProcessors = new FrameProcessorRegistry();
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
@@ -114,6 +141,17 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         );
     }
 
+    /**
+     * Host apps register native frame processors here, for instance from their FlutterActivity:
+     * <pre>
+     * ((CamerawesomePlugin) flutterEngine.getPlugins().get(CamerawesomePlugin.class))
+     *         .getFrameProcessors().register(processor);
+     * </pre>
+     */
+    public FrameProcessorRegistry getFrameProcessors() {
+        return frameProcessors;
+    }
+
     // this is the old version of plugin used by flutter
     public static void registerWith(Registrar registrar) {
         final CamerawesomePlugin camerawesomePlugin = new CamerawesomePlugin();
@@ -121,6 +159,9 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         camerawesomePlugin.onAttachedToEngine(registrar.context(), registrar.messenger(), registrar.textures());
     }
 
+    /**
+     * Light calls are answered on main thread, camera calls are queued on command thread
+     */
     @Override
     public void onMethodCall(@NonNull MethodCall call, @NonNull Result result) {
         switch (call.method) {
@@ -130,68 +171,134 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
             case "checkPermissions":
                 _handleCheckPermissions(call, result);
                 break;
+            case "getCommandLatencies":
+                _handleGetCommandLatencies(call, result);
+                break;
+            case "getPerformanceReport":
+                _handleGetPerformanceReport(call, result);
+                break;
+            default:
+                commandDispatcher.dispatch(call, result);
+                break;
+        }
+    }
+
+    /**
+     * Runs on command thread, one call at a time.
+     * Calls target the camera instance given by instanceId argument, default one if missing.
+     */
+    private void onCommand(@NonNull MethodCall call, @NonNull Result result) {
+        switch (call.method) {
             case "init":
                 _handleSetup(call, result);
+                return;
+            case "disposeInstance":
+                _handleDisposeInstance(call, result);
+                return;
+            case "getConcurrentCameraIds":
+                _handleGetConcurrentCameraIds(call, result);
+                return;
+            case "setCaptureMode":
+                _handleSetCaptureMode(call, result);
+                return;
+            case "refresh":
+                _handleRefresh(call, result);
+                return;
+            case "dumpFlightRecorder":
+                _handleDumpFlightRecorder(call, result);
+                return;
+            default:
                 break;
+        }
+        CameraInstance instance = getCameraInstance(call);
+        if (instance == null) {
+            result.error("CAMERA_MUST_BE_INIT", "init must be call before " + call.method, "");
+            return;
+        }
+        switch (call.method) {
             case "setSensor":
-                _handleSwitchSensor(call, result);
+                _handleSwitchSensor(instance, call, result);
                 break;
             case "previewTexture":
-                _handleGetTextures(call, result);
+                _handleGetTextures(instance, call, result);
                 break;
             case "availableSizes":
-                _handleSizes(call, result);
+                _handleSizes(instance, call, result);
                 break;
             case "setPreviewSize":
-                _handlePreviewSize(call, result);
+                _handlePreviewSize(instance, call, result);
                 break;
             case "getEffectivPreviewSize":
-                _handleGetEffectivPreviewSize(call, result);
+                _handleGetEffectivPreviewSize(instance, call, result);
                 break;
             case "setPhotoSize":
-                _handlePhotoSize(call, result);
+                _handlePhotoSize(instance, call, result);
                 break;
             case "setVideoSize":
-                _handleVideoSize(call, result);
+                _handleVideoSize(instance, call, result);
                 break;
             case "takePhoto":
-                _handleTakePhoto(call, result);
+                _handleTakePhoto(instance, call, result);
+                break;
+            case MOTION_CAPTURE_METHOD:
+                _handleMotionCapture(instance, call, result);
                 break;
             case "setFlashMode":
-                _handleFlashMode(call, result);
+                _handleFlashMode(instance, call, result);
                 break;
             case "handleAutoFocus":
-                _handleAutoFocus(call, result);
+                _handleAutoFocus(instance, call, result);
                 break;
             case "start":
-                _handleStart(call, result);
+                _handleStart(instance, call, result);
                 break;
             case "getMaxZoom":
-                _handleGetMaxZoom(call, result);
+                _handleGetMaxZoom(instance, call, result);
                 break;
             case "setZoom":
-                _handleZoom(call, result);
+                _handleZoom(instance, call, result);
+                break;
+            case "zoomTo":
+                _handleZoomTo(instance, call, result);
                 break;
             case "setCorrection":
-                _handleManualBrightness(call, result);
+                _handleManualBrightness(instance, call, result);
+                break;
+            case "applySettings":
+                _handleApplySettings(instance, call, result);
                 break;
             case "stop":
-                _handleStop(call, result);
+                _handleStop(instance, call, result);
                 break;
             case "recordVideo":
-                _handleRecordVideo(call, result);
+                _handleRecordVideo(instance, call, result);
                 break;
             case "stopRecordingVideo":
-                _handleStopRecordingVideo(call, result);
-                break;
-            case "setCaptureMode":
-                _handleSetCaptureMode(call, result);
+                _handleStopRecordingVideo(instance, call, result);
                 break;
             case "setRecordAudioEnabled":
-                _handleSetRecordAudioEnabled(call, result);
+                _handleSetRecordAudioEnabled(instance, call, result);
                 break;
-            case "refresh":
-                _handleRefresh(call, result);
+            case "getStartupMetrics":
+                _handleGetStartupMetrics(instance, call, result);
+                break;
+            case "getRequestUpdaterStats":
+                _handleGetRequestUpdaterStats(instance, call, result);
+                break;
+            case "negotiateSizes":
+                _handleNegotiateSizes(instance, call, result);
+                break;
+            case "setPerformanceProfile":
+                _handleSetPerformanceProfile(instance, call, result);
+                break;
+            case "setStreamGovernorEnabled":
+                _handleSetStreamGovernorEnabled(instance, call, result);
+                break;
+            case "setMotionDetection":
+                _handleSetMotionDetection(instance, call, result);
+                break;
+            case "setStreamRegion":
+                _handleSetStreamRegion(instance, call, result);
                 break;
             default:
                 result.notImplemented();
@@ -202,20 +309,78 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         channel.setMethodCallHandler(null);
+        commandDispatcher.quit();
+        for (final CameraInstance instance : getRunningInstances()) {
+            instance.releaseOrientation();
+            // threads are released once camera is closed
+            instance.getCameraStateManager().stopCamera()
+                    .subscribe(new Action() {
+                        @Override
+                        public void run() {
+                            instance.dispose();
+                        }
+                    }, new Consumer<Throwable>() {
+                        @Override
+                        public void accept(Throwable e) {
+                            instance.dispose();
+                        }
+                    });
+        }
+        mCameraInstances = null;
+        mLuminosityNotifier.stop();
+        mOrientationSensor.releaseAll();
     }
 
     private void onAttachedToEngine(Context applicationContext, BinaryMessenger messenger, TextureRegistry textureRegistry) {
         this.applicationContext = applicationContext;
         cameraPermissions = new CameraPermissions();
+        mCharacteristicsCache = new CameraCharacteristicsCache(applicationContext);
         mLuminosityNotifier = new BasicLuminosityNotifier();
+        mLuminosityNotifier.init(applicationContext);
+        mOrientationSensor = new DeviceOrientationSensor(applicationContext, mSensorOrientation);
+        mSensorOrientation.setSensor(mOrientationSensor);
         channel = new MethodChannel(messenger, "camerawesome");
         sensorOrientationChannel = new EventChannel(messenger, "camerawesome/orientation");
-        imageStreamChannel = new EventChannel(messenger, "camerawesome/images");
         luminosityStreamChannel = new EventChannel(messenger, "camerawesome/luminosity");
+        commandDispatcher = createCommandDispatcher();
         channel.setMethodCallHandler(this);
         sensorOrientationChannel.setStreamHandler(mSensorOrientation);
         luminosityStreamChannel.setStreamHandler((EventChannel.StreamHandler) mLuminosityNotifier);
         this.textureRegistry = textureRegistry;
+        this.messenger = messenger;
+    }
+
+    private CommandDispatcher createCommandDispatcher() {
+        CommandDispatcher dispatcher = newCommandDispatcher(new CommandDispatcher.CommandHandler() {
+            @Override
+            public void handle(MethodCall call, Result result) {
+                onCommand(call, result);
+            }
+        });
+        dispatcher.setTimeout("init", SLOW_COMMAND_TIMEOUT_MS);
+        dispatcher.setTimeout("takePhoto", SLOW_COMMAND_TIMEOUT_MS);
+        dispatcher.setTimeout(MOTION_CAPTURE_METHOD, SLOW_COMMAND_TIMEOUT_MS);
+        dispatcher.setTimeout("start", CAMERA_STATE_COMMAND_TIMEOUT_MS);
+        dispatcher.setTimeout("stop", CAMERA_STATE_COMMAND_TIMEOUT_MS);
+        dispatcher.setTimeout("setSensor", CAMERA_STATE_COMMAND_TIMEOUT_MS);
+        dispatcher.setTimeout("recordVideo", CAMERA_STATE_COMMAND_TIMEOUT_MS);
+        return dispatcher;
+    }
+
+    /**
+     * Tests replace it to run commands with their own handlers
+     */
+    @VisibleForTesting
+    CommandDispatcher newCommandDispatcher(CommandDispatcher.CommandHandler handler) {
+        return new CommandDispatcher(handler);
+    }
+
+    /**
+     * Threads of a new camera instance, tests replace it to run cameras with their own handlers
+     */
+    @VisibleForTesting
+    CameraThreads createCameraThreads() {
+        return new CameraThreads();
     }
 
     // ----------------------------
@@ -250,82 +415,193 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         if (call.argument("streamImages") != null) {
             streamImages = call.argument("streamImages");
         }
+        StartupMode startupMode = StartupMode.ALL_OUTPUTS;
+        if (call.argument("startupMode") != null) {
+            startupMode = StartupMode.valueOf((String) call.argument("startupMode"));
+        }
+        // camera defaults are kept unless a profile is requested
+        PerformanceProfile performanceProfile = null;
+        if (call.argument("performanceProfile") != null) {
+            performanceProfile = PerformanceProfile.valueOf((String) call.argument("performanceProfile"));
+        }
         String sensorArg = call.argument("sensor");
         CameraSensor sensor = sensorArg.equals("FRONT") ? CameraSensor.FRONT : CameraSensor.BACK;
+        String instanceId = getInstanceId(call);
         try {
-            // setup background thread
-            backgroundThread = new HandlerThread("AsyncThread");
-            backgroundThread.start();
-            backgroundHandler = new Handler(backgroundThread.getLooper());
-
             mainHandler = new Handler(pluginActivity.getMainLooper());
-            // init setup
-            mCameraSetup = new CameraSetup(applicationContext, pluginActivity, mSensorOrientation);
-            mCameraSetup.chooseCamera(sensor);
-            mCameraSetup.listenOrientation();
-            // init luminosity notifier
-            mLuminosityNotifier.init(applicationContext);
-            // init camera session builder
-            mCameraSession = new CameraSession();
-            // init preview with camera caracteristics we needs
-            mCameraPreview = new CameraPreview(
-                    mCameraSession,
-                    mCameraSetup.getCharacteristicsModel(),
-                    new FlutterSurfaceFactory(textureRegistry),
-                    mainHandler,
-                    streamImages);
-            imageStreamChannel.setStreamHandler(mCameraPreview);
-            // init picture recorder
-            mCameraPicture = new CameraPicture(applicationContext, mCameraPreview, mCameraSession, mCameraSetup.getCharacteristicsModel());
-            // init settings manager
-            List<CameraSettingsHandler> handlers = new ArrayList<CameraSettingsHandler>();
-            handlers.add(mCameraPreview);
-            handlers.add(mCameraPicture);
-            mSettingsManager = new CameraSettingsManager(mCameraSetup.getCharacteristicsModel(), handlers);
-            // init state listener
-            mCameraStateManager = new CameraStateManager(applicationContext, mCameraPreview, mCameraPicture, mCameraSession);
-            // set camera sessions listeners
-            List<CameraSession.OnCaptureSession> onCaptureSessionListners = new ArrayList<CameraSession.OnCaptureSession>();
-            onCaptureSessionListners.add(mCameraPreview);
-            onCaptureSessionListners.add(mCameraPicture);
-            mCameraSession.setOnCaptureSessionListenerList(onCaptureSessionListners);
+            CameraInstanceRegistry<CameraInstance> cameraInstances = getCameraInstances();
+            String cameraId = CameraSetup.findCameraId(applicationContext, mCharacteristicsCache, sensor);
+            if (cameraId == null) {
+                throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "cannot find sensor");
+            }
+            // refused init leaves previous instance running
+            if (!cameraInstances.canAdmit(instanceId, cameraId)) {
+                result.error("CAMERA_NOT_CONCURRENT", "camera " + cameraId
+                        + " cannot run together with " + cameraInstances.getHeldCameraIds(), "");
+                return;
+            }
+            // previous instance camera is closed before its threads are released if init is called again
+            CameraInstance previousInstance = cameraInstances.get(instanceId);
+            if (previousInstance != null) {
+                stopCameraAndWait(previousInstance);
+                cameraInstances.release(instanceId);
+                previousInstance.dispose();
+            }
+            CameraInstance instance = new CameraInstance(instanceId, createCameraThreads(), applicationContext,
+                    pluginActivity, messenger, textureRegistry, mainHandler, mOrientationSensor, mCharacteristicsCache,
+                    createCharacteristicsChangedListener(instanceId), sensor, startupMode, streamImages,
+                    frameProcessors);
+            if (CommandDispatcher.isCancelled(result)) {
+                // caller got a TIMEOUT, instance is not registered
+                instance.dispose();
+                return;
+            }
+            try {
+                cameraInstances.admit(instanceId, instance.getCameraId(), instance);
+            } catch (IllegalStateException e) {
+                instance.dispose();
+                result.error("CAMERA_NOT_CONCURRENT", e.getMessage(), "");
+                return;
+            }
+            if (performanceProfile != null) {
+                applyPerformanceProfile(instance, performanceProfile, null);
+            }
             result.success(true);
         } catch (CameraAccessException e) {
             result.error("", e.getMessage(), e.getStackTrace());
         }
     }
 
-    private void _handleSwitchSensor(MethodCall call, Result result) {
-        if (throwIfCameraNotInit(result)) {
+    /**
+     * Blocks command thread until instance camera is closed, or state command timeout
+     */
+    private void stopCameraAndWait(CameraInstance instance) {
+        instance.releaseOrientation();
+        try {
+            if (!instance.getCameraStateManager().stopCamera()
+                    .blockingAwait(CAMERA_STATE_COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "camera of instance " + instance.getId() + " not closed in time");
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "camera of instance " + instance.getId() + " not closed properly", e);
+        }
+    }
+
+    /**
+     * Stops camera of an instance and releases it, its camera can then be used by another instance
+     *
+     * @param call   FLutter method call with instanceId
+     * @param result Flutter Result method
+     */
+    private void _handleDisposeInstance(MethodCall call, final Result result) {
+        final CameraInstance instance = getCameraInstances().release(getInstanceId(call));
+        if (instance == null) {
+            result.success(null);
+            return;
+        }
+        instance.getCameraStateManager().stopCamera()
+                .subscribe(new Action() {
+                    @Override
+                    public void run() {
+                        instance.dispose();
+                        result.success(null);
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable e) {
+                        instance.dispose();
+                        result.error("STOP_CAMERA_ERROR", e.getMessage(), "");
+                    }
+                });
+    }
+
+    /**
+     * Returns sets of camera ids device can run together, null if device doesn't tell (before Android R)
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleGetConcurrentCameraIds(MethodCall call, Result result) {
+        Set<Set<String>> concurrentCameraIds = readConcurrentCameraIds();
+        if (concurrentCameraIds == null) {
+            result.success(null);
             return;
         }
+        List<List<String>> res = new ArrayList<>();
+        for (Set<String> cameraIds : concurrentCameraIds) {
+            res.add(new ArrayList<>(cameraIds));
+        }
+        result.success(res);
+    }
+
+    private void _handleSwitchSensor(final CameraInstance instance, MethodCall call, final Result result) {
         CameraSensor sensor = CameraSensor.valueOf((String) call.argument("sensor"));
         Log.d(TAG, "_handleSwitchSensor: " + sensor.name() + " => " + ((String) call.argument("sensor")));
         try {
-            mCameraSetup.chooseCamera(sensor);
-            mCameraStateManager.switchCamera(mCameraSetup.getCameraId(), mCameraSetup.getCharacteristicsModel());
-            result.success(null);
-        } catch (CameraAccessException | CameraManagerException e) {
+            final CameraSensor previousSensor = instance.getSensor();
+            instance.chooseSensor(sensor);
+            final String cameraId = instance.getCameraId();
+            // registry is only updated once camera is switched
+            if (!getCameraInstances().canAdmit(instance.getId(), cameraId)) {
+                instance.chooseSensor(previousSensor);
+                result.error("CAMERA_NOT_CONCURRENT", "camera " + cameraId
+                        + " cannot run together with " + getCameraInstances().getHeldCameraIds(), "");
+                return;
+            }
+            instance.getCameraStateManager().switchCamera(cameraId, instance.getCameraSetup().getCharacteristicsModel())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(new Action() {
+                        @Override
+                        public void run() {
+                            try {
+                                getCameraInstances().switchCamera(instance.getId(), cameraId);
+                            } catch (IllegalStateException e) {
+                                // another instance took a camera that cannot run with this one meanwhile
+                                instance.getCameraStateManager().stopCamera().subscribe();
+                                restoreSensor(instance, previousSensor);
+                                result.error("CAMERA_NOT_CONCURRENT", e.getMessage(), "");
+                                return;
+                            }
+                            result.success(null);
+                        }
+                    }, new Consumer<Throwable>() {
+                        @Override
+                        public void accept(Throwable e) {
+                            restoreSensor(instance, previousSensor);
+                            result.error("SWITCH_CAMERA_SENSOR_ERROR", e.getMessage(), "");
+                        }
+                    });
+        } catch (CameraAccessException e) {
             result.error("SWITCH_CAMERA_SENSOR_ERROR", e.getMessage(), e.getStackTrace());
         }
     }
 
-    private void _handleGetTextures(MethodCall call, Result result) {
-        if (mCameraPreview == null) {
-            result.error("MUST_CALL_INIT", "", "");
-            return;
+    /**
+     * Instance points back to the camera held in registry after a failed switch
+     */
+    private void restoreSensor(CameraInstance instance, CameraSensor previousSensor) {
+        try {
+            instance.chooseSensor(previousSensor);
+            CameraCharacteristicsModel characteristicsModel = instance.getCameraSetup().getCharacteristicsModel();
+            instance.getCameraPreview().setmCameraCharacteristics(characteristicsModel);
+            instance.getCameraPicture().setCameraCharacteristics(characteristicsModel);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "cannot restore sensor " + previousSensor, e);
         }
+    }
+
+    private void _handleGetTextures(final CameraInstance instance, MethodCall call, Result result) {
         try {
-            long id = mCameraPreview.getFlutterTexture();
+            long id = instance.getCameraPreview().getFlutterTexture();
             result.success(id);
         } catch (RuntimeException e) {
             result.error("TEXTURE_NOT_FOUND", "cannot find texture", "");
         }
     }
 
-    private void _handleSizes(MethodCall call, Result result) {
+    private void _handleSizes(final CameraInstance instance, MethodCall call, Result result) {
         try {
-            Size[] sizes = mCameraSetup.getOutputSizes();
+            Size[] sizes = instance.getCameraSetup().getOutputSizes();
             List<Object> sizesMap = new ArrayList<>();
             for (Size size : sizes) {
                 Map<String, Object> resMap = new HashMap<>();
@@ -339,115 +615,200 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         }
     }
 
-    private void _handlePreviewSize(final MethodCall call, final Result result) {
+    private void _handlePreviewSize(final CameraInstance instance, final MethodCall call, final Result result) {
         if (!call.hasArgument("width") || !call.hasArgument("height")) {
             result.error("NO_SIZE_SET", "width and height must be set", "");
             return;
         }
         int width = call.argument("width");
         int height = call.argument("height");
-        mCameraPreview.setPreviewSize(width, height);
+        instance.getCameraPreview().setPreviewSize(width, height);
         result.success(null);
     }
 
-    private void _handleGetEffectivPreviewSize(MethodCall call, Result result) {
-        if (throwIfCameraNotInit(result))
-            return;
-        Size size = mCameraPreview.getPreviewSize();
+    private void _handleGetEffectivPreviewSize(final CameraInstance instance, MethodCall call, Result result) {
+        Size size = instance.getCameraPreview().getPreviewSize();
         Map<String, Object> resMap = new HashMap<>();
         resMap.put("width", size.getWidth());
         resMap.put("height", size.getHeight());
         result.success(resMap);
     }
 
-    private void _handlePhotoSize(MethodCall call, Result result) {
+    private void _handlePhotoSize(final CameraInstance instance, MethodCall call, Result result) {
         if (!call.hasArgument("width") || !call.hasArgument("height")) {
             result.error("NO_SIZE_SET", "width and height must be set", "");
             return;
         }
         int width = call.argument("width");
         int height = call.argument("height");
-        mCameraPicture.setPhotoSize(width, height);
-        mCameraSession.refresh();
+        instance.getCameraPicture().setPhotoSize(width, height);
+        instance.getCameraSession().refresh();
         result.success(null);
     }
 
-    private void _handleVideoSize(MethodCall call, Result result) {
+    private void _handleVideoSize(final CameraInstance instance, MethodCall call, Result result) {
         if (!call.hasArgument("width") || !call.hasArgument("height")) {
             result.error("NO_SIZE_SET", "width and height must be set", "");
             return;
         }
         int width = call.argument("width");
         int height = call.argument("height");
-        mCameraPicture.setVideoSize(width, height);
-        mCameraSession.refresh();
+        instance.getCameraPicture().setVideoSize(width, height);
+        instance.getCameraSession().refresh();
         result.success(null);
     }
 
 
-    private void _handleStart(final MethodCall call, final Result result) {
-        if (throwIfCameraNotInit(result)) {
-            Log.e(TAG, "_handleStart: must be init before this");
-            return;
-        }
-        if (mCameraPicture.getPhotoSize() == null) {
+    private void _handleStart(final CameraInstance instance, final MethodCall call, final Result result) {
+        if (instance.getCameraPicture().getPhotoSize() == null) {
             result.error("NO_PICTURE_SIZE", "", "");
             return;
         }
-        try {
-            mCameraStateManager.setmOnCameraStateListener(new CameraStateManager.OnCameraState() {
-                @Override
-                public void onOpened() {
-                    result.success(true);
-                    mCameraStateManager.setmOnCameraStateListener(null);
-                }
-
-                @Override
-                public void onOpenError(String reason) {
-                    result.error(reason, "", "");
-                }
-            });
-            mCameraStateManager.startCamera(mCameraSetup.getCameraId());
-        } catch (CameraManagerException e) {
-            result.error(e.getMessage(), "Error while starting camera", e.getStackTrace());
-        }
+        instance.holdOrientation();
+        instance.getCameraStateManager().startCamera(instance.getCameraSetup().getCameraId())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action() {
+                    @Override
+                    public void run() {
+                        if (CommandDispatcher.isCancelled(result)) {
+                            // caller got a TIMEOUT, camera must not keep running behind its back
+                            instance.releaseOrientation();
+                            instance.getCameraStateManager().stopCamera().subscribe();
+                            return;
+                        }
+                        result.success(true);
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable e) {
+                        instance.releaseOrientation();
+                        result.error(e.getMessage(), "Error while starting camera", "");
+                    }
+                });
     }
 
-    private void _handleManualBrightness(MethodCall call, Result result) {
-        if (throwIfCameraNotInit(result))
-            return;
+    private void _handleManualBrightness(final CameraInstance instance, MethodCall call, Result result) {
         double brightness = call.argument("brightness");
         try {
-            mSettingsManager.setManualBrightness(brightness);
+            instance.getSettingsManager().setManualBrightness(brightness);
             result.success(null);
         } catch (IllegalArgumentException e) {
             result.error("ArgumentError", "ArgumentError", "Value for brightness compensation must be between 0 and -1");
         }
     }
 
-    private void _handleStop(MethodCall call, Result result) {
-        if (throwIfCameraNotInit(result))
+    /**
+     * Applies flashMode, zoom, autoFocus and brightness at once with a single preview request rebuild.
+     * Nothing is applied if one value is not supported by current camera.
+     *
+     * @param call   FLutter method call with settings map
+     * @param result Flutter Result method
+     */
+    @SuppressWarnings("unchecked")
+    private void _handleApplySettings(final CameraInstance instance, MethodCall call, Result result) {
+        if (!(call.arguments instanceof Map)) {
+            result.error("SETTINGS_NOT_SET", "a settings map must be provided", "");
             return;
-        mCameraStateManager.stopCamera();
-        backgroundThread.quit();
-        result.success(true);
+        }
+        try {
+            Map<String, Object> settings = new HashMap<>((Map<String, Object>) call.arguments);
+            settings.remove("instanceId");
+            instance.getSettingsManager().applySettings(settings);
+            result.success(null);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_SETTINGS", e.getMessage(), "");
+        }
     }
 
-    private void _handleTakePhoto(final MethodCall call, final Result result) {
+    private void _handleStop(final CameraInstance instance, MethodCall call, final Result result) {
+        instance.releaseOrientation();
+        instance.getCameraStateManager().stopCamera()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action() {
+                    @Override
+                    public void run() {
+                        result.success(true);
+                    }
+                }, new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable e) {
+                        result.error("STOP_CAMERA_ERROR", e.getMessage(), "");
+                    }
+                });
+    }
+
+    private void _handleTakePhoto(final CameraInstance instance, final MethodCall call, final Result result) {
         if (!call.hasArgument("path")) {
             result.error("PATH_NOT_SET", "a file path must be set", "");
             return;
         }
 
         String path = call.argument("path");
+        int bestOf = intArgument(call, "bestOf", 1);
+        if (bestOf < 1 || bestOf > MAX_BEST_OF) {
+            result.error("INVALID_BEST_OF", "bestOf must be between 1 and " + MAX_BEST_OF, "");
+            return;
+        }
+        instance.beginCapture();
+        if (bestOf > 1) {
+            _handleTakeBestPhoto(instance, call, path, bestOf, result);
+            return;
+        }
         try {
-            mCameraPicture.takePicture(
-                    mCameraStateManager.getCameraDevice(),
+            instance.getCameraPicture().takePicture(
+                    instance.getCameraStateManager().getCameraDevice(),
                     path,
-                    mCameraSetup.getOrientation(getOrientationArgument(call)),
-                    createTakePhotoResultListener(result)
+                    instance.getCameraSetup().getOrientation(getOrientationArgument(call)),
+                    createTakePhotoResultListener(instance, result)
             );
         } catch (CameraAccessException e) {
+            instance.endCapture();
+            result.error(e.getMessage(), "cannot open camera", "");
+        }
+    }
+
+    /**
+     * Photo of a motion, skipped if another photo is being taken (user one or previous motion one)
+     */
+    private void _handleMotionCapture(final CameraInstance instance, final MethodCall call, final Result result) {
+        if (instance.isCapturing()) {
+            result.error("CAPTURE_IN_FLIGHT", "a photo is being taken", "");
+            return;
+        }
+        _handleTakePhoto(instance, call, result);
+    }
+
+    /**
+     * Takes a burst of bestOf photos and saves the sharpest one, scorer is registered during the capture
+     */
+    private void _handleTakeBestPhoto(final CameraInstance instance, final MethodCall call, String path, int bestOf,
+                                      final Result result) {
+        final CameraPicture.OnImageResult resultListener = createTakePhotoResultListener(instance, result);
+        SharpnessScorer scorer = instance.acquireSharpnessScorer();
+        try {
+            instance.getCameraPicture().takePicture(
+                    instance.getCameraStateManager().getCameraDevice(),
+                    path,
+                    instance.getCameraSetup().getOrientation(getOrientationArgument(call)),
+                    bestOf,
+                    scorer,
+                    new CameraPicture.OnImageResult() {
+                        @Override
+                        public void onSuccess() {
+                            instance.releaseSharpnessScorer();
+                            resultListener.onSuccess();
+                        }
+
+                        @Override
+                        public void onFailure(String error) {
+                            instance.releaseSharpnessScorer();
+                            resultListener.onFailure(error);
+                        }
+                    }
+            );
+        } catch (CameraAccessException e) {
+            instance.releaseSharpnessScorer();
+            instance.endCapture();
             result.error(e.getMessage(), "cannot open camera", "");
         }
     }
@@ -467,25 +828,46 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         return orientation;
     }
 
-    private void _handleFlashMode(final MethodCall call, final Result result) {
+    private void _handleFlashMode(final CameraInstance instance, final MethodCall call, final Result result) {
         if (!call.hasArgument("mode")) {
             result.error("MODE_NOT_SET", "a mode must be set", "");
             return;
         }
         FlashMode flashmode = FlashMode.valueOf((String) call.argument("mode"));
-        mCameraPreview.setFlashMode(flashmode);
-        mCameraPicture.setFlashMode(flashmode);
+        instance.getCameraPreview().setFlashMode(flashmode);
+        instance.getCameraPicture().setFlashMode(flashmode);
         result.success(null);
     }
 
-    private void _handleZoom(final MethodCall call, final Result result) {
+    private void _handleZoom(final CameraInstance instance, final MethodCall call, final Result result) {
         if (!call.hasArgument("zoom")) {
             result.error("ZOOM_NOT_SET", "a float zoom must be set", "");
             return;
         }
         double zoom = call.argument("zoom");
         // sending 0.0 will result in an int so lets force cast
-        mCameraPreview.setZoom((float) zoom);
+        instance.getCameraPreview().setZoom((float) zoom);
+        result.success(null);
+    }
+
+    /**
+     * Animates zoom natively, only one platform call per gesture
+     *
+     * @param call   FLutter method call with zoom, duration (ms) and optional curve
+     * @param result Flutter Result method
+     */
+    private void _handleZoomTo(final CameraInstance instance, final MethodCall call, final Result result) {
+        if (!call.hasArgument("zoom") || !call.hasArgument("duration")) {
+            result.error("ZOOM_NOT_SET", "a float zoom and a duration must be set", "");
+            return;
+        }
+        double zoom = call.argument("zoom");
+        int duration = call.argument("duration");
+        ZoomAnimator.Curve curve = ZoomAnimator.Curve.EASE_IN_OUT;
+        if (call.argument("curve") != null) {
+            curve = ZoomAnimator.Curve.valueOf((String) call.argument("curve"));
+        }
+        instance.getCameraPreview().zoomTo((float) zoom, duration, curve);
         result.success(null);
     }
 
@@ -495,36 +877,34 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
      * @param call   FLutter method call
      * @param result Flutter Result method
      */
-    private void _handleGetMaxZoom(MethodCall call, Result result) {
-        if (throwIfCameraNotInit(result))
-            return;
-        result.success(mCameraSetup.getCharacteristicsModel().getMaxZoom());
+    private void _handleGetMaxZoom(final CameraInstance instance, MethodCall call, Result result) {
+        result.success(instance.getCameraSetup().getCharacteristicsModel().getMaxZoom());
     }
 
-    private void _handleAutoFocus(final MethodCall call, final Result result) {
+    private void _handleAutoFocus(final CameraInstance instance, final MethodCall call, final Result result) {
         try {
-            mCameraPreview.lockFocus();
+            instance.getCameraPreview().lockFocus();
             result.success(null);
         } catch (RuntimeException e) {
             result.error("NOT_FOCUSING", "not in focus", "");
         }
     }
 
-    private void _handleRecordVideo(final MethodCall call, final Result result) {
+    private void _handleRecordVideo(final CameraInstance instance, final MethodCall call, final Result result) {
         if (!call.hasArgument("path")) {
             result.error("PATH_NOT_SET", "a file path must be set", "");
             return;
         }
         final String path = call.argument("path");
 
-        backgroundHandler.post(new Runnable() {
+        instance.getCameraThreads().getCameraHandler().post(new Runnable() {
             @Override
             public void run() {
                 try {
-                    mCameraPicture.recordVideo(
-                            mCameraStateManager.getCameraDevice(),
+                    instance.getCameraPicture().recordVideo(
+                            instance.getCameraStateManager().getCameraDevice(),
                             path,
-                            mCameraSetup.getOrientation(getOrientationArgument(call))
+                            instance.getCameraSetup().getOrientation(getOrientationArgument(call))
                     );
                 } catch (CameraAccessException | IOException e) {
                     mainHandler.post(new Runnable() {
@@ -533,6 +913,7 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
                             result.error(e.getMessage(), "cannot open camera", "");
                         }
                     });
+                    return;
                 }
 
                 mainHandler.post(new Runnable() {
@@ -545,9 +926,9 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         });
     }
 
-    private void _handleStopRecordingVideo(final MethodCall call, final Result result) {
+    private void _handleStopRecordingVideo(final CameraInstance instance, final MethodCall call, final Result result) {
         try {
-            mCameraPicture.stopRecording();
+            instance.getCameraPicture().stopRecording();
             result.success(null);
         } catch (IllegalStateException e) {
             result.error(e.getMessage(), "cannot stop camera", "");
@@ -559,14 +940,14 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         result.success(null);
     }
 
-    private void _handleSetRecordAudioEnabled(final MethodCall call, final Result result) {
+    private void _handleSetRecordAudioEnabled(final CameraInstance instance, final MethodCall call, final Result result) {
         if (!call.hasArgument("enableAudio")) {
             result.error("ENABLE_AUDIO_NOT_SET", "enableAudio must be set", "");
             return;
         }
         @SuppressWarnings("ConstantConditions")
         boolean enableAudio = call.argument("enableAudio");
-        mCameraPicture.setRecordAudioEnabled(enableAudio);
+        instance.getCameraPicture().setRecordAudioEnabled(enableAudio);
         result.success(null);
     }
 
@@ -575,46 +956,488 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
         result.success(null);
     }
 
-    private CameraPicture.OnImageResult createTakePhotoResultListener(final Result result) {
-        return new CameraPicture.OnImageResult() {
-            boolean sent = false;
+    /**
+     * Returns time spent to configure session, get first frame and all outputs since last start
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleGetStartupMetrics(final CameraInstance instance, final MethodCall call, final Result result) {
+        result.success(instance.getCameraSession().getStartupTimings());
+    }
 
+    /**
+     * Returns how many settings changes were requested and how many repeating requests were really sent
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleGetRequestUpdaterStats(final CameraInstance instance, final MethodCall call, final Result result) {
+        RepeatingRequestUpdater requestUpdater = instance.getCameraPreview().getRequestUpdater();
+        Map<String, Object> resMap = new HashMap<>();
+        resMap.put("invalidateCount", requestUpdater.getInvalidateCount());
+        resMap.put("submitCount", requestUpdater.getSubmitCount());
+        resMap.put("coalesceRatio", requestUpdater.getCoalesceRatio());
+        result.success(resMap);
+    }
+
+    /**
+     * Chooses preview, stream and photo sizes from display size, target fps and aspect ratio
+     * and returns them with their cost. If apply is true, outputs are rebuilt with these sizes.
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleNegotiateSizes(final CameraInstance instance, final MethodCall call, final Result result) {
+        final SizeNegotiator.Request request = new SizeNegotiator.Request();
+        if (call.hasArgument("displayWidth") && call.hasArgument("displayHeight")) {
+            request.setDisplaySize((int) call.argument("displayWidth"), (int) call.argument("displayHeight"));
+        } else {
+            DisplayMetrics metrics = applicationContext.getResources().getDisplayMetrics();
+            request.setDisplaySize(metrics.widthPixels, metrics.heightPixels);
+        }
+        if (call.argument("targetFps") != null) {
+            request.setTargetFps(((Number) call.argument("targetFps")).doubleValue());
+        }
+        if (call.argument("aspectRatio") != null) {
+            request.setAspectRatio(((Number) call.argument("aspectRatio")).doubleValue());
+        }
+        if (call.argument("streamWidth") != null && call.argument("streamHeight") != null) {
+            request.setStreamSize((int) call.argument("streamWidth"), (int) call.argument("streamHeight"));
+        }
+        if (call.argument("photoWidth") != null && call.argument("photoHeight") != null) {
+            request.setPhotoSize((int) call.argument("photoWidth"), (int) call.argument("photoHeight"));
+        }
+        final boolean apply = call.argument("apply") != null && (boolean) call.argument("apply");
+        // reading stream configuration queries CameraManager, keep it off main thread
+        instance.getCameraThreads().getCameraHandler().post(new Runnable() {
             @Override
-            public void onSuccess() {
-                if (sent) {
-                    return;
-                }
+            public void run() {
                 try {
-                    sent = true;
-                    result.success(null);
-                } catch (IllegalStateException e) {
-                    Log.e(TAG, "onSuccess image error", e);
+                    SizeDecision decision = instance.getCameraSetup().createSizeNegotiator().negotiate(request);
+                    if (apply) {
+                        applySizeDecision(instance, decision);
+                    }
+                    final Map<String, Object> resMap = decision.toMap();
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.success(resMap);
+                        }
+                    });
+                } catch (final CameraAccessException e) {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            result.error(String.valueOf(e.getReason()), e.getMessage(), "");
+                        }
+                    });
                 }
             }
+        });
+    }
 
+    /**
+     * Outputs of a started camera are rebuilt with the new sizes in one session refresh
+     */
+    private void applySizeDecision(CameraInstance instance, SizeDecision decision) {
+        boolean photoChanged = false;
+        if (decision.getPhoto() != null) {
+            instance.getCameraPicture().setPhotoSize(decision.getPhoto().getWidth(), decision.getPhoto().getHeight());
+            photoChanged = true;
+        }
+        instance.getCameraPreview().setOutputSizes(
+                decision.getPreview() != null ? new Size(decision.getPreview().getWidth(), decision.getPreview().getHeight()) : null,
+                decision.getStream() != null ? new Size(decision.getStream().getWidth(), decision.getStream().getHeight()) : null,
+                photoChanged);
+    }
+
+    /**
+     * Switches fps range, stream size, converter workers and JPEG quality without restarting camera device
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleSetPerformanceProfile(final CameraInstance instance, final MethodCall call, final Result result) {
+        if (call.argument("profile") == null) {
+            result.error("PROFILE_NOT_SET", "a performance profile must be provided", "");
+            return;
+        }
+        PerformanceProfile profile;
+        try {
+            profile = PerformanceProfile.valueOf((String) call.argument("profile"));
+        } catch (IllegalArgumentException e) {
+            result.error("PROFILE_UNKNOWN", "unknown performance profile " + call.argument("profile"), "");
+            return;
+        }
+        applyPerformanceProfile(instance, profile, result);
+    }
+
+    /**
+     * Stream size is chosen on camera thread among supported YUV sizes
+     *
+     * @param result replied once profile is applied, can be null
+     */
+    private void applyPerformanceProfile(final CameraInstance instance, final PerformanceProfile profile,
+                                         final Result result) {
+        final CameraPreview cameraPreview = instance.getCameraPreview();
+        final StreamGovernorController streamGovernorController = instance.getStreamGovernorController();
+        instance.getCameraPicture().setJpegQuality(profile.getPhotoJpegQuality());
+        instance.getCameraThreads().getCameraHandler().post(new Runnable() {
             @Override
-            public void onFailure(String error) {
-                if (sent) {
+            public void run() {
+                Size streamSize = instance.chooseStreamSize(
+                        profile.getStreamWidth(), profile.getStreamHeight(), profile.getMaxFps());
+                cameraPreview.setPerformanceProfile(profile, streamSize);
+                if (cameraPreview.isStreamingImages()) {
+                    streamGovernorController.start(
+                            new StreamGovernor.Quality(profile.getStreamJpegQuality(), profile.getStreamWidth(),
+                                    profile.getStreamHeight(), profile.getMaxFps()),
+                            profile.getConverterWorkers());
+                }
+                if (result == null) {
                     return;
                 }
-                sent = true;
-                result.error(error, "", "");
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        result.success(null);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Enables or disables the stream governor (enabled by default when streaming images with a performance profile)
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleSetStreamGovernorEnabled(final CameraInstance instance, final MethodCall call, final Result result) {
+        if (call.argument("enabled") == null) {
+            result.error("ENABLED_NOT_SET", "enabled must be set", "");
+            return;
+        }
+        final boolean enabled = call.argument("enabled");
+        instance.getCameraThreads().getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                instance.getStreamGovernorController().setEnabled(enabled);
+            }
+        });
+        result.success(null);
+    }
+
+    /**
+     * Crops stream images sent to flutter to left, top, right, bottom region (0 to 1 of image size),
+     * whole images are sent again without region. Session is not restarted.
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleSetStreamRegion(final CameraInstance instance, final MethodCall call, final Result result) {
+        StreamRegion region = null;
+        if (call.argument("left") != null) {
+            if (call.argument("top") == null || call.argument("right") == null || call.argument("bottom") == null) {
+                result.error("REGION_INVALID", "left, top, right and bottom must be set", "");
+                return;
+            }
+            try {
+                region = new StreamRegion(floatArgument(call, "left"), floatArgument(call, "top"),
+                        floatArgument(call, "right"), floatArgument(call, "bottom"));
+            } catch (IllegalArgumentException e) {
+                result.error("REGION_INVALID", e.getMessage(), "");
+                return;
+            }
+        }
+        instance.getCameraPreview().setStreamRegion(region);
+        result.success(null);
+    }
+
+    private static float floatArgument(MethodCall call, String name) {
+        return ((Number) call.argument(name)).floatValue();
+    }
+
+    /**
+     * Starts or stops motion detection on stream images, events are sent on frame processors channel.
+     * If autoCaptureDirectory is set a photo is taken in it on motion, at most once per autoCaptureIntervalMs
+     * and never while another photo is being taken.
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleSetMotionDetection(final CameraInstance instance, final MethodCall call, final Result result) {
+        if (call.argument("enabled") == null) {
+            result.error("ENABLED_NOT_SET", "enabled must be set", "");
+            return;
+        }
+        final boolean enabled = call.argument("enabled");
+        final MotionDetector detector;
+        if (enabled) {
+            detector = new MotionDetector(intArgument(call, "columns", 16), intArgument(call, "rows", 12))
+                    .setThreshold(intArgument(call, "threshold", 12))
+                    .setMinBlocks(intArgument(call, "minBlocks", 2));
+            String directory = call.argument("autoCaptureDirectory");
+            if (directory != null) {
+                detector.setOnMotionListener(createMotionCapture(instance, directory),
+                        intArgument(call, "autoCaptureIntervalMs", 5000));
+            }
+        } else {
+            detector = null;
+        }
+        instance.getCameraThreads().getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                instance.setMotionDetector(detector);
+            }
+        });
+        result.success(null);
+    }
+
+    private static int intArgument(MethodCall call, String name, int defaultValue) {
+        Number value = call.argument(name);
+        return value != null ? value.intValue() : defaultValue;
+    }
+
+    /**
+     * Takes a photo for each motion, named after frame timestamp, queued on command thread like a takePhoto call.
+     * Motions are skipped while a photo is being taken. Path is sent in a second motion result of the same frame
+     * once the photo is written.
+     */
+    private MotionDetector.OnMotionListener createMotionCapture(final CameraInstance instance, final String directory) {
+        // at most one motion photo queued or being taken
+        final AtomicBoolean captureQueued = new AtomicBoolean();
+        return new MotionDetector.OnMotionListener() {
+            @Override
+            public boolean onMotion(final long timestampNs, final Map<String, Object> motion) {
+                if (instance.isCapturing() || !captureQueued.compareAndSet(false, true)) {
+                    return false;
+                }
+                final String path = new File(directory, "motion_" + timestampNs + ".jpg").getPath();
+                Map<String, Object> arguments = new HashMap<>();
+                arguments.put("instanceId", instance.getId());
+                arguments.put("path", path);
+                commandDispatcher.dispatch(new MethodCall(MOTION_CAPTURE_METHOD, arguments), new Result() {
+                    @Override
+                    public void success(Object ignored) {
+                        captureQueued.set(false);
+                        Map<String, Object> captured = new HashMap<>(motion);
+                        captured.put("photoPath", path);
+                        instance.getFrameProcessorStream().publish(MotionDetector.NAME, timestampNs, captured);
+                    }
+
+                    @Override
+                    public void error(String errorCode, String errorMessage, Object errorDetails) {
+                        captureQueued.set(false);
+                        Log.e(TAG, "motion capture failed: " + errorCode);
+                    }
+
+                    @Override
+                    public void notImplemented() {
+                        captureQueued.set(false);
+                    }
+                });
+                return true;
             }
         };
     }
 
     /**
-     * Returns true if camera has not been init and should not go next
+     * Returns count, errors, timeouts, avgMs and maxMs for each method dispatched on command thread
+     *
+     * @param call   FLutter method call
+     * @param result Flutter Result method
+     */
+    private void _handleGetCommandLatencies(final MethodCall call, final Result result) {
+        result.success(commandDispatcher.getStats());
+    }
+
+    /**
+     * Returns plugin wide counters and latency histograms (camera open, session configure, first frame,
+     * session refresh, take picture...), shared by all camera instances
+     *
+     * @param call   FLutter method call, metrics are cleared after the report if reset is true
+     * @param result Flutter Result method
+     */
+    private void _handleGetPerformanceReport(final MethodCall call, final Result result) {
+        Map<String, Object> report = PerformanceMetrics.getInstance().getReport();
+        if (call.argument("reset") != null && (boolean) call.argument("reset")) {
+            PerformanceMetrics.getInstance().reset();
+        }
+        result.success(report);
+    }
+
+    /**
+     * Writes last recorded camera events (open, session configure, picture states, captures, dropped frames)
+     * to a text file, shared by all camera instances
      *
-     * @param result boolean
-     * @return true if has throw
+     * @param call   FLutter method call, path argument is optional (cache dir by default)
+     * @param result Flutter Result method, returns written path and events count
      */
-    private boolean throwIfCameraNotInit(Result result) {
-        if (mCameraSetup == null) {
-            result.error("CAMERA_MUST_BE_INIT", "init must be call before start", "");
-            return true;
+    private void _handleDumpFlightRecorder(final MethodCall call, final Result result) {
+        String path = call.argument("path");
+        File file = path != null
+                ? new File(path)
+                : new File(applicationContext.getCacheDir(), "camerawesome_flight_" + System.currentTimeMillis() + ".txt");
+        try {
+            int events = FlightRecorder.getInstance().dump(file);
+            Map<String, Object> res = new HashMap<>();
+            res.put("path", file.getAbsolutePath());
+            res.put("events", events);
+            result.success(res);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to dump flight recorder", e);
+            result.error("DUMP_FAILED", e.getMessage(), "");
         }
-        return false;
+    }
+
+    /**
+     * Picture is written on io thread, result must be sent on main thread.
+     * Ends the capture started on instance, next one can start before result is sent.
+     */
+    private CameraPicture.OnImageResult createTakePhotoResultListener(final CameraInstance instance, final Result result) {
+        return new CameraPicture.OnImageResult() {
+            boolean sent = false;
+
+            final AtomicBoolean captureEnded = new AtomicBoolean();
+
+            @Override
+            public void onSuccess() {
+                endCapture();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (sent) {
+                            return;
+                        }
+                        try {
+                            sent = true;
+                            result.success(null);
+                        } catch (IllegalStateException e) {
+                            Log.e(TAG, "onSuccess image error", e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final String error) {
+                endCapture();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (sent) {
+                            return;
+                        }
+                        sent = true;
+                        result.error(error, "", "");
+                    }
+                });
+            }
+
+            private void endCapture() {
+                if (captureEnded.compareAndSet(false, true)) {
+                    instance.endCapture();
+                }
+            }
+        };
+    }
+
+    /**
+     * Cached characteristics were used at setup, hardware reported something else in background
+     * so we update all classes using characteristics
+     */
+    private CameraSetup.OnCharacteristicsChanged createCharacteristicsChangedListener(final String instanceId) {
+        return new CameraSetup.OnCharacteristicsChanged() {
+            @Override
+            public void onChanged(final String cameraId, final CameraCharacteristicsModel characteristicsModel) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        CameraInstanceRegistry<CameraInstance> cameraInstances = mCameraInstances;
+                        CameraInstance instance = cameraInstances != null ? cameraInstances.get(instanceId) : null;
+                        if (instance == null) {
+                            return;
+                        }
+                        instance.getCameraPreview().setmCameraCharacteristics(characteristicsModel);
+                        instance.getCameraPicture().setCameraCharacteristics(characteristicsModel);
+                        instance.getSettingsManager().setCameraCharacteristics(characteristicsModel);
+                        if (instance.getCameraStateManager().getCameraDevice() == null) {
+                            return;
+                        }
+                        instance.getCameraStateManager().switchCamera(cameraId, characteristicsModel)
+                                .subscribe(new Action() {
+                                    @Override
+                                    public void run() {
+                                    }
+                                }, new Consumer<Throwable>() {
+                                    @Override
+                                    public void accept(Throwable e) {
+                                        Log.e(TAG, "restart camera with updated characteristics failed", e);
+                                    }
+                                });
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return instance targeted by call, default one if instanceId argument is missing
+     */
+    private String getInstanceId(MethodCall call) {
+        if (call.arguments instanceof Map && call.argument("instanceId") != null) {
+            return call.argument("instanceId");
+        }
+        return CameraInstance.DEFAULT_ID;
+    }
+
+    /**
+     * @return null if instance has not been init
+     */
+    private CameraInstance getCameraInstance(MethodCall call) {
+        return getCameraInstance(getInstanceId(call));
+    }
+
+    /**
+     * @return null if instance has not been init
+     */
+    @VisibleForTesting
+    CameraInstance getCameraInstance(String instanceId) {
+        CameraInstanceRegistry<CameraInstance> cameraInstances = mCameraInstances;
+        return cameraInstances != null ? cameraInstances.get(instanceId) : null;
+    }
+
+    private CameraInstanceRegistry<CameraInstance> getCameraInstances() {
+        if (mCameraInstances == null) {
+            mCameraInstances = new CameraInstanceRegistry<>(readConcurrentCameraIds());
+        }
+        return mCameraInstances;
+    }
+
+    /**
+     * @return sets of cameras device can run together, null before Android R
+     */
+    private Set<Set<String>> readConcurrentCameraIds() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return null;
+        }
+        CameraManager cameraManager = (CameraManager) applicationContext.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            return cameraManager != null ? cameraManager.getConcurrentCameraIds() : null;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "cannot read concurrent cameras", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return running instances, empty if none has been init
+     */
+    private Collection<CameraInstance> getRunningInstances() {
+        CameraInstanceRegistry<CameraInstance> cameraInstances = mCameraInstances;
+        return cameraInstances != null ? cameraInstances.getInstances() : Collections.<CameraInstance>emptyList();
     }
 
     public void setPluginActivity(Activity pluginActivity) {
@@ -628,36 +1451,48 @@ public class CamerawesomePlugin implements FlutterPlugin, MethodCallHandler, Act
     @Override
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
         this.pluginActivity = binding.getActivity();
-        if (this.mCameraPreview != null) {
-            this.mCameraPreview.setMainHandler(new Handler(pluginActivity.getMainLooper()));
-            try {
-                this.mCameraStateManager.startCamera(this.mCameraSetup.getCameraId());
-            } catch (CameraManagerException e) {
-            }
+        for (final CameraInstance instance : getRunningInstances()) {
+            instance.getCameraPreview().setMainHandler(new Handler(pluginActivity.getMainLooper()));
+            // released by onDetachedFromActivity
+            instance.holdOrientation();
+            instance.getCameraStateManager().startCamera(instance.getCameraId())
+                    .subscribe(new Action() {
+                        @Override
+                        public void run() {
+                        }
+                    }, new Consumer<Throwable>() {
+                        @Override
+                        public void accept(Throwable e) {
+                            instance.releaseOrientation();
+                            Log.e(TAG, "restart camera on attach failed", e);
+                        }
+                    });
         }
     }
 
     @Override
     public void onDetachedFromActivityForConfigChanges() {
         this.pluginActivity = null;
-        this.mCameraPreview.setMainHandler(null);
+        for (CameraInstance instance : getRunningInstances()) {
+            instance.getCameraPreview().setMainHandler(null);
+        }
     }
 
     @Override
     public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
         this.pluginActivity = binding.getActivity();
-        this.mCameraPreview.setMainHandler(new Handler(pluginActivity.getMainLooper()));
+        for (CameraInstance instance : getRunningInstances()) {
+            instance.getCameraPreview().setMainHandler(new Handler(pluginActivity.getMainLooper()));
+        }
     }
 
     @Override
     public void onDetachedFromActivity() {
         this.pluginActivity = null;
-        if (this.mCameraStateManager != null) {
-            this.mCameraStateManager.stopCamera();
-            //this.mCameraStateManager = null;
-        }
-        if (this.mCameraPreview != null) {
-            this.mCameraPreview.setMainHandler(null);
+        for (CameraInstance instance : getRunningInstances()) {
+            instance.releaseOrientation();
+            instance.getCameraStateManager().stopCamera().subscribe();
+            instance.getCameraPreview().setMainHandler(null);
         }
     }
 }
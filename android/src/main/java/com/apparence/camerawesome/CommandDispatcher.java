@@ -0,0 +1,256 @@
+package com.apparence.camerawesome;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Runs method calls one after the other on a camera control thread instead of platform main thread.
+ * <ul>
+ * <li>each call is answered once, on main thread, whatever the handler does</li>
+ * <li>a call not answered before its timeout gets a TIMEOUT error and is cancelled</li>
+ * <li>an exception thrown by a handler is sent as COMMAND_FAILED error</li>
+ * <li>time from dispatch to answer is recorded per method</li>
+ * </ul>
+ * A cancelled call still queued is dropped. A handler already running is not interrupted: it must check
+ * {@link #isCancelled(Result)} before side effects the caller would not expect after a TIMEOUT.
+ */
+public class CommandDispatcher {
+
+    private static final String TAG = CommandDispatcher.class.getName();
+
+    static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private final Handler commandHandler;
+
+    private final Handler mainHandler;
+
+    @Nullable
+    private final HandlerThread commandThread;
+
+    private final CommandHandler commandHandlerDelegate;
+
+    private final Map<String, Long> timeouts = new HashMap<>();
+
+    private final Map<String, CommandStats> stats = new HashMap<>();
+
+    public CommandDispatcher(CommandHandler commandHandler) {
+        this.commandThread = new HandlerThread("CameraCommands", Process.THREAD_PRIORITY_FOREGROUND);
+        this.commandThread.start();
+        this.commandHandler = new Handler(commandThread.getLooper());
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.commandHandlerDelegate = commandHandler;
+    }
+
+    @VisibleForTesting
+    CommandDispatcher(CommandHandler commandHandler, Handler commandThreadHandler, Handler mainHandler) {
+        this.commandThread = null;
+        this.commandHandler = commandThreadHandler;
+        this.mainHandler = mainHandler;
+        this.commandHandlerDelegate = commandHandler;
+    }
+
+    /**
+     * @param result result given to {@link CommandHandler#handle(MethodCall, Result)}
+     * @return true if caller already got a TIMEOUT for this call
+     */
+    public static boolean isCancelled(Result result) {
+        return result instanceof AnswerOnceResult && ((AnswerOnceResult) result).cancelled;
+    }
+
+    /**
+     * @param method    method name
+     * @param timeoutMs max time to answer this method
+     */
+    public void setTimeout(String method, long timeoutMs) {
+        timeouts.put(method, timeoutMs);
+    }
+
+    /**
+     * Queues a call on command thread, called from main thread
+     */
+    public void dispatch(final MethodCall call, final Result result) {
+        final AnswerOnceResult answerOnceResult = new AnswerOnceResult(call.method, result);
+        Long timeout = timeouts.get(call.method);
+        mainHandler.postDelayed(answerOnceResult.timeoutRunnable, timeout != null ? timeout : DEFAULT_TIMEOUT_MS);
+        commandHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (answerOnceResult.cancelled) {
+                    Log.w(TAG, "command " + call.method + " dropped after timeout");
+                    return;
+                }
+                try {
+                    commandHandlerDelegate.handle(call, answerOnceResult);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "command " + call.method + " failed", e);
+                    answerOnceResult.error("COMMAND_FAILED", e.getMessage(), "");
+                }
+            }
+        });
+    }
+
+    /**
+     * @return for each method: count, errors, timeouts, avgMs and maxMs
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> res = new HashMap<>();
+        for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+            res.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return res;
+    }
+
+    public void quit() {
+        if (commandThread != null) {
+            commandThread.quitSafely();
+        }
+    }
+
+    private synchronized void record(String method, long latencyNanos, boolean error, boolean timeout) {
+        CommandStats commandStats = stats.get(method);
+        if (commandStats == null) {
+            commandStats = new CommandStats();
+            stats.put(method, commandStats);
+        }
+        commandStats.count++;
+        commandStats.totalNanos += latencyNanos;
+        commandStats.maxNanos = Math.max(commandStats.maxNanos, latencyNanos);
+        if (error) {
+            commandStats.errors++;
+        }
+        if (timeout) {
+            commandStats.timeouts++;
+        }
+    }
+
+    /**
+     * Wraps flutter result: first answer wins and is sent on main thread, next ones are dropped
+     */
+    private class AnswerOnceResult implements Result {
+
+        private final String method;
+
+        private final Result result;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicBoolean answered = new AtomicBoolean(false);
+
+        // set once TIMEOUT is sent, late answers are dropped
+        volatile boolean cancelled;
+
+        final Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (!answered.compareAndSet(false, true)) {
+                    return;
+                }
+                cancelled = true;
+                Log.e(TAG, "command " + method + " timed out");
+                record(method, System.nanoTime() - startNanos, true, true);
+                result.error("TIMEOUT", method + " has not been answered in time", "");
+            }
+        };
+
+        AnswerOnceResult(String method, Result result) {
+            this.method = method;
+            this.result = result;
+        }
+
+        @Override
+        public void success(@Nullable final Object res) {
+            if (!answer(false)) {
+                return;
+            }
+            runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    result.success(res);
+                }
+            });
+        }
+
+        @Override
+        public void error(final String errorCode, @Nullable final String errorMessage, @Nullable final Object errorDetails) {
+            if (!answer(true)) {
+                return;
+            }
+            runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    result.error(errorCode, errorMessage, errorDetails);
+                }
+            });
+        }
+
+        @Override
+        public void notImplemented() {
+            if (!answer(true)) {
+                return;
+            }
+            runOnMain(new Runnable() {
+                @Override
+                public void run() {
+                    result.notImplemented();
+                }
+            });
+        }
+
+        private boolean answer(boolean error) {
+            if (!answered.compareAndSet(false, true)) {
+                Log.w(TAG, "command " + method + " already answered");
+                return false;
+            }
+            mainHandler.removeCallbacks(timeoutRunnable);
+            record(method, System.nanoTime() - startNanos, error, false);
+            return true;
+        }
+
+        private void runOnMain(Runnable runnable) {
+            if (Looper.myLooper() == mainHandler.getLooper()) {
+                runnable.run();
+            } else {
+                mainHandler.post(runnable);
+            }
+        }
+    }
+
+    private static class CommandStats {
+        long count;
+        long errors;
+        long timeouts;
+        long totalNanos;
+        long maxNanos;
+
+        Map<String, Object> toMap() {
+            Map<String, Object> res = new HashMap<>();
+            res.put("count", count);
+            res.put("errors", errors);
+            res.put("timeouts", timeouts);
+            res.put("avgMs", count > 0 ? totalNanos / (double) count / 1_000_000d : 0);
+            res.put("maxMs", maxNanos / 1_000_000d);
+            return res;
+        }
+    }
+
+    public interface CommandHandler {
+
+        /**
+         * Called on command thread, result can be answered from any thread
+         */
+        void handle(MethodCall call, Result result);
+    }
+}
@@ -0,0 +1,120 @@
+package com.apparence.camerawesome;
+
+import android.os.Build;
+import android.util.Range;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * Trade-offs between battery, heat and smoothness, every value is applied together
+ */
+public enum PerformanceProfile {
+
+    // lets auto exposure drop fps in low light, one small stream converted at a time
+    LOW_POWER(15, 24, 640, 480, 1, 2, 60, 85),
+    BALANCED(24, 30, 1280, 720, 2, 3, 80, 95),
+    // fixed high fps range, more converters working in parallel
+    HIGH_FPS(60, 60, 1280, 720, 3, 5, 70, 90);
+
+    // preferred lower bound of fps range, lower if device doesn't have it
+    final int minFps;
+
+    final int maxFps;
+
+    final int streamWidth;
+
+    final int streamHeight;
+
+    final int converterWorkers;
+
+    // ImageReader maxImages of the stream, must be > converterWorkers
+    final int readerDepth;
+
+    final int streamJpegQuality;
+
+    final int photoJpegQuality;
+
+    PerformanceProfile(int minFps, int maxFps, int streamWidth, int streamHeight, int converterWorkers,
+                       int readerDepth, int streamJpegQuality, int photoJpegQuality) {
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.streamWidth = streamWidth;
+        this.streamHeight = streamHeight;
+        this.converterWorkers = converterWorkers;
+        this.readerDepth = readerDepth;
+        this.streamJpegQuality = streamJpegQuality;
+        this.photoJpegQuality = photoJpegQuality;
+    }
+
+    public int getMaxFps() {
+        return maxFps;
+    }
+
+    public int getConverterWorkers() {
+        return converterWorkers;
+    }
+
+    public int getReaderDepth() {
+        return readerDepth;
+    }
+
+    public int getStreamWidth() {
+        return streamWidth;
+    }
+
+    public int getStreamHeight() {
+        return streamHeight;
+    }
+
+    public int getStreamJpegQuality() {
+        return streamJpegQuality;
+    }
+
+    public int getPhotoJpegQuality() {
+        return photoJpegQuality;
+    }
+
+    /**
+     * Chooses in device ranges the one closest to this profile:
+     * highest upper bound not above maxFps, then lower bound closest to minFps
+     *
+     * @return null if device doesn't report any range
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public Range<Integer> chooseFpsRange(Range<Integer>[] ranges) {
+        return chooseFpsRange(ranges, maxFps);
+    }
+
+    /**
+     * Same as {@link #chooseFpsRange(Range[])} with a lower fps limit
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public Range<Integer> chooseFpsRange(Range<Integer>[] ranges, int fpsLimit) {
+        if (ranges == null || ranges.length == 0) {
+            return null;
+        }
+        int maxFps = Math.min(this.maxFps, fpsLimit);
+        int minFps = Math.min(this.minFps, maxFps);
+        Range<Integer> res = null;
+        for (Range<Integer> range : ranges) {
+            if (res == null || isBetter(range, res, minFps, maxFps)) {
+                res = range;
+            }
+        }
+        return res;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private static boolean isBetter(Range<Integer> range, Range<Integer> current, int minFps, int maxFps) {
+        boolean fits = range.getUpper() <= maxFps;
+        boolean currentFits = current.getUpper() <= maxFps;
+        if (fits != currentFits) {
+            return fits;
+        }
+        if (!range.getUpper().equals(current.getUpper())) {
+            // if none fits take the slowest one, else the fastest
+            return fits ? range.getUpper() > current.getUpper() : range.getUpper() < current.getUpper();
+        }
+        return Math.abs(range.getLower() - minFps) < Math.abs(current.getLower() - minFps);
+    }
+}
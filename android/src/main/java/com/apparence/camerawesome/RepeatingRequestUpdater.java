@@ -0,0 +1,157 @@
+package com.apparence.camerawesome;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces settings changes (zoom, flash, brightness...) into at most one repeating request per frame.
+ * Setters only mark the request dirty, the rebuild runs later on camera thread and always reads latest values.
+ */
+public class RepeatingRequestUpdater {
+
+    private static final long DEFAULT_FRAME_INTERVAL_NS = 33_333_333L;
+
+    // frame interval estimate is clamped to this, a paused preview must not delay settings too long
+    private static final long MAX_FRAME_INTERVAL_NS = 100_000_000L;
+
+    private final Handler cameraHandler;
+
+    private final RequestSubmitter submitter;
+
+    private final NanoClock clock;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final AtomicLong invalidateCount = new AtomicLong();
+
+    private final AtomicLong submitCount = new AtomicLong();
+
+    private volatile long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NS;
+
+    private volatile long lastFrameNanos;
+
+    private volatile long lastSubmitNanos;
+
+    private final Runnable submitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            submitIfDirty();
+        }
+    };
+
+    /**
+     * @param cameraHandler thread where the request is rebuilt, if null requests are submitted immediately
+     * @param submitter     rebuilds the request with latest values and submits it
+     */
+    public RepeatingRequestUpdater(Handler cameraHandler, RequestSubmitter submitter) {
+        this(cameraHandler, submitter, new NanoClock() {
+            @Override
+            public long nanoTime() {
+                return SystemClock.elapsedRealtimeNanos();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    RepeatingRequestUpdater(Handler cameraHandler, RequestSubmitter submitter, NanoClock clock) {
+        this.cameraHandler = cameraHandler;
+        this.submitter = submitter;
+        this.clock = clock;
+    }
+
+    /**
+     * Marks request as dirty, can be called from any thread as many times as wanted
+     */
+    public void invalidate() {
+        invalidateCount.incrementAndGet();
+        dirty.set(true);
+        if (cameraHandler == null) {
+            submitIfDirty();
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            long nextSubmitNanos = lastSubmitNanos + frameIntervalNanos;
+            long delayMs = Math.max(0, (nextSubmitNanos - clock.nanoTime()) / 1_000_000);
+            cameraHandler.postDelayed(submitRunnable, delayMs);
+        }
+    }
+
+    /**
+     * Called on each frame to follow the real frame rate
+     */
+    public void onFrame() {
+        long now = clock.nanoTime();
+        long last = lastFrameNanos;
+        lastFrameNanos = now;
+        if (last == 0) {
+            return;
+        }
+        long interval = Math.min(now - last, MAX_FRAME_INTERVAL_NS);
+        // smooth estimate, a single late frame shouldn't change it much
+        frameIntervalNanos = (frameIntervalNanos * 7 + interval) / 8;
+    }
+
+    /**
+     * Submits now a change that couldn't be submitted before (no session yet), must run on camera thread
+     *
+     * @return true if a request has been sent to the camera
+     */
+    public boolean flush() {
+        return submitIfDirty();
+    }
+
+    public long getInvalidateCount() {
+        return invalidateCount.get();
+    }
+
+    public long getSubmitCount() {
+        return submitCount.get();
+    }
+
+    /**
+     * @return how many settings changes were merged in each submitted request (1 means no coalescing)
+     */
+    public double getCoalesceRatio() {
+        long submits = submitCount.get();
+        if (submits == 0) {
+            return 0;
+        }
+        return (double) invalidateCount.get() / submits;
+    }
+
+    private boolean submitIfDirty() {
+        if (!dirty.getAndSet(false)) {
+            return false;
+        }
+        if (!submitter.submit()) {
+            // no session to send it to, kept for next invalidate or flush
+            dirty.set(true);
+            return false;
+        }
+        submitCount.incrementAndGet();
+        lastSubmitNanos = clock.nanoTime();
+        return true;
+    }
+
+    public interface RequestSubmitter {
+
+        /**
+         * @return true if a request has been sent to the camera
+         */
+        boolean submit();
+    }
+
+    @VisibleForTesting
+    interface NanoClock {
+
+        long nanoTime();
+    }
+}
@@ -0,0 +1,11 @@
+package com.apparence.camerawesome;
+
+/**
+ * How the capture session is configured when camera starts
+ */
+public enum StartupMode {
+    // preview, photo, recorder and stream outputs are all created before configuring the session
+    ALL_OUTPUTS,
+    // session is first configured with preview only, other outputs are attached after the first frame
+    PREVIEW_FIRST
+}
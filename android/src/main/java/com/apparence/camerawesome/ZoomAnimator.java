@@ -0,0 +1,133 @@
+package com.apparence.camerawesome;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Animates zoom natively: one call gives target and duration,
+ * zoom value is then interpolated on each frame (see {@link #onFrame(long)}).
+ * All zoom writes go through this class so a frame can't override a zoom set meanwhile.
+ */
+public class ZoomAnimator {
+
+    public enum Curve {
+        LINEAR,
+        EASE_IN,
+        EASE_OUT,
+        EASE_IN_OUT;
+
+        float apply(float t) {
+            switch (this) {
+                case EASE_IN:
+                    return t * t;
+                case EASE_OUT:
+                    return t * (2 - t);
+                case EASE_IN_OUT:
+                    return t < 0.5f ? 2 * t * t : -1 + (4 - 2 * t) * t;
+                case LINEAR:
+                default:
+                    return t;
+            }
+        }
+    }
+
+    private final ZoomTarget zoomTarget;
+
+    // guards animation changes and zoom writes
+    private final Object lock = new Object();
+
+    private volatile Animation animation;
+
+    public ZoomAnimator(ZoomTarget zoomTarget) {
+        this.zoomTarget = zoomTarget;
+    }
+
+    /**
+     * Starts animating from current zoom to target, replaces any running animation
+     *
+     * @param target     zoom between 0 and 1
+     * @param durationMs duration of animation, zoom is applied directly if <= 0
+     * @param curve      easing curve
+     */
+    public void zoomTo(float target, long durationMs, Curve curve) {
+        zoomTo(target, durationMs, curve, System.nanoTime());
+    }
+
+    @VisibleForTesting
+    void zoomTo(float target, long durationMs, Curve curve, long nowNanos) {
+        synchronized (lock) {
+            float from = zoomTarget.getZoom();
+            if (durationMs <= 0 || from == target) {
+                animation = null;
+                zoomTarget.applyZoom(target);
+                return;
+            }
+            animation = new Animation(from, target, nowNanos, durationMs * 1_000_000L, curve);
+        }
+    }
+
+    /**
+     * Stops any running animation and applies zoom directly
+     */
+    public void setZoom(float zoom) {
+        synchronized (lock) {
+            animation = null;
+            zoomTarget.applyZoom(zoom);
+        }
+    }
+
+    public void cancel() {
+        synchronized (lock) {
+            animation = null;
+        }
+    }
+
+    public boolean isAnimating() {
+        return animation != null;
+    }
+
+    /**
+     * Called once per frame (capture completed), computes and applies zoom for this frame
+     */
+    public void onFrame(long nowNanos) {
+        Animation current = animation;
+        if (current == null) {
+            return;
+        }
+        float progress = Math.min(1f, Math.max(0f, (float) (nowNanos - current.startNanos) / current.durationNanos));
+        float zoom = current.from + (current.to - current.from) * current.curve.apply(progress);
+        synchronized (lock) {
+            // cancelled or replaced while computing, a newer zoom may already be applied
+            if (animation != current) {
+                return;
+            }
+            if (progress >= 1f) {
+                animation = null;
+                zoom = current.to;
+            }
+            zoomTarget.applyZoom(zoom);
+        }
+    }
+
+    private static class Animation {
+        final float from;
+        final float to;
+        final long startNanos;
+        final long durationNanos;
+        final Curve curve;
+
+        Animation(float from, float to, long startNanos, long durationNanos, Curve curve) {
+            this.from = from;
+            this.to = to;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.curve = curve;
+        }
+    }
+
+    public interface ZoomTarget {
+
+        float getZoom();
+
+        void applyZoom(float zoom);
+    }
+}
@@ -0,0 +1,155 @@
+package com.apparence.camerawesome.cache;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+
+import com.apparence.camerawesome.CameraSensor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a snapshot of each sensor characteristics in app files dir
+ * so setup doesn't have to wait for CameraManager on repeat launches.
+ * The whole file is dropped if device fingerprint or OS build changed.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CameraCharacteristicsCache {
+
+    private static final String TAG = CameraCharacteristicsCache.class.getName();
+
+    private static final String FILE_NAME = "camerawesome_characteristics.json";
+
+    private static final String KEY_FIELD = "key";
+
+    private static final String SENSORS_FIELD = "sensors";
+
+    // in process copy, read from disk once
+    // shared by every cache instance so guarded by a static lock
+    private static final Object LOCK = new Object();
+
+    private static Map<CameraSensor, CameraCharacteristicsSnapshot> memoryCache;
+
+    private final File file;
+
+    private final String deviceKey;
+
+    public CameraCharacteristicsCache(Context context) {
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+        this.deviceKey = Build.FINGERPRINT + "|" + Build.VERSION.SDK_INT + "|" + Build.VERSION.INCREMENTAL;
+    }
+
+    public CameraCharacteristicsSnapshot get(CameraSensor sensor) {
+        synchronized (LOCK) {
+            if (memoryCache == null) {
+                memoryCache = readFromDisk();
+            }
+            return memoryCache.get(sensor);
+        }
+    }
+
+    /**
+     * Updates a sensor snapshot and writes the whole cache file
+     * should be called from a background thread
+     */
+    public void put(CameraSensor sensor, CameraCharacteristicsSnapshot snapshot) {
+        synchronized (LOCK) {
+            if (memoryCache == null) {
+                memoryCache = readFromDisk();
+            }
+            memoryCache.put(sensor, snapshot);
+            writeToDisk(memoryCache);
+        }
+    }
+
+    public void clear() {
+        synchronized (LOCK) {
+            memoryCache = new HashMap<>();
+            if (file.exists() && !file.delete()) {
+                Log.e(TAG, "clear: cannot delete cache file");
+            }
+        }
+    }
+
+    /**
+     * Forgets the in process copy so next read comes from disk
+     */
+    @VisibleForTesting
+    static void dropMemoryCache() {
+        synchronized (LOCK) {
+            memoryCache = null;
+        }
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private Map<CameraSensor, CameraCharacteristicsSnapshot> readFromDisk() {
+        Map<CameraSensor, CameraCharacteristicsSnapshot> res = new HashMap<>();
+        if (!file.exists()) {
+            return res;
+        }
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            byte[] content = new byte[(int) file.length()];
+            int read = 0;
+            while (read < content.length) {
+                int count = inputStream.read(content, read, content.length - read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            JSONObject json = new JSONObject(new String(content, 0, read, Charset.forName("UTF-8")));
+            if (!deviceKey.equals(json.optString(KEY_FIELD))) {
+                Log.d(TAG, "readFromDisk: device or OS changed, ignoring cache");
+                return res;
+            }
+            JSONObject sensors = json.getJSONObject(SENSORS_FIELD);
+            for (CameraSensor sensor : CameraSensor.values()) {
+                JSONObject sensorJson = sensors.optJSONObject(sensor.name());
+                if (sensorJson != null) {
+                    res.put(sensor, CameraCharacteristicsSnapshot.fromJson(sensorJson));
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "readFromDisk: invalid cache file", e);
+            res.clear();
+        }
+        return res;
+    }
+
+    private void writeToDisk(Map<CameraSensor, CameraCharacteristicsSnapshot> snapshots) {
+        try {
+            JSONObject sensors = new JSONObject();
+            for (Map.Entry<CameraSensor, CameraCharacteristicsSnapshot> entry : snapshots.entrySet()) {
+                sensors.put(entry.getKey().name(), entry.getValue().toJson());
+            }
+            JSONObject json = new JSONObject();
+            json.put(KEY_FIELD, deviceKey);
+            json.put(SENSORS_FIELD, sensors);
+            // write in a tmp file first so a crash never leaves a half written cache
+            File tmpFile = new File(file.getPath() + ".tmp");
+            try (FileOutputStream outputStream = new FileOutputStream(tmpFile)) {
+                outputStream.write(json.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            if (!tmpFile.renameTo(file)) {
+                Log.e(TAG, "writeToDisk: cannot rename cache file");
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "writeToDisk: failed", e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.apparence.camerawesome.cache;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Range;
+import android.util.Rational;
+import android.util.Size;
+
+import androidx.annotation.RequiresApi;
+
+import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Persistable copy of the {@link CameraCharacteristics} fields used by the plugin
+ * (everything {@link CameraCharacteristicsModel.Builder} needs plus output sizes)
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CameraCharacteristicsSnapshot {
+
+    private final String cameraId;
+
+    private final int sensorOrientation;
+
+    private final float maxZoom;
+
+    private final int[] activeArray;
+
+    private final int[] afModes;
+
+    private final boolean flashAvailable;
+
+    private final int[] aeCompensationRange;
+
+    private final int[] aeCompensationStep;
+
+    private final int[] jpegSizes;
+
+    // lower, upper pairs
+    private final int[] aeTargetFpsRanges;
+
+    CameraCharacteristicsSnapshot(String cameraId, int sensorOrientation, float maxZoom, int[] activeArray,
+                                  int[] afModes, boolean flashAvailable, int[] aeCompensationRange,
+                                  int[] aeCompensationStep, int[] jpegSizes, int[] aeTargetFpsRanges) {
+        this.cameraId = cameraId;
+        this.sensorOrientation = sensorOrientation;
+        this.maxZoom = maxZoom;
+        this.activeArray = activeArray;
+        this.afModes = afModes;
+        this.flashAvailable = flashAvailable;
+        this.aeCompensationRange = aeCompensationRange;
+        this.aeCompensationStep = aeCompensationStep;
+        this.jpegSizes = jpegSizes;
+        this.aeTargetFpsRanges = aeTargetFpsRanges;
+    }
+
+    /**
+     * Reads all fields we need from the camera service
+     * this is the slow path we want to avoid on cold start
+     */
+    public static CameraCharacteristicsSnapshot from(String cameraId, CameraCharacteristics characteristics) {
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        Boolean flash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        Range<Integer> aeRange = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+        Rational aeStep = characteristics.get(CameraCharacteristics.CONTROL_AE_COMPENSATION_STEP);
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        return new CameraCharacteristicsSnapshot(
+                cameraId,
+                orientation != null ? orientation : 0,
+                maxZoom != null ? maxZoom : 1f,
+                activeArray != null ? new int[]{activeArray.left, activeArray.top, activeArray.right, activeArray.bottom} : null,
+                characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES),
+                flash != null && flash,
+                aeRange != null ? new int[]{aeRange.getLower(), aeRange.getUpper()} : null,
+                aeStep != null ? new int[]{aeStep.getNumerator(), aeStep.getDenominator()} : null,
+                map != null ? flattenSizes(map.getOutputSizes(ImageFormat.JPEG)) : new int[0],
+                flattenRanges(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES))
+        );
+    }
+
+    public CameraCharacteristicsModel toModel() {
+        return new CameraCharacteristicsModel.Builder()
+                .withMaxZoom(maxZoom)
+                .withAvailablePreviewZone(activeArray != null ? new Rect(activeArray[0], activeArray[1], activeArray[2], activeArray[3]) : null)
+                .withAutoFocus(afModes)
+                .withFlash(flashAvailable)
+                .withAeCompensationRange(aeCompensationRange != null ? new Range<>(aeCompensationRange[0], aeCompensationRange[1]) : null)
+                .withAeCompensationStep(aeCompensationStep != null ? new Rational(aeCompensationStep[0], aeCompensationStep[1]) : null)
+                .withAeTargetFpsRanges(toRanges(aeTargetFpsRanges))
+                .build();
+    }
+
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    public int getSensorOrientation() {
+        return sensorOrientation;
+    }
+
+    public Size[] getJpegSizes() {
+        Size[] sizes = new Size[jpegSizes.length / 2];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(jpegSizes[i * 2], jpegSizes[i * 2 + 1]);
+        }
+        return sizes;
+    }
+
+    // ------------------------------------------------------
+    // SERIALIZATION
+    // ------------------------------------------------------
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("cameraId", cameraId);
+        json.put("sensorOrientation", sensorOrientation);
+        json.put("maxZoom", (double) maxZoom);
+        json.put("activeArray", toJsonArray(activeArray));
+        json.put("afModes", toJsonArray(afModes));
+        json.put("flashAvailable", flashAvailable);
+        json.put("aeCompensationRange", toJsonArray(aeCompensationRange));
+        json.put("aeCompensationStep", toJsonArray(aeCompensationStep));
+        json.put("jpegSizes", toJsonArray(jpegSizes));
+        json.put("aeTargetFpsRanges", toJsonArray(aeTargetFpsRanges));
+        return json;
+    }
+
+    static CameraCharacteristicsSnapshot fromJson(JSONObject json) throws JSONException {
+        return new CameraCharacteristicsSnapshot(
+                json.getString("cameraId"),
+                json.getInt("sensorOrientation"),
+                (float) json.getDouble("maxZoom"),
+                toIntArray(json.optJSONArray("activeArray")),
+                toIntArray(json.optJSONArray("afModes")),
+                json.getBoolean("flashAvailable"),
+                toIntArray(json.optJSONArray("aeCompensationRange")),
+                toIntArray(json.optJSONArray("aeCompensationStep")),
+                toIntArray(json.getJSONArray("jpegSizes")),
+                toIntArray(json.optJSONArray("aeTargetFpsRanges"))
+        );
+    }
+
+    /**
+     * Two snapshots are the same if they serialize the same way
+     * this is used to detect if hardware reports something different than the cache
+     */
+    public boolean sameAs(CameraCharacteristicsSnapshot other) {
+        if (other == null) {
+            return false;
+        }
+        try {
+            return toJson().toString().equals(other.toJson().toString());
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    private static int[] flattenSizes(Size[] sizes) {
+        if (sizes == null) {
+            return new int[0];
+        }
+        int[] res = new int[sizes.length * 2];
+        for (int i = 0; i < sizes.length; i++) {
+            res[i * 2] = sizes[i].getWidth();
+            res[i * 2 + 1] = sizes[i].getHeight();
+        }
+        return res;
+    }
+
+    private static int[] flattenRanges(Range<Integer>[] ranges) {
+        if (ranges == null) {
+            return null;
+        }
+        int[] res = new int[ranges.length * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            res[i * 2] = ranges[i].getLower();
+            res[i * 2 + 1] = ranges[i].getUpper();
+        }
+        return res;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Range<Integer>[] toRanges(int[] values) {
+        if (values == null) {
+            return null;
+        }
+        Range<Integer>[] res = new Range[values.length / 2];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = new Range<>(values[i * 2], values[i * 2 + 1]);
+        }
+        return res;
+    }
+
+    private static Object toJsonArray(int[] values) {
+        if (values == null) {
+            return JSONObject.NULL;
+        }
+        JSONArray array = new JSONArray();
+        for (int value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    private static int[] toIntArray(JSONArray array) throws JSONException {
+        if (array == null) {
+            return null;
+        }
+        int[] res = new int[array.length()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = array.getInt(i);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,277 @@
+package com.apparence.camerawesome.governor;
+
+/**
+ * Feedback controller stepping image stream quality down when conversion can't keep up
+ * or device heats, and back up once it has been healthy for a while.
+ * <p>
+ * Levels are applied in order, each one keeps the previous ones:
+ * <ol>
+ * <li>lower JPEG quality</li>
+ * <li>half stream resolution</li>
+ * <li>half fps</li>
+ * </ol>
+ * Stepping down is quick and stepping up is slow so we don't oscillate around a limit.
+ * No android classes here, thermal status uses PowerManager THERMAL_STATUS_* values.
+ */
+public class StreamGovernor {
+
+    public static final int MAX_LEVEL = 3;
+
+    // PowerManager.THERMAL_STATUS_* values
+    public static final int THERMAL_STATUS_NONE = 0;
+    public static final int THERMAL_STATUS_LIGHT = 1;
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+    public static final int THERMAL_STATUS_CRITICAL = 4;
+
+    private final Config config;
+
+    private final Listener listener;
+
+    private int level;
+
+    private int overloadedWindows;
+
+    private int healthyWindows;
+
+    private long lastChangeMs = Long.MIN_VALUE;
+
+    // current window stats
+    private long convertedCount;
+
+    private long droppedCount;
+
+    private long latencySumNanos;
+
+    private int thermalStatus = THERMAL_STATUS_NONE;
+
+    public StreamGovernor(Config config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+    }
+
+    public synchronized void onFrameConverted(long latencyNanos) {
+        convertedCount++;
+        latencySumNanos += latencyNanos;
+    }
+
+    public synchronized void onFrameDropped() {
+        droppedCount++;
+    }
+
+    public synchronized void onThermalStatus(int thermalStatus) {
+        this.thermalStatus = thermalStatus;
+    }
+
+    /**
+     * Closes current window and decides if level must change
+     *
+     * @param nowMs monotonic clock in ms
+     * @return decision taken or null if level didn't change
+     */
+    public synchronized Decision evaluate(long nowMs) {
+        long converted = convertedCount;
+        long frames = converted + droppedCount;
+        double avgLatencyMs = converted > 0 ? latencySumNanos / (double) converted / 1_000_000d : 0;
+        double dropRate = frames > 0 ? droppedCount / (double) frames : 0;
+        convertedCount = 0;
+        droppedCount = 0;
+        latencySumNanos = 0;
+
+        Reason overloadReason = null;
+        if (thermalStatus >= THERMAL_STATUS_SEVERE) {
+            overloadReason = Reason.THERMAL;
+        } else if (frames >= config.minFramesPerWindow && dropRate > config.maxDropRate) {
+            overloadReason = Reason.DROPS;
+        } else if (converted > 0 && avgLatencyMs > config.latencyBudgetMs) {
+            overloadReason = Reason.LATENCY;
+        }
+        boolean healthy = overloadReason == null
+                && thermalStatus <= THERMAL_STATUS_LIGHT
+                && dropRate <= config.healthyDropRate
+                && avgLatencyMs <= config.latencyBudgetMs * config.healthyLatencyRatio;
+
+        if (overloadReason != null) {
+            healthyWindows = 0;
+            overloadedWindows++;
+        } else if (healthy) {
+            overloadedWindows = 0;
+            healthyWindows++;
+        } else {
+            // in between, keep current level
+            overloadedWindows = 0;
+            healthyWindows = 0;
+        }
+
+        int newLevel = level;
+        Reason reason = null;
+        if (thermalStatus >= THERMAL_STATUS_CRITICAL) {
+            // don't wait, device is about to throttle hard
+            newLevel = MAX_LEVEL;
+            reason = Reason.THERMAL;
+        } else if (overloadedWindows >= config.downgradeAfterWindows && isCooldownOver(nowMs)) {
+            newLevel = Math.min(MAX_LEVEL, level + 1);
+            reason = overloadReason;
+        } else if (healthyWindows >= config.upgradeAfterWindows && isCooldownOver(nowMs)) {
+            newLevel = Math.max(0, level - 1);
+            reason = Reason.RECOVERED;
+        }
+        if (newLevel == level) {
+            return null;
+        }
+        Decision decision = new Decision(level, newLevel, reason, avgLatencyMs, dropRate, thermalStatus, nowMs);
+        level = newLevel;
+        lastChangeMs = nowMs;
+        overloadedWindows = 0;
+        healthyWindows = 0;
+        if (listener != null) {
+            listener.onDecision(decision);
+        }
+        return decision;
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    /**
+     * Back to full quality, used when stream restarts or profile changes
+     */
+    public synchronized void reset() {
+        level = 0;
+        overloadedWindows = 0;
+        healthyWindows = 0;
+        lastChangeMs = Long.MIN_VALUE;
+        convertedCount = 0;
+        droppedCount = 0;
+        latencySumNanos = 0;
+    }
+
+    /**
+     * Quality to use for a level
+     *
+     * @param base values of current performance profile
+     */
+    public static Quality qualityFor(int level, Quality base) {
+        int jpegQuality = level >= 1 ? Math.max(40, base.jpegQuality - 25) : base.jpegQuality;
+        int streamWidth = level >= 2 ? base.streamWidth / 2 : base.streamWidth;
+        int streamHeight = level >= 2 ? base.streamHeight / 2 : base.streamHeight;
+        int maxFps = level >= 3 ? Math.max(15, base.maxFps / 2) : base.maxFps;
+        return new Quality(jpegQuality, streamWidth, streamHeight, maxFps);
+    }
+
+    private boolean isCooldownOver(long nowMs) {
+        return lastChangeMs == Long.MIN_VALUE || nowMs - lastChangeMs >= config.cooldownMs;
+    }
+
+    public enum Reason {
+        LATENCY,
+        DROPS,
+        THERMAL,
+        RECOVERED
+    }
+
+    public static class Config {
+
+        // average conversion time above which we are overloaded
+        double latencyBudgetMs = 50;
+
+        // share of frames dropped above which we are overloaded
+        double maxDropRate = 0.3;
+
+        // healthy only if latency is below budget * this ratio
+        double healthyLatencyRatio = 0.5;
+
+        double healthyDropRate = 0.05;
+
+        // windows with too few frames don't say anything about drops
+        int minFramesPerWindow = 5;
+
+        int downgradeAfterWindows = 2;
+
+        int upgradeAfterWindows = 5;
+
+        // min time between two level changes
+        long cooldownMs = 3000;
+
+        public Config setLatencyBudgetMs(double latencyBudgetMs) {
+            this.latencyBudgetMs = latencyBudgetMs;
+            return this;
+        }
+
+        public Config setMaxDropRate(double maxDropRate) {
+            this.maxDropRate = maxDropRate;
+            return this;
+        }
+
+        public Config setDowngradeAfterWindows(int downgradeAfterWindows) {
+            this.downgradeAfterWindows = downgradeAfterWindows;
+            return this;
+        }
+
+        public Config setUpgradeAfterWindows(int upgradeAfterWindows) {
+            this.upgradeAfterWindows = upgradeAfterWindows;
+            return this;
+        }
+
+        public Config setCooldownMs(long cooldownMs) {
+            this.cooldownMs = cooldownMs;
+            return this;
+        }
+    }
+
+    public static class Quality {
+
+        public final int jpegQuality;
+
+        public final int streamWidth;
+
+        public final int streamHeight;
+
+        public final int maxFps;
+
+        public Quality(int jpegQuality, int streamWidth, int streamHeight, int maxFps) {
+            this.jpegQuality = jpegQuality;
+            this.streamWidth = streamWidth;
+            this.streamHeight = streamHeight;
+            this.maxFps = maxFps;
+        }
+    }
+
+    public static class Decision {
+
+        public final int previousLevel;
+
+        public final int level;
+
+        public final Reason reason;
+
+        public final double avgLatencyMs;
+
+        public final double dropRate;
+
+        public final int thermalStatus;
+
+        public final long timestampMs;
+
+        Decision(int previousLevel, int level, Reason reason, double avgLatencyMs, double dropRate,
+                 int thermalStatus, long timestampMs) {
+            this.previousLevel = previousLevel;
+            this.level = level;
+            this.reason = reason;
+            this.avgLatencyMs = avgLatencyMs;
+            this.dropRate = dropRate;
+            this.thermalStatus = thermalStatus;
+            this.timestampMs = timestampMs;
+        }
+
+        public boolean isDowngrade() {
+            return level > previousLevel;
+        }
+    }
+
+    public interface Listener {
+
+        void onDecision(Decision decision);
+    }
+}
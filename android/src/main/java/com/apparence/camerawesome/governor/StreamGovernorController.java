@@ -0,0 +1,185 @@
+package com.apparence.camerawesome.governor;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import com.apparence.camerawesome.image.ImgConverterThreaded;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Runs {@link StreamGovernor} on camera thread: feeds it conversion stats and thermal status,
+ * evaluates it once per window, applies decisions and sends them to flutter.
+ */
+public class StreamGovernorController implements EventChannel.StreamHandler, ImgConverterThreaded.ConversionListener {
+
+    private static final long WINDOW_MS = 1000;
+
+    private final Handler cameraHandler;
+
+    private final Handler mainHandler;
+
+    private final PowerManager powerManager;
+
+    private final QualityApplier qualityApplier;
+
+    private volatile StreamGovernor governor;
+
+    private volatile StreamGovernor.Quality baseQuality;
+
+    private volatile boolean enabled = true;
+
+    private volatile EventChannel.EventSink eventSink;
+
+    private final Runnable evaluateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+
+    public StreamGovernorController(Context context, Handler cameraHandler, Handler mainHandler,
+                                    QualityApplier qualityApplier) {
+        this.cameraHandler = cameraHandler;
+        this.mainHandler = mainHandler;
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.qualityApplier = qualityApplier;
+    }
+
+    /**
+     * Starts from full quality, called each time performance profile has been applied
+     *
+     * @param baseQuality quality of current profile
+     * @param workers     number of converters, conversions can take this many frame intervals
+     */
+    public void start(StreamGovernor.Quality baseQuality, int workers) {
+        cameraHandler.removeCallbacks(evaluateRunnable);
+        this.baseQuality = baseQuality;
+        double frameIntervalMs = 1000d / Math.max(1, baseQuality.maxFps);
+        governor = new StreamGovernor(
+                new StreamGovernor.Config().setLatencyBudgetMs(frameIntervalMs * Math.max(1, workers)),
+                null);
+        if (enabled) {
+            cameraHandler.postDelayed(evaluateRunnable, WINDOW_MS);
+        }
+    }
+
+    /**
+     * Stops taking decisions, current stream quality is kept
+     */
+    public void stop() {
+        cameraHandler.removeCallbacks(evaluateRunnable);
+        governor = null;
+    }
+
+    /**
+     * A disabled governor restores profile quality and stops taking decisions
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        StreamGovernor current = governor;
+        if (current == null) {
+            return;
+        }
+        cameraHandler.removeCallbacks(evaluateRunnable);
+        if (enabled) {
+            current.reset();
+            cameraHandler.postDelayed(evaluateRunnable, WINDOW_MS);
+        } else if (current.getLevel() != 0) {
+            current.reset();
+            qualityApplier.apply(baseQuality);
+        }
+    }
+
+    public int getLevel() {
+        StreamGovernor current = governor;
+        return current != null ? current.getLevel() : 0;
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private void evaluate() {
+        StreamGovernor current = governor;
+        if (current == null || !enabled) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+            current.onThermalStatus(powerManager.getCurrentThermalStatus());
+        }
+        StreamGovernor.Decision decision = current.evaluate(SystemClock.elapsedRealtime());
+        if (decision != null) {
+            qualityApplier.apply(StreamGovernor.qualityFor(decision.level, baseQuality));
+            sendDecision(decision);
+        }
+        cameraHandler.postDelayed(evaluateRunnable, WINDOW_MS);
+    }
+
+    private void sendDecision(StreamGovernor.Decision decision) {
+        final Map<String, Object> event = new HashMap<>();
+        event.put("previousLevel", decision.previousLevel);
+        event.put("level", decision.level);
+        event.put("reason", decision.reason.name());
+        event.put("avgLatencyMs", decision.avgLatencyMs);
+        event.put("dropRate", decision.dropRate);
+        event.put("thermalStatus", decision.thermalStatus);
+        event.put("timestampMs", decision.timestampMs);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (eventSink != null) {
+                    eventSink.success(event);
+                }
+            }
+        });
+    }
+
+    // ------------------------------------------------------
+    // ImgConverterThreaded.ConversionListener
+    // ------------------------------------------------------
+
+    @Override
+    public void onConverted(long latencyNanos) {
+        StreamGovernor current = governor;
+        if (current != null) {
+            current.onFrameConverted(latencyNanos);
+        }
+    }
+
+    @Override
+    public void onDropped() {
+        StreamGovernor current = governor;
+        if (current != null) {
+            current.onFrameDropped();
+        }
+    }
+
+    // ------------------------------------------------------
+    // EventChannel.StreamHandler
+    // ------------------------------------------------------
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        this.eventSink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        this.eventSink = null;
+    }
+
+    public interface QualityApplier {
+
+        /**
+         * Called on camera thread with the stream quality to use
+         */
+        void apply(StreamGovernor.Quality quality);
+    }
+}
@@ -0,0 +1,56 @@
+package com.apparence.camerawesome.image;
+
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.view.Surface;
+
+/**
+ * {@link ImageStream} backed by an {@link ImageReader}
+ */
+public class ImageReaderStream implements ImageStream {
+
+    private final ImageReader imageReader;
+
+    public ImageReaderStream(ImageReader imageReader) {
+        this.imageReader = imageReader;
+    }
+
+    @Override
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    @Override
+    public Image acquireLatestImage() {
+        return imageReader.acquireLatestImage();
+    }
+
+    @Override
+    public Image acquireNextImage() {
+        return imageReader.acquireNextImage();
+    }
+
+    @Override
+    public void setOnImageAvailableListener(final OnImageAvailableListener listener, Handler handler) {
+        if (listener == null) {
+            imageReader.setOnImageAvailableListener(null, null);
+            return;
+        }
+        imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                listener.onImageAvailable(ImageReaderStream.this);
+            }
+        }, handler);
+    }
+
+    @Override
+    public void close() {
+        imageReader.close();
+    }
+
+    public ImageReader getImageReader() {
+        return imageReader;
+    }
+}
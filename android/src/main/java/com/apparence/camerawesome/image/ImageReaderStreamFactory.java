@@ -0,0 +1,11 @@
+package com.apparence.camerawesome.image;
+
+import android.media.ImageReader;
+
+public class ImageReaderStreamFactory implements ImageStreamFactory {
+
+    @Override
+    public ImageStream build(int width, int height, int format, int maxImages) {
+        return new ImageReaderStream(ImageReader.newInstance(width, height, format, maxImages));
+    }
+}
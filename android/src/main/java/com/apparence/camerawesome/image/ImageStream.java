@@ -0,0 +1,41 @@
+package com.apparence.camerawesome.image;
+
+import android.media.Image;
+import android.os.Handler;
+import android.view.Surface;
+
+/**
+ * Camera output delivering images, an {@link android.media.ImageReader} on device.
+ * Lets preview and picture pipelines be fed by another source in tests.
+ */
+public interface ImageStream {
+
+    /**
+     * Surface to add to capture session and requests
+     */
+    Surface getSurface();
+
+    /**
+     * @return newest image (older pending ones are dropped), null if none
+     * @throws IllegalStateException if all images are already acquired
+     */
+    Image acquireLatestImage();
+
+    /**
+     * @return oldest pending image, null if none
+     * @throws IllegalStateException if all images are already acquired
+     */
+    Image acquireNextImage();
+
+    /**
+     * @param handler thread running the listener, null to remove it
+     */
+    void setOnImageAvailableListener(OnImageAvailableListener listener, Handler handler);
+
+    void close();
+
+    interface OnImageAvailableListener {
+
+        void onImageAvailable(ImageStream stream);
+    }
+}
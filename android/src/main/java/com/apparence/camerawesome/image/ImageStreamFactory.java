@@ -0,0 +1,10 @@
+package com.apparence.camerawesome.image;
+
+public interface ImageStreamFactory {
+
+    /**
+     * @param format    ImageFormat of delivered images
+     * @param maxImages number of images that can be acquired at the same time
+     */
+    ImageStream build(int width, int height, int format, int maxImages);
+}
@@ -6,4 +6,9 @@ import android.media.ImageReader;
 public interface ImgConverter {
 
     byte[] process(ImageReader imageReader);
+
+    /**
+     * Converts an already acquired image, caller is responsible for closing it
+     */
+    byte[] convert(Image image);
 }
@@ -1,46 +1,248 @@
 package com.apparence.camerawesome.image;
 
 import android.media.Image;
-import android.media.ImageReader;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
 
+import com.apparence.camerawesome.recorder.FlightRecorder;
 
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts stream images on a pool of workers.
+ * At most one image per worker is in flight, when all workers are busy new frames are dropped
+ * instead of queuing behind (the reader keeps only the latest one).
+ * Conversion tasks are reused and the work queue is an array, so handing a frame to a worker doesn't allocate.
+ */
 public class ImgConverterThreaded {
 
-    private static HandlerThread handlerThread = new HandlerThread("ImgConverterThreaded");
+    private static final String TAG = ImgConverterThreaded.class.getName();
+
+    // at most one image per worker is in flight, so queue never holds more than the workers count
+    private static final int MAX_QUEUED = 16;
+
+    private final ImgConverter converter;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile int workers;
+
+    private volatile ConversionListener conversionListener;
+
+    private volatile ImageAnalyzer imageAnalyzer;
 
-    private ImgConverter converter;
+    // tasks of finished conversions, reused by next frames
+    private final ArrayDeque<ConversionTask> idleTasks = new ArrayDeque<>();
 
     public ImgConverterThreaded(ImgConverter converter) {
-        if (handlerThread != null) {
-            handlerThread.quit();
-            handlerThread = new HandlerThread("ImgConverterThreaded");
-        }
-        this.converter = converter;
-        handlerThread.start();
+        this(converter, 1);
     }
 
-    public void process(final ImageReader imageReader, final Consumer consumer) {
-        Looper looper = handlerThread.getLooper();
-        if (looper == null) {
-            return;
-        }
-        Handler handler = new Handler(looper);
-        handler.post(new Runnable() {
+    public ImgConverterThreaded(ImgConverter converter, int workers) {
+        this.converter = converter;
+        this.workers = clampWorkers(workers);
+        this.executor = new ThreadPoolExecutor(this.workers, this.workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
             @Override
-            public void run() {
-                consumer.process(converter.process(imageReader));
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImgConverterThreaded-" + count.incrementAndGet());
             }
         });
     }
 
+    /**
+     * Acquires latest image on calling thread and converts it on a worker
+     *
+     * @param consumer receives converted image, if null image is only given to the analyzer
+     */
+    public void process(final ImageStream imageStream, final Consumer consumer) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        if (inFlight.incrementAndGet() > workers) {
+            inFlight.decrementAndGet();
+            onDropped();
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final Image image;
+        try {
+            image = imageStream.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            // all reader images are still held
+            inFlight.decrementAndGet();
+            onDropped();
+            return;
+        }
+        if (image == null) {
+            inFlight.decrementAndGet();
+            return;
+        }
+        ConversionTask task = obtainTask();
+        task.image = image;
+        task.consumer = consumer;
+        task.startNanos = startNanos;
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "process: converter disposed");
+            task.recycle();
+            image.close();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Changes number of parallel conversions, reader depth must stay above it
+     */
+    public void setWorkers(int workers) {
+        int count = clampWorkers(workers);
+        if (count > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(count);
+            executor.setCorePoolSize(count);
+        } else {
+            executor.setCorePoolSize(count);
+            executor.setMaximumPoolSize(count);
+        }
+        this.workers = count;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public void setConversionListener(ConversionListener conversionListener) {
+        this.conversionListener = conversionListener;
+    }
+
+    /**
+     * @param imageAnalyzer runs on workers with each raw image before it is converted
+     */
+    public void setImageAnalyzer(ImageAnalyzer imageAnalyzer) {
+        this.imageAnalyzer = imageAnalyzer;
+    }
+
+    public ImgConverter getConverter() {
+        return converter;
+    }
+
     public void dispose() {
-        handlerThread.quitSafely();
+        executor.shutdown();
+    }
+
+    private static int clampWorkers(int workers) {
+        return Math.min(MAX_QUEUED, Math.max(1, workers));
+    }
+
+    private ConversionTask obtainTask() {
+        synchronized (idleTasks) {
+            ConversionTask task = idleTasks.poll();
+            return task != null ? task : new ConversionTask();
+        }
+    }
+
+    private void onDropped() {
+        FlightRecorder.getInstance().record(FlightRecorder.Event.FRAME_DROPPED, droppedCount.incrementAndGet());
+        ConversionListener listener = conversionListener;
+        if (listener != null) {
+            listener.onDropped();
+        }
+    }
+
+    private class ConversionTask implements Runnable {
+
+        private Image image;
+
+        private Consumer consumer;
+
+        private long startNanos;
+
+        @Override
+        public void run() {
+            Image current = image;
+            Consumer currentConsumer = consumer;
+            long currentStartNanos = startNanos;
+            // task can be reused as soon as its image is closed
+            recycle();
+            byte[] result = null;
+            try {
+                ImageAnalyzer analyzer = imageAnalyzer;
+                if (analyzer != null) {
+                    analyzer.analyze(current);
+                }
+                if (currentConsumer != null) {
+                    result = converter.convert(current);
+                }
+            } finally {
+                current.close();
+                inFlight.decrementAndGet();
+            }
+            if (currentConsumer == null) {
+                // analysis only, nothing was converted
+                return;
+            }
+            currentConsumer.process(result);
+            ConversionListener listener = conversionListener;
+            if (listener != null) {
+                listener.onConverted(System.nanoTime() - currentStartNanos);
+            }
+        }
+
+        void recycle() {
+            image = null;
+            consumer = null;
+            synchronized (idleTasks) {
+                idleTasks.push(this);
+            }
+        }
+    }
+
+    /**
+     * Reads raw images on converter workers, image must not be kept after analyze returns
+     */
+    public interface ImageAnalyzer {
+        void analyze(Image image);
     }
 
     public interface Consumer {
         void process(byte[] result);
     }
+
+    /**
+     * Follows conversion load, called from converter threads
+     */
+    public interface ConversionListener {
+
+        /**
+         * Called once consumer has taken the converted frame, not for frames only given to the analyzer
+         *
+         * @param latencyNanos time from image acquisition to end of conversion
+         */
+        void onConverted(long latencyNanos);
+
+        void onDropped();
+    }
 }
@@ -0,0 +1,62 @@
+package com.apparence.camerawesome.image;
+
+/**
+ * Region of stream images sent to flutter, relative to image size (0 is left or top edge, 1 is right or bottom).
+ * Pixel bounds are rounded outward to even coordinates so U and V planes can be cropped on the same pixels.
+ */
+public final class StreamRegion {
+
+    private final float left;
+
+    private final float top;
+
+    private final float right;
+
+    private final float bottom;
+
+    /**
+     * @throws IllegalArgumentException if region is empty or not in [0, 1]
+     */
+    public StreamRegion(float left, float top, float right, float bottom) {
+        if (!(left >= 0 && top >= 0 && right <= 1 && bottom <= 1 && left < right && top < bottom)) {
+            throw new IllegalArgumentException("region must be a non empty rect in [0, 1]");
+        }
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    public int getLeft(int imageWidth) {
+        return start(left, imageWidth);
+    }
+
+    public int getTop(int imageHeight) {
+        return start(top, imageHeight);
+    }
+
+    /**
+     * @return even width of the region, at least 2 pixels
+     */
+    public int getWidth(int imageWidth) {
+        return end(left, right, imageWidth) - getLeft(imageWidth);
+    }
+
+    public int getHeight(int imageHeight) {
+        return end(top, bottom, imageHeight) - getTop(imageHeight);
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private static int start(float start, int size) {
+        // last even pixel leaving room for 2 pixels
+        return Math.min((int) Math.floor(start * size) & ~1, (size & ~1) - 2);
+    }
+
+    private static int end(float start, float end, int size) {
+        int rounded = ((int) Math.ceil(end * size) + 1) & ~1;
+        return Math.max(start(start, size) + 2, Math.min(rounded, size & ~1));
+    }
+}
@@ -12,37 +12,92 @@ import androidx.annotation.RequiresApi;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
+/**
+ * Converts stream images to jpeg, can be shared by converter workers.
+ * Each worker keeps its NV21 frame and jpeg buffers, only the returned jpeg is allocated per frame.
+ * If a {@link StreamRegion} is set only its pixels are packed and compressed.
+ */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public
 class YuvToJpgConverter implements ImgConverter {
 
+    private static final int DEFAULT_JPEG_QUALITY = 80;
+
+    private volatile int jpegQuality = DEFAULT_JPEG_QUALITY;
+
+    // whole image if null
+    private volatile StreamRegion region;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    public void setJpegQuality(int jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Used from next converted frame
+     *
+     * @param region null to convert whole images
+     */
+    public void setRegion(StreamRegion region) {
+        this.region = region;
+    }
+
     @Override
     public byte[] process(ImageReader reader) {
         final Image image = reader.acquireLatestImage();
-        byte[] data = null;
-        if (image != null) {
-            Image.Plane[] planes = image.getPlanes();
-            if (image.getFormat() == ImageFormat.JPEG) {
-                ByteBuffer buffer = planes[0].getBuffer();
-                data = new byte[buffer.capacity()];
-                buffer.get(data);
-                return data;
-            } else if (image.getFormat() == ImageFormat.YUV_420_888) {
-                data = NV21toJPEG(
-                        YUV_420_888toI420SemiPlanar(
-                                planes[0].getBuffer(),
-                                planes[1].getBuffer(),
-                                planes[2].getBuffer(),
-                                image.getWidth(), image.getHeight(),
-                                false),
-                        image.getWidth(), image.getHeight(), 80);
-
-            }
+        if (image == null) {
+            return null;
+        }
+        try {
+            return convert(image);
+        } finally {
             image.close();
         }
+    }
+
+    @Override
+    public byte[] convert(Image image) {
+        byte[] data = null;
+        Image.Plane[] planes = image.getPlanes();
+        StreamRegion region = this.region;
+        if (image.getFormat() == ImageFormat.JPEG) {
+            ByteBuffer buffer = planes[0].getBuffer();
+            data = new byte[buffer.capacity()];
+            buffer.get(data);
+        } else if (image.getFormat() == ImageFormat.YUV_420_888 && region != null) {
+            // only region pixels are read, packed and compressed
+            data = convertRegion(image, planes, region);
+        } else if (image.getFormat() == ImageFormat.YUV_420_888) {
+            Scratch current = scratch.get();
+            byte[] nv21 = YuvKernels.YUV_420_888toI420SemiPlanar(
+                    planes[0].getBuffer(),
+                    planes[1].getBuffer(),
+                    planes[2].getBuffer(),
+                    image.getWidth(), image.getHeight(),
+                    false, current.nv21);
+            data = current.compress(nv21, image.getWidth(), image.getHeight(), jpegQuality);
+        }
         return data;
     }
 
+    private byte[] convertRegion(Image image, Image.Plane[] planes, StreamRegion region) {
+        int width = region.getWidth(image.getWidth());
+        int height = region.getHeight(image.getHeight());
+        Scratch current = scratch.get();
+        byte[] nv21 = YuvKernels.YUV_420_888toNV21Region(
+                planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                region.getLeft(image.getWidth()), region.getTop(image.getHeight()), width, height,
+                current.nv21);
+        return current.compress(nv21, width, height, jpegQuality);
+    }
+
     public byte[] NV21toJPEG(byte[] nv21, int width, int height, int quality) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
@@ -52,45 +107,42 @@ class YuvToJpgConverter implements ImgConverter {
 
     // nv12: true = NV12, false = NV21
     public byte[] YUV_420_888toNV(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer, boolean nv12) {
-        byte[] nv;
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        nv = new byte[ySize + uSize + vSize];
-
-        yBuffer.get(nv, 0, ySize);
-        if (nv12) {//U and V are swapped
-            vBuffer.get(nv, ySize, vSize);
-            uBuffer.get(nv, ySize + vSize, uSize);
-        } else {
-            uBuffer.get(nv, ySize, uSize);
-            vBuffer.get(nv, ySize + uSize, vSize);
-        }
-        return nv;
+        return YuvKernels.YUV_420_888toNV(yBuffer, uBuffer, vBuffer, nv12);
     }
 
     public byte[] YUV_420_888toI420SemiPlanar(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer,
                                               int width, int height, boolean deInterleaveUV) {
-        byte[] data = YUV_420_888toNV(yBuffer, uBuffer, vBuffer, deInterleaveUV);
-        int size = width * height;
-        if (deInterleaveUV) {
-            byte[] buffer = new byte[3 * width * height / 2];
-
-            // De-interleave U and V
-            for (int i = 0; i < size / 4; i += 1) {
-                buffer[i] = data[size + 2 * i + 1];
-                buffer[size / 4 + i] = data[size + 2 * i];
-            }
-            System.arraycopy(buffer, 0, data, size, size / 2);
-        } else {
-            for (int i = size; i < data.length; i += 2) {
-                byte b1 = data[i];
-                data[i] = data[i + 1];
-                data[i + 1] = b1;
+        return YuvKernels.YUV_420_888toI420SemiPlanar(yBuffer, uBuffer, vBuffer, width, height, deInterleaveUV);
+    }
+
+    /**
+     * Buffers of one converter thread, YuvImage is kept as long as frame buffer and size don't change
+     */
+    private static class Scratch {
+
+        private final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+
+        private final Rect rect = new Rect();
+
+        private byte[] nv21;
+
+        private int width;
+
+        private int height;
+
+        private YuvImage yuvImage;
+
+        byte[] compress(byte[] frame, int width, int height, int quality) {
+            if (frame != nv21 || width != this.width || height != this.height) {
+                nv21 = frame;
+                this.width = width;
+                this.height = height;
+                rect.set(0, 0, width, height);
+                yuvImage = new YuvImage(frame, ImageFormat.NV21, width, height, null);
             }
+            jpeg.reset();
+            yuvImage.compressToJpeg(rect, quality, jpeg);
+            return jpeg.toByteArray();
         }
-        return data;
     }
 }
@@ -0,0 +1,100 @@
+package com.apparence.camerawesome.metadata;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Preallocated ring of fixed size capture metadata records, nothing is allocated per frame.
+ * When full, oldest records are overwritten.
+ * <p>
+ * Record layout (little endian, {@link #RECORD_SIZE} bytes):
+ * <pre>
+ * 0  long  frameNumber
+ * 8  long  sensorTimestampNs
+ * 16 long  exposureTimeNs
+ * 24 int   iso
+ * 28 float focusDistance (diopters)
+ * 32 int   lensState
+ * 36 int   aeState
+ * 40 int   afState
+ * 44 int   awbState
+ * </pre>
+ * Missing values are written as -1.
+ * Not thread safe: write and drain must be called from the same thread.
+ */
+public class CaptureMetadataRing {
+
+    public static final int RECORD_SIZE = 48;
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    // index of next record to write
+    private int head;
+
+    private int count;
+
+    private long overwrittenCount;
+
+    public CaptureMetadataRing(int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocate(capacity * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void write(long frameNumber, long sensorTimestampNs, long exposureTimeNs, int iso, float focusDistance,
+                      int lensState, int aeState, int afState, int awbState) {
+        int offset = head * RECORD_SIZE;
+        buffer.putLong(offset, frameNumber);
+        buffer.putLong(offset + 8, sensorTimestampNs);
+        buffer.putLong(offset + 16, exposureTimeNs);
+        buffer.putInt(offset + 24, iso);
+        buffer.putFloat(offset + 28, focusDistance);
+        buffer.putInt(offset + 32, lensState);
+        buffer.putInt(offset + 36, aeState);
+        buffer.putInt(offset + 40, afState);
+        buffer.putInt(offset + 44, awbState);
+        head = (head + 1) % capacity;
+        if (count < capacity) {
+            count++;
+        } else {
+            overwrittenCount++;
+        }
+    }
+
+    /**
+     * Copies all pending records, oldest first, and empties the ring
+     *
+     * @return null if there is nothing to send
+     */
+    public byte[] drain() {
+        if (count == 0) {
+            return null;
+        }
+        byte[] res = new byte[count * RECORD_SIZE];
+        int tail = (head - count + capacity) % capacity;
+        byte[] array = buffer.array();
+        int firstPart = Math.min(count, capacity - tail);
+        System.arraycopy(array, tail * RECORD_SIZE, res, 0, firstPart * RECORD_SIZE);
+        if (firstPart < count) {
+            System.arraycopy(array, 0, res, firstPart * RECORD_SIZE, (count - firstPart) * RECORD_SIZE);
+        }
+        count = 0;
+        return res;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return records lost because ring was full before a flush
+     */
+    public long getOverwrittenCount() {
+        return overwrittenCount;
+    }
+}
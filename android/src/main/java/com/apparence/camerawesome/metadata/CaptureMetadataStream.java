@@ -0,0 +1,155 @@
+package com.apparence.camerawesome.metadata;
+
+import android.hardware.camera2.CaptureResult;
+import android.os.Build;
+import android.os.Handler;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Sends per frame capture metadata to flutter in batches.
+ * Frames are packed in a {@link CaptureMetadataRing} on frame thread and the ring is flushed every interval,
+ * each event is a byte array of {@link CaptureMetadataRing#RECORD_SIZE} bytes records.
+ * Nothing is recorded while nobody listens.
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class CaptureMetadataStream implements EventChannel.StreamHandler {
+
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 250;
+
+    private static final long MIN_FLUSH_INTERVAL_MS = 16;
+
+    // ring is sized for this fps during two intervals, so a late flush doesn't lose frames
+    private static final int MAX_EXPECTED_FPS = 60;
+
+    private final Handler frameHandler;
+
+    private final Handler mainHandler;
+
+    private volatile EventChannel.EventSink eventSink;
+
+    // only used on frame thread
+    private CaptureMetadataRing ring;
+
+    private long flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            if (ring != null) {
+                frameHandler.postDelayed(this, flushIntervalMs);
+            }
+        }
+    };
+
+    /**
+     * @param frameHandler handler of the thread receiving capture results
+     * @param mainHandler  handler used to send events
+     */
+    public CaptureMetadataStream(Handler frameHandler, Handler mainHandler) {
+        this.frameHandler = frameHandler;
+        this.mainHandler = mainHandler;
+    }
+
+    /**
+     * Called on frame thread for each completed capture
+     */
+    public void onCaptureCompleted(CaptureResult result) {
+        CaptureMetadataRing currentRing = ring;
+        if (currentRing == null) {
+            return;
+        }
+        currentRing.write(
+                result.getFrameNumber(),
+                getLong(result, CaptureResult.SENSOR_TIMESTAMP),
+                getLong(result, CaptureResult.SENSOR_EXPOSURE_TIME),
+                getInt(result, CaptureResult.SENSOR_SENSITIVITY),
+                getFloat(result, CaptureResult.LENS_FOCUS_DISTANCE),
+                getInt(result, CaptureResult.LENS_STATE),
+                getInt(result, CaptureResult.CONTROL_AE_STATE),
+                getInt(result, CaptureResult.CONTROL_AF_STATE),
+                getInt(result, CaptureResult.CONTROL_AWB_STATE));
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private void flush() {
+        if (ring == null) {
+            return;
+        }
+        final byte[] batch = ring.drain();
+        if (batch == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                EventChannel.EventSink sink = eventSink;
+                if (sink != null) {
+                    sink.success(batch);
+                }
+            }
+        });
+    }
+
+    private static long getLong(CaptureResult result, CaptureResult.Key<Long> key) {
+        Long value = result.get(key);
+        return value != null ? value : -1;
+    }
+
+    private static int getInt(CaptureResult result, CaptureResult.Key<Integer> key) {
+        Integer value = result.get(key);
+        return value != null ? value : -1;
+    }
+
+    private static float getFloat(CaptureResult result, CaptureResult.Key<Float> key) {
+        Float value = result.get(key);
+        return value != null ? value : -1;
+    }
+
+    // ------------------------------------------------------
+    // EventChannel.StreamHandler
+    // ------------------------------------------------------
+
+    /**
+     * @param arguments can contain intervalMs, time between two batches
+     */
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        long intervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+        if (arguments instanceof Map && ((Map) arguments).get("intervalMs") instanceof Number) {
+            intervalMs = Math.max(MIN_FLUSH_INTERVAL_MS, ((Number) ((Map) arguments).get("intervalMs")).longValue());
+        }
+        final long flushInterval = intervalMs;
+        this.eventSink = events;
+        frameHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                frameHandler.removeCallbacks(flushRunnable);
+                flushIntervalMs = flushInterval;
+                int capacity = (int) Math.max(64, 2 * flushInterval * MAX_EXPECTED_FPS / 1000);
+                ring = new CaptureMetadataRing(capacity);
+                frameHandler.postDelayed(flushRunnable, flushIntervalMs);
+            }
+        });
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        this.eventSink = null;
+        frameHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                frameHandler.removeCallbacks(flushRunnable);
+                ring = null;
+            }
+        });
+    }
+}
@@ -0,0 +1,116 @@
+package com.apparence.camerawesome.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with fixed millisecond buckets, recording never allocates.
+ * Percentiles are reported as the upper bound of the bucket containing them.
+ */
+public class LatencyHistogram {
+
+    // bucket upper bounds, last bucket takes everything above
+    static final long[] BOUNDS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+
+    private final StripedCounter count = new StripedCounter();
+
+    private final StripedCounter sumNanos = new StripedCounter();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        buckets.incrementAndGet(bucketIndex(nanos / 1_000_000d));
+        count.increment();
+        sumNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @param startNanos value of System.nanoTime() when measured operation started, ignored if 0
+     */
+    public void recordSince(long startNanos) {
+        if (startNanos != 0) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return upper bound in ms of the bucket holding this percentile, max value for the last bucket, 0 if empty
+     */
+    public double getPercentileMs(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return i < BOUNDS_MS.length ? BOUNDS_MS[i] : maxNanos.get() / 1_000_000d;
+            }
+        }
+        return maxNanos.get() / 1_000_000d;
+    }
+
+    /**
+     * @return count, meanMs, maxMs, p50Ms, p90Ms, p99Ms and non empty buckets (by upper bound)
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        long currentCount = count.sum();
+        res.put("count", currentCount);
+        res.put("meanMs", currentCount > 0 ? sumNanos.sum() / (double) currentCount / 1_000_000d : 0);
+        res.put("maxMs", maxNanos.get() / 1_000_000d);
+        res.put("p50Ms", getPercentileMs(0.5));
+        res.put("p90Ms", getPercentileMs(0.9));
+        res.put("p99Ms", getPercentileMs(0.99));
+        Map<String, Object> bucketsMap = new LinkedHashMap<>();
+        for (int i = 0; i < buckets.length(); i++) {
+            long value = buckets.get(i);
+            if (value > 0) {
+                bucketsMap.put(i < BOUNDS_MS.length ? "<=" + BOUNDS_MS[i] : ">" + BOUNDS_MS[BOUNDS_MS.length - 1], value);
+            }
+        }
+        res.put("buckets", bucketsMap);
+        return res;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sumNanos.reset();
+        maxNanos.set(0);
+    }
+
+    static int bucketIndex(double ms) {
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            if (ms <= BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS_MS.length;
+    }
+}
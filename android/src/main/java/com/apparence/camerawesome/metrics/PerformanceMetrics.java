@@ -0,0 +1,105 @@
+package com.apparence.camerawesome.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plugin wide registry of counters and latency histograms.
+ * Classes keep the metrics they update in static fields so the hot path never looks up the registry,
+ * updating a metric is a few atomic operations and can stay enabled in release builds.
+ */
+public class PerformanceMetrics {
+
+    // camera device
+    public static final String CAMERA_OPEN = "camera.open";
+    public static final String CAMERA_OPEN_FAILURES = "camera.openFailures";
+    public static final String CAMERA_ERRORS = "camera.errors";
+    public static final String CAMERA_DISCONNECTS = "camera.disconnects";
+
+    // capture session
+    public static final String SESSION_CONFIGURE = "session.configure";
+    public static final String SESSION_FIRST_FRAME = "session.firstFrame";
+    public static final String SESSION_REFRESH = "session.refresh";
+    public static final String SESSION_REFRESHES = "session.refreshes";
+    public static final String SESSION_CONFIGURE_FAILURES = "session.configureFailures";
+
+    // still capture
+    public static final String PICTURE_TAKE = "picture.take";
+    public static final String PICTURE_FAILURES = "picture.failures";
+
+    // preview
+    public static final String PREVIEW_FRAMES = "preview.frames";
+    public static final String PREVIEW_REQUEST_SUBMITS = "preview.requestSubmits";
+
+    private static final PerformanceMetrics INSTANCE = new PerformanceMetrics();
+
+    private final ConcurrentHashMap<String, StripedCounter> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public static PerformanceMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return counter with this name, created on first call
+     */
+    public StripedCounter counter(String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @return histogram with this name, created on first call
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return counters values and histograms summaries by name
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> countersMap = new TreeMap<>();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            countersMap.put(entry.getKey(), entry.getValue().sum());
+        }
+        Map<String, Object> histogramsMap = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramsMap.put(entry.getKey(), entry.getValue().toMap());
+        }
+        Map<String, Object> res = new HashMap<>();
+        res.put("counters", countersMap);
+        res.put("histograms", histogramsMap);
+        return res;
+    }
+
+    /**
+     * Clears values, metrics stay registered
+     */
+    public void reset() {
+        for (StripedCounter counter : counters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
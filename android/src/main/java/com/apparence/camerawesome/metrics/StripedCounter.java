@@ -0,0 +1,59 @@
+package com.apparence.camerawesome.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over several cache lines so threads incrementing it don't contend.
+ * Each thread always hits the same stripe, reading sums all stripes.
+ * (LongAdder does the same but needs API 24)
+ */
+public class StripedCounter {
+
+    // 8 longs = 64 bytes, each stripe sits on its own cache line
+    private static final int PADDING = 8;
+
+    private static final int MAX_STRIPES = 16;
+
+    private final AtomicLongArray cells;
+
+    private final int mask;
+
+    public StripedCounter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    StripedCounter(int expectedThreads) {
+        int stripes = 1;
+        while (stripes < expectedThreads && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        cells.getAndAdd(stripeIndex(), value);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    private int stripeIndex() {
+        return ((int) Thread.currentThread().getId() & mask) * PADDING;
+    }
+}
@@ -19,14 +19,23 @@ public class CameraCharacteristicsModel {
 
     private Rational aeCompensationRatio;
 
+    private Range<Integer>[] aeTargetFpsRanges;
+
     public CameraCharacteristicsModel(float maxZoom, Rect availablePreviewZone, boolean hasAutoFocus, boolean hasFlash,
                                       Range<Integer> aeCompensationRange, Rational aeCompensationRatio) {
+        this(maxZoom, availablePreviewZone, hasAutoFocus, hasFlash, aeCompensationRange, aeCompensationRatio, null);
+    }
+
+    public CameraCharacteristicsModel(float maxZoom, Rect availablePreviewZone, boolean hasAutoFocus, boolean hasFlash,
+                                      Range<Integer> aeCompensationRange, Rational aeCompensationRatio,
+                                      Range<Integer>[] aeTargetFpsRanges) {
         this.maxZoom = maxZoom;
         this.availablePreviewZone = availablePreviewZone;
         this.hasAutoFocus = hasAutoFocus;
         this.flashAvailable = hasFlash;
         this.aeCompensationRange = aeCompensationRange;
         this.aeCompensationRatio = aeCompensationRatio;
+        this.aeTargetFpsRanges = aeTargetFpsRanges;
     }
 
     public float getMaxZoom() {
@@ -53,6 +62,13 @@ public class CameraCharacteristicsModel {
         return aeCompensationRatio;
     }
 
+    /**
+     * @return fps ranges supported by auto exposure, can be null
+     */
+    public Range<Integer>[] getAeTargetFpsRanges() {
+        return aeTargetFpsRanges;
+    }
+
     public static class Builder {
 
         private float maxZoom;
@@ -67,6 +83,8 @@ public class CameraCharacteristicsModel {
 
         private Range<Integer> aeCompensationRange;
 
+        private Range<Integer>[] aeTargetFpsRanges;
+
         public Builder() {
         }
 
@@ -105,9 +123,15 @@ public class CameraCharacteristicsModel {
             return this;
         }
 
+        public Builder withAeTargetFpsRanges(Range<Integer>[] aeTargetFpsRanges) {
+            this.aeTargetFpsRanges = aeTargetFpsRanges;
+            return this;
+        }
+
         public CameraCharacteristicsModel build() {
             return new CameraCharacteristicsModel(
-                    this.maxZoom, this.availablePreviewZone, this.hasAutoFocus, this.flashAvailable, this.aeCompensationRange, this.aeCompensationRatio
+                    this.maxZoom, this.availablePreviewZone, this.hasAutoFocus, this.flashAvailable, this.aeCompensationRange, this.aeCompensationRatio,
+                    this.aeTargetFpsRanges
             );
         }
     }
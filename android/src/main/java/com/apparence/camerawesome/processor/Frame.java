@@ -0,0 +1,73 @@
+package com.apparence.camerawesome.processor;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Raw YUV_420_888 stream image given to {@link FrameProcessor}s.
+ * One frame object is reused by each converter worker, nothing is copied or allocated per frame.
+ * <p>
+ * Plane 0 is Y, 1 is U and 2 is V. Chroma planes are subsampled by 2 in both directions,
+ * their pixel stride is 2 when U and V are interleaved in memory.
+ * Plane buffers are shared by all processors: read them with absolute gets (or restore their position).
+ */
+public final class Frame {
+
+    private Image image;
+
+    private Image.Plane[] planes;
+
+    Frame() {
+    }
+
+    void set(Image image) {
+        this.image = image;
+        this.planes = image != null ? image.getPlanes() : null;
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    /**
+     * @return {@link ImageFormat#YUV_420_888}
+     */
+    public int getFormat() {
+        return image.getFormat();
+    }
+
+    /**
+     * @return sensor timestamp in nanoseconds, same as sensorTimestampNs of capture metadata records
+     */
+    public long getTimestamp() {
+        return image.getTimestamp();
+    }
+
+    public int getPlaneCount() {
+        return planes.length;
+    }
+
+    public ByteBuffer getBuffer(int plane) {
+        return planes[plane].getBuffer();
+    }
+
+    /**
+     * @return bytes between the start of two rows, can be larger than width
+     */
+    public int getRowStride(int plane) {
+        return planes[plane].getRowStride();
+    }
+
+    /**
+     * @return bytes between two pixels of a row
+     */
+    public int getPixelStride(int plane) {
+        return planes[plane].getPixelStride();
+    }
+}
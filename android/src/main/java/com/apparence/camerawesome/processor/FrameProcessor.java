@@ -0,0 +1,24 @@
+package com.apparence.camerawesome.processor;
+
+/**
+ * Analyzes preview stream frames natively, before any jpeg encoding.
+ * Host apps register processors in {@link FrameProcessorRegistry}
+ * (see {@link com.apparence.camerawesome.CamerawesomePlugin#getFrameProcessors()}).
+ * <p>
+ * Called on converter workers, possibly from several threads at the same time, for every frame the workers can take
+ * (frames are dropped while all workers are busy). Keep it short: a slow processor lowers every processor frame rate
+ * and the jpeg stream one.
+ */
+public interface FrameProcessor {
+
+    /**
+     * @return name sent to flutter with each result
+     */
+    String getName();
+
+    /**
+     * @param frame only valid during this call, its planes must not be kept
+     * @return small result sent to flutter in next batch (types supported by StandardMessageCodec), null to send nothing
+     */
+    Object process(Frame frame);
+}
@@ -0,0 +1,53 @@
+package com.apparence.camerawesome.processor;
+
+import java.util.Arrays;
+
+/**
+ * Frame processors registered by the host app, shared by all camera instances.
+ * Each camera also has its own registry for built-in processors enabled from flutter (motion detection...).
+ * Processors can be added or removed at any time, running cameras use them from next frame.
+ * Preview stream images are only produced if a processor is registered before camera starts
+ * (or if images are streamed to flutter).
+ */
+public class FrameProcessorRegistry {
+
+    // copied on write, read on every frame without allocating an iterator
+    private volatile FrameProcessor[] processors = new FrameProcessor[0];
+
+    public synchronized void register(FrameProcessor processor) {
+        if (processor == null) {
+            throw new IllegalArgumentException("processor cannot be null");
+        }
+        for (FrameProcessor registered : processors) {
+            if (registered == processor) {
+                return;
+            }
+        }
+        FrameProcessor[] updated = Arrays.copyOf(processors, processors.length + 1);
+        updated[processors.length] = processor;
+        processors = updated;
+    }
+
+    public synchronized void unregister(FrameProcessor processor) {
+        for (int i = 0; i < processors.length; i++) {
+            if (processors[i] == processor) {
+                FrameProcessor[] updated = new FrameProcessor[processors.length - 1];
+                System.arraycopy(processors, 0, updated, 0, i);
+                System.arraycopy(processors, i + 1, updated, i, processors.length - i - 1);
+                processors = updated;
+                return;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return processors.length == 0;
+    }
+
+    /**
+     * @return current processors, must not be modified
+     */
+    FrameProcessor[] getProcessors() {
+        return processors;
+    }
+}
@@ -0,0 +1,247 @@
+package com.apparence.camerawesome.processor;
+
+import android.media.Image;
+import android.os.Handler;
+import android.util.Log;
+
+import com.apparence.camerawesome.image.ImgConverterThreaded;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Runs registered {@link FrameProcessor}s on converter workers and sends their results to flutter in batches.
+ * Host app processors run first, then built-in processors enabled on this camera only.
+ * Processors run even if nobody listens, results are only kept while flutter listens.
+ * <p>
+ * Each event is a list of results, oldest first: {processor: name, timestamp: frame timestamp ns, result: value}.
+ * At most {@link #MAX_BATCH_SIZE} results are kept between two flushes, next ones are dropped.
+ */
+public class FrameProcessorStream implements ImgConverterThreaded.ImageAnalyzer, EventChannel.StreamHandler {
+
+    private static final String TAG = FrameProcessorStream.class.getName();
+
+    public static final int MAX_BATCH_SIZE = 256;
+
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 100;
+
+    private static final long MIN_FLUSH_INTERVAL_MS = 16;
+
+    private final FrameProcessorRegistry registry;
+
+    private final FrameProcessorRegistry instanceRegistry;
+
+    private final Handler frameHandler;
+
+    private final Handler mainHandler;
+
+    private final ThreadLocal<Frame> frames = new ThreadLocal<Frame>() {
+        @Override
+        protected Frame initialValue() {
+            return new Frame();
+        }
+    };
+
+    private volatile EventChannel.EventSink eventSink;
+
+    private final Object batchLock = new Object();
+
+    // guarded by batchLock, null while nobody listens
+    private List<Map<String, Object>> batch;
+
+    // guarded by batchLock
+    private long droppedCount;
+
+    // only used on frame thread
+    private long flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (flush()) {
+                frameHandler.postDelayed(this, flushIntervalMs);
+            }
+        }
+    };
+
+    /**
+     * @param frameHandler handler used to flush batches
+     * @param mainHandler  handler used to send events
+     */
+    public FrameProcessorStream(FrameProcessorRegistry registry, Handler frameHandler, Handler mainHandler) {
+        this(registry, new FrameProcessorRegistry(), frameHandler, mainHandler);
+    }
+
+    /**
+     * @param instanceRegistry built-in processors of this camera
+     * @param frameHandler     handler used to flush batches
+     * @param mainHandler      handler used to send events
+     */
+    public FrameProcessorStream(FrameProcessorRegistry registry, FrameProcessorRegistry instanceRegistry,
+                                Handler frameHandler, Handler mainHandler) {
+        this.registry = registry;
+        this.instanceRegistry = instanceRegistry;
+        this.frameHandler = frameHandler;
+        this.mainHandler = mainHandler;
+    }
+
+    /**
+     * @return true if some processor needs stream images
+     */
+    public boolean isActive() {
+        return !registry.isEmpty() || !instanceRegistry.isEmpty();
+    }
+
+    public FrameProcessorRegistry getInstanceRegistry() {
+        return instanceRegistry;
+    }
+
+    /**
+     * Called on converter workers with each stream image, before it is encoded
+     */
+    @Override
+    public void analyze(Image image) {
+        FrameProcessor[] processors = registry.getProcessors();
+        FrameProcessor[] instanceProcessors = instanceRegistry.getProcessors();
+        if (processors.length == 0 && instanceProcessors.length == 0) {
+            return;
+        }
+        Frame frame = frames.get();
+        frame.set(image);
+        try {
+            runProcessors(processors, frame);
+            runProcessors(instanceProcessors, frame);
+        } finally {
+            frame.set(null);
+        }
+    }
+
+    /**
+     * Adds a result computed out of the processors run, sent with next batch.
+     * For instance a photo taken for a frame, once its file is written.
+     */
+    public void publish(String name, long timestamp, Object result) {
+        if (eventSink != null) {
+            addResult(name, timestamp, result);
+        }
+    }
+
+    /**
+     * @return results dropped because a batch was full
+     */
+    public long getDroppedCount() {
+        synchronized (batchLock) {
+            return droppedCount;
+        }
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private void runProcessors(FrameProcessor[] processors, Frame frame) {
+        for (FrameProcessor processor : processors) {
+            Object result;
+            try {
+                result = processor.process(frame);
+            } catch (RuntimeException e) {
+                // a failing processor must not stop the others nor the stream
+                Log.e(TAG, "processor " + processor.getName() + " failed", e);
+                continue;
+            }
+            if (result != null && eventSink != null) {
+                addResult(processor.getName(), frame.getTimestamp(), result);
+            }
+        }
+    }
+
+    private void addResult(String name, long timestamp, Object result) {
+        synchronized (batchLock) {
+            if (batch == null) {
+                return;
+            }
+            if (batch.size() >= MAX_BATCH_SIZE) {
+                droppedCount++;
+                return;
+            }
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("processor", name);
+            entry.put("timestamp", timestamp);
+            entry.put("result", result);
+            batch.add(entry);
+        }
+    }
+
+    /**
+     * @return false once flutter stopped listening
+     */
+    private boolean flush() {
+        final List<Map<String, Object>> results;
+        synchronized (batchLock) {
+            if (batch == null) {
+                return false;
+            }
+            if (batch.isEmpty()) {
+                return true;
+            }
+            results = batch;
+            batch = new ArrayList<>();
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                EventChannel.EventSink sink = eventSink;
+                if (sink != null) {
+                    sink.success(results);
+                }
+            }
+        });
+        return true;
+    }
+
+    // ------------------------------------------------------
+    // EventChannel.StreamHandler
+    // ------------------------------------------------------
+
+    /**
+     * @param arguments can contain intervalMs, time between two batches
+     */
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        long intervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+        if (arguments instanceof Map && ((Map) arguments).get("intervalMs") instanceof Number) {
+            intervalMs = Math.max(MIN_FLUSH_INTERVAL_MS, ((Number) ((Map) arguments).get("intervalMs")).longValue());
+        }
+        final long flushInterval = intervalMs;
+        synchronized (batchLock) {
+            batch = new ArrayList<>();
+        }
+        this.eventSink = events;
+        frameHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                frameHandler.removeCallbacks(flushRunnable);
+                flushIntervalMs = flushInterval;
+                frameHandler.postDelayed(flushRunnable, flushIntervalMs);
+            }
+        });
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        this.eventSink = null;
+        synchronized (batchLock) {
+            batch = null;
+        }
+        frameHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                frameHandler.removeCallbacks(flushRunnable);
+            }
+        });
+    }
+}
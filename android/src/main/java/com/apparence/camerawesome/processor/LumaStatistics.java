@@ -0,0 +1,137 @@
+package com.apparence.camerawesome.processor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Luma histogram, mean, variance and clipped pixels of one frame, sampled every step pixels of the Y plane.
+ * Accumulator is reused from frame to frame, {@link #toArray()} packs it as:
+ * [bins, samples, mean x 100, variance x 100, dark clipped samples, bright clipped samples, bin 0, bin 1...].
+ */
+public final class LumaStatistics {
+
+    public static final int HEADER_SIZE = 6;
+
+    private final int[] histogram;
+
+    // luma >> binShift is the bin of a sample
+    private final int binShift;
+
+    private final int darkClip;
+
+    private final int brightClip;
+
+    private int samples;
+
+    private long sum;
+
+    private long sumOfSquares;
+
+    private int darkClipped;
+
+    private int brightClipped;
+
+    /**
+     * @param bins       power of two from 2 to 256
+     * @param darkClip   samples at or below this luma are dark clipped
+     * @param brightClip samples at or above this luma are bright clipped
+     */
+    public LumaStatistics(int bins, int darkClip, int brightClip) {
+        if (bins < 2 || bins > 256 || Integer.bitCount(bins) != 1) {
+            throw new IllegalArgumentException("bins must be a power of two from 2 to 256");
+        }
+        this.histogram = new int[bins];
+        this.binShift = 8 - Integer.numberOfTrailingZeros(bins);
+        this.darkClip = darkClip;
+        this.brightClip = brightClip;
+    }
+
+    public void reset() {
+        Arrays.fill(histogram, 0);
+        samples = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        darkClipped = 0;
+        brightClipped = 0;
+    }
+
+    /**
+     * Adds one sample every step pixels in both directions, starting half a step from frame edges
+     */
+    public void accumulate(ByteBuffer luma, int rowStride, int pixelStride, int width, int height, int step) {
+        int[] bins = histogram;
+        int shift = binShift;
+        int dark = darkClip;
+        int bright = brightClip;
+        int count = 0, darkCount = 0, brightCount = 0;
+        long total = 0, squares = 0;
+        int start = step / 2;
+        for (int y = start; y < height; y += step) {
+            int rowOffset = y * rowStride;
+            for (int x = start; x < width; x += step) {
+                int value = luma.get(rowOffset + x * pixelStride) & 0xFF;
+                bins[value >> shift]++;
+                total += value;
+                squares += value * value;
+                if (value <= dark) {
+                    darkCount++;
+                } else if (value >= bright) {
+                    brightCount++;
+                }
+                count++;
+            }
+        }
+        samples += count;
+        sum += total;
+        sumOfSquares += squares;
+        darkClipped += darkCount;
+        brightClipped += brightCount;
+    }
+
+    public int getBins() {
+        return histogram.length;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public double getMean() {
+        return samples > 0 ? (double) sum / samples : 0;
+    }
+
+    public double getVariance() {
+        if (samples == 0) {
+            return 0;
+        }
+        double mean = getMean();
+        return Math.max(0, (double) sumOfSquares / samples - mean * mean);
+    }
+
+    public int getDarkClipped() {
+        return darkClipped;
+    }
+
+    public int getBrightClipped() {
+        return brightClipped;
+    }
+
+    public int getBin(int bin) {
+        return histogram[bin];
+    }
+
+    /**
+     * @return a new array, see class comment for its layout
+     */
+    public int[] toArray() {
+        int[] packed = new int[HEADER_SIZE + histogram.length];
+        packed[0] = histogram.length;
+        packed[1] = samples;
+        packed[2] = (int) Math.round(getMean() * 100);
+        packed[3] = (int) Math.round(getVariance() * 100);
+        packed[4] = darkClipped;
+        packed[5] = brightClipped;
+        System.arraycopy(histogram, 0, packed, HEADER_SIZE, histogram.length);
+        return packed;
+    }
+}
@@ -0,0 +1,138 @@
+package com.apparence.camerawesome.processor;
+
+import android.os.Handler;
+
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Sends luma statistics of stream images to flutter, one frame is sampled every interval.
+ * It is a built-in processor registered on its camera only while flutter listens, so statistics cost nothing
+ * otherwise. Each event is an int array packed by {@link LumaStatistics#toArray()}.
+ */
+public class LumaStatisticsStream implements FrameProcessor, EventChannel.StreamHandler {
+
+    public static final String NAME = "lumaStatistics";
+
+    private static final long DEFAULT_INTERVAL_MS = 200;
+
+    private static final long MIN_INTERVAL_MS = 16;
+
+    private static final int DEFAULT_BINS = 64;
+
+    // 1080p is sampled on about 30k pixels
+    private static final int DEFAULT_STEP = 8;
+
+    private static final int DEFAULT_DARK_CLIP = 4;
+
+    private static final int DEFAULT_BRIGHT_CLIP = 251;
+
+    private final FrameProcessorRegistry registry;
+
+    private final Handler cameraHandler;
+
+    private final Handler mainHandler;
+
+    private final Runnable streamAttacher;
+
+    private volatile EventChannel.EventSink eventSink;
+
+    // ------ guarded by this ------
+
+    private LumaStatistics statistics;
+
+    private int step = DEFAULT_STEP;
+
+    private long intervalNs = DEFAULT_INTERVAL_MS * 1000000L;
+
+    private long nextFrameNs = Long.MIN_VALUE;
+
+    /**
+     * @param registry       built-in processors of the camera
+     * @param cameraHandler  handler used to run streamAttacher
+     * @param mainHandler    handler used to send events
+     * @param streamAttacher adds stream output to a running session once registered, run on camera thread
+     */
+    public LumaStatisticsStream(FrameProcessorRegistry registry, Handler cameraHandler, Handler mainHandler,
+                                Runnable streamAttacher) {
+        this.registry = registry;
+        this.cameraHandler = cameraHandler;
+        this.mainHandler = mainHandler;
+        this.streamAttacher = streamAttacher;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Called on converter workers, only a frame per interval is sampled.
+     * Synchronized because workers can run concurrently and statistics are reused.
+     *
+     * @return always null, statistics are sent on their own channel
+     */
+    @Override
+    public synchronized Object process(Frame frame) {
+        long timestamp = frame.getTimestamp();
+        if (statistics == null || (nextFrameNs != Long.MIN_VALUE && timestamp < nextFrameNs)) {
+            return null;
+        }
+        nextFrameNs = timestamp + intervalNs;
+        statistics.reset();
+        statistics.accumulate(frame.getBuffer(0), frame.getRowStride(0), frame.getPixelStride(0),
+                frame.getWidth(), frame.getHeight(), step);
+        final int[] packed = statistics.toArray();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                EventChannel.EventSink sink = eventSink;
+                if (sink != null) {
+                    sink.success(packed);
+                }
+            }
+        });
+        return null;
+    }
+
+    // ------------------------------------------------------
+    // EventChannel.StreamHandler
+    // ------------------------------------------------------
+
+    /**
+     * @param arguments can contain intervalMs, bins (power of two, 64 or 256 usually), step (pixels between
+     *                  two samples), darkClip and brightClip (luma limits of clipped pixels)
+     */
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        Map<?, ?> args = arguments instanceof Map ? (Map<?, ?>) arguments : null;
+        LumaStatistics configured = new LumaStatistics(
+                intArgument(args, "bins", DEFAULT_BINS),
+                intArgument(args, "darkClip", DEFAULT_DARK_CLIP),
+                intArgument(args, "brightClip", DEFAULT_BRIGHT_CLIP));
+        synchronized (this) {
+            statistics = configured;
+            step = Math.max(1, intArgument(args, "step", DEFAULT_STEP));
+            intervalNs = Math.max(MIN_INTERVAL_MS, intArgument(args, "intervalMs", (int) DEFAULT_INTERVAL_MS))
+                    * 1000000L;
+            nextFrameNs = Long.MIN_VALUE;
+        }
+        this.eventSink = events;
+        registry.register(this);
+        cameraHandler.post(streamAttacher);
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        registry.unregister(this);
+        this.eventSink = null;
+    }
+
+    private static int intArgument(Map<?, ?> arguments, String name, int defaultValue) {
+        if (arguments != null && arguments.get(name) instanceof Number) {
+            return ((Number) arguments.get(name)).intValue();
+        }
+        return defaultValue;
+    }
+}
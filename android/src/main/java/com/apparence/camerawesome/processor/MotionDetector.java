@@ -0,0 +1,238 @@
+package com.apparence.camerawesome.processor;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Built-in processor detecting motion on the Y plane.
+ * Frame is split in a grid of blocks, each block luma mean is sampled on a few pixels and compared to a running
+ * background. A block changed if its mean moved more than threshold away from background.
+ * <p>
+ * Only a few thousand pixels are read per frame and nothing is allocated unless motion is detected, so it can run
+ * on every stream frame. Result is null without motion, otherwise a map:
+ * {score: changed blocks ratio, intensity: mean luma difference of changed blocks, blocks: changed blocks count,
+ * columns, rows: grid size, bounds: [left, top, right, bottom] changed blocks bounding box in blocks, right and
+ * bottom excluded}.
+ */
+public class MotionDetector implements FrameProcessor {
+
+    public static final String NAME = "motion";
+
+    // background is kept in 1/16 luma steps so slow learning rates don't round to zero
+    private static final int BACKGROUND_SHIFT = 4;
+
+    // learning rate of unchanged blocks: 1/8 of the difference per frame
+    private static final int LEARN_SHIFT = 3;
+
+    // changed blocks are learned slowly so a stopped object only merges into background after a few seconds
+    private static final int CHANGED_LEARN_SHIFT = 6;
+
+    /**
+     * Called on converter worker when motion is detected, at most once per trigger interval
+     */
+    public interface OnMotionListener {
+
+        /**
+         * @param timestampNs sensor timestamp of the frame
+         * @param motion      result of the frame, must not be modified
+         * @return false if motion was skipped, next motion frames call it again without waiting the interval
+         */
+        boolean onMotion(long timestampNs, Map<String, Object> motion);
+    }
+
+    private final int columns;
+
+    private final int rows;
+
+    // samples read per block in each direction
+    private int samplesPerBlock = 4;
+
+    private int threshold = 12;
+
+    private int minBlocks = 2;
+
+    // frames used to build background before detecting
+    private int warmUpFrames = 10;
+
+    private long triggerIntervalNs = 5000000000L;
+
+    private OnMotionListener onMotionListener;
+
+    // ------ model, guarded by this ------
+
+    private final int[] background;
+
+    private final int[] means;
+
+    private int frameWidth;
+
+    private int frameHeight;
+
+    private int learnedFrames;
+
+    private long lastTriggerNs = Long.MIN_VALUE;
+
+    private long motionFrames;
+
+    public MotionDetector(int columns, int rows) {
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("grid must have at least one block");
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.background = new int[columns * rows];
+        this.means = new int[columns * rows];
+    }
+
+    /**
+     * @param threshold luma difference (0-255) for a block to be changed
+     */
+    public MotionDetector setThreshold(int threshold) {
+        this.threshold = Math.max(1, threshold);
+        return this;
+    }
+
+    /**
+     * @param minBlocks changed blocks needed to report motion
+     */
+    public MotionDetector setMinBlocks(int minBlocks) {
+        this.minBlocks = Math.max(1, minBlocks);
+        return this;
+    }
+
+    /**
+     * @param samplesPerBlock pixels read per block in each direction, cost grows with its square
+     */
+    public MotionDetector setSamplesPerBlock(int samplesPerBlock) {
+        this.samplesPerBlock = Math.max(1, samplesPerBlock);
+        return this;
+    }
+
+    public MotionDetector setWarmUpFrames(int warmUpFrames) {
+        this.warmUpFrames = Math.max(1, warmUpFrames);
+        return this;
+    }
+
+    /**
+     * @param listener         called when motion is detected, null to remove it
+     * @param triggerIntervalMs minimum time between two calls
+     */
+    public MotionDetector setOnMotionListener(OnMotionListener listener, long triggerIntervalMs) {
+        this.onMotionListener = listener;
+        this.triggerIntervalNs = Math.max(0, triggerIntervalMs) * 1000000L;
+        return this;
+    }
+
+    /**
+     * @return frames where motion was reported
+     */
+    public synchronized long getMotionFrames() {
+        return motionFrames;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Synchronized, converter workers can run it concurrently and the model must follow frames one by one
+     */
+    @Override
+    public synchronized Object process(Frame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (width < columns || height < rows) {
+            return null;
+        }
+        if (width != frameWidth || height != frameHeight) {
+            // stream size changed, previous background can't be compared
+            frameWidth = width;
+            frameHeight = height;
+            learnedFrames = 0;
+        }
+        sampleMeans(frame.getBuffer(0), frame.getRowStride(0), frame.getPixelStride(0), width, height);
+
+        if (learnedFrames < warmUpFrames) {
+            for (int i = 0; i < means.length; i++) {
+                int mean = means[i] << BACKGROUND_SHIFT;
+                background[i] = learnedFrames == 0 ? mean : background[i] + ((mean - background[i]) >> 1);
+            }
+            learnedFrames++;
+            return null;
+        }
+
+        int changed = 0;
+        long diffSum = 0;
+        int left = columns, top = rows, right = 0, bottom = 0;
+        int limit = threshold << BACKGROUND_SHIFT;
+        for (int row = 0, i = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++, i++) {
+                int diff = (means[i] << BACKGROUND_SHIFT) - background[i];
+                int absDiff = diff < 0 ? -diff : diff;
+                if (absDiff > limit) {
+                    changed++;
+                    diffSum += absDiff;
+                    if (column < left) left = column;
+                    if (column >= right) right = column + 1;
+                    if (row < top) top = row;
+                    if (row >= bottom) bottom = row + 1;
+                    background[i] += diff >> CHANGED_LEARN_SHIFT;
+                } else {
+                    background[i] += diff >> LEARN_SHIFT;
+                }
+            }
+        }
+        if (changed < minBlocks) {
+            return null;
+        }
+        motionFrames++;
+
+        Map<String, Object> motion = new HashMap<>();
+        motion.put("score", (double) changed / means.length);
+        motion.put("intensity", (double) diffSum / changed / (1 << BACKGROUND_SHIFT));
+        motion.put("blocks", changed);
+        motion.put("columns", columns);
+        motion.put("rows", rows);
+        motion.put("bounds", new int[]{left, top, right, bottom});
+        long timestamp = frame.getTimestamp();
+        OnMotionListener listener = onMotionListener;
+        if (listener != null && (lastTriggerNs == Long.MIN_VALUE || timestamp - lastTriggerNs >= triggerIntervalNs)
+                && listener.onMotion(timestamp, motion)) {
+            lastTriggerNs = timestamp;
+        }
+        return motion;
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    /**
+     * Fills means with luma mean of samplesPerBlock x samplesPerBlock pixels spread over each block
+     */
+    private void sampleMeans(ByteBuffer luma, int rowStride, int pixelStride, int width, int height) {
+        int samples = samplesPerBlock;
+        int count = samples * samples;
+        for (int row = 0, i = 0; row < rows; row++) {
+            int blockTop = row * height / rows;
+            int blockHeight = (row + 1) * height / rows - blockTop;
+            for (int column = 0; column < columns; column++, i++) {
+                int blockLeft = column * width / columns;
+                int blockWidth = (column + 1) * width / columns - blockLeft;
+                int sum = 0;
+                for (int sy = 0; sy < samples; sy++) {
+                    // samples are centered in their cell so they don't all sit on the block edges
+                    int y = blockTop + (2 * sy + 1) * blockHeight / (2 * samples);
+                    int rowOffset = y * rowStride;
+                    for (int sx = 0; sx < samples; sx++) {
+                        int x = blockLeft + (2 * sx + 1) * blockWidth / (2 * samples);
+                        sum += luma.get(rowOffset + x * pixelStride) & 0xFF;
+                    }
+                }
+                means[i] = sum / count;
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.apparence.camerawesome.processor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Built-in processor scoring frames sharpness: variance of the Laplacian of a downsampled luma region.
+ * Blurred frames have few strong edges, so a low variance. Scores are only comparable between frames of the
+ * same scene and size.
+ * <p>
+ * Region is the frame center (half of width and height), sampled on at most {@link #MAX_SAMPLES_PER_SIDE} points per
+ * side so scoring costs the same whatever stream size. Scores of the last {@link #HISTORY_SIZE} frames are kept
+ * by timestamp, so a still capture can be matched with the stream frame of the same request.
+ */
+public class SharpnessScorer implements FrameProcessor {
+
+    public static final String NAME = "sharpness";
+
+    public static final int HISTORY_SIZE = 32;
+
+    public static final int MAX_SAMPLES_PER_SIDE = 160;
+
+    // ------ history ring, guarded by this ------
+
+    private final long[] timestamps = new long[HISTORY_SIZE];
+
+    private final double[] scores = new double[HISTORY_SIZE];
+
+    private int next;
+
+    public SharpnessScorer() {
+        Arrays.fill(timestamps, Long.MIN_VALUE);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @return sharpness score of the frame
+     */
+    @Override
+    public Object process(Frame frame) {
+        double score = score(frame.getBuffer(0), frame.getRowStride(0), frame.getPixelStride(0),
+                frame.getWidth(), frame.getHeight());
+        record(frame.getTimestamp(), score);
+        return score;
+    }
+
+    /**
+     * @return score of the frame with this timestamp, NaN if it was not scored or is too old
+     */
+    public synchronized double getScore(long timestampNs) {
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            if (timestamps[i] == timestampNs) {
+                return scores[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Laplacian variance of the center region, neighbours are one sampling step away
+     */
+    public static double score(ByteBuffer luma, int rowStride, int pixelStride, int width, int height) {
+        int regionWidth = width / 2;
+        int regionHeight = height / 2;
+        int step = Math.max(1, Math.max(regionWidth, regionHeight) / MAX_SAMPLES_PER_SIDE);
+        int left = (width - regionWidth) / 2 + step;
+        int top = (height - regionHeight) / 2 + step;
+        int right = left + regionWidth - 2 * step;
+        int bottom = top + regionHeight - 2 * step;
+        int xStep = step * pixelStride;
+        int yStep = step * rowStride;
+        long count = 0, sum = 0, sumOfSquares = 0;
+        for (int y = top; y < bottom; y += step) {
+            int rowOffset = y * rowStride;
+            for (int x = left; x < right; x += step) {
+                int index = rowOffset + x * pixelStride;
+                int laplacian = 4 * (luma.get(index) & 0xFF)
+                        - (luma.get(index - xStep) & 0xFF)
+                        - (luma.get(index + xStep) & 0xFF)
+                        - (luma.get(index - yStep) & 0xFF)
+                        - (luma.get(index + yStep) & 0xFF);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        double mean = (double) sum / count;
+        return (double) sumOfSquares / count - mean * mean;
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private synchronized void record(long timestampNs, double score) {
+        timestamps[next] = timestampNs;
+        scores[next] = score;
+        next = (next + 1) % HISTORY_SIZE;
+    }
+}
@@ -0,0 +1,187 @@
+package com.apparence.camerawesome.recorder;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the last camera lifecycle and capture events in a fixed size ring so a stall can be
+ * reconstructed after the fact with {@link #dump(File)}.
+ * <p>
+ * Recording is lock free and never allocates: a writer claims a slot with a single atomic increment,
+ * each slot is guarded by its sequence number so a dump skips slots being overwritten.
+ * Spans are also sent to systrace / perfetto as {@link Trace} sections.
+ */
+public class FlightRecorder {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final String TRACE_PREFIX = "camerawesome.";
+
+    private static final long WRITING = -1;
+
+    public enum Event {
+        CAMERA_OPEN_REQUESTED,
+        CAMERA_OPENED,
+        CAMERA_OPEN_FAILED,
+        CAMERA_CLOSED,
+        CAMERA_DISCONNECTED,
+        // arg: CameraDevice.StateCallback error code
+        CAMERA_ERROR,
+        SESSION_CONFIGURE,
+        SESSION_CONFIGURED,
+        SESSION_CONFIGURE_FAILED,
+        SESSION_REFRESH,
+        // arg: CameraPictureStates ordinal, -1 for none
+        PICTURE_STATE_CHANGED,
+        CAPTURE_SUBMIT,
+        CAPTURE_COMPLETED,
+        // arg: CaptureFailure reason
+        CAPTURE_FAILED,
+        PICTURE_SAVED,
+        PICTURE_FAILED,
+        // arg: total dropped frames
+        FRAME_DROPPED,
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private static final FlightRecorder INSTANCE = new FlightRecorder(DEFAULT_CAPACITY);
+
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLongArray sequences;
+
+    // slot fields are atomics so a dump reads them before checking the sequence again (seqlock fences)
+    private final AtomicLongArray timestamps;
+
+    private final AtomicIntegerArray events;
+
+    private final AtomicLongArray args;
+
+    public static FlightRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    FlightRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.timestamps = new AtomicLongArray(size);
+        this.events = new AtomicIntegerArray(size);
+        this.args = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, WRITING);
+        }
+    }
+
+    public void record(Event event) {
+        record(event, 0);
+    }
+
+    public void record(Event event, long arg) {
+        long sequence = head.getAndIncrement();
+        int index = (int) (sequence & mask);
+        sequences.set(index, WRITING);
+        // ordered stores, never visible before the WRITING mark
+        timestamps.lazySet(index, System.nanoTime());
+        events.lazySet(index, event.ordinal());
+        args.lazySet(index, arg);
+        // publishes the slot
+        sequences.set(index, sequence);
+    }
+
+    /**
+     * Records event and starts a trace section ending in another callback, possibly on another thread
+     *
+     * @param cookie identifies this span among concurrent ones with the same name
+     */
+    public void beginSpan(Event event, String name, int cookie) {
+        record(event, cookie);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(TRACE_PREFIX + name, cookie);
+        }
+    }
+
+    /**
+     * Records event and ends a span started with {@link #beginSpan(Event, String, int)}
+     */
+    public void endSpan(Event event, String name, int cookie) {
+        record(event, cookie);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(TRACE_PREFIX + name, cookie);
+        }
+    }
+
+    /**
+     * Starts a trace section on current thread, must be ended by {@link #endSection()} on same thread
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(TRACE_PREFIX + name);
+        }
+    }
+
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Writes recorded events, oldest first, one per line: sequence, timestamp (ns), event, arg
+     *
+     * @return number of events written
+     */
+    public int dump(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            return dump(writer);
+        }
+    }
+
+    int dump(Writer writer) throws IOException {
+        long end = head.get();
+        long start = Math.max(0, end - (mask + 1));
+        writer.write("# sequence\ttimestampNs\tevent\targ\n");
+        int written = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) (sequence & mask);
+            if (sequences.get(index) != sequence) {
+                continue;
+            }
+            long timestamp = timestamps.get(index);
+            int event = events.get(index);
+            long arg = args.get(index);
+            // slot overwritten while reading, checked after the volatile reads above
+            if (sequences.get(index) != sequence) {
+                continue;
+            }
+            writer.write(sequence + "\t" + timestamp + "\t" + EVENTS[event].name() + "\t" + arg + "\n");
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * @return events recorded since start, including overwritten ones
+     */
+    public long getRecordedCount() {
+        return head.get();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
@@ -10,21 +10,48 @@ import io.flutter.plugin.common.EventChannel;
 
 import static android.content.Context.SENSOR_SERVICE;
 
+/**
+ * Light sensor is only registered while luminosity stream is listened
+ */
 public class BasicLuminosityNotifier implements LuminosityNotifier, EventChannel.StreamHandler {
 
+    Context context;
     SensorManager mSensorManager;
     Sensor mLightSensor;
 
     EventChannel.EventSink notifyChannel;
 
+    final RefCountedActivation lightSensorActivation = new RefCountedActivation() {
+        @Override
+        protected void onActivate() {
+            if (mSensorManager == null && context != null) {
+                mSensorManager = (SensorManager) context.getSystemService(SENSOR_SERVICE);
+                mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+            }
+            if (mSensorManager != null && mLightSensor != null) {
+                mSensorManager.registerListener(lightListener, mLightSensor, SensorManager.SENSOR_DELAY_UI);
+            }
+        }
+
+        @Override
+        protected void onDeactivate() {
+            if (mSensorManager != null) {
+                mSensorManager.unregisterListener(lightListener);
+            }
+        }
+    };
+
+    /**
+     * Only keeps context, sensor is looked up on first subscription
+     */
     @Override
     public void init(Context context) {
-        if (mSensorManager != null && mLightSensor != null)
-            return;
-        mSensorManager = (SensorManager) context.getSystemService(SENSOR_SERVICE);
-        mLightSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
+        this.context = context;
+    }
 
-        mSensorManager.registerListener(lightListener, mLightSensor, SensorManager.SENSOR_DELAY_UI);
+    @Override
+    public void stop() {
+        lightSensorActivation.releaseAll();
     }
 
     final SensorEventListener lightListener = new SensorEventListener() {
@@ -42,12 +69,20 @@ public class BasicLuminosityNotifier implements LuminosityNotifier, EventChannel
 
     @Override
     public void onListen(Object arguments, EventChannel.EventSink events) {
+        boolean listening = this.notifyChannel != null;
         this.notifyChannel = events;
+        if (!listening) {
+            lightSensorActivation.acquire();
+        }
     }
 
     @Override
     public void onCancel(Object arguments) {
+        if (this.notifyChannel == null) {
+            return;
+        }
         this.notifyChannel.endOfStream();
         this.notifyChannel = null;
+        lightSensorActivation.release();
     }
 }
@@ -0,0 +1,66 @@
+package com.apparence.camerawesome.sensors;
+
+import android.content.Context;
+import android.view.OrientationEventListener;
+
+import static android.view.OrientationEventListener.ORIENTATION_UNKNOWN;
+
+/**
+ * Device orientation shared by all cameras, rounded to 0, 90, 180 or 270.
+ * Sensor only runs while acquired: by the orientation stream subscriber and by each started camera
+ * (pictures and videos orientation is computed from it).
+ */
+public class DeviceOrientationSensor extends RefCountedActivation {
+
+    private final Context context;
+
+    private final SensorOrientation sensorOrientationListener;
+
+    private OrientationEventListener orientationEventListener;
+
+    private volatile int currentOrientation = ORIENTATION_UNKNOWN;
+
+    /**
+     * @param sensorOrientationListener notified on each orientation change, can be null
+     */
+    public DeviceOrientationSensor(Context context, SensorOrientation sensorOrientationListener) {
+        this.context = context;
+        this.sensorOrientationListener = sensorOrientationListener;
+    }
+
+    /**
+     * @return last orientation, kept while sensor is not active, ORIENTATION_UNKNOWN until sensor gave one
+     */
+    public int getCurrentOrientation() {
+        return currentOrientation;
+    }
+
+    @Override
+    protected void onActivate() {
+        if (orientationEventListener == null) {
+            orientationEventListener = new OrientationEventListener(context) {
+                @Override
+                public void onOrientationChanged(int i) {
+                    if (i == ORIENTATION_UNKNOWN) {
+                        return;
+                    }
+                    int orientation = (i + 45) / 90 * 90;
+                    if (orientation == 360)
+                        orientation = 0;
+                    currentOrientation = orientation;
+                    if (sensorOrientationListener != null)
+                        sensorOrientationListener.notify(orientation);
+                }
+            };
+        }
+        orientationEventListener.enable();
+    }
+
+    @Override
+    protected void onDeactivate() {
+        if (orientationEventListener != null) {
+            orientationEventListener.disable();
+        }
+        // last orientation is kept: best guess until sensor reports again
+    }
+}
@@ -5,4 +5,9 @@ import android.content.Context;
 public interface LuminosityNotifier {
 
     void init(Context context);
+
+    /**
+     * Unregisters light sensor whatever the number of subscribers
+     */
+    void stop();
 }
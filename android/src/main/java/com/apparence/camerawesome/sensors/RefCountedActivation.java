@@ -0,0 +1,53 @@
+package com.apparence.camerawesome.sensors;
+
+/**
+ * Activates a resource (sensor listener...) when its first user acquires it and deactivates it
+ * when the last one releases it, so nothing runs while nobody needs it.
+ */
+public abstract class RefCountedActivation {
+
+    private int count;
+
+    public synchronized void acquire() {
+        count++;
+        if (count == 1) {
+            onActivate();
+        }
+    }
+
+    /**
+     * Extra releases are ignored
+     */
+    public synchronized void release() {
+        if (count == 0) {
+            return;
+        }
+        count--;
+        if (count == 0) {
+            onDeactivate();
+        }
+    }
+
+    /**
+     * Deactivates whatever the number of users (plugin detached...)
+     */
+    public synchronized void releaseAll() {
+        if (count == 0) {
+            return;
+        }
+        count = 0;
+        onDeactivate();
+    }
+
+    public synchronized boolean isActive() {
+        return count > 0;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    protected abstract void onActivate();
+
+    protected abstract void onDeactivate();
+}
@@ -6,15 +6,34 @@ public class SensorOrientationListener implements EventChannel.StreamHandler, Se
 
     EventChannel.EventSink events;
 
+    private RefCountedActivation sensor;
+
+    /**
+     * @param sensor acquired while stream is listened
+     */
+    public void setSensor(RefCountedActivation sensor) {
+        this.sensor = sensor;
+    }
+
     @Override
     public void onListen(Object arguments, EventChannel.EventSink events) {
+        boolean listening = this.events != null;
         this.events = events;
+        if (!listening && sensor != null) {
+            sensor.acquire();
+        }
     }
 
     @Override
     public void onCancel(Object arguments) {
+        if (this.events == null) {
+            return;
+        }
         this.events.endOfStream();
         this.events = null;
+        if (sensor != null) {
+            sensor.release();
+        }
     }
 
     @Override
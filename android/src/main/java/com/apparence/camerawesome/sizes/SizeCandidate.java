@@ -0,0 +1,62 @@
+package com.apparence.camerawesome.sizes;
+
+/**
+ * An output size reported by the camera with its cost
+ * plain ints so negotiation can run without android classes
+ */
+public class SizeCandidate {
+
+    private final int width;
+
+    private final int height;
+
+    // min time between two frames when this output is used (0 if unknown)
+    private final long minFrameDurationNs;
+
+    // extra time a capture on this output blocks the pipeline (JPEG)
+    private final long stallDurationNs;
+
+    public SizeCandidate(int width, int height, long minFrameDurationNs, long stallDurationNs) {
+        this.width = width;
+        this.height = height;
+        this.minFrameDurationNs = minFrameDurationNs;
+        this.stallDurationNs = stallDurationNs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getMinFrameDurationNs() {
+        return minFrameDurationNs;
+    }
+
+    public long getStallDurationNs() {
+        return stallDurationNs;
+    }
+
+    public long getPixels() {
+        return (long) width * height;
+    }
+
+    public double getAspectRatio() {
+        return Math.max(width, height) / (double) Math.min(width, height);
+    }
+
+    /**
+     * True if this size is at least as big as given one whatever the orientation
+     */
+    public boolean covers(int otherWidth, int otherHeight) {
+        return Math.max(width, height) >= Math.max(otherWidth, otherHeight)
+                && Math.min(width, height) >= Math.min(otherWidth, otherHeight);
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
@@ -0,0 +1,83 @@
+package com.apparence.camerawesome.sizes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sizes chosen by {@link SizeNegotiator} and the cost estimate they were chosen on
+ */
+public class SizeDecision {
+
+    private final SizeCandidate preview;
+
+    private final SizeCandidate stream;
+
+    private final SizeCandidate photo;
+
+    // max fps reachable with preview and stream configured together
+    private final double achievableFps;
+
+    // pixels produced each second by repeating outputs
+    private final long pixelsPerSecond;
+
+    // YUV bytes to convert each second for the stream
+    private final long streamBytesPerSecond;
+
+    private final double photoStallMs;
+
+    // constraints we had to drop to find a size (empty if all were met)
+    private final String relaxed;
+
+    SizeDecision(SizeCandidate preview, SizeCandidate stream, SizeCandidate photo, double achievableFps,
+                 long pixelsPerSecond, long streamBytesPerSecond, double photoStallMs, String relaxed) {
+        this.preview = preview;
+        this.stream = stream;
+        this.photo = photo;
+        this.achievableFps = achievableFps;
+        this.pixelsPerSecond = pixelsPerSecond;
+        this.streamBytesPerSecond = streamBytesPerSecond;
+        this.photoStallMs = photoStallMs;
+        this.relaxed = relaxed;
+    }
+
+    public SizeCandidate getPreview() {
+        return preview;
+    }
+
+    public SizeCandidate getStream() {
+        return stream;
+    }
+
+    public SizeCandidate getPhoto() {
+        return photo;
+    }
+
+    public double getAchievableFps() {
+        return achievableFps;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> cost = new HashMap<>();
+        cost.put("achievableFps", achievableFps);
+        cost.put("pixelsPerSecond", pixelsPerSecond);
+        cost.put("streamBytesPerSecond", streamBytesPerSecond);
+        cost.put("photoStallMs", photoStallMs);
+        cost.put("relaxed", relaxed);
+        Map<String, Object> res = new HashMap<>();
+        res.put("preview", sizeToMap(preview));
+        res.put("stream", sizeToMap(stream));
+        res.put("photo", sizeToMap(photo));
+        res.put("cost", cost);
+        return res;
+    }
+
+    private static Map<String, Object> sizeToMap(SizeCandidate size) {
+        if (size == null) {
+            return null;
+        }
+        Map<String, Object> res = new HashMap<>();
+        res.put("width", size.getWidth());
+        res.put("height", size.getHeight());
+        return res;
+    }
+}
@@ -0,0 +1,206 @@
+package com.apparence.camerawesome.sizes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses preview, stream and photo sizes from their cost instead of taking the biggest one.
+ * For each output we keep the fewest pixels that still meet the target fps, aspect ratio and minimum size.
+ * If nothing matches, constraints are dropped in this order: aspect ratio, minimum size, fps.
+ */
+public class SizeNegotiator {
+
+    private static final double ASPECT_RATIO_TOLERANCE = 0.05;
+
+    // YUV_420_888 is 12 bits per pixel
+    private static final double YUV_BYTES_PER_PIXEL = 1.5;
+
+    private final List<SizeCandidate> previewCandidates;
+
+    private final List<SizeCandidate> streamCandidates;
+
+    private final List<SizeCandidate> photoCandidates;
+
+    /**
+     * @param previewCandidates sizes available for a SurfaceTexture output
+     * @param streamCandidates  sizes available for a YUV_420_888 output (can be empty if no stream)
+     * @param photoCandidates   sizes available for a JPEG output
+     */
+    public SizeNegotiator(List<SizeCandidate> previewCandidates,
+                          List<SizeCandidate> streamCandidates,
+                          List<SizeCandidate> photoCandidates) {
+        this.previewCandidates = previewCandidates;
+        this.streamCandidates = streamCandidates;
+        this.photoCandidates = photoCandidates;
+    }
+
+    public SizeDecision negotiate(Request request) {
+        double aspectRatio = request.aspectRatio > 0
+                ? request.aspectRatio
+                : ratio(request.displayWidth, request.displayHeight);
+        long maxFrameDurationNs = request.targetFps > 0 ? (long) (1_000_000_000L / request.targetFps) : 0;
+        StringBuilder relaxed = new StringBuilder();
+
+        SizeCandidate preview = choose("preview", previewCandidates, aspectRatio, maxFrameDurationNs,
+                request.displayWidth, request.displayHeight, false, relaxed);
+        SizeCandidate stream = null;
+        if (request.streamWidth > 0 && request.streamHeight > 0) {
+            stream = choose("stream", streamCandidates, aspectRatio, maxFrameDurationNs,
+                    request.streamWidth, request.streamHeight, false, relaxed);
+        }
+        // a photo is a one shot capture, fps doesn't apply. Without minimum size we want the best photo
+        boolean photoLargest = request.photoWidth <= 0 || request.photoHeight <= 0;
+        SizeCandidate photo = choose("photo", photoCandidates, aspectRatio, 0,
+                request.photoWidth, request.photoHeight, photoLargest, relaxed);
+
+        // outputs are configured together, the slowest one limits the frame rate
+        long frameDurationNs = Math.max(durationOf(preview), durationOf(stream));
+        double achievableFps = frameDurationNs > 0 ? 1_000_000_000d / frameDurationNs : request.targetFps;
+        double fps = request.targetFps > 0 ? Math.min(request.targetFps, achievableFps) : achievableFps;
+        long repeatingPixels = pixelsOf(preview) + pixelsOf(stream);
+        return new SizeDecision(
+                preview,
+                stream,
+                photo,
+                achievableFps,
+                (long) (repeatingPixels * fps),
+                (long) (pixelsOf(stream) * YUV_BYTES_PER_PIXEL * fps),
+                photo != null ? photo.getStallDurationNs() / 1_000_000d : 0,
+                relaxed.toString());
+    }
+
+    // ------------------------------------------------------
+    // PRIVATES
+    // ------------------------------------------------------
+
+    private SizeCandidate choose(String output, List<SizeCandidate> candidates, double aspectRatio,
+                                 long maxFrameDurationNs, int minWidth, int minHeight, boolean largest,
+                                 StringBuilder relaxed) {
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        SizeCandidate res = best(filter(candidates, aspectRatio, maxFrameDurationNs, minWidth, minHeight), largest);
+        if (res != null) {
+            return res;
+        }
+        res = best(filter(candidates, 0, maxFrameDurationNs, minWidth, minHeight), largest);
+        if (res != null) {
+            appendRelaxed(relaxed, output + ".aspectRatio");
+            return res;
+        }
+        // too small is better than too slow, take the biggest one still meeting fps
+        res = best(filter(candidates, 0, maxFrameDurationNs, 0, 0), true);
+        if (res != null) {
+            appendRelaxed(relaxed, output + ".minSize");
+            return res;
+        }
+        appendRelaxed(relaxed, output + ".fps");
+        return best(candidates, false);
+    }
+
+    private List<SizeCandidate> filter(List<SizeCandidate> candidates, double aspectRatio,
+                                       long maxFrameDurationNs, int minWidth, int minHeight) {
+        List<SizeCandidate> res = new ArrayList<>();
+        for (SizeCandidate candidate : candidates) {
+            if (aspectRatio > 0 && Math.abs(candidate.getAspectRatio() - aspectRatio) > ASPECT_RATIO_TOLERANCE) {
+                continue;
+            }
+            if (maxFrameDurationNs > 0 && candidate.getMinFrameDurationNs() > maxFrameDurationNs) {
+                continue;
+            }
+            if (!candidate.covers(minWidth, minHeight)) {
+                continue;
+            }
+            res.add(candidate);
+        }
+        return res;
+    }
+
+    private SizeCandidate best(List<SizeCandidate> candidates, boolean largest) {
+        SizeCandidate res = null;
+        for (SizeCandidate candidate : candidates) {
+            if (res == null
+                    || (largest && candidate.getPixels() > res.getPixels())
+                    || (!largest && candidate.getPixels() < res.getPixels())) {
+                res = candidate;
+            }
+        }
+        return res;
+    }
+
+    private static void appendRelaxed(StringBuilder relaxed, String constraint) {
+        if (relaxed.length() > 0) {
+            relaxed.append(',');
+        }
+        relaxed.append(constraint);
+    }
+
+    private static double ratio(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        return Math.max(width, height) / (double) Math.min(width, height);
+    }
+
+    private static long durationOf(SizeCandidate size) {
+        return size != null ? size.getMinFrameDurationNs() : 0;
+    }
+
+    private static long pixelsOf(SizeCandidate size) {
+        return size != null ? size.getPixels() : 0;
+    }
+
+    /**
+     * What the app needs, sizes are in pixels whatever the orientation
+     */
+    public static class Request {
+
+        // surface size where preview is displayed
+        int displayWidth;
+
+        int displayHeight;
+
+        double targetFps = 30;
+
+        // long side / short side, display ratio is used if not set
+        double aspectRatio;
+
+        // minimum size needed by image stream, no stream if not set
+        int streamWidth;
+
+        int streamHeight;
+
+        // minimum photo size, biggest photo if not set
+        int photoWidth;
+
+        int photoHeight;
+
+        public Request setDisplaySize(int width, int height) {
+            this.displayWidth = width;
+            this.displayHeight = height;
+            return this;
+        }
+
+        public Request setTargetFps(double targetFps) {
+            this.targetFps = targetFps;
+            return this;
+        }
+
+        public Request setAspectRatio(double aspectRatio) {
+            this.aspectRatio = aspectRatio;
+            return this;
+        }
+
+        public Request setStreamSize(int width, int height) {
+            this.streamWidth = width;
+            this.streamHeight = height;
+            return this;
+        }
+
+        public Request setPhotoSize(int width, int height) {
+            this.photoWidth = width;
+            this.photoHeight = height;
+            return this;
+        }
+    }
+}
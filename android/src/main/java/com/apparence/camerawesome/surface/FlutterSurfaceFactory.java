@@ -2,29 +2,47 @@ package com.apparence.camerawesome.surface;
 
 import android.graphics.SurfaceTexture;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Size;
 import android.view.Surface;
 
 import androidx.annotation.RequiresApi;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import io.flutter.view.TextureRegistry;
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class FlutterSurfaceFactory implements SurfaceFactory {
 
+    // max time camera thread waits for main thread to register the texture
+    private static final long CREATE_TEXTURE_TIMEOUT_MS = 1000;
+
     private TextureRegistry registry;
 
-    private TextureRegistry.SurfaceTextureEntry flutterTexture;
+    private volatile TextureRegistry.SurfaceTextureEntry flutterTexture;
 
 
     public FlutterSurfaceFactory(TextureRegistry registry) {
         this.registry = registry;
     }
 
+    /**
+     * Can be called from camera thread, flutter requires the texture to be registered on main thread.
+     * Texture is created once and reused by next camera starts, only the surface is new.
+     *
+     * @throws IllegalStateException if main thread didn't create the texture in time
+     */
     @Override
     public Surface build(Size size) {
-        flutterTexture = registry.createSurfaceTexture();
-        SurfaceTexture surfaceTexture = flutterTexture.surfaceTexture();
+        TextureRegistry.SurfaceTextureEntry texture = flutterTexture;
+        if (texture == null) {
+            texture = createTextureOnMainThread();
+            flutterTexture = texture;
+        }
+        SurfaceTexture surfaceTexture = texture.surfaceTexture();
         surfaceTexture.setDefaultBufferSize(size.getWidth(), size.getHeight());
         return new Surface(surfaceTexture);
     }
@@ -36,4 +54,61 @@ public class FlutterSurfaceFactory implements SurfaceFactory {
         }
         return flutterTexture.id();
     }
+
+    /**
+     * Unregisters texture from flutter, a new one is created by next {@link #build(Size)}
+     */
+    public void release() {
+        final TextureRegistry.SurfaceTextureEntry texture = flutterTexture;
+        flutterTexture = null;
+        if (texture == null) {
+            return;
+        }
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+            texture.release();
+            return;
+        }
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                texture.release();
+            }
+        });
+    }
+
+    private TextureRegistry.SurfaceTextureEntry createTextureOnMainThread() {
+        if (Looper.getMainLooper() == Looper.myLooper()) {
+            return registry.createSurfaceTexture();
+        }
+        // [0] created texture, [1] set once the camera thread gave up waiting
+        final Object[] handoff = new Object[2];
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                TextureRegistry.SurfaceTextureEntry texture = registry.createSurfaceTexture();
+                synchronized (handoff) {
+                    if (handoff[1] != null) {
+                        // nobody will ever use it, don't leak it in flutter registry
+                        texture.release();
+                        return;
+                    }
+                    handoff[0] = texture;
+                }
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await(CREATE_TEXTURE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (handoff) {
+            if (handoff[0] == null) {
+                handoff[1] = Boolean.TRUE;
+                throw new IllegalStateException("flutter texture not created after " + CREATE_TEXTURE_TIMEOUT_MS + "ms");
+            }
+            return (TextureRegistry.SurfaceTextureEntry) handoff[0];
+        }
+    }
 }
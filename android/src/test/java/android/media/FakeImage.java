@@ -0,0 +1,168 @@
+package android.media;
+
+import android.graphics.ImageFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Image over preallocated planes for JVM tests, reused from frame to frame so reading it never allocates.
+ * Lives in android.media because Image and Plane constructors are hidden from the SDK.
+ */
+public class FakeImage extends Image {
+
+    // bytes of a fake jpeg file, enough for pictures to be written
+    private static final int JPEG_SIZE = 4096;
+
+    private final int format;
+
+    private final int width;
+
+    private final int height;
+
+    private final FakePlane[] planes;
+
+    private final OnCloseListener onCloseListener;
+
+    private volatile long timestamp;
+
+    private FakeImage(int format, int width, int height, FakePlane[] planes, OnCloseListener onCloseListener) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.planes = planes;
+        this.onCloseListener = onCloseListener;
+    }
+
+    /**
+     * YUV_420_888 image laid out like most camera HALs: Y rows padded to rowStride,
+     * U and V sharing one interleaved chroma plane (pixel stride 2)
+     */
+    public static FakeImage yuv420(int width, int height, int rowStride, OnCloseListener onCloseListener) {
+        ByteBuffer y = fill(ByteBuffer.allocateDirect(rowStride * (height - 1) + width), 16);
+        ByteBuffer chroma = fill(ByteBuffer.allocateDirect(rowStride * (height / 2 - 1) + width), 128);
+        int chromaSize = chroma.capacity() - 1;
+        chroma.position(0);
+        chroma.limit(chromaSize);
+        ByteBuffer v = chroma.slice();
+        chroma.position(1);
+        chroma.limit(1 + chromaSize);
+        ByteBuffer u = chroma.slice();
+        return new FakeImage(ImageFormat.YUV_420_888, width, height, new FakePlane[]{
+                new FakePlane(y, rowStride, 1),
+                new FakePlane(u, rowStride, 2),
+                new FakePlane(v, rowStride, 2),
+        }, onCloseListener);
+    }
+
+    public static FakeImage jpeg(int width, int height, OnCloseListener onCloseListener) {
+        ByteBuffer data = fill(ByteBuffer.allocateDirect(JPEG_SIZE), 0);
+        // SOI and EOI markers
+        data.put(0, (byte) 0xFF).put(1, (byte) 0xD8);
+        data.put(JPEG_SIZE - 2, (byte) 0xFF).put(JPEG_SIZE - 1, (byte) 0xD9);
+        return new FakeImage(ImageFormat.JPEG, width, height, new FakePlane[]{
+                new FakePlane(data, 0, 0)
+        }, onCloseListener);
+    }
+
+    /**
+     * Prepares image for a new delivery, frame number is written in the first bytes of the first plane
+     */
+    public void prepare(long timestamp, long frameNumber) {
+        this.timestamp = timestamp;
+        for (FakePlane plane : planes) {
+            plane.buffer.clear();
+        }
+        if (format != ImageFormat.JPEG) {
+            planes[0].buffer.putLong(0, frameNumber);
+        }
+    }
+
+    /**
+     * @return frame number written by {@link #prepare(long, long)}, -1 for jpeg images
+     */
+    public long getFrameNumber() {
+        return format != ImageFormat.JPEG ? planes[0].buffer.getLong(0) : -1;
+    }
+
+    @Override
+    public int getFormat() {
+        return format;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // hidden from the SDK
+    public int getTransform() {
+        return 0;
+    }
+
+    // hidden from the SDK
+    public int getScalingMode() {
+        return 0;
+    }
+
+    @Override
+    public Plane[] getPlanes() {
+        return planes;
+    }
+
+    @Override
+    public void close() {
+        onCloseListener.onClosed(this);
+    }
+
+    private static ByteBuffer fill(ByteBuffer buffer, int base) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) (base + i % 64));
+        }
+        return buffer;
+    }
+
+    public interface OnCloseListener {
+
+        void onClosed(FakeImage image);
+    }
+
+    private static class FakePlane extends Plane {
+
+        private final ByteBuffer buffer;
+
+        private final int rowStride;
+
+        private final int pixelStride;
+
+        FakePlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            this.buffer = buffer;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+        }
+
+        @Override
+        public int getRowStride() {
+            return rowStride;
+        }
+
+        @Override
+        public int getPixelStride() {
+            return pixelStride;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+    }
+}
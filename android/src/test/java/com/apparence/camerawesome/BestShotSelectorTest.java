@@ -0,0 +1,150 @@
+package com.apparence.camerawesome;
+
+import android.media.FakeImage;
+
+import com.apparence.camerawesome.fake.FakeHandlerThread;
+import com.apparence.camerawesome.processor.SharpnessScorer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BestShotSelectorTest {
+
+    // byte of the fake jpeg set to the photo index
+    private static final int MARKER = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<Long, Double> scores = new ConcurrentHashMap<>();
+
+    private final SharpnessScorer scorer = new SharpnessScorer() {
+        @Override
+        public double getScore(long timestampNs) {
+            Double score = scores.get(timestampNs);
+            return score != null ? score : Double.NaN;
+        }
+    };
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final AtomicReference<String> error = new AtomicReference<>();
+
+    private final CameraPicture.OnImageResult listener = new CameraPicture.OnImageResult() {
+        @Override
+        public void onSuccess() {
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(String message) {
+            error.set(message);
+            done.countDown();
+        }
+    };
+
+    private FakeHandlerThread ioThread;
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        ioThread = new FakeHandlerThread("CameraIO");
+        file = new File(folder.getRoot(), "best.jpg");
+    }
+
+    @After
+    public void tearDown() {
+        ioThread.quit();
+    }
+
+    @Test
+    public void sharpestPhotoIsWritten() throws Exception {
+        scores.put(1L, 10.0);
+        scores.put(2L, 50.0);
+        scores.put(3L, 20.0);
+        BestShotSelector selector = new BestShotSelector(3, scorer, file, null, listener);
+        for (int i = 1; i <= 3; i++) {
+            selector.onImage(photo(i, i));
+        }
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertNull(error.get());
+        Assert.assertEquals(2, writtenPhoto());
+    }
+
+    @Test
+    public void lateScoresAreWaited() throws Exception {
+        final BestShotSelector selector = new BestShotSelector(2, scorer, file, ioThread.getHandler(), listener);
+        scores.put(1L, 10.0);
+        ioThread.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                selector.onImage(photo(1, 1));
+                selector.onImage(photo(2, 2));
+            }
+        });
+        Thread.sleep(50);
+        Assert.assertEquals(1, done.getCount());
+        // second frame scored after its jpeg
+        scores.put(2L, 30.0);
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, writtenPhoto());
+    }
+
+    @Test
+    public void unscoredBurstKeepsFirstPhoto() throws Exception {
+        BestShotSelector selector = new BestShotSelector(2, scorer, file, null, listener);
+        selector.onImage(photo(1, 1));
+        selector.onImage(photo(2, 2));
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, writtenPhoto());
+    }
+
+    @Test
+    public void failedCapturesAreSkipped() throws Exception {
+        scores.put(2L, 1.0);
+        BestShotSelector selector = new BestShotSelector(3, scorer, file, null, listener);
+        selector.onCaptureFailed();
+        selector.onImage(photo(2, 2));
+        Assert.assertEquals(1, done.getCount());
+        selector.onCaptureFailed();
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, writtenPhoto());
+    }
+
+    @Test
+    public void burstWithoutPhotoFails() throws Exception {
+        BestShotSelector selector = new BestShotSelector(2, scorer, file, null, listener);
+        selector.onCaptureFailed();
+        selector.onCaptureFailed();
+        Assert.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals("CAPTURE_FAILED", error.get());
+        Assert.assertFalse(file.exists());
+    }
+
+    // ------ HELPERS ------
+
+    private static FakeImage photo(long timestamp, int index) {
+        FakeImage image = FakeImage.jpeg(64, 48, null);
+        image.prepare(timestamp, index);
+        image.getPlanes()[0].getBuffer().put(MARKER, (byte) index);
+        return image;
+    }
+
+    private int writtenPhoto() throws IOException {
+        return Files.readAllBytes(file.toPath())[MARKER];
+    }
+}
@@ -0,0 +1,223 @@
+package com.apparence.camerawesome;
+
+import android.content.Context;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+
+import com.apparence.camerawesome.fake.FakeClockHandler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CameraInstanceRegistryTest {
+
+    @Mock
+    CameraDevice backCamera;
+
+    @Mock
+    CameraDevice frontCamera;
+
+    @Mock
+    CameraDevice externalCamera;
+
+    @Mock
+    CameraManager cameraManager;
+
+    private final FakeClockHandler stateThread = new FakeClockHandler();
+
+    private static Set<Set<String>> concurrentSets(Set<String>... sets) {
+        return new HashSet<>(Arrays.asList(sets));
+    }
+
+    private static Set<String> ids(String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+
+    private CameraStateManager newStateManager() {
+        Context context = mock(Context.class);
+        when(context.getSystemService(Context.CAMERA_SERVICE)).thenReturn(cameraManager);
+        return new CameraStateManager(context, mock(CameraPreview.class), mock(CameraPicture.class),
+                mock(CameraSession.class), stateThread.getHandler());
+    }
+
+    private TestObserver<Void> open(CameraStateManager stateManager, String cameraId, CameraDevice device) throws Exception {
+        TestObserver<Void> observer = stateManager.startCamera(cameraId).test();
+        stateThread.runPending();
+        verify(cameraManager).openCamera(eq(cameraId), same(stateManager), any(Handler.class));
+        stateManager.onOpened(device);
+        return observer;
+    }
+
+    @Test
+    public void singleCameraAlwaysAdmitted() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(null);
+        Assert.assertNull(registry.admit("default", "0", backCamera));
+        Assert.assertSame(backCamera, registry.get("default"));
+    }
+
+    @Test
+    public void secondCameraRefusedWhenDeviceDoesNotReportConcurrency() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(null);
+        registry.admit("back", "0", backCamera);
+        Assert.assertFalse(registry.canAdmit("front", "1"));
+    }
+
+    @Test
+    public void concurrentCamerasAdmittedTogether() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(concurrentSets(ids("0", "1")));
+        registry.admit("back", "0", backCamera);
+        registry.admit("front", "1", frontCamera);
+        Assert.assertEquals(2, registry.size());
+        Assert.assertEquals(ids("0", "1"), registry.getHeldCameraIds());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cameraOutsideConcurrentSetsRefused() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(concurrentSets(ids("0", "1")));
+        registry.admit("back", "0", backCamera);
+        registry.admit("external", "2", externalCamera);
+    }
+
+    @Test
+    public void sameCameraCannotBeHeldTwice() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(concurrentSets(ids("0", "1")));
+        registry.admit("first", "0", backCamera);
+        Assert.assertFalse(registry.canAdmit("second", "0"));
+    }
+
+    @Test
+    public void reinitSameInstanceReplacesPrevious() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(null);
+        registry.admit("default", "0", backCamera);
+        CameraDevice previous = registry.admit("default", "1", frontCamera);
+        Assert.assertSame(backCamera, previous);
+        Assert.assertEquals(Collections.singleton("1"), registry.getHeldCameraIds());
+    }
+
+    @Test
+    public void releasedCameraCanBeUsedByAnotherInstance() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(null);
+        registry.admit("back", "0", backCamera);
+        Assert.assertSame(backCamera, registry.release("back"));
+        Assert.assertTrue(registry.canAdmit("front", "1"));
+        Assert.assertNull(registry.get("back"));
+    }
+
+    @Test
+    public void switchCameraChecksOtherInstances() {
+        CameraInstanceRegistry<CameraDevice> registry = new CameraInstanceRegistry<>(
+                concurrentSets(ids("0", "1"), ids("0", "2")));
+        registry.admit("main", "0", backCamera);
+        registry.admit("second", "1", frontCamera);
+        registry.switchCamera("second", "2");
+        Assert.assertEquals("2", registry.getCameraId("second"));
+        try {
+            registry.switchCamera("main", "1");
+            Assert.fail("1 and 2 cannot run together");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals("0", registry.getCameraId("main"));
+    }
+
+    @Test
+    public void disconnectedCameraIsReleasedForNextInstance() throws Exception {
+        CameraInstanceRegistry<CameraStateManager> registry = new CameraInstanceRegistry<>(null);
+        CameraStateManager back = newStateManager();
+        Assert.assertNull(registry.admit("back", "0", back));
+        open(back, "0", backCamera).assertComplete();
+        Assert.assertEquals(CameraStateManager.State.OPENED, back.getState());
+
+        // camera taken by a higher priority client
+        back.onDisconnected(backCamera);
+        verify(backCamera).close();
+        back.onClosed(backCamera);
+        Assert.assertEquals(CameraStateManager.State.CLOSED, back.getState());
+        // still held until instance is released
+        Assert.assertFalse(registry.canAdmit("front", "1"));
+
+        Assert.assertSame(back, registry.release("back"));
+        CameraStateManager front = newStateManager();
+        registry.admit("front", "1", front);
+        open(front, "1", frontCamera).assertComplete();
+        Assert.assertEquals(Collections.singleton("1"), registry.getHeldCameraIds());
+    }
+
+    @Test
+    public void closedCameraIsReleasedForNextInstance() throws Exception {
+        CameraInstanceRegistry<CameraStateManager> registry = new CameraInstanceRegistry<>(null);
+        CameraStateManager back = newStateManager();
+        registry.admit("back", "0", back);
+        open(back, "0", backCamera);
+
+        TestObserver<Void> close = back.stopCamera().test();
+        stateThread.runPending();
+        back.onClosed(backCamera);
+        close.assertComplete();
+        registry.release("back");
+
+        CameraStateManager front = newStateManager();
+        registry.admit("front", "1", front);
+        open(front, "1", frontCamera).assertComplete();
+        Assert.assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void refusedSecondDeviceIsNeverOpened() throws Exception {
+        CameraInstanceRegistry<CameraStateManager> registry = new CameraInstanceRegistry<>(null);
+        CameraStateManager back = newStateManager();
+        registry.admit("back", "0", back);
+        open(back, "0", backCamera);
+
+        CameraStateManager front = newStateManager();
+        try {
+            registry.admit("front", "1", front);
+            Assert.fail("device does not report concurrent cameras");
+        } catch (IllegalStateException expected) {
+        }
+        verify(cameraManager, never()).openCamera(eq("1"), any(CameraDevice.StateCallback.class), any(Handler.class));
+        Assert.assertNull(registry.get("front"));
+        Assert.assertSame(back, registry.get("back"));
+        Assert.assertEquals(CameraStateManager.State.OPENED, back.getState());
+        verify(backCamera, never()).close();
+    }
+
+    @Test
+    public void concurrentDevicesOpenTogetherAndThirdIsRefused() throws Exception {
+        CameraInstanceRegistry<CameraStateManager> registry = new CameraInstanceRegistry<>(concurrentSets(ids("0", "1")));
+        CameraStateManager back = newStateManager();
+        CameraStateManager front = newStateManager();
+        registry.admit("back", "0", back);
+        open(back, "0", backCamera).assertComplete();
+        registry.admit("front", "1", front);
+        open(front, "1", frontCamera).assertComplete();
+
+        Assert.assertFalse(registry.canAdmit("external", "2"));
+        verify(cameraManager, never()).openCamera(eq("2"), any(CameraDevice.StateCallback.class), any(Handler.class));
+
+        front.onDisconnected(frontCamera);
+        front.onClosed(frontCamera);
+        registry.release("front");
+        Assert.assertEquals(Collections.singleton("0"), registry.getHeldCameraIds());
+        Assert.assertEquals(CameraStateManager.State.OPENED, back.getState());
+    }
+}
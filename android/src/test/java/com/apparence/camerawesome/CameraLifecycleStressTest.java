@@ -0,0 +1,700 @@
+package com.apparence.camerawesome;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.util.Range;
+import android.util.Rational;
+import android.view.Display;
+import android.view.WindowManager;
+
+import com.apparence.camerawesome.cache.CameraCharacteristicsCache;
+import com.apparence.camerawesome.cache.CameraCharacteristicsSnapshot;
+import com.apparence.camerawesome.fake.FakeCameraBackend;
+import com.apparence.camerawesome.fake.FakeHandlerThread;
+import com.apparence.camerawesome.fake.FakeImageStream;
+import com.apparence.camerawesome.metrics.LatencyHistogram;
+import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import io.flutter.view.TextureRegistry;
+import io.reactivex.rxjava3.android.plugins.RxAndroidPlugins;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs randomized start / stop / switch sequences against the camera classes and {@link FakeCameraBackend},
+ * like kiosk devices restarting the camera hundreds of times a day.
+ * After every sequence no stream or surface must be left open, at the end threads and heap
+ * must be back to their level after warm up.
+ * Same sequences are also run through {@link CamerawesomePlugin} method calls, with init / re-init / dispose
+ * of the camera instance and its threads.
+ * <p>
+ * Number of sequences and seed can be changed with -Dcamerawesome.stress.sequences,
+ * -Dcamerawesome.stress.pluginSequences and -Dcamerawesome.stress.seed,
+ * latency distribution of each operation is written in build/reports/camerawesome (-Dcamerawesome.stress.reportDir)
+ * and given in failure messages.
+ */
+public class CameraLifecycleStressTest {
+
+    private static final int WARM_UP_SEQUENCES = 20;
+
+    private static final long TIMEOUT_MS = 5_000;
+
+    // threads ending asynchronously (converter workers) are given this time
+    private static final long SETTLE_MS = 2_000;
+
+    private static final long MAX_HEAP_GROWTH_BYTES = 16 * 1024 * 1024;
+
+    private enum Operation {
+        START,
+        STOP,
+        RESTART,
+        SWITCH,
+        PHOTO_SIZE,
+        PROFILE,
+        ZOOM,
+        TAKE_PICTURE,
+        INIT,
+        REINIT,
+        DISPOSE,
+    }
+
+    // operations randomly run between start and stop
+    private static final Operation[] MIDDLE_OPERATIONS = {
+            Operation.RESTART, Operation.SWITCH, Operation.PHOTO_SIZE, Operation.PROFILE,
+            Operation.ZOOM, Operation.TAKE_PICTURE,
+    };
+
+    // operations randomly run between plugin init and dispose
+    private static final Operation[] PLUGIN_MIDDLE_OPERATIONS = {
+            Operation.REINIT, Operation.RESTART, Operation.SWITCH, Operation.PHOTO_SIZE,
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    private final Map<Operation, Integer> failures = new EnumMap<>(Operation.class);
+
+    private FakeCameraBackend backend;
+
+    private FakeHandlerThread cameraThread;
+
+    private FakeHandlerThread frameThread;
+
+    private FakeHandlerThread ioThread;
+
+    private CameraCharacteristicsModel characteristics;
+
+    private CameraSession cameraSession;
+
+    private CameraPreview cameraPreview;
+
+    private CameraPicture cameraPicture;
+
+    private CameraStateManager cameraStateManager;
+
+    private Random random;
+
+    private String cameraId = "0";
+
+    private int pictureCount;
+
+    // plugin harness, only set up by plugin sequences
+    private CamerawesomePlugin plugin;
+
+    private FakeHandlerThread commandThread;
+
+    private FakeHandlerThread mainThread;
+
+    // threads of camera instances created by the plugin and not checked yet
+    private final List<FakeHandlerThread> instanceThreads = new CopyOnWriteArrayList<>();
+
+    // instances init since last check
+    private final List<CameraInstance> instances = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger createdTextures = new AtomicInteger();
+
+    private final AtomicInteger releasedTextures = new AtomicInteger();
+
+    private CameraCharacteristicsCache characteristicsCache;
+
+    private CameraSensor pluginSensor;
+
+    @Before
+    public void setUp() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, 0);
+        }
+        random = new Random(Long.getLong("camerawesome.stress.seed", 42));
+        backend = new FakeCameraBackend(320, 240, 120);
+        cameraThread = new FakeHandlerThread("CameraControl");
+        frameThread = new FakeHandlerThread("CameraFrames");
+        ioThread = new FakeHandlerThread("CameraIO");
+        CameraThreads threads = new CameraThreads(cameraThread.getHandler(), frameThread.getHandler(), ioThread.getHandler());
+        characteristics = new CameraCharacteristicsModel(4, null, true, true, mock(Range.class), new Rational(1, 3));
+        cameraSession = new CameraSession(threads.getCameraHandler());
+        cameraPreview = new CameraPreview(cameraSession, characteristics, backend.getSurfaceFactory(),
+                FakeCameraBackend.inlineHandler(), threads.getFrameHandler(), true);
+        cameraPreview.setImageStreamFactory(backend.getImageStreamFactory());
+        cameraPreview.onListen(null, new EventChannel.EventSink() {
+            @Override
+            public void success(Object event) {
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+            }
+
+            @Override
+            public void endOfStream() {
+            }
+        });
+        cameraPicture = new CameraPicture(null, cameraPreview, cameraSession, characteristics,
+                threads.getCameraHandler(), threads.getIoHandler());
+        cameraPicture.setImageStreamFactory(backend.getImageStreamFactory());
+        cameraPicture.setPhotoSize(320, 240);
+        cameraStateManager = new CameraStateManager(backend.getContext(), cameraPreview, cameraPicture, cameraSession,
+                threads.getCameraHandler());
+        cameraSession.setOnCaptureSessionListenerList(
+                Arrays.<CameraSession.OnCaptureSession>asList(cameraPreview, cameraPicture));
+    }
+
+    @After
+    public void tearDown() {
+        backend.shutdown();
+        cameraThread.quit();
+        frameThread.quit();
+        ioThread.quit();
+        if (plugin != null) {
+            commandThread.quit();
+            mainThread.quit();
+            for (FakeHandlerThread thread : instanceThreads) {
+                thread.quit();
+            }
+            characteristicsCache.clear();
+            RxAndroidPlugins.reset();
+        }
+    }
+
+    @Test
+    public void randomizedLifecycleSequencesDontLeak() throws Exception {
+        int sequences = Integer.getInteger("camerawesome.stress.sequences", 1000);
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        int baselineThreads = 0;
+        long baselineHeap = 0;
+        for (int i = 0; i < WARM_UP_SEQUENCES + sequences; i++) {
+            if (i == WARM_UP_SEQUENCES) {
+                waitForConverterThreads();
+                baselineThreads = threadBean.getThreadCount();
+                baselineHeap = usedHeap();
+            }
+            runSequence(i);
+            assertReleased(i);
+        }
+        waitForConverterThreads();
+        long heapGrowth = usedHeap() - baselineHeap;
+        int threadDelta = threadBean.getThreadCount() - baselineThreads;
+        String report = report(sequences, threadDelta, heapGrowth);
+        writeReport(report);
+
+        Assert.assertTrue("threads leaked\n" + report, threadDelta <= 0);
+        Assert.assertTrue("heap grew too much\n" + report, heapGrowth < MAX_HEAP_GROWTH_BYTES);
+        assertNoThreadError(cameraThread);
+        assertNoThreadError(frameThread);
+        assertNoThreadError(ioThread);
+        Assert.assertTrue("no picture taken\n" + report, pictureCount > 0);
+        Assert.assertEquals("camera stop failed\n" + report, 0, (int) failures.get(Operation.STOP));
+    }
+
+    @Test
+    public void randomizedPluginSequencesDontLeak() throws Exception {
+        setUpPlugin();
+        int sequences = Integer.getInteger("camerawesome.stress.pluginSequences", 100);
+        for (int i = 0; i < sequences; i++) {
+            runPluginSequence(i);
+            assertInstanceReleased(i);
+        }
+        // engine detached while a camera runs
+        Assert.assertTrue(runPlugin(Operation.INIT));
+        plugin.onDetachedFromEngine(mock(FlutterPlugin.FlutterPluginBinding.class));
+        assertInstanceReleased(sequences);
+        String report = report(sequences, 0, 0);
+        writeReport(report);
+
+        assertNoThreadError(commandThread);
+        assertNoThreadError(mainThread);
+        Assert.assertTrue("no camera started\n" + report,
+                failures.get(Operation.INIT) < latencies.get(Operation.INIT).getCount());
+        Assert.assertEquals("camera stop failed\n" + report, 0, (int) failures.get(Operation.RESTART));
+        Assert.assertEquals("dispose failed\n" + report, 0, (int) failures.get(Operation.DISPOSE));
+    }
+
+    // ------ SEQUENCES ------
+
+    private void runSequence(int index) throws Exception {
+        cameraSession.setStartupMode(random.nextInt(4) == 0 ? StartupMode.PREVIEW_FIRST : StartupMode.ALL_OUTPUTS);
+        // some sequences start on a camera failing to open
+        if (random.nextInt(10) == 0) {
+            backend.failNextOpens(1);
+        }
+        run(Operation.START);
+        int middleOperations = random.nextInt(5);
+        for (int i = 0; i < middleOperations; i++) {
+            run(MIDDLE_OPERATIONS[random.nextInt(MIDDLE_OPERATIONS.length)]);
+        }
+        run(Operation.STOP);
+    }
+
+    private void run(Operation operation) throws Exception {
+        long startNanos = System.nanoTime();
+        boolean succeeded;
+        switch (operation) {
+            case START:
+                succeeded = await(cameraStateManager.startCamera(cameraId));
+                break;
+            case STOP:
+                succeeded = await(cameraStateManager.stopCamera());
+                break;
+            case RESTART:
+                succeeded = await(cameraStateManager.stopCamera()) && await(cameraStateManager.startCamera(cameraId));
+                break;
+            case SWITCH:
+                cameraId = "0".equals(cameraId) ? "1" : "0";
+                succeeded = await(cameraStateManager.switchCamera(cameraId, characteristics));
+                break;
+            case PHOTO_SIZE:
+                // like the plugin does
+                cameraPicture.setPhotoSize(320, 240);
+                cameraSession.refresh();
+                succeeded = true;
+                break;
+            case PROFILE:
+                PerformanceProfile[] profiles = PerformanceProfile.values();
+                cameraPreview.setPerformanceProfile(profiles[random.nextInt(profiles.length)], null);
+                succeeded = cameraThread.drain(TIMEOUT_MS);
+                break;
+            case ZOOM:
+                cameraPreview.setZoom(random.nextFloat());
+                succeeded = true;
+                break;
+            case TAKE_PICTURE:
+            default:
+                succeeded = takePicture();
+                break;
+        }
+        latencies.get(operation).recordSince(startNanos);
+        if (!succeeded) {
+            failures.put(operation, failures.get(operation) + 1);
+        }
+    }
+
+    /**
+     * Takes a picture once preview runs, like an app would
+     *
+     * @return false if picture failed or preview never started
+     */
+    private boolean takePicture() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (cameraSession.getCaptureSession() == null || backend.getActiveSession() == null) {
+            if (cameraStateManager.getState() != CameraStateManager.State.OPENED
+                    || System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        final File file = new File(folder.getRoot(), "picture.jpg");
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] success = new boolean[1];
+        cameraPicture.takePicture(backend.getDevice(), file.getPath(), 0, new CameraPicture.OnImageResult() {
+            @Override
+            public void onSuccess() {
+                success[0] = true;
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(String error) {
+                done.countDown();
+            }
+        });
+        boolean completed = done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        file.delete();
+        if (completed && success[0]) {
+            pictureCount++;
+        }
+        return completed && success[0];
+    }
+
+    // ------ PLUGIN SEQUENCES ------
+
+    /**
+     * Plugin runs its commands and camera instances on fake threads, characteristics come from a seeded cache
+     */
+    private void setUpPlugin() throws Exception {
+        // results of start / stop / switch are given on the camera thread, the command dispatcher posts them
+        RxAndroidPlugins.setMainThreadSchedulerHandler(new Function<Scheduler, Scheduler>() {
+            @Override
+            public Scheduler apply(Scheduler scheduler) {
+                return Schedulers.trampoline();
+            }
+        });
+        // state manager of lifecycle sequences is not used here, only plugin instances must register callbacks
+        cameraStateManager.dispose();
+        Assert.assertTrue(cameraThread.drain(TIMEOUT_MS));
+        Assert.assertEquals(backend.getAvailabilityRegistrations(), backend.getAvailabilityUnregistrations());
+        commandThread = new FakeHandlerThread("CameraCommands");
+        mainThread = new FakeHandlerThread("PluginMain");
+        Context context = mock(Context.class);
+        doReturn(backend.getCameraManager()).when(context).getSystemService(Context.CAMERA_SERVICE);
+        doReturn(folder.newFolder("files")).when(context).getFilesDir();
+        characteristicsCache = new CameraCharacteristicsCache(context);
+        characteristicsCache.clear();
+        characteristicsCache.put(CameraSensor.BACK, CameraCharacteristicsSnapshot.from("0", mock(CameraCharacteristics.class)));
+        characteristicsCache.put(CameraSensor.FRONT, CameraCharacteristicsSnapshot.from("1", mock(CameraCharacteristics.class)));
+        // background validation of the cache keeps it as is
+        doThrow(new CameraAccessException(CameraAccessException.CAMERA_ERROR))
+                .when(backend.getCameraManager()).getCameraIdList();
+        // without stream configuration sizes are not negotiated
+        doReturn(mock(CameraCharacteristics.class)).when(backend.getCameraManager()).getCameraCharacteristics(anyString());
+
+        TextureRegistry textureRegistry = mock(TextureRegistry.class);
+        doAnswer(new Answer<TextureRegistry.SurfaceTextureEntry>() {
+            @Override
+            public TextureRegistry.SurfaceTextureEntry answer(InvocationOnMock invocation) {
+                createdTextures.incrementAndGet();
+                TextureRegistry.SurfaceTextureEntry texture = mock(TextureRegistry.SurfaceTextureEntry.class);
+                doReturn(mock(SurfaceTexture.class)).when(texture).surfaceTexture();
+                doAnswer(new Answer<Void>() {
+                    @Override
+                    public Void answer(InvocationOnMock invocation) {
+                        releasedTextures.incrementAndGet();
+                        return null;
+                    }
+                }).when(texture).release();
+                return texture;
+            }
+        }).when(textureRegistry).createSurfaceTexture();
+        FlutterPlugin.FlutterPluginBinding pluginBinding = mock(FlutterPlugin.FlutterPluginBinding.class);
+        doReturn(context).when(pluginBinding).getApplicationContext();
+        doReturn(mock(BinaryMessenger.class)).when(pluginBinding).getBinaryMessenger();
+        doReturn(textureRegistry).when(pluginBinding).getTextureRegistry();
+
+        Activity activity = mock(Activity.class);
+        WindowManager windowManager = mock(WindowManager.class);
+        doReturn(mock(Display.class)).when(windowManager).getDefaultDisplay();
+        doReturn(windowManager).when(activity).getSystemService(Context.WINDOW_SERVICE);
+        Resources resources = mock(Resources.class);
+        doReturn(new Configuration()).when(resources).getConfiguration();
+        doReturn(resources).when(activity).getResources();
+        ActivityPluginBinding activityBinding = mock(ActivityPluginBinding.class);
+        doReturn(activity).when(activityBinding).getActivity();
+
+        plugin = new CamerawesomePlugin() {
+            @Override
+            CommandDispatcher newCommandDispatcher(CommandDispatcher.CommandHandler handler) {
+                return new CommandDispatcher(handler, commandThread.getHandler(), mainThread.getHandler());
+            }
+
+            @Override
+            CameraThreads createCameraThreads() {
+                final FakeHandlerThread camera = newInstanceThread("CameraControl");
+                final FakeHandlerThread frames = newInstanceThread("CameraFrames");
+                final FakeHandlerThread io = newInstanceThread("CameraIO");
+                return new CameraThreads(camera.getHandler(), frames.getHandler(), io.getHandler()) {
+                    @Override
+                    public void quit() {
+                        camera.quitSafely();
+                        frames.quitSafely();
+                        io.quitSafely();
+                    }
+                };
+            }
+        };
+        plugin.onAttachedToEngine(pluginBinding);
+        plugin.onAttachedToActivity(activityBinding);
+        Assert.assertNull(call("checkPermissions", null).errorCode);
+    }
+
+    private FakeHandlerThread newInstanceThread(String name) {
+        FakeHandlerThread thread = new FakeHandlerThread(name);
+        instanceThreads.add(thread);
+        return thread;
+    }
+
+    private void runPluginSequence(int index) throws Exception {
+        if (random.nextInt(10) == 0) {
+            backend.failNextOpens(1);
+        }
+        runPlugin(Operation.INIT);
+        int middleOperations = random.nextInt(5);
+        for (int i = 0; i < middleOperations; i++) {
+            runPlugin(PLUGIN_MIDDLE_OPERATIONS[random.nextInt(PLUGIN_MIDDLE_OPERATIONS.length)]);
+        }
+        runPlugin(Operation.DISPOSE);
+    }
+
+    private boolean runPlugin(Operation operation) throws Exception {
+        long startNanos = System.nanoTime();
+        boolean succeeded;
+        switch (operation) {
+            case INIT:
+            case REINIT:
+                succeeded = initAndStart();
+                break;
+            case RESTART:
+                succeeded = call("stop", null).isSuccess() && call("start", null).isSuccess();
+                break;
+            case SWITCH:
+                pluginSensor = pluginSensor == CameraSensor.BACK ? CameraSensor.FRONT : CameraSensor.BACK;
+                succeeded = call("setSensor", arguments("sensor", pluginSensor.name())).isSuccess();
+                break;
+            case PHOTO_SIZE:
+                succeeded = call("setPhotoSize", arguments("width", 320, "height", 240)).isSuccess();
+                break;
+            case DISPOSE:
+            default:
+                succeeded = call("disposeInstance", null).isSuccess();
+                break;
+        }
+        latencies.get(operation).recordSince(startNanos);
+        if (!succeeded) {
+            failures.put(operation, failures.get(operation) + 1);
+        }
+        return succeeded;
+    }
+
+    /**
+     * Like an app: init (replacing running instance if any), picture size then start
+     */
+    private boolean initAndStart() throws InterruptedException {
+        pluginSensor = random.nextBoolean() ? CameraSensor.BACK : CameraSensor.FRONT;
+        Map<String, Object> initArguments = arguments("sensor", pluginSensor.name(),
+                "startupMode", random.nextInt(4) == 0 ? StartupMode.PREVIEW_FIRST.name() : StartupMode.ALL_OUTPUTS.name());
+        if (random.nextBoolean()) {
+            PerformanceProfile[] profiles = PerformanceProfile.values();
+            initArguments.put("performanceProfile", profiles[random.nextInt(profiles.length)].name());
+        }
+        if (!call("init", initArguments).isSuccess()) {
+            return false;
+        }
+        // ImageReader is a stub on the JVM
+        CameraInstance instance = plugin.getCameraInstance(CameraInstance.DEFAULT_ID);
+        instances.add(instance);
+        instance.getCameraPreview().setImageStreamFactory(backend.getImageStreamFactory());
+        instance.getCameraPicture().setImageStreamFactory(backend.getImageStreamFactory());
+        return call("setPhotoSize", arguments("width", 320, "height", 240)).isSuccess()
+                && call("start", null).isSuccess();
+    }
+
+    private static Map<String, Object> arguments(Object... keyValues) {
+        Map<String, Object> arguments = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            arguments.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return arguments;
+    }
+
+    /**
+     * Sends a method call like flutter does and waits for its result
+     */
+    private PluginResult call(String method, Map<String, Object> arguments) throws InterruptedException {
+        PluginResult result = new PluginResult();
+        plugin.onMethodCall(new MethodCall(method, arguments), result);
+        Assert.assertTrue(method + " not answered", result.done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return result;
+    }
+
+    private static class PluginResult implements MethodChannel.Result {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile String errorCode;
+
+        @Override
+        public void success(Object result) {
+            done.countDown();
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+            this.errorCode = errorCode;
+            done.countDown();
+        }
+
+        @Override
+        public void notImplemented() {
+            error("NOT_IMPLEMENTED", null, null);
+        }
+
+        boolean isSuccess() {
+            return errorCode == null;
+        }
+    }
+
+    // ------ CHECKS ------
+
+    private void assertReleased(int sequence) throws InterruptedException {
+        // posted settings changes and session callbacks run before checking
+        Assert.assertTrue(cameraThread.drain(TIMEOUT_MS));
+        Assert.assertTrue(frameThread.drain(TIMEOUT_MS));
+        Assert.assertEquals("sequence " + sequence + " left camera open",
+                CameraStateManager.State.CLOSED, cameraStateManager.getState());
+        assertStreamsClosed(sequence);
+        Assert.assertEquals("sequence " + sequence + " left preview surfaces",
+                0, backend.getLiveSurfaceCount());
+    }
+
+    /**
+     * Disposed instance must have closed its camera, streams, texture, threads and availability callback
+     */
+    private void assertInstanceReleased(int sequence) throws InterruptedException {
+        for (FakeHandlerThread thread : instanceThreads) {
+            Assert.assertTrue("sequence " + sequence + " left instance threads running", thread.awaitQuit(TIMEOUT_MS));
+            assertNoThreadError(thread);
+        }
+        instanceThreads.clear();
+        Assert.assertTrue(mainThread.drain(TIMEOUT_MS));
+        Assert.assertNull("sequence " + sequence + " left instance registered",
+                plugin.getCameraInstance(CameraInstance.DEFAULT_ID));
+        for (CameraInstance instance : instances) {
+            Assert.assertEquals("sequence " + sequence + " left camera open",
+                    CameraStateManager.State.CLOSED, instance.getCameraStateManager().getState());
+        }
+        instances.clear();
+        Assert.assertEquals("sequence " + sequence + " left camera availability callbacks registered",
+                backend.getAvailabilityRegistrations(), backend.getAvailabilityUnregistrations());
+        assertStreamsClosed(sequence);
+        Assert.assertEquals("sequence " + sequence + " left flutter textures",
+                createdTextures.get(), releasedTextures.get());
+    }
+
+    private void assertStreamsClosed(int sequence) {
+        int pictureStreams = 0;
+        for (FakeImageStream stream : backend.getStreams()) {
+            Assert.assertEquals("sequence " + sequence + " left preview stream open",
+                    ImageFormat.JPEG, stream.getFormat());
+            pictureStreams++;
+        }
+        Assert.assertEquals("sequence " + sequence + " left picture streams open", 0, pictureStreams);
+    }
+
+    private static void assertNoThreadError(FakeHandlerThread thread) {
+        if (!thread.getErrors().isEmpty()) {
+            throw new AssertionError("error on camera thread", thread.getErrors().get(0));
+        }
+    }
+
+    private static void waitForConverterThreads() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_MS;
+        while (countThreads("ImgConverterThreaded-") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix) && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static boolean await(Completable completable) {
+        try {
+            return completable.blockingAwait(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // camera failing to open is expected
+            return false;
+        }
+    }
+
+    /**
+     * Report is kept on success too, one file per test
+     */
+    private void writeReport(String report) throws IOException {
+        File directory = new File(System.getProperty("camerawesome.stress.reportDir", "build/reports/camerawesome"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        File file = new File(directory, getClass().getSimpleName() + "-" + testName.getMethodName() + ".txt");
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(report);
+        }
+    }
+
+    private String report(int sequences, int threadDelta, long heapGrowth) {
+        StringBuilder report = new StringBuilder("lifecycle stress: ").append(sequences).append(" sequences, ")
+                .append(pictureCount).append(" pictures, thread delta ").append(threadDelta)
+                .append(", heap growth ").append(heapGrowth / 1024).append(" KB\n");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            report.append(String.format("  %-12s count %6d  failures %4d  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n",
+                    operation, histogram.getCount(), failures.get(operation), histogram.getPercentileMs(0.5),
+                    histogram.getPercentileMs(0.99), (double) histogram.toMap().get("maxMs")));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,377 @@
+package com.apparence.camerawesome;
+
+import android.graphics.ImageFormat;
+import android.util.Range;
+import android.util.Rational;
+
+import com.apparence.camerawesome.fake.FakeCameraBackend;
+import com.apparence.camerawesome.fake.FakeClockHandler;
+import com.apparence.camerawesome.fake.FakeImageStream;
+import com.apparence.camerawesome.image.ImgConverterThreaded;
+import com.apparence.camerawesome.metrics.LatencyHistogram;
+import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+import com.apparence.camerawesome.processor.FrameProcessorRegistry;
+import com.apparence.camerawesome.processor.FrameProcessorStream;
+import com.apparence.camerawesome.processor.SharpnessScorer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.flutter.plugin.common.EventChannel;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Runs preview stream and picture pipeline end to end against {@link FakeCameraBackend}.
+ * JPEG compression is a stub on the JVM, so stream load is measured on conversions instead of flutter sink deliveries.
+ * Tests checking frame counts or delays drive the backend with a {@link FakeClockHandler}, only converters run on
+ * their own threads.
+ */
+public class CameraPipelineLoadTest {
+
+    private static final long TIMEOUT_MS = 5_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeCameraBackend backend;
+
+    private CameraSession cameraSession;
+
+    private CameraPreview cameraPreview;
+
+    private CameraPicture cameraPicture;
+
+    private final LatencyHistogram conversions = new LatencyHistogram();
+
+    private final AtomicLong drops = new AtomicLong();
+
+    private final FakeClockHandler clock = new FakeClockHandler();
+
+    // converter blocks on it after each conversion if set
+    private volatile CountDownLatch converterGate;
+
+    private final Semaphore blockedConversions = new Semaphore(0);
+
+    @After
+    public void tearDown() {
+        CountDownLatch gate = converterGate;
+        if (gate != null) {
+            gate.countDown();
+        }
+        if (cameraPreview != null) {
+            cameraPreview.dispose();
+        }
+        if (cameraPicture != null) {
+            cameraPicture.dispose();
+        }
+        backend.shutdown();
+    }
+
+    @Test
+    public void streamKeepsUpWith60Fps() throws Exception {
+        startClockPipeline(640, 480, 60);
+        FakeImageStream stream = previewStream();
+        // every frame is either converted or dropped, nothing piles up in the stream
+        for (int i = 0; i < 120; i++) {
+            nextFrame();
+            waitUntil(new Condition() {
+                @Override
+                public boolean isMet() {
+                    return conversions.getCount() + drops.get() >= backend.getFrameCount();
+                }
+            });
+        }
+        Assert.assertEquals(0, backend.getFailedCount());
+        Assert.assertEquals(0, drops.get());
+        Assert.assertEquals(backend.getFrameCount(), conversions.getCount());
+        Assert.assertTrue(stream.getMaxHeldCount() <= CameraPreview.DEFAULT_READER_DEPTH);
+        Assert.assertEquals(0, stream.getStarvedCount());
+    }
+
+    @Test
+    public void slowConsumerDropsFramesInsteadOfQueuing() throws Exception {
+        converterGate = new CountDownLatch(1);
+        startClockPipeline(640, 480, 60);
+        nextFrame();
+        Assert.assertTrue(blockedConversions.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // converter busy: next frame waits for it, the ones after are dropped
+        for (int i = 0; i < 10; i++) {
+            nextFrame();
+        }
+        Assert.assertEquals(9, drops.get());
+        FakeImageStream stream = previewStream();
+        Assert.assertTrue(stream.getMaxHeldCount() <= CameraPreview.DEFAULT_READER_DEPTH);
+        // preview itself keeps its frame rate
+        Assert.assertEquals(11, backend.getFrameCount());
+        Assert.assertEquals(0, stream.getStarvedCount());
+        converterGate.countDown();
+    }
+
+    @Test
+    public void captureFailuresDontStopPreview() throws Exception {
+        startClockPipeline(320, 240, 60);
+        backend.failEveryNthFrame(3);
+        long failedBefore = backend.getFailedCount();
+        long completedBefore = backend.getCompletedCount();
+        for (int i = 0; i < 60; i++) {
+            nextFrame();
+        }
+        Assert.assertEquals(20, backend.getFailedCount() - failedBefore);
+        Assert.assertEquals(40, backend.getCompletedCount() - completedBefore);
+    }
+
+    @Test
+    public void configureFailureLeavesNoSession() throws Exception {
+        backend = new FakeCameraBackend(320, 240, 30, clock);
+        backend.failNextConfigures(1);
+        buildPipeline();
+        cameraPreview.createCameraPreviewSession(backend.getDevice());
+        clock.runPending();
+        Assert.assertEquals(0, backend.getConfiguredCount());
+        Assert.assertNull(cameraPreview.getCaptureSession());
+        Assert.assertNull(cameraSession.getCaptureSession());
+        // a whole second of device time without any frame
+        clock.advance(1000);
+        Assert.assertEquals(0, backend.getFrameCount());
+        Assert.assertEquals(0, clock.getPendingCount());
+    }
+
+    @Test
+    public void configureDelayShiftsFirstFrame() throws Exception {
+        backend = new FakeCameraBackend(320, 240, 60, clock);
+        backend.setConfigureDelayMs(200);
+        buildPipeline();
+        cameraSession.onStartRequested();
+        cameraPreview.createCameraPreviewSession(backend.getDevice());
+        clock.advance(199);
+        Assert.assertEquals(0, backend.getConfiguredCount());
+        Assert.assertTrue((double) cameraSession.getStartupTimings().get("configuredMs") < 0);
+
+        clock.advance(1);
+        Assert.assertEquals(1, backend.getConfiguredCount());
+        Assert.assertEquals(0, backend.getFrameCount());
+        Assert.assertTrue((double) cameraSession.getStartupTimings().get("firstFrameMs") < 0);
+
+        nextFrame();
+        Assert.assertEquals(1, backend.getFrameCount());
+        double configuredMs = (double) cameraSession.getStartupTimings().get("configuredMs");
+        double firstFrameMs = (double) cameraSession.getStartupTimings().get("firstFrameMs");
+        Assert.assertTrue(configuredMs >= 0);
+        Assert.assertTrue(firstFrameMs >= configuredMs);
+        // the first session already has every output
+        Assert.assertEquals(configuredMs, (double) cameraSession.getStartupTimings().get("allOutputsMs"), 0);
+    }
+
+    @Test
+    public void takePictureWaitsFocusAndWritesFile() throws Exception {
+        backend = new FakeCameraBackend(640, 480, 30);
+        buildPipeline();
+        cameraPicture.setPhotoSize(640, 480);
+        // done by CameraStateManager once camera is opened
+        cameraPicture.refresh();
+        cameraPreview.createCameraPreviewSession(backend.getDevice());
+        waitForFrames(5);
+
+        final File file = new File(folder.getRoot(), "picture.jpg");
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> error = new AtomicReference<>();
+        cameraPicture.takePicture(backend.getDevice(), file.getPath(), 0, new CameraPicture.OnImageResult() {
+            @Override
+            public void onSuccess() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(String message) {
+                error.set(message);
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assert.assertNull(error.get());
+        Assert.assertTrue(file.length() > 0);
+        Assert.assertEquals(1, backend.getStillCaptureCount());
+        // preview restarts once focus is released
+        waitForFrames(backend.getFrameCount() + 5);
+    }
+
+    @Test
+    public void bestPictureScoresBurstFrames() throws Exception {
+        backend = new FakeCameraBackend(640, 480, 30);
+        buildPipeline();
+        final SharpnessScorer scorer = new SharpnessScorer();
+        FrameProcessorRegistry builtIn = new FrameProcessorRegistry();
+        builtIn.register(scorer);
+        cameraPreview.setFrameProcessorStream(new FrameProcessorStream(new FrameProcessorRegistry(), builtIn,
+                FakeCameraBackend.inlineHandler(), FakeCameraBackend.inlineHandler()));
+        cameraPicture.setPhotoSize(640, 480);
+        // done by CameraStateManager once camera is opened
+        cameraPicture.refresh();
+        cameraPreview.createCameraPreviewSession(backend.getDevice());
+        waitForFrames(5);
+
+        final File file = new File(folder.getRoot(), "best.jpg");
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> error = new AtomicReference<>();
+        cameraPicture.takePicture(backend.getDevice(), file.getPath(), 0, 3, scorer, new CameraPicture.OnImageResult() {
+            @Override
+            public void onSuccess() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(String message) {
+                error.set(message);
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assert.assertNull(error.get());
+        Assert.assertTrue(file.length() > 0);
+        Assert.assertEquals(3, backend.getStillCaptureCount());
+        // preview restarts once the whole burst is done
+        waitForFrames(backend.getFrameCount() + 5);
+    }
+
+    @Test
+    public void bestPictureFailsWithoutStreamOutput() throws Exception {
+        backend = new FakeCameraBackend(640, 480, 30);
+        // no image stream and no frame processor
+        buildPipeline(false);
+        cameraPicture.setPhotoSize(640, 480);
+        cameraPicture.refresh();
+        cameraPreview.createCameraPreviewSession(backend.getDevice());
+        waitForFrames(5);
+        Assert.assertNull(cameraPreview.getStreamSurface());
+
+        final File file = new File(folder.getRoot(), "best.jpg");
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> error = new AtomicReference<>();
+        cameraPicture.takePicture(backend.getDevice(), file.getPath(), 0, 3, new SharpnessScorer(),
+                new CameraPicture.OnImageResult() {
+                    @Override
+                    public void onSuccess() {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(String message) {
+                        error.set(message);
+                        done.countDown();
+                    }
+                });
+        Assert.assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        Assert.assertEquals("NO_STREAM_OUTPUT", error.get());
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(0, backend.getStillCaptureCount());
+    }
+
+    // ------ HELPERS ------
+
+    /**
+     * Session is configured, frames then only come with {@link #nextFrame()}
+     */
+    private void startClockPipeline(int width, int height, int fps) throws Exception {
+        backend = new FakeCameraBackend(width, height, fps, clock);
+        buildPipeline();
+        cameraPreview.createCameraPreviewSession(backend.getDevice());
+        clock.runPending();
+        Assert.assertEquals(1, backend.getConfiguredCount());
+    }
+
+    /**
+     * Moves device clock until next repeating frame is produced
+     */
+    private void nextFrame() {
+        long frames = backend.getFrameCount();
+        long maxSteps = backend.getFrameIntervalNanos() / 1_000_000 + 1;
+        for (long step = 0; step < maxSteps && backend.getFrameCount() == frames; step++) {
+            clock.advance(1);
+        }
+        Assert.assertEquals(frames + 1, backend.getFrameCount());
+    }
+
+    private void buildPipeline() {
+        buildPipeline(true);
+    }
+
+    private void buildPipeline(boolean streamPreviewImages) {
+        Range<Integer> compensationRange = mock(Range.class);
+        CameraCharacteristicsModel characteristics = new CameraCharacteristicsModel(
+                4, null, true, true, compensationRange, new Rational(1, 3));
+        cameraSession = new CameraSession(null);
+        cameraPreview = new CameraPreview(cameraSession, characteristics, backend.getSurfaceFactory(),
+                FakeCameraBackend.inlineHandler(), streamPreviewImages);
+        cameraPreview.setImageStreamFactory(backend.getImageStreamFactory());
+        cameraPreview.onListen(null, mock(EventChannel.EventSink.class));
+        cameraPreview.setConversionListener(new ImgConverterThreaded.ConversionListener() {
+            @Override
+            public void onConverted(long latencyNanos) {
+                conversions.record(latencyNanos);
+                CountDownLatch gate = converterGate;
+                if (gate != null) {
+                    blockedConversions.release();
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void onDropped() {
+                drops.incrementAndGet();
+            }
+        });
+        cameraPicture = new CameraPicture(null, cameraPreview, cameraSession, characteristics);
+        cameraPicture.setImageStreamFactory(backend.getImageStreamFactory());
+        cameraSession.setOnCaptureSessionListenerList(
+                Arrays.<CameraSession.OnCaptureSession>asList(cameraPreview, cameraPicture));
+    }
+
+    private FakeImageStream previewStream() {
+        for (FakeImageStream stream : backend.getStreams()) {
+            if (stream.getFormat() == ImageFormat.YUV_420_888 && !stream.isClosed()) {
+                return stream;
+            }
+        }
+        throw new AssertionError("no preview stream");
+    }
+
+    private void waitForFrames(final long count) throws InterruptedException {
+        waitUntil(new Condition() {
+            @Override
+            public boolean isMet() {
+                return backend.getFrameCount() >= count;
+            }
+        });
+    }
+
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("timeout");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+
+        boolean isMet();
+    }
+}
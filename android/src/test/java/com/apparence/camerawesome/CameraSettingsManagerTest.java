@@ -0,0 +1,131 @@
+package com.apparence.camerawesome;
+
+import android.util.Range;
+import android.util.Rational;
+
+import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+import com.apparence.camerawesome.models.FlashMode;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CameraSettingsManagerTest {
+
+    private List<CameraSettingsManager.CameraSettings> refreshes;
+
+    private CameraSettingsManager.CameraSettingsHandler recordingHandler;
+
+    @Before
+    public void setUp() {
+        refreshes = new ArrayList<>();
+        recordingHandler = new CameraSettingsManager.CameraSettingsHandler() {
+            @Override
+            public void refreshConfiguration(CameraSettingsManager.CameraSettings settings) {
+                refreshes.add(settings);
+            }
+        };
+    }
+
+    private CameraSettingsManager createManager(boolean hasAutoFocus, boolean hasFlash, Range<Integer> aeRange) {
+        CameraCharacteristicsModel model = new CameraCharacteristicsModel(4, null, hasAutoFocus, hasFlash,
+                aeRange, new Rational(1, 3));
+        return new CameraSettingsManager(model,
+                Collections.singletonList(recordingHandler));
+    }
+
+    // android.util classes are stubs in JVM tests
+    @SuppressWarnings("unchecked")
+    private static Range<Integer> range(int lower, int upper) {
+        Range<Integer> range = Mockito.mock(Range.class);
+        Mockito.when(range.getLower()).thenReturn(lower);
+        Mockito.when(range.getUpper()).thenReturn(upper);
+        return range;
+    }
+
+    @Test
+    public void applySettings_refreshesHandlersOnce() {
+        CameraSettingsManager manager = createManager(true, true, range(-6, 6));
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(CameraSettingsManager.FLASH_MODE, "AUTO");
+        settings.put(CameraSettingsManager.ZOOM, 0.5);
+        settings.put(CameraSettingsManager.AUTO_FOCUS, false);
+        settings.put(CameraSettingsManager.BRIGHTNESS, 1.0);
+
+        manager.applySettings(settings);
+
+        Assert.assertEquals(1, refreshes.size());
+        CameraSettingsManager.CameraSettings applied = refreshes.get(0);
+        Assert.assertEquals(FlashMode.AUTO, applied.flashMode);
+        Assert.assertEquals(0.5f, applied.zoom, 0.0001f);
+        Assert.assertFalse(applied.autoFocus);
+        Assert.assertEquals(6, applied.manualBrightness);
+    }
+
+    @Test
+    public void applySettings_missingKeysAreUnchanged() {
+        CameraSettingsManager manager = createManager(true, true, range(-6, 6));
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(CameraSettingsManager.ZOOM, 0);
+
+        manager.applySettings(settings);
+
+        CameraSettingsManager.CameraSettings applied = refreshes.get(0);
+        Assert.assertNull(applied.flashMode);
+        Assert.assertNull(applied.autoFocus);
+        Assert.assertEquals(0f, applied.zoom, 0.0001f);
+    }
+
+    @Test
+    public void applySettings_invalidValueAppliesNothing() {
+        CameraSettingsManager manager = createManager(true, false, range(-6, 6));
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(CameraSettingsManager.ZOOM, 0.5);
+        settings.put(CameraSettingsManager.FLASH_MODE, "ALWAYS");
+
+        try {
+            manager.applySettings(settings);
+            Assert.fail("flash must be rejected without flash unit");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void applySettings_flashNoneAllowedWithoutFlash() {
+        CameraSettingsManager manager = createManager(true, false, range(-6, 6));
+        manager.applySettings(Collections.<String, Object>singletonMap(CameraSettingsManager.FLASH_MODE, "NONE"));
+        Assert.assertEquals(FlashMode.NONE, refreshes.get(0).flashMode);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void applySettings_rejectsZoomOutOfRange() {
+        createManager(true, true, range(-6, 6))
+                .applySettings(Collections.<String, Object>singletonMap(CameraSettingsManager.ZOOM, 1.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void applySettings_rejectsAutoFocusWithoutAutoFocus() {
+        createManager(false, true, range(-6, 6))
+                .applySettings(Collections.<String, Object>singletonMap(CameraSettingsManager.AUTO_FOCUS, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void applySettings_rejectsBrightnessWithoutCompensation() {
+        createManager(true, true, range(0, 0))
+                .applySettings(Collections.<String, Object>singletonMap(CameraSettingsManager.BRIGHTNESS, 0.5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void applySettings_rejectsUnknownKey() {
+        createManager(true, true, range(-6, 6))
+                .applySettings(Collections.<String, Object>singletonMap("iso", 100));
+    }
+}
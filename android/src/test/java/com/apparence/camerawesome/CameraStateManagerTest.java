@@ -0,0 +1,225 @@
+package com.apparence.camerawesome;
+
+import android.content.Context;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+
+import com.apparence.camerawesome.exceptions.CameraManagerException;
+import com.apparence.camerawesome.fake.FakeClockHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.reactivex.rxjava3.functions.Predicate;
+import io.reactivex.rxjava3.observers.TestObserver;
+
+import static com.apparence.camerawesome.exceptions.CameraManagerException.Codes.CANNOT_OPEN_CAMERA;
+import static com.apparence.camerawesome.exceptions.CameraManagerException.Codes.INTERRUPTED;
+import static com.apparence.camerawesome.exceptions.CameraManagerException.Codes.LOCKED;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CameraStateManagerTest {
+
+    private FakeClockHandler stateThread;
+
+    private CameraManager cameraManager;
+
+    private CameraManager.AvailabilityCallback availabilityCallback;
+
+    private CameraPreview cameraPreview;
+
+    private CameraStateManager stateManager;
+
+    @Before
+    public void setUp() {
+        stateThread = new FakeClockHandler();
+        cameraManager = mock(CameraManager.class);
+        Context context = mock(Context.class);
+        when(context.getSystemService(Context.CAMERA_SERVICE)).thenReturn(cameraManager);
+        cameraPreview = mock(CameraPreview.class);
+        stateManager = new CameraStateManager(context, cameraPreview, mock(CameraPicture.class),
+                mock(CameraSession.class), stateThread.getHandler());
+        ArgumentCaptor<CameraManager.AvailabilityCallback> captor =
+                ArgumentCaptor.forClass(CameraManager.AvailabilityCallback.class);
+        verify(cameraManager).registerAvailabilityCallback(captor.capture(), same(stateThread.getHandler()));
+        availabilityCallback = captor.getValue();
+    }
+
+    private TestObserver<Void> start(String cameraId) {
+        TestObserver<Void> observer = stateManager.startCamera(cameraId).test();
+        stateThread.runPending();
+        return observer;
+    }
+
+    private TestObserver<Void> stop() {
+        TestObserver<Void> observer = stateManager.stopCamera().test();
+        stateThread.runPending();
+        return observer;
+    }
+
+    private void verifyOpenRequested(String cameraId, int times) throws Exception {
+        verify(cameraManager, times(times)).openCamera(eq(cameraId), same(stateManager), any(Handler.class));
+    }
+
+    @Test
+    public void openAndCloseGoThroughEveryState() throws Exception {
+        CameraDevice device = mock(CameraDevice.class);
+        TestObserver<Void> open = start("0");
+        assertEquals(CameraStateManager.State.OPENING, stateManager.getState());
+        verifyOpenRequested("0", 1);
+        open.assertNotComplete();
+
+        stateManager.onOpened(device);
+        assertEquals(CameraStateManager.State.OPENED, stateManager.getState());
+        open.assertComplete();
+
+        TestObserver<Void> close = stop();
+        assertEquals(CameraStateManager.State.CLOSING, stateManager.getState());
+        verify(device).close();
+        close.assertNotComplete();
+
+        stateManager.onClosed(device);
+        assertEquals(CameraStateManager.State.CLOSED, stateManager.getState());
+        close.assertComplete();
+    }
+
+    @Test
+    public void openDuringCloseWaitsForClosed() throws Exception {
+        CameraDevice first = mock(CameraDevice.class);
+        start("0");
+        stateManager.onOpened(first);
+        TestObserver<Void> close = stop();
+
+        TestObserver<Void> open = start("1");
+        assertEquals(CameraStateManager.State.CLOSING, stateManager.getState());
+        verifyOpenRequested("1", 0);
+
+        stateManager.onClosed(first);
+        close.assertComplete();
+        assertEquals(CameraStateManager.State.OPENING, stateManager.getState());
+        verifyOpenRequested("1", 1);
+
+        stateManager.onOpened(mock(CameraDevice.class));
+        open.assertComplete();
+    }
+
+    @Test
+    public void stopWhileOpeningClosesOnOpened() throws Exception {
+        CameraDevice device = mock(CameraDevice.class);
+        TestObserver<Void> open = start("0");
+        TestObserver<Void> close = stop();
+        verify(device, never()).close();
+
+        stateManager.onOpened(device);
+        assertErrorCode(open, INTERRUPTED);
+        verify(device).close();
+        assertEquals(CameraStateManager.State.CLOSING, stateManager.getState());
+
+        stateManager.onClosed(device);
+        close.assertComplete();
+        assertEquals(CameraStateManager.State.CLOSED, stateManager.getState());
+    }
+
+    @Test
+    public void openTimesOut() throws Exception {
+        CameraDevice device = mock(CameraDevice.class);
+        TestObserver<Void> open = start("0");
+
+        stateThread.advance(CameraStateManager.OPEN_TIMEOUT_MS - 1);
+        open.assertNotComplete().assertNoErrors();
+        stateThread.advance(1);
+        assertErrorCode(open, LOCKED);
+
+        // camera opening late is closed right away
+        stateManager.onOpened(device);
+        verify(device).close();
+        stateManager.onClosed(device);
+        assertEquals(CameraStateManager.State.CLOSED, stateManager.getState());
+    }
+
+    @Test
+    public void previewFailureFailsOpenAndClosesCamera() throws Exception {
+        CameraDevice device = mock(CameraDevice.class);
+        doThrow(new IllegalStateException("flutter texture not created")).when(cameraPreview)
+                .createCameraPreviewSession(device);
+        TestObserver<Void> open = start("0");
+
+        stateManager.onOpened(device);
+        assertErrorCode(open, CANNOT_OPEN_CAMERA);
+        verify(device).close();
+        stateManager.onClosed(device);
+        assertEquals(CameraStateManager.State.CLOSED, stateManager.getState());
+    }
+
+    @Test
+    public void cameraUsedByAnotherAppIsWaitedFor() throws Exception {
+        availabilityCallback.onCameraUnavailable("0");
+        TestObserver<Void> open = start("0");
+        assertEquals(CameraStateManager.State.WAITING_AVAILABILITY, stateManager.getState());
+        verifyOpenRequested("0", 0);
+
+        stateThread.advance(CameraStateManager.OPEN_TIMEOUT_MS / 2);
+        availabilityCallback.onCameraAvailable("0");
+        assertEquals(CameraStateManager.State.OPENING, stateManager.getState());
+        verifyOpenRequested("0", 1);
+
+        stateManager.onOpened(mock(CameraDevice.class));
+        open.assertComplete();
+    }
+
+    @Test
+    public void cameraNeverReleasedFailsLocked() throws Exception {
+        availabilityCallback.onCameraUnavailable("0");
+        TestObserver<Void> open = start("0");
+
+        stateThread.advance(CameraStateManager.OPEN_TIMEOUT_MS);
+        assertErrorCode(open, LOCKED);
+        assertEquals(CameraStateManager.State.CLOSED, stateManager.getState());
+        verifyOpenRequested("0", 0);
+    }
+
+    @Test
+    public void ownCameraIsNotLockedOnQuickReopen() throws Exception {
+        CameraDevice device = mock(CameraDevice.class);
+        start("0");
+        // the service reports our own camera as unavailable
+        availabilityCallback.onCameraUnavailable("0");
+        stateManager.onOpened(device);
+        stop();
+        stateManager.onClosed(device);
+
+        // reopened before onCameraAvailable arrives
+        TestObserver<Void> open = start("0");
+        assertEquals(CameraStateManager.State.OPENING, stateManager.getState());
+        verifyOpenRequested("0", 2);
+        stateManager.onOpened(mock(CameraDevice.class));
+        open.assertComplete();
+    }
+
+    @Test
+    public void disposeUnregistersAvailability() {
+        stateManager.dispose();
+        stateThread.runPending();
+        verify(cameraManager).unregisterAvailabilityCallback(availabilityCallback);
+    }
+
+    private static void assertErrorCode(TestObserver<Void> observer, final CameraManagerException.Codes code) {
+        observer.assertError(new Predicate<Throwable>() {
+            @Override
+            public boolean test(Throwable throwable) {
+                return throwable instanceof CameraManagerException && code.name().equals(throwable.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,158 @@
+package com.apparence.camerawesome;
+
+import com.apparence.camerawesome.fake.FakeClockHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class CommandDispatcherTest {
+
+    private static final long TAKE_PHOTO_TIMEOUT_MS = 1000;
+
+    private FakeClockHandler commandThread;
+
+    private FakeClockHandler mainThread;
+
+    // last result given to the handler, answered later by each test
+    private Result handledResult;
+
+    private int handledCount;
+
+    private RuntimeException handlerException;
+
+    private CommandDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        commandThread = new FakeClockHandler();
+        mainThread = new FakeClockHandler();
+        dispatcher = new CommandDispatcher(new CommandDispatcher.CommandHandler() {
+            @Override
+            public void handle(MethodCall call, Result result) {
+                handledCount++;
+                handledResult = result;
+                if (handlerException != null) {
+                    throw handlerException;
+                }
+            }
+        }, commandThread.getHandler(), mainThread.getHandler());
+        dispatcher.setTimeout("takePhoto", TAKE_PHOTO_TIMEOUT_MS);
+    }
+
+    private Result dispatchTakePhoto() {
+        Map<String, Object> args = new HashMap<>();
+        args.put("path", "/tmp/photo.jpg");
+        Result result = mock(Result.class);
+        dispatcher.dispatch(new MethodCall("takePhoto", args), result);
+        return result;
+    }
+
+    @Test
+    public void takePhotoIsAnsweredOnceOnMainThread() {
+        Result result = dispatchTakePhoto();
+        commandThread.runPending();
+        assertEquals(1, handledCount);
+
+        handledResult.success(null);
+        handledResult.success(null);
+        handledResult.error("LATE", "", "");
+        verify(result, never()).success(any());
+        mainThread.runPending();
+
+        verify(result).success(null);
+        verifyNoMoreInteractions(result);
+        // timeout has been removed with the answer
+        mainThread.advance(TAKE_PHOTO_TIMEOUT_MS * 2);
+        verifyNoMoreInteractions(result);
+        assertEquals(0, mainThread.getPendingCount());
+    }
+
+    @Test
+    public void takePhotoTimesOutAndLateAnswerIsDropped() {
+        Result result = dispatchTakePhoto();
+        commandThread.runPending();
+        assertFalse(CommandDispatcher.isCancelled(handledResult));
+
+        mainThread.advance(TAKE_PHOTO_TIMEOUT_MS - 1);
+        verifyNoMoreInteractions(result);
+        mainThread.advance(1);
+        verify(result).error(eq("TIMEOUT"), anyString(), any());
+        assertTrue(CommandDispatcher.isCancelled(handledResult));
+
+        // photo saved after the timeout
+        handledResult.success(null);
+        mainThread.runPending();
+        verifyNoMoreInteractions(result);
+        assertStats("takePhoto", 1, 1, 1);
+    }
+
+    @Test
+    public void queuedTakePhotoIsDroppedAfterTimeout() {
+        Result result = dispatchTakePhoto();
+        // command thread busy, nothing runs before the timeout
+        mainThread.advance(TAKE_PHOTO_TIMEOUT_MS);
+        verify(result).error(eq("TIMEOUT"), anyString(), any());
+
+        commandThread.runPending();
+        assertEquals(0, handledCount);
+        verifyNoMoreInteractions(result);
+    }
+
+    @Test
+    public void defaultTimeoutIsUsedForOtherMethods() {
+        Result result = mock(Result.class);
+        dispatcher.dispatch(new MethodCall("setZoom", null), result);
+        commandThread.runPending();
+
+        mainThread.advance(CommandDispatcher.DEFAULT_TIMEOUT_MS - 1);
+        verifyNoMoreInteractions(result);
+        mainThread.advance(1);
+        verify(result).error(eq("TIMEOUT"), anyString(), any());
+    }
+
+    @Test
+    public void handlerExceptionIsAnsweredOnce() {
+        handlerException = new IllegalStateException("no camera");
+        Result result = dispatchTakePhoto();
+        commandThread.runPending();
+        mainThread.runPending();
+        verify(result).error("COMMAND_FAILED", "no camera", "");
+
+        mainThread.advance(TAKE_PHOTO_TIMEOUT_MS);
+        verifyNoMoreInteractions(result);
+        assertFalse(CommandDispatcher.isCancelled(handledResult));
+        assertStats("takePhoto", 1, 1, 0);
+    }
+
+    @Test
+    public void resultNotFromDispatcherIsNeverCancelled() {
+        assertFalse(CommandDispatcher.isCancelled(mock(Result.class)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertStats(String method, long count, long errors, long timeouts) {
+        Map<String, Object> stats = (Map<String, Object>) dispatcher.getStats().get(method);
+        assertNotNull(stats);
+        assertEquals(count, stats.get("count"));
+        assertEquals(errors, stats.get("errors"));
+        assertEquals(timeouts, stats.get("timeouts"));
+    }
+}
@@ -0,0 +1,356 @@
+package com.apparence.camerawesome;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.media.FakeImage;
+import android.media.Image;
+import android.os.Handler;
+import android.util.Range;
+import android.util.Rational;
+import android.util.Size;
+import android.view.Surface;
+
+import com.apparence.camerawesome.fake.FakeImageStream;
+import com.apparence.camerawesome.image.ImageStream;
+import com.apparence.camerawesome.image.ImageStreamFactory;
+import com.apparence.camerawesome.image.ImgConverter;
+import com.apparence.camerawesome.image.ImgConverterThreaded;
+import com.apparence.camerawesome.image.YuvKernels;
+import com.apparence.camerawesome.image.YuvToJpgConverter;
+import com.apparence.camerawesome.models.CameraCharacteristicsModel;
+import com.apparence.camerawesome.surface.SurfaceFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.flutter.plugin.common.EventChannel;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Pushes synthetic frames through the stream path and measures bytes allocated per frame on each thread
+ * with HotSpot thread allocation counters. A test fails when a path goes over its budget.
+ * <p>
+ * Budgets are bytes per frame, averaged on {@link #FRAMES} frames after JIT warm up, and can be changed with
+ * -Dcamerawesome.alloc.[kernel|converter|frameThread|workerThread].
+ * Worker budget covers the node the JDK executor allocates each time a worker waits for its next frame.
+ */
+public class FrameAllocationBudgetTest {
+
+    private static final int WIDTH = 320;
+
+    private static final int HEIGHT = 240;
+
+    private static final int WARM_UP_FRAMES = 20_000;
+
+    private static final int FRAMES = 20_000;
+
+    private static final long TIMEOUT_MS = 5_000;
+
+    private static final long KERNEL_BUDGET = Long.getLong("camerawesome.alloc.kernel", 0);
+
+    // jpeg result itself, an empty array with the JVM YuvImage stub
+    private static final long CONVERTER_BUDGET = Long.getLong("camerawesome.alloc.converter", 16);
+
+    private static final long FRAME_THREAD_BUDGET = Long.getLong("camerawesome.alloc.frameThread", 0);
+
+    private static final long WORKER_THREAD_BUDGET = Long.getLong("camerawesome.alloc.workerThread", 32);
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    private ImgConverterThreaded converterThread;
+
+    private CameraPreview cameraPreview;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("thread allocation counters not available",
+                bean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        if (converterThread != null) {
+            converterThread.dispose();
+        }
+        if (cameraPreview != null) {
+            cameraPreview.dispose();
+        }
+    }
+
+    @Test
+    public void kernelReusesFrameBuffer() {
+        FakeImage image = FakeImage.yuv420(WIDTH, HEIGHT, WIDTH, new FakeImage.OnCloseListener() {
+            @Override
+            public void onClosed(FakeImage image) {
+            }
+        });
+        Image.Plane[] planes = image.getPlanes();
+        byte[] buffer = null;
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            buffer = toNV21(planes, buffer);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < FRAMES; i++) {
+            buffer = toNV21(planes, buffer);
+        }
+        assertBudget("kernel", allocatedBytes() - before, KERNEL_BUDGET);
+    }
+
+    @Test
+    public void converterOnlyAllocatesResult() {
+        FakeImage image = FakeImage.yuv420(WIDTH, HEIGHT, WIDTH, new FakeImage.OnCloseListener() {
+            @Override
+            public void onClosed(FakeImage image) {
+            }
+        });
+        YuvToJpgConverter converter = new YuvToJpgConverter();
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            converter.convert(image);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < FRAMES; i++) {
+            converter.convert(image);
+        }
+        assertBudget("converter", allocatedBytes() - before, CONVERTER_BUDGET);
+    }
+
+    @Test
+    public void converterHandoffDoesntAllocate() throws InterruptedException {
+        final AtomicLong converted = new AtomicLong();
+        converterThread = new ImgConverterThreaded(new ConstantConverter(), 1);
+        ImgConverterThreaded.Consumer consumer = new ImgConverterThreaded.Consumer() {
+            @Override
+            public void process(byte[] result) {
+                converted.incrementAndGet();
+            }
+        };
+        FakeImageStream stream = new FakeImageStream(WIDTH, HEIGHT, ImageFormat.YUV_420_888, 3);
+        runFrames(stream, converterThread, consumer, converted);
+    }
+
+    /**
+     * Flutter main thread is kept busy: converted frames replace the one waiting for it,
+     * a single runnable is posted and nothing is allocated per frame
+     */
+    @Test
+    public void previewStreamDoesntAllocatePerFrame() throws Exception {
+        final AtomicLong consumed = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final List<Runnable> posted = new ArrayList<>();
+        final FakeImageStream[] stream = new FakeImageStream[1];
+        Range<Integer> compensationRange = mock(Range.class);
+        CameraCharacteristicsModel characteristics = new CameraCharacteristicsModel(
+                4, null, true, true, compensationRange, new Rational(1, 3));
+        SurfaceFactory surfaceFactory = new SurfaceFactory() {
+            @Override
+            public Surface build(Size size) {
+                return mock(Surface.class, withSettings().stubOnly());
+            }
+
+            @Override
+            public long getSurfaceId() {
+                return 0;
+            }
+        };
+        Handler mainHandler = mock(Handler.class, withSettings().stubOnly());
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                synchronized (posted) {
+                    posted.add((Runnable) invocation.getArgument(0));
+                }
+                return true;
+            }
+        }).when(mainHandler).post(any(Runnable.class));
+        cameraPreview = new CameraPreview(new CameraSession(null), characteristics, surfaceFactory,
+                mainHandler, null, true);
+        cameraPreview.setStreamConverter(new ConstantConverter());
+        cameraPreview.setConversionListener(new ImgConverterThreaded.ConversionListener() {
+            @Override
+            public void onConverted(long latencyNanos) {
+                consumed.incrementAndGet();
+            }
+
+            @Override
+            public void onDropped() {
+            }
+        });
+        cameraPreview.setImageStreamFactory(new ImageStreamFactory() {
+            @Override
+            public ImageStream build(int width, int height, int format, int maxImages) {
+                // Size is a stub on the JVM, stream size is 0x0
+                stream[0] = new FakeImageStream(WIDTH, HEIGHT, format, maxImages);
+                return stream[0];
+            }
+        });
+        cameraPreview.onListen(null, new EventChannel.EventSink() {
+            @Override
+            public void success(Object event) {
+                delivered.incrementAndGet();
+            }
+
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+            }
+
+            @Override
+            public void endOfStream() {
+            }
+        });
+        cameraPreview.setPreviewSize(WIDTH, HEIGHT);
+        cameraPreview.setPerformanceProfile(PerformanceProfile.LOW_POWER, null);
+        CameraDevice device = mock(CameraDevice.class, withSettings().stubOnly());
+        doReturn(mock(CaptureRequest.Builder.class, withSettings().stubOnly())).when(device).createCaptureRequest(anyInt());
+        cameraPreview.createCameraPreviewSession(device);
+
+        runFrames(stream[0], null, null, consumed);
+        // listener is called once the preview consumer took the frame
+        awaitCount(consumed, WARM_UP_FRAMES + FRAMES);
+        synchronized (posted) {
+            Assert.assertEquals(1, posted.size());
+            posted.get(0).run();
+        }
+        Assert.assertEquals(1, delivered.get());
+    }
+
+    // ------ HELPERS ------
+
+    /**
+     * Queues frames one by one on calling thread (frame thread) and waits for each one to reach its consumer
+     *
+     * @param converterThread converter used by stream listener if null
+     */
+    private void runFrames(FakeImageStream stream, ImgConverterThreaded converterThread,
+                           ImgConverterThreaded.Consumer consumer, AtomicLong done) throws InterruptedException {
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            pushFrame(stream, converterThread, consumer, done, i);
+        }
+        long[] workers = workerThreadIds();
+        long frameThreadBefore = allocatedBytes();
+        long workersBefore = allocatedBytes(workers);
+        for (int i = WARM_UP_FRAMES; i < WARM_UP_FRAMES + FRAMES; i++) {
+            pushFrame(stream, converterThread, consumer, done, i);
+        }
+        long frameThreadBytes = allocatedBytes() - frameThreadBefore;
+        long workersBytes = allocatedBytes(workers) - workersBefore;
+        Assert.assertEquals(WARM_UP_FRAMES + FRAMES, done.get());
+        assertBudget("frame thread", frameThreadBytes, FRAME_THREAD_BUDGET);
+        assertBudget("worker thread", workersBytes, WORKER_THREAD_BUDGET);
+    }
+
+    private static void pushFrame(FakeImageStream stream, ImgConverterThreaded converterThread,
+                                  ImgConverterThreaded.Consumer consumer, AtomicLong done, long frameNumber)
+            throws InterruptedException {
+        if (converterThread != null) {
+            stream.queueFrame(frameNumber, frameNumber);
+            converterThread.process(stream, consumer);
+        } else {
+            // stream listener converts it
+            stream.queueFrame(frameNumber, frameNumber);
+        }
+        long deadline = System.nanoTime() + TIMEOUT_MS * 1_000_000L;
+        while (done.get() <= frameNumber) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("frame " + frameNumber + " not converted");
+            }
+            Thread.yield();
+        }
+        // worker releases its slot after consumer returns
+        while (stream.getHeldCount() > 0) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Waits for consumers of given number of frames to have returned
+     */
+    private static void awaitCount(AtomicLong consumed, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (consumed.get() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("only " + consumed.get() + " of " + count + " frames consumed");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static byte[] toNV21(Image.Plane[] planes, byte[] buffer) {
+        return YuvKernels.YUV_420_888toI420SemiPlanar(planes[0].getBuffer(), planes[1].getBuffer(),
+                planes[2].getBuffer(), WIDTH, HEIGHT, false, buffer);
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long allocatedBytes(long[] threadIds) {
+        long total = 0;
+        for (long bytes : threadBean.getThreadAllocatedBytes(threadIds)) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static long[] workerThreadIds() {
+        List<Long> ids = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("ImgConverterThreaded-")) {
+                ids.add(thread.getId());
+            }
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    private static void assertBudget(String path, long bytes, long budgetPerFrame) {
+        long perFrame = bytes / FRAMES;
+        Assert.assertTrue(path + " allocates " + perFrame + " bytes/frame (" + bytes + " bytes for " + FRAMES
+                + " frames), budget is " + budgetPerFrame, perFrame <= budgetPerFrame);
+    }
+
+    /**
+     * Returns same bytes for every frame, so only the pipeline around the converter is measured
+     */
+    private static class ConstantConverter implements ImgConverter {
+
+        private final byte[] result = new byte[]{1};
+
+        @Override
+        public byte[] process(android.media.ImageReader imageReader) {
+            return result;
+        }
+
+        @Override
+        public byte[] convert(Image image) {
+            // reads planes like a real converter
+            ByteBuffer y = image.getPlanes()[0].getBuffer();
+            result[0] = y.get(0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.apparence.camerawesome;
+
+import com.apparence.camerawesome.fake.FakeClockHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepeatingRequestUpdaterTest {
+
+    private FakeClockHandler cameraThread;
+
+    // submit calls, successful or not
+    private int submitCalls;
+
+    private boolean sessionReady;
+
+    private RepeatingRequestUpdater updater;
+
+    private final RepeatingRequestUpdater.RequestSubmitter submitter = new RepeatingRequestUpdater.RequestSubmitter() {
+        @Override
+        public boolean submit() {
+            submitCalls++;
+            return sessionReady;
+        }
+    };
+
+    // updater time follows camera thread virtual clock
+    private final RepeatingRequestUpdater.NanoClock clock = new RepeatingRequestUpdater.NanoClock() {
+        @Override
+        public long nanoTime() {
+            return cameraThread.now() * 1_000_000L;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        cameraThread = new FakeClockHandler();
+        sessionReady = true;
+        updater = new RepeatingRequestUpdater(cameraThread.getHandler(), submitter, clock);
+    }
+
+    @Test
+    public void invalidationsOfOneFrameAreSubmittedOnce() {
+        for (int i = 0; i < 10; i++) {
+            updater.invalidate();
+        }
+        assertEquals(0, submitCalls);
+        cameraThread.advance(33);
+        assertEquals(1, submitCalls);
+        assertEquals(10, updater.getInvalidateCount());
+        assertEquals(1, updater.getSubmitCount());
+
+        // nothing left to submit
+        cameraThread.advance(1000);
+        assertEquals(1, submitCalls);
+        assertEquals(0, cameraThread.getPendingCount());
+    }
+
+    @Test
+    public void delayFollowsFrameInterval() {
+        sendFrames(50, 40);
+        submitNow();
+
+        updater.invalidate();
+        cameraThread.advance(45);
+        assertEquals(1, updater.getSubmitCount());
+        cameraThread.advance(5);
+        assertEquals(2, updater.getSubmitCount());
+    }
+
+    @Test
+    public void delayIsClampedOnSlowFrames() {
+        sendFrames(500, 40);
+        submitNow();
+
+        updater.invalidate();
+        cameraThread.advance(95);
+        assertEquals(1, updater.getSubmitCount());
+        cameraThread.advance(5);
+        assertEquals(2, updater.getSubmitCount());
+    }
+
+    @Test
+    public void withoutHandlerEachInvalidationIsSubmitted() {
+        updater = new RepeatingRequestUpdater(null, submitter, clock);
+        updater.invalidate();
+        updater.invalidate();
+        updater.invalidate();
+        assertEquals(3, submitCalls);
+        assertEquals(3, updater.getSubmitCount());
+        assertEquals(1, updater.getCoalesceRatio(), 0);
+    }
+
+    @Test
+    public void failedSubmitIsNotCountedAndKeepsChange() {
+        sessionReady = false;
+        updater.invalidate();
+        cameraThread.advance(100);
+        assertEquals(1, submitCalls);
+        assertEquals(0, updater.getSubmitCount());
+
+        // session configured
+        sessionReady = true;
+        assertTrue(updater.flush());
+        assertEquals(1, updater.getSubmitCount());
+        assertFalse(updater.flush());
+        assertEquals(2, submitCalls);
+    }
+
+    @Test
+    public void failedSubmitIsRetriedOnNextInvalidate() {
+        sessionReady = false;
+        updater.invalidate();
+        cameraThread.advance(100);
+
+        sessionReady = true;
+        updater.invalidate();
+        cameraThread.advance(100);
+        assertEquals(1, updater.getSubmitCount());
+        assertEquals(2, updater.getCoalesceRatio(), 0);
+    }
+
+    @Test
+    public void coalesceRatio() {
+        assertEquals(0, updater.getCoalesceRatio(), 0);
+        for (int i = 0; i < 4; i++) {
+            updater.invalidate();
+        }
+        cameraThread.advance(100);
+        assertEquals(4, updater.getCoalesceRatio(), 0);
+        for (int i = 0; i < 2; i++) {
+            updater.invalidate();
+        }
+        cameraThread.advance(100);
+        assertEquals(3, updater.getCoalesceRatio(), 0);
+    }
+
+    private void sendFrames(long intervalMs, int count) {
+        for (int i = 0; i < count; i++) {
+            cameraThread.advance(intervalMs);
+            updater.onFrame();
+        }
+    }
+
+    private void submitNow() {
+        // long after last submit, sent right away
+        updater.invalidate();
+        cameraThread.runPending();
+        assertEquals(1, updater.getSubmitCount());
+    }
+}
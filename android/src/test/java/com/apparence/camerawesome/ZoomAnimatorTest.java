@@ -0,0 +1,133 @@
+package com.apparence.camerawesome;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZoomAnimatorTest {
+
+    private static final long MS = 1_000_000L;
+
+    private float zoom;
+
+    private final List<Float> applied = new ArrayList<>();
+
+    private ZoomAnimator animator;
+
+    @Before
+    public void setUp() {
+        zoom = 0;
+        applied.clear();
+        animator = new ZoomAnimator(new ZoomAnimator.ZoomTarget() {
+            @Override
+            public float getZoom() {
+                return zoom;
+            }
+
+            @Override
+            public void applyZoom(float value) {
+                zoom = value;
+                applied.add(value);
+            }
+        });
+    }
+
+    @Test
+    public void curvesEndpointsAndMidpoint() {
+        for (ZoomAnimator.Curve curve : ZoomAnimator.Curve.values()) {
+            assertEquals(curve.name(), 0f, curve.apply(0f), 1e-6);
+            assertEquals(curve.name(), 1f, curve.apply(1f), 1e-6);
+        }
+        assertEquals(0.5f, ZoomAnimator.Curve.LINEAR.apply(0.5f), 1e-6);
+        assertEquals(0.25f, ZoomAnimator.Curve.EASE_IN.apply(0.5f), 1e-6);
+        assertEquals(0.75f, ZoomAnimator.Curve.EASE_OUT.apply(0.5f), 1e-6);
+        assertEquals(0.5f, ZoomAnimator.Curve.EASE_IN_OUT.apply(0.5f), 1e-6);
+    }
+
+    @Test
+    public void noDurationIsAppliedImmediately() {
+        animator.zoomTo(0.6f, 0, ZoomAnimator.Curve.LINEAR, 0);
+        assertFalse(animator.isAnimating());
+        assertEquals(1, applied.size());
+        assertEquals(0.6f, zoom, 0);
+    }
+
+    @Test
+    public void sameZoomIsAppliedImmediately() {
+        zoom = 0.3f;
+        animator.zoomTo(0.3f, 500, ZoomAnimator.Curve.LINEAR, 0);
+        assertFalse(animator.isAnimating());
+        assertEquals(1, applied.size());
+        assertEquals(0.3f, zoom, 0);
+    }
+
+    @Test
+    public void zoomIsInterpolatedOnFrames() {
+        animator.zoomTo(1f, 100, ZoomAnimator.Curve.LINEAR, 0);
+        assertTrue(animator.isAnimating());
+        assertTrue(applied.isEmpty());
+
+        animator.onFrame(50 * MS);
+        assertEquals(0.5f, zoom, 1e-6);
+        animator.onFrame(75 * MS);
+        assertEquals(0.75f, zoom, 1e-6);
+    }
+
+    @Test
+    public void lastFrameLandsOnTarget() {
+        animator.zoomTo(0.8f, 100, ZoomAnimator.Curve.EASE_IN_OUT, 0);
+        animator.onFrame(99 * MS);
+        assertTrue(animator.isAnimating());
+        // late frame
+        animator.onFrame(130 * MS);
+        assertEquals(0.8f, zoom, 0);
+        assertFalse(animator.isAnimating());
+
+        animator.onFrame(160 * MS);
+        assertEquals(2, applied.size());
+    }
+
+    @Test
+    public void secondAnimationReplacesFirst() {
+        animator.zoomTo(1f, 100, ZoomAnimator.Curve.LINEAR, 0);
+        animator.onFrame(50 * MS);
+        animator.zoomTo(0f, 100, ZoomAnimator.Curve.LINEAR, 50 * MS);
+
+        // starts from where first one was
+        animator.onFrame(100 * MS);
+        assertEquals(0.25f, zoom, 1e-6);
+        animator.onFrame(150 * MS);
+        assertEquals(0f, zoom, 0);
+        assertFalse(animator.isAnimating());
+    }
+
+    @Test
+    public void cancelStopsApplyingZoom() {
+        animator.zoomTo(1f, 100, ZoomAnimator.Curve.LINEAR, 0);
+        animator.onFrame(50 * MS);
+        animator.cancel();
+        assertFalse(animator.isAnimating());
+
+        animator.onFrame(60 * MS);
+        animator.onFrame(200 * MS);
+        assertEquals(1, applied.size());
+        assertEquals(0.5f, zoom, 1e-6);
+    }
+
+    @Test
+    public void setZoomStopsAnimation() {
+        animator.zoomTo(1f, 100, ZoomAnimator.Curve.LINEAR, 0);
+        animator.onFrame(50 * MS);
+        animator.setZoom(0.2f);
+
+        animator.onFrame(60 * MS);
+        assertEquals(0.2f, zoom, 0);
+        assertEquals(2, applied.size());
+    }
+}
@@ -0,0 +1,110 @@
+package com.apparence.camerawesome.cache;
+
+import android.content.Context;
+
+import com.apparence.camerawesome.CameraSensor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CameraCharacteristicsCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+
+    @Before
+    public void setUp() throws IOException {
+        File filesDir = folder.newFolder("files");
+        context = mock(Context.class);
+        when(context.getFilesDir()).thenReturn(filesDir);
+        new CameraCharacteristicsCache(context).clear();
+    }
+
+    @After
+    public void tearDown() {
+        CameraCharacteristicsCache.dropMemoryCache();
+    }
+
+    private static CameraCharacteristicsSnapshot snapshot(String cameraId) {
+        return new CameraCharacteristicsSnapshot(cameraId, 90, 4f, null, new int[]{0}, false,
+                null, null, new int[]{1920, 1080}, null);
+    }
+
+    @Test
+    public void snapshotsAreReadBackFromDisk() {
+        new CameraCharacteristicsCache(context).put(CameraSensor.BACK, snapshot("0"));
+        CameraCharacteristicsCache.dropMemoryCache();
+
+        CameraCharacteristicsSnapshot read = new CameraCharacteristicsCache(context).get(CameraSensor.BACK);
+        assertTrue(read.sameAs(snapshot("0")));
+        assertNull(new CameraCharacteristicsCache(context).get(CameraSensor.FRONT));
+    }
+
+    @Test
+    public void clearDropsDiskCopy() {
+        CameraCharacteristicsCache cache = new CameraCharacteristicsCache(context);
+        cache.put(CameraSensor.BACK, snapshot("0"));
+        cache.clear();
+        CameraCharacteristicsCache.dropMemoryCache();
+
+        assertNull(cache.get(CameraSensor.BACK));
+        assertFalse(new File(context.getFilesDir(), "camerawesome_characteristics.json").exists());
+    }
+
+    @Test
+    public void instancesShareOneMemoryCopy() throws InterruptedException {
+        final CameraCharacteristicsCache first = new CameraCharacteristicsCache(context);
+        final CameraCharacteristicsCache second = new CameraCharacteristicsCache(context);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] writers = new Thread[2];
+        for (int i = 0; i < writers.length; i++) {
+            final CameraCharacteristicsCache cache = i == 0 ? first : second;
+            final CameraSensor sensor = CameraSensor.values()[i];
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 50; j++) {
+                            cache.put(sensor, snapshot(sensor.name() + j));
+                            cache.get(sensor);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        assertNull(error.get());
+
+        // last put of each writer reached the file
+        CameraCharacteristicsCache.dropMemoryCache();
+        CameraCharacteristicsCache cache = new CameraCharacteristicsCache(context);
+        assertEquals("FRONT49", cache.get(CameraSensor.FRONT).getCameraId());
+        assertEquals("BACK49", cache.get(CameraSensor.BACK).getCameraId());
+    }
+}
@@ -0,0 +1,53 @@
+package com.apparence.camerawesome.cache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraCharacteristicsSnapshotTest {
+
+    private static CameraCharacteristicsSnapshot snapshot(String cameraId, int[] jpegSizes) {
+        return new CameraCharacteristicsSnapshot(cameraId, 90, 8f, new int[]{0, 0, 4032, 3024},
+                new int[]{0, 1, 4}, true, new int[]{-12, 12}, new int[]{1, 6}, jpegSizes,
+                new int[]{15, 30, 30, 30});
+    }
+
+    @Test
+    public void jsonRoundTripKeepsEveryField() throws JSONException {
+        CameraCharacteristicsSnapshot snapshot = snapshot("0", new int[]{4032, 3024, 1920, 1080});
+        // goes through a string like the cache file does
+        JSONObject json = new JSONObject(snapshot.toJson().toString());
+        CameraCharacteristicsSnapshot read = CameraCharacteristicsSnapshot.fromJson(json);
+
+        assertEquals("0", read.getCameraId());
+        assertEquals(90, read.getSensorOrientation());
+        assertEquals(snapshot.toJson().toString(), read.toJson().toString());
+        assertTrue(read.sameAs(snapshot));
+    }
+
+    @Test
+    public void optionalFieldsSurviveAsNull() throws JSONException {
+        CameraCharacteristicsSnapshot snapshot = new CameraCharacteristicsSnapshot("1", 270, 1f, null,
+                null, false, null, null, new int[0], null);
+        CameraCharacteristicsSnapshot read = CameraCharacteristicsSnapshot.fromJson(
+                new JSONObject(snapshot.toJson().toString()));
+
+        assertTrue(read.sameAs(snapshot));
+        assertTrue(read.toJson().isNull("activeArray"));
+        assertTrue(read.toJson().isNull("aeTargetFpsRanges"));
+        assertEquals(0, read.toJson().getJSONArray("jpegSizes").length());
+    }
+
+    @Test
+    public void sameAsDetectsChangedHardware() {
+        CameraCharacteristicsSnapshot snapshot = snapshot("0", new int[]{4032, 3024});
+        assertTrue(snapshot.sameAs(snapshot("0", new int[]{4032, 3024})));
+        assertFalse(snapshot.sameAs(snapshot("0", new int[]{4032, 3024, 1920, 1080})));
+        assertFalse(snapshot.sameAs(snapshot("2", new int[]{4032, 3024})));
+        assertFalse(snapshot.sameAs(null));
+    }
+}
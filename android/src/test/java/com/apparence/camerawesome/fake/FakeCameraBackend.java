@@ -0,0 +1,848 @@
+package com.apparence.camerawesome.fake;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.os.Handler;
+import android.util.Size;
+import android.view.Surface;
+
+import com.apparence.camerawesome.image.ImageStream;
+import com.apparence.camerawesome.image.ImageStreamFactory;
+import com.apparence.camerawesome.surface.SurfaceFactory;
+
+import org.mockito.ArgumentMatchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Camera device running on the JVM so the whole preview / picture pipeline can be load tested without a phone.
+ * <p>
+ * Everything the device does (open / close, session configuration, frames) runs on one thread in order,
+ * callbacks are then posted to the handler given by the caller (run directly if none).
+ * With a {@link FakeClockHandler} that thread is the test thread: device work only runs when the test moves
+ * the virtual clock, so delays and frame counts don't depend on how fast the machine is.
+ * Timestamps are synthetic (frame number * frame interval) so runs are reproducible.
+ * Frames are written in the {@link FakeImageStream} targeted by the request, other surfaces are ignored.
+ * Delays and failures can be injected to reproduce slow or misbehaving HALs.
+ */
+public class FakeCameraBackend {
+
+    /**
+     * Value of every capture result key: CONTROL_AF_STATE_PASSIVE_FOCUSED and CONTROL_AE_STATE_CONVERGED
+     * (keys are all null with the unit test android jar, results can't be told apart by key)
+     */
+    private static final int RESULT_VALUE = 2;
+
+    private final int width;
+
+    private final int height;
+
+    private final long frameIntervalNanos;
+
+    private final DeviceThread deviceThread;
+
+    // mocks don't record invocations, they would grow with every frame
+    private final CameraDevice device = mock(CameraDevice.class, withSettings().stubOnly());
+
+    private final CameraManager cameraManager = mock(CameraManager.class, withSettings().stubOnly());
+
+    private final TotalCaptureResult captureResult = mock(TotalCaptureResult.class, withSettings().stubOnly());
+
+    private final CaptureFailure captureFailure = mock(CaptureFailure.class, withSettings().stubOnly());
+
+    // open streams by surface
+    private final Map<Surface, FakeImageStream> streams = new ConcurrentHashMap<>();
+
+    private final AtomicInteger createdStreamCount = new AtomicInteger();
+
+    private final AtomicInteger builtSurfaceCount = new AtomicInteger();
+
+    private final AtomicInteger releasedSurfaceCount = new AtomicInteger();
+
+    // targets of each built request
+    private final Map<CaptureRequest, List<Surface>> requestTargets =
+            Collections.synchronizedMap(new WeakHashMap<CaptureRequest, List<Surface>>());
+
+    private final AtomicLong frameNumber = new AtomicLong();
+
+    private final AtomicLong completedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong stillCaptureCount = new AtomicLong();
+
+    private final AtomicInteger configuredCount = new AtomicInteger();
+
+    private final AtomicInteger availabilityRegistrations = new AtomicInteger();
+
+    private final AtomicInteger availabilityUnregistrations = new AtomicInteger();
+
+    private final AtomicInteger openFailuresToInject = new AtomicInteger();
+
+    private final AtomicInteger configureFailuresToInject = new AtomicInteger();
+
+    private final AtomicInteger captureFailuresToInject = new AtomicInteger();
+
+    private volatile long openDelayMs;
+
+    private volatile long configureDelayMs;
+
+    private volatile long resultDelayMs;
+
+    private volatile int failEveryNthFrame;
+
+    private volatile long stalledUntilNanos;
+
+    private volatile FakeSession activeSession;
+
+    // state callback of the opened device and its handler
+    private volatile CameraDevice.StateCallback deviceCallback;
+
+    private volatile Handler deviceHandler;
+
+    public FakeCameraBackend(int width, int height, int fps) {
+        this(width, height, fps, new ExecutorDeviceThread());
+    }
+
+    /**
+     * @param clock device work runs on test thread when this clock is moved forward
+     */
+    public FakeCameraBackend(int width, int height, int fps, FakeClockHandler clock) {
+        this(width, height, fps, new ClockDeviceThread(clock));
+    }
+
+    private FakeCameraBackend(int width, int height, int fps, DeviceThread deviceThread) {
+        this.width = width;
+        this.height = height;
+        this.frameIntervalNanos = 1_000_000_000L / fps;
+        this.deviceThread = deviceThread;
+        doReturn(RESULT_VALUE).when(captureResult).get(ArgumentMatchers.<CaptureResult.Key<Object>>any());
+        stubDevice();
+        stubCameraManager();
+    }
+
+    // ------ INJECTION ------
+
+    /**
+     * Time between openCamera and onOpened
+     */
+    public void setOpenDelayMs(long openDelayMs) {
+        this.openDelayMs = openDelayMs;
+    }
+
+    /**
+     * Time between createCaptureSession and onConfigured
+     */
+    public void setConfigureDelayMs(long configureDelayMs) {
+        this.configureDelayMs = configureDelayMs;
+    }
+
+    /**
+     * Time between a frame written in its streams and its capture result
+     */
+    public void setResultDelayMs(long resultDelayMs) {
+        this.resultDelayMs = resultDelayMs;
+    }
+
+    /**
+     * No frame is produced during this time, like a HAL hiccup
+     */
+    public void stall(long durationMs) {
+        stalledUntilNanos = deviceThread.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+    }
+
+    /**
+     * Next camera opens get onError(ERROR_CAMERA_IN_USE) instead of onOpened
+     */
+    public void failNextOpens(int count) {
+        openFailuresToInject.set(count);
+    }
+
+    public void failNextConfigures(int count) {
+        configureFailuresToInject.set(count);
+    }
+
+    /**
+     * Repeating request frames whose number is a multiple of n get onCaptureFailed instead of a result, 0 to disable
+     */
+    public void failEveryNthFrame(int n) {
+        this.failEveryNthFrame = n;
+    }
+
+    /**
+     * Next single captures (still pictures, focus triggers) fail
+     */
+    public void failNextCaptures(int count) {
+        captureFailuresToInject.set(count);
+    }
+
+    // ------ ACCESSORS ------
+
+    public CameraDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * Opens {@link #getDevice()} whatever the camera id
+     */
+    public CameraManager getCameraManager() {
+        return cameraManager;
+    }
+
+    /**
+     * Context only giving the camera manager
+     */
+    public Context getContext() {
+        Context context = mock(Context.class, withSettings().stubOnly());
+        doReturn(cameraManager).when(context).getSystemService(Context.CAMERA_SERVICE);
+        return context;
+    }
+
+    /**
+     * Streams always use backend resolution, sizes asked by the pipeline are stubs on the JVM
+     */
+    public ImageStreamFactory getImageStreamFactory() {
+        return new ImageStreamFactory() {
+            @Override
+            public ImageStream build(int ignoredWidth, int ignoredHeight, int format, int maxImages) {
+                FakeImageStream stream = new FakeImageStream(width, height, format, maxImages);
+                pruneClosedStreams();
+                streams.put(stream.getSurface(), stream);
+                createdStreamCount.incrementAndGet();
+                return stream;
+            }
+        };
+    }
+
+    public SurfaceFactory getSurfaceFactory() {
+        return new SurfaceFactory() {
+            @Override
+            public Surface build(Size previewSize) {
+                builtSurfaceCount.incrementAndGet();
+                Surface surface = mock(Surface.class, withSettings().stubOnly());
+                doAnswer(new Answer<Void>() {
+                    @Override
+                    public Void answer(InvocationOnMock invocation) {
+                        releasedSurfaceCount.incrementAndGet();
+                        return null;
+                    }
+                }).when(surface).release();
+                return surface;
+            }
+
+            @Override
+            public long getSurfaceId() {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * @return streams built by the factory and not closed yet
+     */
+    public List<FakeImageStream> getStreams() {
+        pruneClosedStreams();
+        return new ArrayList<>(streams.values());
+    }
+
+    public int getCreatedStreamCount() {
+        return createdStreamCount.get();
+    }
+
+    /**
+     * @return preview surfaces built and not released yet
+     */
+    public int getLiveSurfaceCount() {
+        return builtSurfaceCount.get() - releasedSurfaceCount.get();
+    }
+
+    public long getFrameIntervalNanos() {
+        return frameIntervalNanos;
+    }
+
+    public long getFrameCount() {
+        return frameNumber.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return captures which produced a jpeg picture
+     */
+    public long getStillCaptureCount() {
+        return stillCaptureCount.get();
+    }
+
+    public int getConfiguredCount() {
+        return configuredCount.get();
+    }
+
+    /**
+     * @return availability callbacks registered on the camera manager, each must be unregistered once
+     */
+    public int getAvailabilityRegistrations() {
+        return availabilityRegistrations.get();
+    }
+
+    public int getAvailabilityUnregistrations() {
+        return availabilityUnregistrations.get();
+    }
+
+    public CameraCaptureSession getActiveSession() {
+        return activeSession;
+    }
+
+    /**
+     * Runs all posted runnables immediately on calling thread, used as main handler
+     */
+    public static Handler inlineHandler() {
+        Handler handler = mock(Handler.class, withSettings().stubOnly());
+        Answer<Boolean> run = new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArgument(0)).run();
+                return true;
+            }
+        };
+        doAnswer(run).when(handler).post(any(Runnable.class));
+        doAnswer(run).when(handler).postDelayed(any(Runnable.class), anyLong());
+        return handler;
+    }
+
+    /**
+     * Stops producing frames, pending callbacks are dropped
+     */
+    public void shutdown() {
+        FakeSession session = activeSession;
+        if (session != null) {
+            session.close();
+        }
+        deviceThread.shutdown();
+    }
+
+    // ------ DEVICE ------
+
+    private void stubDevice() {
+        try {
+            when(device.createCaptureRequest(anyInt())).thenAnswer(new Answer<CaptureRequest.Builder>() {
+                @Override
+                public CaptureRequest.Builder answer(InvocationOnMock invocation) {
+                    return newRequestBuilder();
+                }
+            });
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    configureSession((CameraCaptureSession.StateCallback) invocation.getArgument(1),
+                            (Handler) invocation.getArgument(2));
+                    return null;
+                }
+            }).when(device).createCaptureSession(anyList(), any(CameraCaptureSession.StateCallback.class), ArgumentMatchers.<Handler>any());
+        } catch (CameraAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                closeDevice();
+                return null;
+            }
+        }).when(device).close();
+    }
+
+    private void stubCameraManager() {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                availabilityRegistrations.incrementAndGet();
+                return null;
+            }
+        }).when(cameraManager).registerAvailabilityCallback(any(CameraManager.AvailabilityCallback.class),
+                ArgumentMatchers.<Handler>any());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                availabilityUnregistrations.incrementAndGet();
+                return null;
+            }
+        }).when(cameraManager).unregisterAvailabilityCallback(any(CameraManager.AvailabilityCallback.class));
+        try {
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    openDevice((CameraDevice.StateCallback) invocation.getArgument(1),
+                            (Handler) invocation.getArgument(2));
+                    return null;
+                }
+            }).when(cameraManager).openCamera(anyString(), any(CameraDevice.StateCallback.class),
+                    ArgumentMatchers.<Handler>any());
+        } catch (CameraAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void openDevice(final CameraDevice.StateCallback callback, final Handler handler) {
+        deviceThread.post(new Runnable() {
+            @Override
+            public void run() {
+                if (consume(openFailuresToInject)) {
+                    deviceCallback = callback;
+                    deviceHandler = handler;
+                    dispatch(handler, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(device, CameraDevice.StateCallback.ERROR_CAMERA_IN_USE);
+                        }
+                    });
+                    return;
+                }
+                deviceCallback = callback;
+                deviceHandler = handler;
+                dispatch(handler, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOpened(device);
+                    }
+                });
+            }
+        }, TimeUnit.MILLISECONDS.toNanos(openDelayMs));
+    }
+
+    private void closeDevice() {
+        FakeSession session = activeSession;
+        if (session != null) {
+            session.close();
+        }
+        final CameraDevice.StateCallback callback = deviceCallback;
+        deviceCallback = null;
+        if (callback == null) {
+            return;
+        }
+        final Handler handler = deviceHandler;
+        deviceThread.post(new Runnable() {
+            @Override
+            public void run() {
+                dispatch(handler, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onClosed(device);
+                    }
+                });
+            }
+        }, 0);
+    }
+
+    private CaptureRequest.Builder newRequestBuilder() {
+        final Set<Surface> targets = Collections.newSetFromMap(new ConcurrentHashMap<Surface, Boolean>());
+        final CaptureRequest.Builder builder = mock(CaptureRequest.Builder.class, withSettings().stubOnly());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                targets.add((Surface) invocation.getArgument(0));
+                return null;
+            }
+        }).when(builder).addTarget(any(Surface.class));
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                targets.remove(invocation.getArgument(0));
+                return null;
+            }
+        }).when(builder).removeTarget(any(Surface.class));
+        when(builder.build()).thenAnswer(new Answer<CaptureRequest>() {
+            @Override
+            public CaptureRequest answer(InvocationOnMock invocation) {
+                CaptureRequest request = mock(CaptureRequest.class, withSettings().stubOnly());
+                requestTargets.put(request, new ArrayList<>(targets));
+                return request;
+            }
+        });
+        return builder;
+    }
+
+    private void configureSession(final CameraCaptureSession.StateCallback callback, final Handler handler) {
+        // like a real device, creating a session closes the previous one
+        FakeSession previous = activeSession;
+        if (previous != null) {
+            previous.close();
+        }
+        final FakeSession session = new FakeSession();
+        activeSession = session;
+        deviceThread.post(new Runnable() {
+            @Override
+            public void run() {
+                if (session.closed) {
+                    return;
+                }
+                if (consume(configureFailuresToInject)) {
+                    session.close();
+                    dispatch(handler, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onConfigureFailed(session);
+                        }
+                    });
+                    return;
+                }
+                configuredCount.incrementAndGet();
+                dispatch(handler, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onConfigured(session);
+                    }
+                });
+            }
+        }, TimeUnit.MILLISECONDS.toNanos(configureDelayMs));
+    }
+
+    private void produceFrame(FakeSession session, CaptureRequest request,
+                              CameraCaptureSession.CaptureCallback callback, Handler handler, boolean repeating) {
+        if (!repeating && consume(captureFailuresToInject)) {
+            failedCount.incrementAndGet();
+            deliver(session, request, callback, handler, false);
+            return;
+        }
+        long number = frameNumber.incrementAndGet();
+        long timestamp = number * frameIntervalNanos;
+        List<Surface> targets = requestTargets.get(request);
+        if (targets != null) {
+            for (Surface target : targets) {
+                FakeImageStream stream = streams.get(target);
+                if (stream != null) {
+                    // focus and precapture requests aren't stills, counted before picture listener may run inline
+                    if (!repeating && stream.getFormat() == ImageFormat.JPEG) {
+                        stillCaptureCount.incrementAndGet();
+                    }
+                    stream.queueFrame(timestamp, number);
+                }
+            }
+        }
+        int failEvery = failEveryNthFrame;
+        boolean failed = repeating && failEvery > 0 && number % failEvery == 0;
+        if (failed) {
+            failedCount.incrementAndGet();
+        }
+        deliver(session, request, callback, handler, !failed);
+    }
+
+    private void deliver(final FakeSession session, final CaptureRequest request,
+                         final CameraCaptureSession.CaptureCallback callback, final Handler handler,
+                         final boolean completed) {
+        if (callback == null) {
+            return;
+        }
+        final Runnable result = new Runnable() {
+            @Override
+            public void run() {
+                if (completed) {
+                    completedCount.incrementAndGet();
+                    callback.onCaptureCompleted(session, request, captureResult);
+                } else {
+                    callback.onCaptureFailed(session, request, captureFailure);
+                }
+            }
+        };
+        long delay = resultDelayMs;
+        if (delay > 0) {
+            deviceThread.post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(handler, result);
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(delay));
+        } else {
+            dispatch(handler, result);
+        }
+    }
+
+    /**
+     * Callbacks run on given handler like camera2 does, on backend thread if none
+     */
+    private static void dispatch(Handler handler, Runnable runnable) {
+        if (handler != null) {
+            handler.post(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    private void pruneClosedStreams() {
+        Iterator<FakeImageStream> iterator = streams.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isClosed()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if an injected failure has been taken
+     */
+    private static boolean consume(AtomicInteger failures) {
+        int count;
+        do {
+            count = failures.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!failures.compareAndSet(count, count - 1));
+        return true;
+    }
+
+    private class FakeSession extends CameraCaptureSession {
+
+        private volatile boolean closed;
+
+        private RepeatingFrames repeating;
+
+        @Override
+        public CameraDevice getDevice() {
+            return device;
+        }
+
+        @Override
+        public void prepare(Surface surface) {
+        }
+
+        // hidden from the SDK
+        public void prepare(int maxCount, Surface surface) {
+        }
+
+        // hidden from the SDK
+        public void tearDown(Surface surface) {
+        }
+
+        @Override
+        public void finalizeOutputConfigurations(List<OutputConfiguration> outputConfigs) {
+        }
+
+        @Override
+        public int capture(final CaptureRequest request, final CaptureCallback listener, final Handler handler) {
+            checkOpen();
+            deviceThread.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        produceFrame(FakeSession.this, request, listener, handler, false);
+                    }
+                }
+            }, 0);
+            return 0;
+        }
+
+        @Override
+        public int captureBurst(List<CaptureRequest> requests, CaptureCallback listener, Handler handler) {
+            for (CaptureRequest request : requests) {
+                capture(request, listener, handler);
+            }
+            return 0;
+        }
+
+        @Override
+        public synchronized int setRepeatingRequest(final CaptureRequest request, final CaptureCallback listener, final Handler handler) {
+            checkOpen();
+            cancelRepeating();
+            repeating = new RepeatingFrames(this, request, listener, handler);
+            repeating.start();
+            return 0;
+        }
+
+        @Override
+        public int setRepeatingBurst(List<CaptureRequest> requests, CaptureCallback listener, Handler handler) {
+            return setRepeatingRequest(requests.get(0), listener, handler);
+        }
+
+        @Override
+        public synchronized void stopRepeating() {
+            checkOpen();
+            cancelRepeating();
+        }
+
+        @Override
+        public synchronized void abortCaptures() {
+            checkOpen();
+            cancelRepeating();
+        }
+
+        @Override
+        public boolean isReprocessable() {
+            return false;
+        }
+
+        @Override
+        public Surface getInputSurface() {
+            return null;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            cancelRepeating();
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("Session has been closed; further changes are illegal.");
+            }
+        }
+
+        private void cancelRepeating() {
+            if (repeating != null) {
+                repeating.cancelled = true;
+                repeating = null;
+            }
+        }
+    }
+
+    /**
+     * One frame per interval at fixed rate, frames falling in a stall are skipped
+     */
+    private class RepeatingFrames implements Runnable {
+
+        private final FakeSession session;
+
+        private final CaptureRequest request;
+
+        private final CameraCaptureSession.CaptureCallback listener;
+
+        private final Handler handler;
+
+        private volatile boolean cancelled;
+
+        private long nextFrameNanos;
+
+        RepeatingFrames(FakeSession session, CaptureRequest request,
+                        CameraCaptureSession.CaptureCallback listener, Handler handler) {
+            this.session = session;
+            this.request = request;
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        void start() {
+            nextFrameNanos = deviceThread.nanoTime() + frameIntervalNanos;
+            deviceThread.post(this, frameIntervalNanos);
+        }
+
+        @Override
+        public void run() {
+            if (cancelled || session.closed) {
+                return;
+            }
+            if (deviceThread.nanoTime() >= stalledUntilNanos) {
+                produceFrame(session, request, listener, handler, true);
+            }
+            nextFrameNanos += frameIntervalNanos;
+            deviceThread.post(this, Math.max(0, nextFrameNanos - deviceThread.nanoTime()));
+        }
+    }
+
+    /**
+     * Single thread running device work in order
+     */
+    private interface DeviceThread {
+
+        void post(Runnable runnable, long delayNanos);
+
+        long nanoTime();
+
+        void shutdown();
+    }
+
+    private static class ExecutorDeviceThread implements DeviceThread {
+
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FakeCamera");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        @Override
+        public void post(Runnable runnable, long delayNanos) {
+            executor.schedule(runnable, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class ClockDeviceThread implements DeviceThread {
+
+        private final FakeClockHandler clock;
+
+        ClockDeviceThread(FakeClockHandler clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public void post(Runnable runnable, long delayNanos) {
+            // rounded up so nothing runs before its time
+            clock.getHandler().postDelayed(runnable, (delayNanos + 999_999) / 1_000_000);
+        }
+
+        @Override
+        public long nanoTime() {
+            return TimeUnit.MILLISECONDS.toNanos(clock.now());
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.apparence.camerawesome.fake;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Handler stand-in without any looper or thread: posted runnables only run when the test
+ * calls {@link #runPending()} or {@link #advance(long)}, on the test thread, against a virtual clock.
+ * Delays and timeouts are then exact and don't depend on how fast the machine is.
+ */
+public class FakeClockHandler {
+
+    private static class Task {
+        final Runnable runnable;
+        final long timeMs;
+        final long sequence;
+
+        Task(Runnable runnable, long timeMs, long sequence) {
+            this.runnable = runnable;
+            this.timeMs = timeMs;
+            this.sequence = sequence;
+        }
+    }
+
+    private final Handler handler = mock(Handler.class, withSettings().stubOnly());
+
+    private final List<Task> tasks = new ArrayList<>();
+
+    private long nowMs;
+
+    private long sequence;
+
+    public FakeClockHandler() {
+        // never equal to Looper.myLooper() so callers always post
+        doReturn(mock(Looper.class, withSettings().stubOnly())).when(handler).getLooper();
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return schedule((Runnable) invocation.getArgument(0), 0);
+            }
+        }).when(handler).post(any(Runnable.class));
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return schedule((Runnable) invocation.getArgument(0), (long) invocation.getArgument(1));
+            }
+        }).when(handler).postDelayed(any(Runnable.class), anyLong());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                remove((Runnable) invocation.getArgument(0));
+                return null;
+            }
+        }).when(handler).removeCallbacks(any(Runnable.class));
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return virtual time in ms, starts at 0
+     */
+    public synchronized long now() {
+        return nowMs;
+    }
+
+    /**
+     * Runs everything due now, including runnables posted by the ones running
+     */
+    public void runPending() {
+        Task task;
+        while ((task = nextDue(now())) != null) {
+            task.runnable.run();
+        }
+    }
+
+    /**
+     * Moves the clock forward, running delayed runnables in order at their own time
+     */
+    public void advance(long ms) {
+        long target = now() + ms;
+        Task task;
+        while ((task = nextDue(target)) != null) {
+            synchronized (this) {
+                nowMs = Math.max(nowMs, task.timeMs);
+            }
+            task.runnable.run();
+        }
+        synchronized (this) {
+            nowMs = target;
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return tasks.size();
+    }
+
+    private synchronized boolean schedule(Runnable runnable, long delayMs) {
+        tasks.add(new Task(runnable, nowMs + Math.max(0, delayMs), sequence++));
+        return true;
+    }
+
+    private synchronized void remove(Runnable runnable) {
+        Iterator<Task> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().runnable == runnable) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized Task nextDue(long timeMs) {
+        Task next = null;
+        for (Task task : tasks) {
+            if (task.timeMs <= timeMs && (next == null || task.timeMs < next.timeMs
+                    || (task.timeMs == next.timeMs && task.sequence < next.sequence))) {
+                next = task;
+            }
+        }
+        if (next != null) {
+            tasks.remove(next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,187 @@
+package com.apparence.camerawesome.fake;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * HandlerThread stand-in for JVM tests: its handler runs posted runnables in order on one thread.
+ * Looper.myLooper() is always null with the unit test android jar, so code checking if it already runs on
+ * the handler thread always posts, like it would from another thread.
+ */
+public class FakeHandlerThread {
+
+    private final ScheduledExecutorService executor;
+
+    private final Handler handler = mock(Handler.class, withSettings().stubOnly());
+
+    private final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+    // pending runnables, for removeCallbacks
+    private final Map<Runnable, Set<Future<?>>> pending = new HashMap<>();
+
+    public FakeHandlerThread(final String name) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        doReturn(mock(Looper.class, withSettings().stubOnly())).when(handler).getLooper();
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return schedule((Runnable) invocation.getArgument(0), 0);
+            }
+        }).when(handler).post(any(Runnable.class));
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return schedule((Runnable) invocation.getArgument(0), (long) invocation.getArgument(1));
+            }
+        }).when(handler).postDelayed(any(Runnable.class), anyLong());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                synchronized (pending) {
+                    Set<Future<?>> futures = pending.remove(invocation.getArgument(0));
+                    if (futures != null) {
+                        for (Future<?> future : futures) {
+                            future.cancel(false);
+                        }
+                    }
+                }
+                return null;
+            }
+        }).when(handler).removeCallbacks(any(Runnable.class));
+    }
+
+    public Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return exceptions thrown by posted runnables
+     */
+    public List<Throwable> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Waits for runnables already posted to run
+     *
+     * @return false on timeout
+     */
+    public boolean drain(long timeoutMs) throws InterruptedException {
+        final Object done = new Object();
+        final boolean[] ran = new boolean[1];
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (done) {
+                    ran[0] = true;
+                    done.notifyAll();
+                }
+            }
+        });
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (done) {
+            while (!ran[0]) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                done.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public void quit() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Like HandlerThread.quitSafely: runnables already due still run, delayed ones are dropped
+     */
+    public void quitSafely() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executor.shutdownNow();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // already quit
+        }
+    }
+
+    /**
+     * @return false if thread is still running after timeout
+     */
+    public boolean awaitQuit(long timeoutMs) throws InterruptedException {
+        return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean schedule(final Runnable runnable, long delayMs) {
+        synchronized (pending) {
+            if (executor.isShutdown()) {
+                return false;
+            }
+            final Future<?>[] self = new Future<?>[1];
+            self[0] = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (pending) {
+                        Set<Future<?>> futures = pending.get(runnable);
+                        if (futures == null || !futures.remove(self[0])) {
+                            // removed in the meantime
+                            return;
+                        }
+                        if (futures.isEmpty()) {
+                            pending.remove(runnable);
+                        }
+                    }
+                    try {
+                        runnable.run();
+                    } catch (RuntimeException | Error e) {
+                        // a looper thread would crash the app
+                        errors.add(e);
+                    }
+                }
+            }, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
+            Set<Future<?>> futures = pending.get(runnable);
+            if (futures == null) {
+                futures = new HashSet<>();
+                pending.put(runnable, futures);
+            }
+            futures.add(self[0]);
+            return true;
+        }
+    }
+}
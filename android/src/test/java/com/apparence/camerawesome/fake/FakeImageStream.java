@@ -0,0 +1,209 @@
+package com.apparence.camerawesome.fake;
+
+import android.graphics.ImageFormat;
+import android.media.FakeImage;
+import android.media.Image;
+import android.os.Handler;
+import android.view.Surface;
+
+import com.apparence.camerawesome.image.ImageStream;
+
+import java.util.ArrayDeque;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * ImageReader like stream over a fixed pool of {@link FakeImage}.
+ * Like a reader, at most maxImages can be acquired at the same time and a new frame replaces the oldest
+ * queued one when no image is free. When all images are acquired by the consumer frames are starved.
+ */
+public class FakeImageStream implements ImageStream {
+
+    private final Surface surface = mock(Surface.class, withSettings().stubOnly());
+
+    private final int format;
+
+    private final int maxImages;
+
+    private final ArrayDeque<FakeImage> free = new ArrayDeque<>();
+
+    private final ArrayDeque<FakeImage> queued = new ArrayDeque<>();
+
+    private int acquired;
+
+    private int maxHeld;
+
+    private long producedCount;
+
+    private long starvedCount;
+
+    private long acquiredCount;
+
+    private boolean closed;
+
+    private volatile OnImageAvailableListener listener;
+
+    private volatile Handler handler;
+
+    private final Runnable notifyListener = new Runnable() {
+        @Override
+        public void run() {
+            OnImageAvailableListener current = listener;
+            if (current != null) {
+                current.onImageAvailable(FakeImageStream.this);
+            }
+        }
+    };
+
+    public FakeImageStream(int width, int height, int format, int maxImages) {
+        this.format = format;
+        this.maxImages = maxImages;
+        FakeImage.OnCloseListener onCloseListener = new FakeImage.OnCloseListener() {
+            @Override
+            public void onClosed(FakeImage image) {
+                release(image);
+            }
+        };
+        for (int i = 0; i < maxImages; i++) {
+            free.add(format == ImageFormat.JPEG
+                    ? FakeImage.jpeg(width, height, onCloseListener)
+                    : FakeImage.yuv420(width, height, align(width), onCloseListener));
+        }
+    }
+
+    /**
+     * Called by the backend for each frame targeting this stream, listener is posted to its handler
+     * (run on calling thread if none)
+     *
+     * @return false if frame has been starved
+     */
+    public boolean queueFrame(long timestamp, long frameNumber) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            FakeImage image = free.poll();
+            if (image == null) {
+                image = queued.poll();
+            }
+            if (image == null) {
+                starvedCount++;
+                return false;
+            }
+            image.prepare(timestamp, frameNumber);
+            queued.add(image);
+            producedCount++;
+        }
+        Handler current = handler;
+        if (current != null) {
+            current.post(notifyListener);
+        } else {
+            notifyListener.run();
+        }
+        return true;
+    }
+
+    @Override
+    public Surface getSurface() {
+        return surface;
+    }
+
+    @Override
+    public synchronized Image acquireLatestImage() {
+        checkAcquire();
+        FakeImage image = queued.pollLast();
+        if (image == null) {
+            return null;
+        }
+        // older frames are dropped, without allocating like ArrayDeque.addAll
+        FakeImage older;
+        while ((older = queued.poll()) != null) {
+            free.add(older);
+        }
+        return onAcquired(image);
+    }
+
+    @Override
+    public synchronized Image acquireNextImage() {
+        checkAcquire();
+        FakeImage image = queued.poll();
+        return image != null ? onAcquired(image) : null;
+    }
+
+    @Override
+    public void setOnImageAvailableListener(OnImageAvailableListener listener, Handler handler) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        listener = null;
+        handler = null;
+        queued.clear();
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized long getProducedCount() {
+        return producedCount;
+    }
+
+    public synchronized long getStarvedCount() {
+        return starvedCount;
+    }
+
+    public synchronized long getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    /**
+     * @return images acquired and not closed yet
+     */
+    public synchronized int getHeldCount() {
+        return acquired;
+    }
+
+    /**
+     * @return most images held at the same time since creation
+     */
+    public synchronized int getMaxHeldCount() {
+        return maxHeld;
+    }
+
+    private void checkAcquire() {
+        if (closed) {
+            throw new IllegalStateException("stream closed");
+        }
+        if (acquired >= maxImages) {
+            throw new IllegalStateException("maxImages (" + maxImages + ") has already been acquired");
+        }
+    }
+
+    private FakeImage onAcquired(FakeImage image) {
+        acquired++;
+        acquiredCount++;
+        maxHeld = Math.max(maxHeld, acquired);
+        return image;
+    }
+
+    private synchronized void release(FakeImage image) {
+        acquired--;
+        if (!closed) {
+            free.add(image);
+        }
+    }
+
+    // most HALs pad rows to 64 bytes
+    private static int align(int width) {
+        return (width + 63) & ~63;
+    }
+}
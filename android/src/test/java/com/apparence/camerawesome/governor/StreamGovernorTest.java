@@ -0,0 +1,185 @@
+package com.apparence.camerawesome.governor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamGovernorTest {
+
+    private static final long WINDOW_MS = 1000;
+
+    private StreamGovernor governor;
+
+    private List<StreamGovernor.Decision> decisions;
+
+    private long nowMs;
+
+    @Before
+    public void setUp() {
+        decisions = new ArrayList<>();
+        nowMs = 0;
+        StreamGovernor.Config config = new StreamGovernor.Config()
+                .setLatencyBudgetMs(50)
+                .setDowngradeAfterWindows(2)
+                .setUpgradeAfterWindows(5)
+                .setCooldownMs(3000);
+        governor = new StreamGovernor(config, new StreamGovernor.Listener() {
+            @Override
+            public void onDecision(StreamGovernor.Decision decision) {
+                decisions.add(decision);
+            }
+        });
+    }
+
+    /**
+     * Feeds one window of 30 frames and evaluates it
+     */
+    private StreamGovernor.Decision window(double latencyMs, int dropped) {
+        for (int i = 0; i < 30 - dropped; i++) {
+            governor.onFrameConverted((long) (latencyMs * 1_000_000));
+        }
+        for (int i = 0; i < dropped; i++) {
+            governor.onFrameDropped();
+        }
+        nowMs += WINDOW_MS;
+        return governor.evaluate(nowMs);
+    }
+
+    @Test
+    public void steadyLoadKeepsFullQuality() {
+        for (int i = 0; i < 20; i++) {
+            assertNull(window(10, 0));
+        }
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void singleSlowWindowIsIgnored() {
+        window(10, 0);
+        assertNull(window(120, 0));
+        assertNull(window(10, 0));
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void sustainedLatencyDowngrades() {
+        assertNull(window(80, 0));
+        StreamGovernor.Decision decision = window(80, 0);
+        assertEquals(1, governor.getLevel());
+        assertTrue(decision.isDowngrade());
+        assertEquals(StreamGovernor.Reason.LATENCY, decision.reason);
+        assertEquals(80, decision.avgLatencyMs, 0.01);
+    }
+
+    @Test
+    public void dropsDowngrade() {
+        window(20, 15);
+        StreamGovernor.Decision decision = window(20, 15);
+        assertEquals(StreamGovernor.Reason.DROPS, decision.reason);
+        assertEquals(0.5, decision.dropRate, 0.01);
+    }
+
+    @Test
+    public void cooldownLimitsDowngradeSpeed() {
+        // overloaded every window: one step per cooldown at most
+        for (int i = 0; i < 6; i++) {
+            window(200, 0);
+        }
+        assertEquals(2, governor.getLevel());
+        assertEquals(2, decisions.size());
+        assertTrue(decisions.get(1).timestampMs - decisions.get(0).timestampMs >= 3000);
+    }
+
+    @Test
+    public void levelNeverExceedsMax() {
+        for (int i = 0; i < 50; i++) {
+            window(200, 20);
+        }
+        assertEquals(StreamGovernor.MAX_LEVEL, governor.getLevel());
+    }
+
+    @Test
+    public void recoversSlowlyAfterLoad() {
+        window(80, 0);
+        window(80, 0);
+        assertEquals(1, governor.getLevel());
+        for (int i = 0; i < 4; i++) {
+            assertNull(window(10, 0));
+        }
+        StreamGovernor.Decision decision = window(10, 0);
+        assertFalse(decision.isDowngrade());
+        assertEquals(StreamGovernor.Reason.RECOVERED, decision.reason);
+        assertEquals(0, governor.getLevel());
+    }
+
+    @Test
+    public void latencyBetweenThresholdsDoesNotOscillate() {
+        window(80, 0);
+        window(80, 0);
+        assertEquals(1, governor.getLevel());
+        // 40ms is under budget but not healthy enough to step back up
+        for (int i = 0; i < 30; i++) {
+            assertNull(window(40, 0));
+        }
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void alternatingTraceDoesNotFlap() {
+        for (int i = 0; i < 40; i++) {
+            window(i % 2 == 0 ? 90 : 10, 0);
+        }
+        assertEquals(0, governor.getLevel());
+        assertTrue(decisions.isEmpty());
+    }
+
+    @Test
+    public void severeThermalDowngradesWithFastConversion() {
+        governor.onThermalStatus(StreamGovernor.THERMAL_STATUS_SEVERE);
+        window(5, 0);
+        StreamGovernor.Decision decision = window(5, 0);
+        assertEquals(StreamGovernor.Reason.THERMAL, decision.reason);
+        assertEquals(StreamGovernor.THERMAL_STATUS_SEVERE, decision.thermalStatus);
+    }
+
+    @Test
+    public void criticalThermalJumpsToMaxLevel() {
+        governor.onThermalStatus(StreamGovernor.THERMAL_STATUS_CRITICAL);
+        StreamGovernor.Decision decision = window(5, 0);
+        assertEquals(StreamGovernor.MAX_LEVEL, decision.level);
+        assertNull(window(5, 0));
+    }
+
+    @Test
+    public void moderateThermalPreventsRecovery() {
+        window(80, 0);
+        window(80, 0);
+        governor.onThermalStatus(StreamGovernor.THERMAL_STATUS_MODERATE);
+        for (int i = 0; i < 20; i++) {
+            window(10, 0);
+        }
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void qualityForLevels() {
+        StreamGovernor.Quality base = new StreamGovernor.Quality(80, 1280, 720, 30);
+        StreamGovernor.Quality level0 = StreamGovernor.qualityFor(0, base);
+        assertEquals(80, level0.jpegQuality);
+        assertEquals(1280, level0.streamWidth);
+        StreamGovernor.Quality level2 = StreamGovernor.qualityFor(2, base);
+        assertEquals(55, level2.jpegQuality);
+        assertEquals(640, level2.streamWidth);
+        assertEquals(360, level2.streamHeight);
+        assertEquals(30, level2.maxFps);
+        StreamGovernor.Quality level3 = StreamGovernor.qualityFor(3, base);
+        assertEquals(15, level3.maxFps);
+    }
+}
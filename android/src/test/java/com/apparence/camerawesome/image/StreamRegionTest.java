@@ -0,0 +1,45 @@
+package com.apparence.camerawesome.image;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamRegionTest {
+
+    @Test
+    public void centerThirdIsRoundedToEvenPixels() {
+        StreamRegion region = new StreamRegion(1f / 3, 1f / 3, 2f / 3, 2f / 3);
+        // 213.3 -> 212, 426.7 -> 428
+        Assert.assertEquals(212, region.getLeft(640));
+        Assert.assertEquals(216, region.getWidth(640));
+        // 160 -> 160, 320 -> 320
+        Assert.assertEquals(160, region.getTop(480));
+        Assert.assertEquals(160, region.getHeight(480));
+    }
+
+    @Test
+    public void wholeImageKeepsItsSize() {
+        StreamRegion region = new StreamRegion(0, 0, 1, 1);
+        Assert.assertEquals(0, region.getLeft(1920));
+        Assert.assertEquals(1920, region.getWidth(1920));
+        Assert.assertEquals(1080, region.getHeight(1080));
+    }
+
+    @Test
+    public void tinyRegionKeepsTwoPixels() {
+        StreamRegion region = new StreamRegion(0.9999f, 0.5f, 1f, 0.5001f);
+        Assert.assertEquals(638, region.getLeft(640));
+        Assert.assertEquals(2, region.getWidth(640));
+        Assert.assertEquals(240, region.getTop(480));
+        Assert.assertEquals(2, region.getHeight(480));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRegionIsRejected() {
+        new StreamRegion(0.5f, 0, 0.5f, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void regionOutsideImageIsRejected() {
+        new StreamRegion(0, 0, 1.5f, 1);
+    }
+}
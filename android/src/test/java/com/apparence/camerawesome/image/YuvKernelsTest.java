@@ -0,0 +1,108 @@
+package com.apparence.camerawesome.image;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class YuvKernelsTest {
+
+    // 4x2 frame: 8 luma bytes, U and V sharing one interleaved V U V U plane
+    private static final byte[] Y = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final byte[] VU = {20, 10, 21, 11};
+
+    @Test
+    public void toNVCopiesPlanesInOrder() {
+        byte[] nv21 = YuvKernels.YUV_420_888toNV(y(), u(), v(), false);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 10, 21, 11, 20, 10, 21}, nv21);
+        byte[] nv12 = YuvKernels.YUV_420_888toNV(y(), u(), v(), true);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 20, 10, 21, 10, 21, 11}, nv12);
+    }
+
+    @Test
+    public void semiPlanarSwapsChromaPairs() {
+        byte[] data = YuvKernels.YUV_420_888toI420SemiPlanar(y(), u(), v(), 4, 2, false);
+        Assert.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 21, 10, 20, 11, 21, 10}, data);
+    }
+
+    @Test
+    public void deInterleaveSplitsChroma() {
+        byte[] data = YuvKernels.YUV_420_888toI420SemiPlanar(y(), u(), v(), 4, 2, true);
+        Assert.assertEquals(14, data.length);
+        // luma untouched
+        for (int i = 0; i < Y.length; i++) {
+            Assert.assertEquals(Y[i], data[i]);
+        }
+        Assert.assertEquals(10, data[8]);
+        Assert.assertEquals(20, data[10]);
+    }
+
+    @Test
+    public void regionCropsPaddedInterleavedPlanes() {
+        // 8x4 frame, rows padded to 10 bytes, luma is 10 * row + column
+        byte[] luma = new byte[10 * 3 + 8];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 8; column++) {
+                luma[row * 10 + column] = (byte) (10 * row + column);
+            }
+        }
+        // 4x2 chroma samples interleaved V U, V is 100 + 10 * row + column, U is V + 50
+        byte[] chroma = new byte[10 + 8];
+        for (int row = 0; row < 2; row++) {
+            for (int column = 0; column < 4; column++) {
+                chroma[row * 10 + 2 * column] = (byte) (100 + 10 * row + column);
+                chroma[row * 10 + 2 * column + 1] = (byte) (150 + 10 * row + column);
+            }
+        }
+        ByteBuffer y = ByteBuffer.wrap(luma);
+        ByteBuffer v = ByteBuffer.wrap(chroma, 0, chroma.length - 1).slice();
+        ByteBuffer u = ByteBuffer.wrap(chroma, 1, chroma.length - 1).slice();
+
+        byte[] nv21 = YuvKernels.YUV_420_888toNV21Region(y, 10, 1, u, v, 10, 2, 2, 2, 4, 2, null);
+        Assert.assertArrayEquals(new byte[]{
+                22, 23, 24, 25,
+                32, 33, 34, 35,
+                111, (byte) 161, 112, (byte) 162}, nv21);
+        // luma buffer position is kept for next readers
+        Assert.assertEquals(0, y.position());
+
+        // right edge, last V byte of the plane is read
+        byte[] edge = YuvKernels.YUV_420_888toNV21Region(y, 10, 1, u, v, 10, 2, 6, 2, 2, 2, nv21);
+        Assert.assertArrayEquals(new byte[]{26, 27, 36, 37, 113, (byte) 163}, edge);
+    }
+
+    @Test
+    public void regionReadsPlanarChroma() {
+        // 4x2 frame, U and V in their own planes
+        byte[] luma = {1, 2, 3, 4, 5, 6, 7, 8};
+        ByteBuffer u = ByteBuffer.wrap(new byte[]{10, 11});
+        ByteBuffer v = ByteBuffer.wrap(new byte[]{20, 21});
+        byte[] nv21 = YuvKernels.YUV_420_888toNV21Region(ByteBuffer.wrap(luma), 4, 1, u, v, 2, 1, 2, 0, 2, 2, null);
+        Assert.assertArrayEquals(new byte[]{3, 4, 7, 8, 21, 11}, nv21);
+    }
+
+    @Test
+    public void regionBufferIsReused() {
+        byte[] reuse = new byte[6];
+        byte[] nv21 = YuvKernels.YUV_420_888toNV21Region(y(), 4, 1, u(), v(), 4, 2, 0, 0, 2, 2, reuse);
+        Assert.assertSame(reuse, nv21);
+        Assert.assertArrayEquals(new byte[]{1, 2, 5, 6, 20, 10}, nv21);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddRegionIsRejected() {
+        YuvKernels.YUV_420_888toNV21Region(y(), 4, 1, u(), v(), 4, 2, 1, 0, 2, 2, null);
+    }
+
+    private static ByteBuffer y() {
+        return ByteBuffer.wrap(Y);
+    }
+
+    private static ByteBuffer v() {
+        return ByteBuffer.wrap(VU, 0, 3).slice();
+    }
+
+    private static ByteBuffer u() {
+        return ByteBuffer.wrap(VU, 1, 3).slice();
+    }
+}
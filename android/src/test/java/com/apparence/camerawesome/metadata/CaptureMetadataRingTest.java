@@ -0,0 +1,86 @@
+package com.apparence.camerawesome.metadata;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CaptureMetadataRingTest {
+
+    private static void writeFrame(CaptureMetadataRing ring, long frameNumber) {
+        ring.write(frameNumber, frameNumber * 1000, 10_000_000L, 100, 2.5f, 0, 2, 4, 2);
+    }
+
+    private static long frameNumberAt(byte[] batch, int index) {
+        return ByteBuffer.wrap(batch).order(ByteOrder.LITTLE_ENDIAN).getLong(index * CaptureMetadataRing.RECORD_SIZE);
+    }
+
+    @Test
+    public void emptyRingHasNothingToDrain() {
+        CaptureMetadataRing ring = new CaptureMetadataRing(4);
+        assertNull(ring.drain());
+    }
+
+    @Test
+    public void drainReturnsRecordsInOrder() {
+        CaptureMetadataRing ring = new CaptureMetadataRing(4);
+        writeFrame(ring, 1);
+        writeFrame(ring, 2);
+        byte[] batch = ring.drain();
+        assertEquals(2 * CaptureMetadataRing.RECORD_SIZE, batch.length);
+        assertEquals(1, frameNumberAt(batch, 0));
+        assertEquals(2, frameNumberAt(batch, 1));
+        assertEquals(0, ring.size());
+        assertNull(ring.drain());
+    }
+
+    @Test
+    public void recordLayout() {
+        CaptureMetadataRing ring = new CaptureMetadataRing(2);
+        ring.write(7, 123456789L, 33_000_000L, 400, 1.5f, 1, 2, 3, 4);
+        ByteBuffer record = ByteBuffer.wrap(ring.drain()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(7, record.getLong(0));
+        assertEquals(123456789L, record.getLong(8));
+        assertEquals(33_000_000L, record.getLong(16));
+        assertEquals(400, record.getInt(24));
+        assertEquals(1.5f, record.getFloat(28), 0);
+        assertEquals(1, record.getInt(32));
+        assertEquals(2, record.getInt(36));
+        assertEquals(3, record.getInt(40));
+        assertEquals(4, record.getInt(44));
+    }
+
+    @Test
+    public void fullRingOverwritesOldest() {
+        CaptureMetadataRing ring = new CaptureMetadataRing(3);
+        for (int i = 1; i <= 5; i++) {
+            writeFrame(ring, i);
+        }
+        byte[] batch = ring.drain();
+        assertEquals(3 * CaptureMetadataRing.RECORD_SIZE, batch.length);
+        assertEquals(3, frameNumberAt(batch, 0));
+        assertEquals(4, frameNumberAt(batch, 1));
+        assertEquals(5, frameNumberAt(batch, 2));
+        assertEquals(2, ring.getOverwrittenCount());
+    }
+
+    @Test
+    public void drainAfterWrapKeepsOrder() {
+        CaptureMetadataRing ring = new CaptureMetadataRing(4);
+        writeFrame(ring, 1);
+        writeFrame(ring, 2);
+        writeFrame(ring, 3);
+        ring.drain();
+        writeFrame(ring, 4);
+        writeFrame(ring, 5);
+        writeFrame(ring, 6);
+        byte[] batch = ring.drain();
+        assertEquals(3 * CaptureMetadataRing.RECORD_SIZE, batch.length);
+        assertEquals(4, frameNumberAt(batch, 0));
+        assertEquals(5, frameNumberAt(batch, 1));
+        assertEquals(6, frameNumberAt(batch, 2));
+    }
+}
@@ -0,0 +1,78 @@
+package com.apparence.camerawesome.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class LatencyHistogramTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentileMs(0.5), 0);
+    }
+
+    @Test
+    public void bucketIndexUsesUpperBounds() {
+        Assert.assertEquals(0, LatencyHistogram.bucketIndex(0.3));
+        Assert.assertEquals(0, LatencyHistogram.bucketIndex(1));
+        Assert.assertEquals(1, LatencyHistogram.bucketIndex(1.5));
+        Assert.assertEquals(LatencyHistogram.BOUNDS_MS.length, LatencyHistogram.bucketIndex(60_000));
+    }
+
+    @Test
+    public void percentilesFollowBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(4 * MS);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(150 * MS);
+        }
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(5, histogram.getPercentileMs(0.5), 0);
+        Assert.assertEquals(5, histogram.getPercentileMs(0.9), 0);
+        Assert.assertEquals(200, histogram.getPercentileMs(0.99), 0);
+    }
+
+    @Test
+    public void lastBucketReportsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(30_000 * MS);
+        Assert.assertEquals(30_000, histogram.getPercentileMs(0.5), 0.001);
+    }
+
+    @Test
+    public void toMapSummarizes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10 * MS);
+        histogram.record(30 * MS);
+        Map<String, Object> map = histogram.toMap();
+        Assert.assertEquals(2L, map.get("count"));
+        Assert.assertEquals(20d, (double) map.get("meanMs"), 0.001);
+        Assert.assertEquals(30d, (double) map.get("maxMs"), 0.001);
+        Map<?, ?> buckets = (Map<?, ?>) map.get("buckets");
+        Assert.assertEquals(1L, buckets.get("<=10"));
+        Assert.assertEquals(1L, buckets.get("<=50"));
+    }
+
+    @Test
+    public void recordSinceIgnoresUnsetStart() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordSince(0);
+        Assert.assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void resetClearsValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10 * MS);
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0d, (double) histogram.toMap().get("maxMs"), 0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.apparence.camerawesome.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedCounterTest {
+
+    @Test
+    public void sumsConcurrentIncrements() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter(4);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10_000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(40_000, counter.sum());
+    }
+
+    @Test
+    public void addAndResetAllStripes() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter(16);
+        counter.add(5);
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                counter.add(7);
+            }
+        });
+        other.start();
+        other.join();
+        Assert.assertEquals(12, counter.sum());
+
+        counter.reset();
+        Assert.assertEquals(0, counter.sum());
+    }
+}
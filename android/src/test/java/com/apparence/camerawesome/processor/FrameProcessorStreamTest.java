@@ -0,0 +1,304 @@
+package com.apparence.camerawesome.processor;
+
+import android.graphics.ImageFormat;
+import android.media.FakeImage;
+import android.media.Image;
+import android.media.ImageReader;
+
+import com.apparence.camerawesome.fake.FakeCameraBackend;
+import com.apparence.camerawesome.fake.FakeHandlerThread;
+import com.apparence.camerawesome.fake.FakeImageStream;
+import com.apparence.camerawesome.image.ImgConverter;
+import com.apparence.camerawesome.image.ImgConverterThreaded;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.EventChannel;
+
+public class FrameProcessorStreamTest {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 48;
+
+    private FakeHandlerThread frameThread;
+
+    private FrameProcessorRegistry registry;
+
+    private FrameProcessorStream stream;
+
+    private final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+
+    private final FakeImage image = FakeImage.yuv420(WIDTH, HEIGHT, WIDTH, new FakeImage.OnCloseListener() {
+        @Override
+        public void onClosed(FakeImage image) {
+        }
+    });
+
+    private final EventChannel.EventSink sink = new EventChannel.EventSink() {
+        @Override
+        public void success(Object event) {
+            events.add(event);
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+        }
+
+        @Override
+        public void endOfStream() {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        frameThread = new FakeHandlerThread("CameraFrames");
+        registry = new FrameProcessorRegistry();
+        stream = new FrameProcessorStream(registry, frameThread.getHandler(), FakeCameraBackend.inlineHandler());
+    }
+
+    @After
+    public void tearDown() {
+        frameThread.quit();
+    }
+
+    @Test
+    public void registryIgnoresDuplicates() {
+        FrameProcessor processor = new NamedProcessor("a", null);
+        Assert.assertFalse(stream.isActive());
+        registry.register(processor);
+        registry.register(processor);
+        Assert.assertEquals(1, registry.getProcessors().length);
+        Assert.assertTrue(stream.isActive());
+        registry.unregister(processor);
+        Assert.assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void instanceProcessorsRunAfterHostOnes() throws InterruptedException {
+        FrameProcessorRegistry instanceRegistry = new FrameProcessorRegistry();
+        stream = new FrameProcessorStream(registry, instanceRegistry, frameThread.getHandler(),
+                FakeCameraBackend.inlineHandler());
+        instanceRegistry.register(new NamedProcessor("builtIn", 2));
+        Assert.assertTrue(stream.isActive());
+        registry.register(new NamedProcessor("host", 1));
+        stream.onListen(null, sink);
+        stream.analyze(image);
+        waitForEvents(1);
+        Assert.assertEquals("host", batch(0).get(0).get("processor"));
+        Assert.assertEquals("builtIn", batch(0).get(1).get("processor"));
+    }
+
+    @Test
+    public void processorReadsRawFrame() {
+        final long[] read = new long[3];
+        registry.register(new FrameProcessor() {
+            @Override
+            public String getName() {
+                return "reader";
+            }
+
+            @Override
+            public Object process(Frame frame) {
+                read[0] = frame.getWidth();
+                read[1] = frame.getRowStride(0);
+                read[2] = frame.getPixelStride(1);
+                Assert.assertEquals(ImageFormat.YUV_420_888, frame.getFormat());
+                Assert.assertEquals(3, frame.getPlaneCount());
+                return null;
+            }
+        });
+        stream.analyze(image);
+        Assert.assertArrayEquals(new long[]{WIDTH, WIDTH, 2}, read);
+    }
+
+    @Test
+    public void resultsAreOnlyKeptWhileListening() throws InterruptedException {
+        registry.register(new NamedProcessor("counter", 1));
+        image.prepare(42, 0);
+        stream.analyze(image);
+        stream.onListen(null, sink);
+        stream.analyze(image);
+        stream.analyze(image);
+        waitForEvents(1);
+        List<Map<String, Object>> batch = batch(0);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals("counter", batch.get(0).get("processor"));
+        Assert.assertEquals(42L, batch.get(0).get("timestamp"));
+        Assert.assertEquals(1, batch.get(0).get("result"));
+
+        stream.onCancel(null);
+        stream.analyze(image);
+        Assert.assertTrue(frameThread.drain(1000));
+        Thread.sleep(150);
+        Assert.assertEquals(1, events.size());
+    }
+
+    @Test
+    public void publishedResultsAreSentWhileListening() throws InterruptedException {
+        stream.publish("motion", 7, "before listening");
+        stream.onListen(null, sink);
+        stream.publish("motion", 42, "photo");
+        waitForEvents(1);
+        List<Map<String, Object>> batch = batch(0);
+        Assert.assertEquals(1, batch.size());
+        Assert.assertEquals("motion", batch.get(0).get("processor"));
+        Assert.assertEquals(42L, batch.get(0).get("timestamp"));
+        Assert.assertEquals("photo", batch.get(0).get("result"));
+    }
+
+    @Test
+    public void failingProcessorDoesntStopOthers() throws InterruptedException {
+        registry.register(new FrameProcessor() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public Object process(Frame frame) {
+                throw new IllegalStateException("broken");
+            }
+        });
+        registry.register(new NamedProcessor("ok", true));
+        stream.onListen(null, sink);
+        stream.analyze(image);
+        waitForEvents(1);
+        Assert.assertEquals(1, batch(0).size());
+        Assert.assertEquals("ok", batch(0).get(0).get("processor"));
+    }
+
+    @Test
+    public void batchIsBounded() throws InterruptedException {
+        registry.register(new NamedProcessor("counter", 1));
+        Map<String, Object> arguments = Collections.<String, Object>singletonMap("intervalMs", 500);
+        stream.onListen(arguments, sink);
+        for (int i = 0; i < FrameProcessorStream.MAX_BATCH_SIZE + 10; i++) {
+            stream.analyze(image);
+        }
+        Assert.assertEquals(10, stream.getDroppedCount());
+        waitForEvents(1);
+        Assert.assertEquals(FrameProcessorStream.MAX_BATCH_SIZE, batch(0).size());
+    }
+
+    @Test
+    public void converterOnlyAnalyzesWithoutConsumer() throws InterruptedException {
+        final AtomicInteger conversions = new AtomicInteger();
+        final AtomicInteger converted = new AtomicInteger();
+        final AtomicInteger dropped = new AtomicInteger();
+        final CountDownLatch analyzed = new CountDownLatch(1);
+        final CountDownLatch consumed = new CountDownLatch(1);
+        registry.register(new FrameProcessor() {
+            @Override
+            public String getName() {
+                return "latch";
+            }
+
+            @Override
+            public Object process(Frame frame) {
+                analyzed.countDown();
+                return null;
+            }
+        });
+        ImgConverterThreaded converterThread = new ImgConverterThreaded(new ImgConverter() {
+            @Override
+            public byte[] process(ImageReader imageReader) {
+                return null;
+            }
+
+            @Override
+            public byte[] convert(Image image) {
+                conversions.incrementAndGet();
+                return new byte[1];
+            }
+        });
+        converterThread.setConversionListener(new ImgConverterThreaded.ConversionListener() {
+            @Override
+            public void onConverted(long latencyNanos) {
+                converted.incrementAndGet();
+                consumed.countDown();
+            }
+
+            @Override
+            public void onDropped() {
+                dropped.incrementAndGet();
+            }
+        });
+        try {
+            converterThread.setImageAnalyzer(stream);
+            FakeImageStream imageStream = new FakeImageStream(WIDTH, HEIGHT, ImageFormat.YUV_420_888, 2);
+            imageStream.queueFrame(1, 1);
+            converterThread.process(imageStream, null);
+            Assert.assertTrue(analyzed.await(1, TimeUnit.SECONDS));
+            Assert.assertEquals(0, conversions.get());
+
+            // single worker runs next frame once the analyzed one is done
+            imageStream.queueFrame(2, 2);
+            int droppedBefore;
+            do {
+                droppedBefore = dropped.get();
+                converterThread.process(imageStream, new ImgConverterThreaded.Consumer() {
+                    @Override
+                    public void process(byte[] result) {
+                    }
+                });
+            } while (dropped.get() > droppedBefore);
+            Assert.assertTrue(consumed.await(1, TimeUnit.SECONDS));
+            Assert.assertEquals(1, conversions.get());
+            // analysis only frame isn't reported as converted
+            Assert.assertEquals(1, converted.get());
+        } finally {
+            converterThread.dispose();
+        }
+    }
+
+    // ------ HELPERS ------
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> batch(int index) {
+        return (List<Map<String, Object>>) events.get(index);
+    }
+
+    private void waitForEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (events.size() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("no batch sent");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static class NamedProcessor implements FrameProcessor {
+
+        private final String name;
+
+        private final Object result;
+
+        NamedProcessor(String name, Object result) {
+            this.name = name;
+            this.result = result;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Object process(Frame frame) {
+            return result;
+        }
+    }
+}
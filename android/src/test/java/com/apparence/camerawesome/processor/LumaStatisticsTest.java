@@ -0,0 +1,147 @@
+package com.apparence.camerawesome.processor;
+
+import android.media.FakeImage;
+
+import com.apparence.camerawesome.fake.FakeCameraBackend;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+public class LumaStatisticsTest {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 48;
+
+    // padded rows must not be sampled
+    private static final int ROW_STRIDE = 80;
+
+    private final FakeImage image = FakeImage.yuv420(WIDTH, HEIGHT, ROW_STRIDE, null);
+
+    private final Frame frame = new Frame();
+
+    private final List<Object> events = new ArrayList<>();
+
+    private final EventChannel.EventSink sink = new EventChannel.EventSink() {
+        @Override
+        public void success(Object event) {
+            events.add(event);
+        }
+
+        @Override
+        public void error(String errorCode, String errorMessage, Object errorDetails) {
+        }
+
+        @Override
+        public void endOfStream() {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        frame.set(image);
+    }
+
+    @Test
+    public void halfDarkHalfBrightFrame() {
+        paint(0, 255);
+        LumaStatistics statistics = new LumaStatistics(64, 4, 251);
+        accumulate(statistics, 4);
+        // 16 x 12 samples
+        Assert.assertEquals(192, statistics.getSamples());
+        Assert.assertEquals(127.5, statistics.getMean(), 1e-9);
+        Assert.assertEquals(127.5 * 127.5, statistics.getVariance(), 1e-6);
+        Assert.assertEquals(96, statistics.getDarkClipped());
+        Assert.assertEquals(96, statistics.getBrightClipped());
+        Assert.assertEquals(96, statistics.getBin(0));
+        Assert.assertEquals(96, statistics.getBin(63));
+
+        int[] packed = statistics.toArray();
+        Assert.assertEquals(LumaStatistics.HEADER_SIZE + 64, packed.length);
+        Assert.assertArrayEquals(new int[]{64, 192, 12750, 1625625, 96, 96},
+                Arrays.copyOf(packed, LumaStatistics.HEADER_SIZE));
+        Assert.assertEquals(96, packed[LumaStatistics.HEADER_SIZE + 63]);
+    }
+
+    @Test
+    public void accumulatorIsReused() {
+        paint(100, 100);
+        LumaStatistics statistics = new LumaStatistics(256, 4, 251);
+        accumulate(statistics, 8);
+        statistics.reset();
+        accumulate(statistics, 8);
+        Assert.assertEquals(48, statistics.getSamples());
+        Assert.assertEquals(48, statistics.getBin(100));
+        Assert.assertEquals(0, statistics.getVariance(), 1e-9);
+        Assert.assertEquals(0, statistics.getDarkClipped() + statistics.getBrightClipped());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void binsMustBePowerOfTwo() {
+        new LumaStatistics(100, 4, 251);
+    }
+
+    @Test
+    public void streamSamplesOneFramePerInterval() {
+        final int[] attached = new int[1];
+        FrameProcessorRegistry registry = new FrameProcessorRegistry();
+        LumaStatisticsStream stream = new LumaStatisticsStream(registry, FakeCameraBackend.inlineHandler(),
+                FakeCameraBackend.inlineHandler(), new Runnable() {
+            @Override
+            public void run() {
+                attached[0]++;
+            }
+        });
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("intervalMs", 100);
+        arguments.put("bins", 256);
+        Assert.assertTrue(registry.isEmpty());
+        stream.onListen(arguments, sink);
+        Assert.assertFalse(registry.isEmpty());
+        Assert.assertEquals(1, attached[0]);
+
+        paint(50, 150);
+        // 30 fps during one second
+        for (int i = 0; i < 30; i++) {
+            image.prepare(i * 33400000L, i);
+            Assert.assertNull(stream.process(frame));
+        }
+        Assert.assertEquals(10, events.size());
+        int[] packed = (int[]) events.get(0);
+        Assert.assertEquals(256, packed[0]);
+        Assert.assertEquals(10000, packed[2]);
+
+        stream.onCancel(null);
+        Assert.assertTrue(registry.isEmpty());
+    }
+
+    // ------ HELPERS ------
+
+    private void accumulate(LumaStatistics statistics, int step) {
+        statistics.accumulate(frame.getBuffer(0), frame.getRowStride(0), frame.getPixelStride(0),
+                frame.getWidth(), frame.getHeight(), step);
+    }
+
+    /**
+     * Left half of frame gets left luma, right half gets right luma, row padding is left at 0
+     */
+    private void paint(int left, int right) {
+        image.prepare(0, 0);
+        ByteBuffer luma = image.getPlanes()[0].getBuffer();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < ROW_STRIDE && y * ROW_STRIDE + x < luma.capacity(); x++) {
+                luma.put(y * ROW_STRIDE + x, (byte) (x >= WIDTH ? 0 : x < WIDTH / 2 ? left : right));
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.apparence.camerawesome.processor;
+
+import android.media.FakeImage;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class MotionDetectorTest {
+
+    private static final int WIDTH = 160;
+
+    private static final int HEIGHT = 120;
+
+    // 16 x 12 grid of 10 x 10 blocks
+    private static final int COLUMNS = 16;
+
+    private static final int ROWS = 12;
+
+    private static final long FRAME_NS = 33000000L;
+
+    private final FakeImage image = FakeImage.yuv420(WIDTH, HEIGHT, WIDTH, new FakeImage.OnCloseListener() {
+        @Override
+        public void onClosed(FakeImage image) {
+        }
+    });
+
+    private final Frame frame = new Frame();
+
+    private MotionDetector detector;
+
+    private long frameCount;
+
+    @Before
+    public void setUp() {
+        detector = new MotionDetector(COLUMNS, ROWS).setWarmUpFrames(5);
+        frame.set(image);
+    }
+
+    @Test
+    public void staticSceneHasNoMotion() {
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(next(null));
+        }
+        Assert.assertEquals(0, detector.getMotionFrames());
+    }
+
+    @Test
+    public void motionIsReportedWithBounds() {
+        warmUp();
+        Map<String, Object> motion = next(new int[]{40, 30, 80, 60});
+        Assert.assertNotNull(motion);
+        Assert.assertArrayEquals(new int[]{4, 3, 8, 6}, (int[]) motion.get("bounds"));
+        Assert.assertEquals(12, motion.get("blocks"));
+        Assert.assertEquals(12.0 / (COLUMNS * ROWS), (double) motion.get("score"), 1e-9);
+        Assert.assertEquals(200 - 60, (double) motion.get("intensity"), 1.0);
+        Assert.assertEquals(COLUMNS, motion.get("columns"));
+        Assert.assertFalse(motion.containsKey("photoPath"));
+    }
+
+    @Test
+    public void smallChangesAreIgnored() {
+        detector.setMinBlocks(2);
+        warmUp();
+        // a single block changed
+        Assert.assertNull(next(new int[]{40, 30, 50, 40}));
+    }
+
+    @Test
+    public void stoppedObjectMergesIntoBackground() {
+        warmUp();
+        int[] object = {40, 30, 80, 60};
+        Assert.assertNotNull(next(object));
+        int frames = 1;
+        while (next(object) != null) {
+            frames++;
+            Assert.assertTrue("object never merged", frames < 300);
+        }
+        // not merged right away, a few seconds at 30 fps
+        Assert.assertTrue(frames > 30);
+        Assert.assertNull(next(object));
+    }
+
+    @Test
+    public void listenerIsCalledOncePerInterval() {
+        final List<Long> calls = new ArrayList<>();
+        detector.setOnMotionListener(new MotionDetector.OnMotionListener() {
+            @Override
+            public boolean onMotion(long timestampNs, Map<String, Object> motion) {
+                calls.add(timestampNs);
+                return true;
+            }
+        }, 1000);
+        warmUp();
+        int[] object = {40, 30, 80, 60};
+        Map<String, Object> first = next(object);
+        Assert.assertEquals(Collections.singletonList(frameCount * FRAME_NS), calls);
+        Assert.assertFalse(first.containsKey("photoPath"));
+        // 10 frames later motion is still reported without a new call
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNotNull(next(object));
+        }
+        Assert.assertEquals(1, calls.size());
+        // object moves after one second
+        frameCount += 30;
+        Assert.assertNotNull(next(new int[]{100, 60, 140, 100}));
+        Assert.assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void skippedMotionDoesntWaitInterval() {
+        final int[] calls = new int[1];
+        detector.setOnMotionListener(new MotionDetector.OnMotionListener() {
+            @Override
+            public boolean onMotion(long timestampNs, Map<String, Object> motion) {
+                // first two motions are skipped, like while a photo is being taken
+                return ++calls[0] > 2;
+            }
+        }, 1000);
+        warmUp();
+        int[] object = {40, 30, 80, 60};
+        for (int i = 0; i < 10; i++) {
+            Assert.assertNotNull(next(object));
+        }
+        Assert.assertEquals(3, calls[0]);
+    }
+
+    @Test
+    public void sizeChangeRestartsWarmUp() {
+        warmUp();
+        FakeImage smaller = FakeImage.yuv420(WIDTH / 2, HEIGHT / 2, WIDTH / 2, null);
+        smaller.prepare(0, 0);
+        frame.set(smaller);
+        // a whole new scene is not reported as motion
+        Assert.assertNull(detector.process(frame));
+        Assert.assertEquals(0, detector.getMotionFrames());
+    }
+
+    // ------ HELPERS ------
+
+    private void warmUp() {
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNull(next(null));
+        }
+    }
+
+    /**
+     * Feeds a gray frame, with a bright rectangle {left, top, right, bottom} if set
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> next(int[] rectangle) {
+        frameCount++;
+        image.prepare(frameCount * FRAME_NS, frameCount);
+        ByteBuffer luma = image.getPlanes()[0].getBuffer();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inside = rectangle != null
+                        && x >= rectangle[0] && x < rectangle[2] && y >= rectangle[1] && y < rectangle[3];
+                luma.put(y * WIDTH + x, (byte) (inside ? 200 : 60));
+            }
+        }
+        return (Map<String, Object>) detector.process(frame);
+    }
+}
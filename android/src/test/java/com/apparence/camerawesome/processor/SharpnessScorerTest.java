@@ -0,0 +1,84 @@
+package com.apparence.camerawesome.processor;
+
+import android.media.FakeImage;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class SharpnessScorerTest {
+
+    private static final int WIDTH = 640;
+
+    private static final int HEIGHT = 480;
+
+    private final FakeImage image = FakeImage.yuv420(WIDTH, HEIGHT, WIDTH, null);
+
+    private final Frame frame = new Frame();
+
+    private final SharpnessScorer scorer = new SharpnessScorer();
+
+    @Before
+    public void setUp() {
+        frame.set(image);
+    }
+
+    @Test
+    public void sharpEdgesScoreHigherThanBlurredOnes() {
+        paintStripes(0, 1);
+        double sharp = (double) scorer.process(frame);
+        paintStripes(0, 8);
+        double blurred = (double) scorer.process(frame);
+        paintStripes(0, 64);
+        double veryBlurred = (double) scorer.process(frame);
+        Assert.assertTrue(sharp > blurred);
+        Assert.assertTrue(blurred > veryBlurred);
+    }
+
+    @Test
+    public void flatFrameScoresZero() {
+        paintStripes(0, 0);
+        Assert.assertEquals(0, (double) scorer.process(frame), 1e-9);
+    }
+
+    @Test
+    public void scoresAreKeptByTimestamp() {
+        paintStripes(0, 1);
+        double score = (double) scorer.process(frame);
+        Assert.assertEquals(score, scorer.getScore(0), 1e-9);
+        Assert.assertTrue(Double.isNaN(scorer.getScore(1)));
+        // oldest score is forgotten once history is full
+        for (int i = 1; i <= SharpnessScorer.HISTORY_SIZE; i++) {
+            paintStripes(i, 1);
+            scorer.process(frame);
+        }
+        Assert.assertTrue(Double.isNaN(scorer.getScore(0)));
+        Assert.assertEquals(score, scorer.getScore(SharpnessScorer.HISTORY_SIZE), 1e-9);
+    }
+
+    // ------ HELPERS ------
+
+    /**
+     * Vertical stripes of 32 pixels, edges ramp over blur pixels (flat frame if 0)
+     */
+    private void paintStripes(long timestamp, int blur) {
+        image.prepare(timestamp, 0);
+        ByteBuffer luma = image.getPlanes()[0].getBuffer();
+        for (int x = 0; x < WIDTH; x++) {
+            int value;
+            if (blur == 0) {
+                value = 128;
+            } else {
+                // triangle wave clipped to 0-255, slope sets edge width
+                int phase = x % 64;
+                int distance = phase < 32 ? phase : 64 - phase;
+                value = Math.max(0, Math.min(255, 128 + (distance - 16) * 255 / blur));
+            }
+            for (int y = 0; y < HEIGHT; y++) {
+                luma.put(y * WIDTH + x, (byte) value);
+            }
+        }
+    }
+}
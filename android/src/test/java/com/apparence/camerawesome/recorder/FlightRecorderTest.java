@@ -0,0 +1,146 @@
+package com.apparence.camerawesome.recorder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+public class FlightRecorderTest {
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() {
+        Assert.assertEquals(8, new FlightRecorder(5).getCapacity());
+        Assert.assertEquals(8, new FlightRecorder(8).getCapacity());
+        Assert.assertEquals(2, new FlightRecorder(1).getCapacity());
+    }
+
+    @Test
+    public void emptyDumpOnlyWritesHeader() throws IOException {
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(0, new FlightRecorder(4).dump(writer));
+        Assert.assertEquals(1, lines(writer).length);
+    }
+
+    @Test
+    public void dumpWritesEventsOldestFirst() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(8);
+        recorder.record(FlightRecorder.Event.CAMERA_OPEN_REQUESTED);
+        recorder.record(FlightRecorder.Event.CAMERA_OPENED);
+        recorder.record(FlightRecorder.Event.PICTURE_STATE_CHANGED, 3);
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(3, recorder.dump(writer));
+        String[] lines = lines(writer);
+        Assert.assertTrue(lines[1].startsWith("0\t"));
+        Assert.assertTrue(lines[1].contains("CAMERA_OPEN_REQUESTED"));
+        Assert.assertTrue(lines[2].contains("CAMERA_OPENED"));
+        Assert.assertTrue(lines[3].endsWith("PICTURE_STATE_CHANGED\t3"));
+    }
+
+    @Test
+    public void ringKeepsLastEvents() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(4);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(FlightRecorder.Event.FRAME_DROPPED, i);
+        }
+        Assert.assertEquals(10, recorder.getRecordedCount());
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(4, recorder.dump(writer));
+        String[] lines = lines(writer);
+        Assert.assertTrue(lines[1].startsWith("6\t"));
+        Assert.assertTrue(lines[1].endsWith("\t6"));
+        Assert.assertTrue(lines[4].endsWith("\t9"));
+    }
+
+    @Test
+    public void timestampsAreMonotonic() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(16);
+        for (int i = 0; i < 16; i++) {
+            recorder.record(FlightRecorder.Event.CAPTURE_SUBMIT);
+        }
+        StringWriter writer = new StringWriter();
+        recorder.dump(writer);
+        String[] lines = lines(writer);
+        long previous = Long.MIN_VALUE;
+        for (int i = 1; i < lines.length; i++) {
+            long timestamp = Long.parseLong(lines[i].split("\t")[1]);
+            Assert.assertTrue(timestamp >= previous);
+            previous = timestamp;
+        }
+    }
+
+    @Test
+    public void concurrentWritersKeepEveryEvent() throws Exception {
+        final FlightRecorder.Event[] writerEvents = {
+                FlightRecorder.Event.CAPTURE_SUBMIT,
+                FlightRecorder.Event.CAPTURE_COMPLETED,
+                FlightRecorder.Event.FRAME_DROPPED,
+                FlightRecorder.Event.PICTURE_SAVED,
+        };
+        final int perWriter = 1000;
+        // every event fits in the ring
+        final FlightRecorder recorder = new FlightRecorder(writerEvents.length * perWriter);
+        Thread[] threads = new Thread[writerEvents.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int writer = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perWriter; j++) {
+                        recorder.record(writerEvents[writer], ((long) writer << 32) | j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        // dumps while writers run only contain whole slots
+        boolean writing = true;
+        while (writing) {
+            StringWriter writer = new StringWriter();
+            recorder.dump(writer);
+            assertUntorn(lines(writer), writerEvents);
+            writing = false;
+            for (Thread thread : threads) {
+                writing |= thread.isAlive();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(writerEvents.length * perWriter, recorder.getRecordedCount());
+
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(writerEvents.length * perWriter, recorder.dump(writer));
+        String[] lines = lines(writer);
+        assertUntorn(lines, writerEvents);
+        // each writer sequence is complete and in its own order
+        int[] next = new int[writerEvents.length];
+        for (int i = 1; i < lines.length; i++) {
+            long arg = Long.parseLong(lines[i].split("\t")[3]);
+            int writerIndex = (int) (arg >>> 32);
+            Assert.assertEquals(next[writerIndex], (int) arg);
+            next[writerIndex]++;
+        }
+        for (int count : next) {
+            Assert.assertEquals(perWriter, count);
+        }
+    }
+
+    /**
+     * Event of each line must be the one its writer records, a torn slot mixes two writers
+     */
+    private static void assertUntorn(String[] lines, FlightRecorder.Event[] writerEvents) {
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t");
+            Assert.assertEquals(lines[i], 4, fields.length);
+            long arg = Long.parseLong(fields[3]);
+            int writerIndex = (int) (arg >>> 32);
+            Assert.assertTrue(lines[i], writerIndex < writerEvents.length);
+            Assert.assertEquals(lines[i], writerEvents[writerIndex].name(), fields[2]);
+        }
+    }
+
+    private static String[] lines(StringWriter writer) {
+        return writer.toString().split("\n");
+    }
+}
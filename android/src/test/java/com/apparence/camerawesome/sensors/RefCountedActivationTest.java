@@ -0,0 +1,74 @@
+package com.apparence.camerawesome.sensors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RefCountedActivationTest {
+
+    private static class CountingActivation extends RefCountedActivation {
+        int activations;
+        int deactivations;
+
+        @Override
+        protected void onActivate() {
+            activations++;
+        }
+
+        @Override
+        protected void onDeactivate() {
+            deactivations++;
+        }
+    }
+
+    @Test
+    public void nothingRunsWithoutUsers() {
+        CountingActivation activation = new CountingActivation();
+        Assert.assertFalse(activation.isActive());
+        Assert.assertEquals(0, activation.activations);
+    }
+
+    @Test
+    public void activatesOnFirstUserOnly() {
+        CountingActivation activation = new CountingActivation();
+        activation.acquire();
+        activation.acquire();
+        Assert.assertTrue(activation.isActive());
+        Assert.assertEquals(1, activation.activations);
+        Assert.assertEquals(2, activation.getCount());
+    }
+
+    @Test
+    public void deactivatesOnLastRelease() {
+        CountingActivation activation = new CountingActivation();
+        activation.acquire();
+        activation.acquire();
+        activation.release();
+        Assert.assertEquals(0, activation.deactivations);
+        activation.release();
+        Assert.assertEquals(1, activation.deactivations);
+        Assert.assertFalse(activation.isActive());
+    }
+
+    @Test
+    public void extraReleaseIsIgnored() {
+        CountingActivation activation = new CountingActivation();
+        activation.release();
+        activation.acquire();
+        activation.release();
+        activation.release();
+        Assert.assertEquals(1, activation.deactivations);
+        Assert.assertEquals(0, activation.getCount());
+    }
+
+    @Test
+    public void releaseAllDeactivatesOnce() {
+        CountingActivation activation = new CountingActivation();
+        activation.acquire();
+        activation.acquire();
+        activation.releaseAll();
+        activation.releaseAll();
+        Assert.assertEquals(1, activation.deactivations);
+        activation.acquire();
+        Assert.assertEquals(2, activation.activations);
+    }
+}
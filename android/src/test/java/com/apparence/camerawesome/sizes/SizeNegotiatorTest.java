@@ -0,0 +1,148 @@
+package com.apparence.camerawesome.sizes;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SizeNegotiatorTest {
+
+    private static final long FPS_30 = 33_333_333L;
+
+    private static final long FPS_15 = 66_666_666L;
+
+    private static SizeCandidate size(int width, int height, long minFrameDurationNs) {
+        return new SizeCandidate(width, height, minFrameDurationNs, 0);
+    }
+
+    private static final List<SizeCandidate> PREVIEW = Arrays.asList(
+            size(4032, 3024, FPS_15),
+            size(1920, 1080, FPS_30),
+            size(1440, 1080, FPS_30),
+            size(1280, 720, FPS_30),
+            size(640, 480, FPS_30));
+
+    private static final List<SizeCandidate> PHOTO = Arrays.asList(
+            new SizeCandidate(4032, 3024, FPS_15, 50_000_000L),
+            new SizeCandidate(1920, 1080, FPS_30, 20_000_000L),
+            new SizeCandidate(640, 480, FPS_30, 5_000_000L));
+
+    private static String relaxed(SizeDecision decision) {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> cost = (Map<String, Object>) decision.toMap().get("cost");
+        return (String) cost.get("relaxed");
+    }
+
+    private static SizeNegotiator negotiator(List<SizeCandidate> stream) {
+        return new SizeNegotiator(PREVIEW, stream, PHOTO);
+    }
+
+    @Test
+    public void smallestSizeCoveringDisplayIsChosen() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(1080, 1920));
+
+        assertEquals("1920x1080", decision.getPreview().toString());
+        assertNull(decision.getStream());
+        assertEquals("", relaxed(decision));
+    }
+
+    @Test
+    public void aspectRatioIsMatched() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(720, 1280)
+                .setAspectRatio(4 / 3d));
+
+        assertEquals("1440x1080", decision.getPreview().toString());
+    }
+
+    @Test
+    public void aspectRatioIsDroppedFirst() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(1080, 1920)
+                .setAspectRatio(2));
+
+        assertEquals("1920x1080", decision.getPreview().toString());
+        // no 2:1 photo either
+        assertEquals("preview.aspectRatio,photo.aspectRatio", relaxed(decision));
+    }
+
+    @Test
+    public void tooSmallIsPreferredToTooSlow() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(3024, 4032)
+                .setTargetFps(30));
+
+        // 4032x3024 covers the display but only runs at 15 fps
+        assertEquals("1920x1080", decision.getPreview().toString());
+        assertEquals("preview.minSize", relaxed(decision));
+    }
+
+    @Test
+    public void fpsIsDroppedLast() {
+        SizeNegotiator negotiator = new SizeNegotiator(
+                Collections.singletonList(size(4032, 3024, FPS_15)), null, PHOTO);
+        SizeDecision decision = negotiator.negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(1080, 1920)
+                .setTargetFps(30));
+
+        assertEquals("4032x3024", decision.getPreview().toString());
+        assertEquals(15, decision.getAchievableFps(), 0.01);
+        assertEquals("preview.fps", relaxed(decision));
+    }
+
+    @Test
+    public void streamIsOnlyAsBigAsRequested() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(1080, 1920)
+                .setStreamSize(640, 480)
+                .setAspectRatio(16 / 9d));
+
+        assertEquals("1920x1080", decision.getPreview().toString());
+        // no 16:9 size covers 640x480 with less pixels than 1280x720
+        assertEquals("1280x720", decision.getStream().toString());
+    }
+
+    @Test
+    public void slowestRepeatingOutputLimitsFps() {
+        List<SizeCandidate> stream = Collections.singletonList(size(1920, 1080, FPS_15));
+        SizeDecision decision = negotiator(stream).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(480, 640)
+                .setStreamSize(1280, 720));
+
+        assertEquals("640x480", decision.getPreview().toString());
+        assertEquals(15, decision.getAchievableFps(), 0.01);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> cost = (Map<String, Object>) decision.toMap().get("cost");
+        // both outputs at 15 fps
+        assertEquals((long) ((640 * 480 + 1920 * 1080) * decision.getAchievableFps()), cost.get("pixelsPerSecond"));
+        assertEquals((long) (1920 * 1080 * 1.5 * decision.getAchievableFps()), cost.get("streamBytesPerSecond"));
+    }
+
+    @Test
+    public void biggestPhotoWithoutMinimumSize() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(1080, 1920));
+
+        // photo ignores fps, a 4:3 photo is dropped for the display ratio
+        assertEquals("1920x1080", decision.getPhoto().toString());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> cost = (Map<String, Object>) decision.toMap().get("cost");
+        assertEquals(20d, cost.get("photoStallMs"));
+    }
+
+    @Test
+    public void photoMinimumSizeKeepsSmallestMatch() {
+        SizeDecision decision = negotiator(PREVIEW).negotiate(new SizeNegotiator.Request()
+                .setDisplaySize(1080, 1920)
+                .setAspectRatio(4 / 3d)
+                .setPhotoSize(480, 640));
+
+        assertEquals("640x480", decision.getPhoto().toString());
+    }
+}
@@ -0,0 +1,87 @@
+import 'dart:async';
+import 'dart:typed_data';
+
+import 'package:flutter/services.dart';
+
+import 'camerawesome_plugin.dart';
+
+/// Just for android
+/// Drives one of several cameras running together (ex: front and back for a dual view).
+/// Each instance has its own preview texture, image stream and threads.
+/// Use [CamerawesomePlugin.getConcurrentCameraIds] to know which cameras the device can run together,
+/// init fails with CAMERA_NOT_CONCURRENT if the camera can't run with the ones already used.
+class CameraInstanceController {
+  static const MethodChannel _channel = MethodChannel('camerawesome');
+
+  final String instanceId;
+
+  Stream<Uint8List>? _imagesStream;
+
+  CameraInstanceController(this.instanceId);
+
+  Future<bool?> init(
+    Sensors sensor,
+    bool enableImageStream, {
+    StartupModes startupMode = StartupModes.ALL_OUTPUTS,
+    PerformanceProfiles? performanceProfile,
+  }) =>
+      _channel.invokeMethod("init", <String, dynamic>{
+        'instanceId': instanceId,
+        'sensor': sensor.toString().split(".")[1],
+        'streamImages': enableImageStream,
+        'startupMode': startupMode.toString().split(".")[1],
+        'performanceProfile': performanceProfile?.toString().split(".")[1],
+      });
+
+  Future<bool?> start() => _channel.invokeMethod("start", _args());
+
+  Future<bool?> stop() => _channel.invokeMethod("stop", _args());
+
+  Future<num?> getPreviewTexture() => _channel.invokeMethod<num?>('previewTexture', _args());
+
+  Future<void> setPreviewSize(int width, int height) =>
+      _channel.invokeMethod<void>('setPreviewSize', _args({'width': width, 'height': height}));
+
+  Future<void> setPhotoSize(int width, int height) =>
+      _channel.invokeMethod<void>('setPhotoSize', _args({'width': width, 'height': height}));
+
+  Future<void> setSensor(Sensors sensor) =>
+      _channel.invokeMethod<void>('setSensor', _args({'sensor': sensor.toString().split(".")[1]}));
+
+  /// see [CamerawesomePlugin.takePhoto] for [bestOf]
+  Future<void> takePhoto(String path, {int bestOf = 1}) => _channel.invokeMethod<void>(
+      'takePhoto', _args({'path': path, 'orientation': "UNDEFINED", if (bestOf > 1) 'bestOf': bestOf}));
+
+  Future<void> applySettings({CameraFlashes? flashMode, double? zoom, bool? autoFocus, double? brightness}) =>
+      _channel.invokeMethod('applySettings', _args({
+        if (flashMode != null) 'flashMode': flashMode.toString().split(".")[1],
+        if (zoom != null) 'zoom': zoom,
+        if (autoFocus != null) 'autoFocus': autoFocus,
+        if (brightness != null) 'brightness': brightness,
+      }));
+
+  /// images of this instance, needs enableImageStream on init
+  Stream<Uint8List> listenCameraImages() {
+    if (_imagesStream == null) {
+      _imagesStream = EventChannel(_channelName('camerawesome/images'))
+          .receiveBroadcastStream()
+          .transform(StreamTransformer<dynamic, Uint8List>.fromHandlers(handleData: (data, sink) {
+        sink.add(data as Uint8List);
+      }));
+    }
+    return _imagesStream!;
+  }
+
+  /// stops camera and releases the instance, its camera can then be used by another instance
+  Future<void> dispose() {
+    _imagesStream = null;
+    return _channel.invokeMethod<void>('disposeInstance', _args());
+  }
+
+  String _channelName(String base) => instanceId == 'default' ? base : '$base/$instanceId';
+
+  Map<String, dynamic> _args([Map<String, dynamic>? args]) => <String, dynamic>{
+        'instanceId': instanceId,
+        ...?args,
+      };
+}
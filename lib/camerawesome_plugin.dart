@@ -5,17 +5,32 @@ import 'dart:typed_data';
 import 'package:flutter/material.dart';
 import 'package:flutter/services.dart';
 
+import 'models/capture_metadata.dart';
 import 'models/capture_modes.dart';
 import 'models/flashmodes.dart';
+import 'models/frame_processor_result.dart';
+import 'models/luma_statistics.dart';
+import 'models/motion_event.dart';
 import 'models/orientations.dart';
+import 'models/performance_profiles.dart';
 import 'models/sensor_data.dart';
 import 'models/sensors.dart';
+import 'models/startup_modes.dart';
+import 'models/zoom_curves.dart';
 
+export 'camera_instance_controller.dart';
 export 'camerapreview.dart';
+export 'models/capture_metadata.dart';
 export 'models/capture_modes.dart';
 export 'models/flashmodes.dart';
+export 'models/frame_processor_result.dart';
+export 'models/luma_statistics.dart';
+export 'models/motion_event.dart';
+export 'models/performance_profiles.dart';
 export 'models/sensor_data.dart';
 export 'models/sensors.dart';
+export 'models/startup_modes.dart';
+export 'models/zoom_curves.dart';
 export 'picture_controller.dart';
 export 'video_controller.dart';
 
@@ -30,12 +45,22 @@ class CamerawesomePlugin {
 
   static const EventChannel _luminosityChannel = EventChannel('camerawesome/luminosity');
 
+  static const EventChannel _streamGovernorChannel = EventChannel('camerawesome/streamGovernor');
+
+  static const EventChannel _captureMetadataChannel = EventChannel('camerawesome/captureMetadata');
+
+  static const EventChannel _frameProcessorsChannel = EventChannel('camerawesome/frameProcessors');
+
+  static const EventChannel _lumaStatisticsChannel = EventChannel('camerawesome/lumaStatistics');
+
   static Stream<CameraOrientations?>? _orientationStream;
 
   static Stream<SensorData>? _luminositySensorDataStream;
 
   static Stream<Uint8List>? _imagesStream;
 
+  static Stream<Map<String, dynamic>>? _streamGovernorStream;
+
   static CameraState currentState = CameraState.STOPPED;
 
   static Future<List<String>> checkAndroidPermissions() => _channel
@@ -112,11 +137,15 @@ class CamerawesomePlugin {
     Sensors sensor,
     bool enableImageStream, {
     CaptureModes captureMode = CaptureModes.PHOTO,
+    StartupModes startupMode = StartupModes.ALL_OUTPUTS,
+    PerformanceProfiles? performanceProfile,
   }) async {
     return _channel.invokeMethod("init", <String, dynamic>{
       'sensor': sensor.toString().split(".")[1],
       'captureMode': captureMode.toString().split(".")[1],
-      'streamImages': enableImageStream
+      'streamImages': enableImageStream,
+      'startupMode': startupMode.toString().split(".")[1],
+      'performanceProfile': performanceProfile?.toString().split(".")[1],
     });
   }
 
@@ -176,10 +205,15 @@ class CamerawesomePlugin {
     });
   }
 
-  static takePhoto(String path, Orientation? orientation) {
+  /// [bestOf] is just for android: takes a burst of [bestOf] photos and only saves the sharpest one
+  /// burst frames are scored on stream images, it fails with NO_STREAM_OUTPUT if camera runs without them
+  /// (no image stream listened and no frame processor registered before start)
+  /// [bestOf] must be between 1 and 8
+  static takePhoto(String path, Orientation? orientation, {int bestOf = 1}) {
     return _channel.invokeMethod<void>('takePhoto', <String, dynamic>{
       'path': path,
-      'orientation': _getMethodChannelOrientationValue(orientation)
+      'orientation': _getMethodChannelOrientationValue(orientation),
+      if (bestOf > 1) 'bestOf': bestOf,
     });
   }
 
@@ -220,6 +254,15 @@ class CamerawesomePlugin {
         'zoom': zoom,
       });
 
+  /// Just for android
+  /// animates zoom to [zoom] natively, prefer this to many [setZoom] calls
+  static Future<void> zoomTo(num zoom, Duration duration, {ZoomCurves curve = ZoomCurves.EASE_IN_OUT}) =>
+      _channel.invokeMethod('zoomTo', <String, dynamic>{
+        'zoom': zoom.toDouble(),
+        'duration': duration.inMilliseconds,
+        'curve': curve.toString().split(".")[1],
+      });
+
   /// switch camera sensor between [Sensors.BACK] and [Sensors.FRONT]
   static Future<void> setSensor(Sensors sensor) =>
       _channel.invokeMethod('setSensor', <String, dynamic>{
@@ -248,6 +291,26 @@ class CamerawesomePlugin {
     });
   }
 
+  /// Just for android
+  /// changes flash mode, zoom, auto focus and brightness at once, camera request is rebuilt only once
+  /// null values are left unchanged. Throws a PlatformException and changes nothing if a value is not supported
+  static Future<void> applySettings({
+    CameraFlashes? flashMode,
+    double? zoom,
+    bool? autoFocus,
+    double? brightness,
+  }) {
+    if (brightness != null && (brightness < 0 || brightness > 1)) {
+      throw "Value must be between [0,1]";
+    }
+    return _channel.invokeMethod('applySettings', <String, dynamic>{
+      if (flashMode != null) 'flashMode': flashMode.toString().split(".")[1],
+      if (zoom != null) 'zoom': zoom,
+      if (autoFocus != null) 'autoFocus': autoFocus,
+      if (brightness != null) 'brightness': brightness,
+    });
+  }
+
   /// toggle debug logging enable
   static Future<void> setDebugLoggingEnabled(bool enabled) =>
       _channel.invokeMethod('setDebugLoggingEnabled', <String, bool>{
@@ -273,6 +336,185 @@ class CamerawesomePlugin {
   /// returns the max zoom available on device
   static Future<num?> getMaxZoom() => _channel.invokeMethod("getMaxZoom");
 
+  /// Just for android
+  /// returns ms spent since last start to configure session, get the first frame and all outputs
+  static Future<Map<String, dynamic>?> getStartupMetrics() =>
+      _channel.invokeMapMethod<String, dynamic>("getStartupMetrics");
+
+  /// Just for android
+  /// returns how many settings changes were requested and how many preview requests were sent
+  static Future<Map<String, dynamic>?> getRequestUpdaterStats() =>
+      _channel.invokeMapMethod<String, dynamic>("getRequestUpdaterStats");
+
+  /// Just for android
+  /// returns sets of camera ids the device can run together, null if device doesn't tell (before Android 11)
+  /// in that case only one camera can run at a time
+  static Future<List<List<String>>?> getConcurrentCameraIds() async {
+    final res = await _channel.invokeListMethod<List<dynamic>>("getConcurrentCameraIds");
+    return res?.map((ids) => ids.cast<String>()).toList();
+  }
+
+  /// Just for android
+  /// returns for each camera method its call count, errors, timeouts, average and max ms until answered
+  static Future<Map<String, dynamic>?> getCommandLatencies() =>
+      _channel.invokeMapMethod<String, dynamic>("getCommandLatencies");
+
+  /// Just for android
+  /// returns counters and latency histograms (count, mean, max, p50, p90, p99 in ms) of camera open,
+  /// session configure, first frame, session refresh and take picture for all cameras
+  /// metrics are cleared after this report if [reset] is true
+  static Future<Map<String, dynamic>?> getPerformanceReport({bool reset = false}) =>
+      _channel.invokeMapMethod<String, dynamic>("getPerformanceReport", <String, dynamic>{
+        'reset': reset,
+      });
+
+  /// Just for android
+  /// writes the last camera events (open, session configure, picture states, captures, dropped frames)
+  /// to a text file at [path] (app cache dir by default), returns written path and events count
+  static Future<Map<String, dynamic>?> dumpFlightRecorder({String? path}) =>
+      _channel.invokeMapMethod<String, dynamic>("dumpFlightRecorder", <String, dynamic>{
+        'path': path,
+      });
+
+  /// Just for android
+  /// switch performance profile, camera is not restarted
+  static Future<void> setPerformanceProfile(PerformanceProfiles profile) =>
+      _channel.invokeMethod('setPerformanceProfile', <String, dynamic>{
+        'profile': profile.toString().split(".")[1],
+      });
+
+  /// Just for android
+  /// image stream quality is lowered when conversion can't keep up or device heats, and raised back once healthy
+  /// each decision is sent here with its level (0 is full quality), reason, average latency, drop rate and thermal status
+  static Stream<Map<String, dynamic>> listenStreamGovernorDecisions() {
+    if (_streamGovernorStream == null) {
+      _streamGovernorStream = _streamGovernorChannel
+          .receiveBroadcastStream()
+          .map((data) => Map<String, dynamic>.from(data as Map));
+    }
+    return _streamGovernorStream!;
+  }
+
+  /// Just for android
+  /// per frame exposure time, ISO, focus distance, lens and 3A states
+  /// frames are sent in batches every [interval]
+  static Stream<List<CaptureMetadata>> listenCaptureMetadata({Duration interval = const Duration(milliseconds: 250)}) {
+    return _captureMetadataChannel
+        .receiveBroadcastStream(<String, dynamic>{'intervalMs': interval.inMilliseconds})
+        .map((data) => CaptureMetadata.fromBatch(data as Uint8List));
+  }
+
+  /// Just for android
+  /// results of native frame processors registered by the host app, they run on raw frames before any encoding
+  /// results are sent in batches every [interval]
+  static Stream<List<FrameProcessorResult>> listenFrameProcessorResults(
+      {Duration interval = const Duration(milliseconds: 100)}) {
+    return _frameProcessorsChannel
+        .receiveBroadcastStream(<String, dynamic>{'intervalMs': interval.inMilliseconds})
+        .map((data) => FrameProcessorResult.fromBatch(data as List<dynamic>));
+  }
+
+  /// Just for android
+  /// only [region] of stream images is encoded and sent to [listenCameraImages], other pixels are never copied
+  /// [region] is relative to image size: Rect.fromLTRB(1 / 3, 1 / 3, 2 / 3, 2 / 3) keeps the center third
+  /// it can be changed while camera runs, whole images are sent again if null
+  static Future<void> setStreamRegion(Rect? region) =>
+      _channel.invokeMethod('setStreamRegion', <String, dynamic>{
+        if (region != null) 'left': region.left,
+        if (region != null) 'top': region.top,
+        if (region != null) 'right': region.right,
+        if (region != null) 'bottom': region.bottom,
+      });
+
+  /// Just for android
+  /// luma statistics of one stream frame every [interval], sampled every [step] pixels of the Y plane
+  /// [bins] must be a power of two (64 or 256 usually), pixels at or below [darkClip] or at or above [brightClip]
+  /// are counted as clipped
+  /// stream images are added to running session if needed, camera doesn't need enableImageStream
+  static Stream<LumaStatistics> listenLumaStatistics({
+    Duration interval = const Duration(milliseconds: 200),
+    int bins = 64,
+    int step = 8,
+    int darkClip = 4,
+    int brightClip = 251,
+  }) {
+    return _lumaStatisticsChannel.receiveBroadcastStream(<String, dynamic>{
+      'intervalMs': interval.inMilliseconds,
+      'bins': bins,
+      'step': step,
+      'darkClip': darkClip,
+      'brightClip': brightClip,
+    }).map((data) => LumaStatistics.fromPacked(data as Int32List));
+  }
+
+  /// Just for android
+  /// detects motion on stream images natively, frames are split in a [columns] x [rows] grid
+  /// a block changed when its luma moved more than [threshold] (0-255) away from background,
+  /// motion is reported once [minBlocks] blocks changed
+  /// if [autoCaptureDirectory] is set a photo is taken in it on motion, at most once per [autoCaptureInterval]
+  /// and never while another photo is being taken, see [MotionEvent.photoPath]
+  /// stream images are added to running session if needed, camera doesn't need enableImageStream
+  static Future<void> setMotionDetection(
+    bool enabled, {
+    int columns = 16,
+    int rows = 12,
+    int threshold = 12,
+    int minBlocks = 2,
+    String? autoCaptureDirectory,
+    Duration autoCaptureInterval = const Duration(seconds: 5),
+  }) =>
+      _channel.invokeMethod('setMotionDetection', <String, dynamic>{
+        'enabled': enabled,
+        'columns': columns,
+        'rows': rows,
+        'threshold': threshold,
+        'minBlocks': minBlocks,
+        if (autoCaptureDirectory != null) 'autoCaptureDirectory': autoCaptureDirectory,
+        'autoCaptureIntervalMs': autoCaptureInterval.inMilliseconds,
+      });
+
+  /// Just for android
+  /// motion events of [setMotionDetection]
+  /// they share frame processors channel: when listening other processors too,
+  /// use [listenFrameProcessorResults] with [MotionEvent.fromResult] instead
+  static Stream<MotionEvent> listenMotionEvents({Duration interval = const Duration(milliseconds: 100)}) =>
+      listenFrameProcessorResults(interval: interval)
+          .expand((results) => results)
+          .map(MotionEvent.fromResult)
+          .where((event) => event != null)
+          .cast<MotionEvent>();
+
+  /// Just for android
+  /// stream governor is enabled by default when image stream is enabled and a performance profile is set
+  static Future<void> setStreamGovernorEnabled(bool enabled) =>
+      _channel.invokeMethod('setStreamGovernorEnabled', <String, dynamic>{
+        'enabled': enabled,
+      });
+
+  /// Just for android
+  /// chooses the smallest preview, stream and photo sizes meeting [displaySize], [targetFps] and [aspectRatio]
+  /// returns chosen sizes and their cost (achievable fps, pixels per second, photo stall...)
+  /// if [apply] is true outputs are rebuilt with these sizes (or used on next start if camera is stopped)
+  static Future<Map<String, dynamic>?> negotiateSizes({
+    Size? displaySize,
+    num targetFps = 30,
+    double? aspectRatio,
+    Size? streamSize,
+    Size? photoSize,
+    bool apply = false,
+  }) =>
+      _channel.invokeMapMethod<String, dynamic>("negotiateSizes", <String, dynamic>{
+        if (displaySize != null) 'displayWidth': displaySize.width.toInt(),
+        if (displaySize != null) 'displayHeight': displaySize.height.toInt(),
+        'targetFps': targetFps.toDouble(),
+        'aspectRatio': aspectRatio,
+        if (streamSize != null) 'streamWidth': streamSize.width.toInt(),
+        if (streamSize != null) 'streamHeight': streamSize.height.toInt(),
+        if (photoSize != null) 'photoWidth': photoSize.width.toInt(),
+        if (photoSize != null) 'photoHeight': photoSize.height.toInt(),
+        'apply': apply,
+      });
+
   // ---------------------------------------------------
   // UTILITY METHODS
   // ---------------------------------------------------
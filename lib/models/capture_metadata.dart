@@ -0,0 +1,50 @@
+import 'dart:typed_data';
+
+/// Just for android
+/// metadata of one preview frame, missing values are -1
+/// states use android CaptureResult constants (CONTROL_AE_STATE_*, CONTROL_AF_STATE_*, CONTROL_AWB_STATE_*, LENS_STATE_*)
+class CaptureMetadata {
+  static const int recordSize = 48;
+
+  final int frameNumber;
+
+  final int sensorTimestampNs;
+
+  final int exposureTimeNs;
+
+  final int iso;
+
+  /// in diopters (1 / meters), 0 is infinity
+  final double focusDistance;
+
+  final int lensState;
+
+  final int aeState;
+
+  final int afState;
+
+  final int awbState;
+
+  CaptureMetadata(this.frameNumber, this.sensorTimestampNs, this.exposureTimeNs, this.iso, this.focusDistance,
+      this.lensState, this.aeState, this.afState, this.awbState);
+
+  /// decodes a batch of records sent by native side
+  static List<CaptureMetadata> fromBatch(Uint8List batch) {
+    final data = ByteData.sublistView(batch);
+    final res = <CaptureMetadata>[];
+    for (var offset = 0; offset + recordSize <= batch.length; offset += recordSize) {
+      res.add(CaptureMetadata(
+        data.getInt64(offset, Endian.little),
+        data.getInt64(offset + 8, Endian.little),
+        data.getInt64(offset + 16, Endian.little),
+        data.getInt32(offset + 24, Endian.little),
+        data.getFloat32(offset + 28, Endian.little),
+        data.getInt32(offset + 32, Endian.little),
+        data.getInt32(offset + 36, Endian.little),
+        data.getInt32(offset + 40, Endian.little),
+        data.getInt32(offset + 44, Endian.little),
+      ));
+    }
+    return res;
+  }
+}
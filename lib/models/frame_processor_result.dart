@@ -0,0 +1,20 @@
+/// Just for android
+/// result of a native frame processor registered by the host app (see FrameProcessor on android side)
+class FrameProcessorResult {
+  /// name of the processor
+  final String processor;
+
+  /// sensor timestamp of the analyzed frame, same as [CaptureMetadata.sensorTimestampNs]
+  final int timestampNs;
+
+  /// value returned by the processor
+  final dynamic result;
+
+  FrameProcessorResult(this.processor, this.timestampNs, this.result);
+
+  /// decodes a batch sent by native side
+  static List<FrameProcessorResult> fromBatch(List<dynamic> batch) => batch
+      .map((item) => item as Map)
+      .map((item) => FrameProcessorResult(item['processor'] as String, item['timestamp'] as int, item['result']))
+      .toList();
+}
@@ -0,0 +1,40 @@
+import 'dart:typed_data';
+
+/// Just for android
+/// luma histogram, mean, variance and clipped pixels of one stream frame
+class LumaStatistics {
+  static const int headerSize = 6;
+
+  /// sampled pixels
+  final int samples;
+
+  /// from 0 to 255
+  final double mean;
+
+  final double variance;
+
+  /// samples at or below dark clip luma
+  final int darkClipped;
+
+  /// samples at or above bright clip luma
+  final int brightClipped;
+
+  /// samples count of each bin, bins split 0-255 luma evenly
+  final Int32List histogram;
+
+  LumaStatistics(this.samples, this.mean, this.variance, this.darkClipped, this.brightClipped, this.histogram);
+
+  double get darkClippedRatio => samples > 0 ? darkClipped / samples : 0;
+
+  double get brightClippedRatio => samples > 0 ? brightClipped / samples : 0;
+
+  /// decodes an array packed by native side: bins, samples, mean x 100, variance x 100, clipped counts, bins
+  static LumaStatistics fromPacked(Int32List packed) => LumaStatistics(
+        packed[1],
+        packed[2] / 100,
+        packed[3] / 100,
+        packed[4],
+        packed[5],
+        Int32List.sublistView(packed, headerSize, headerSize + packed[0]),
+      );
+}
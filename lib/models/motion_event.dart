@@ -0,0 +1,59 @@
+import 'frame_processor_result.dart';
+
+/// Just for android
+/// motion detected by the built-in motion detector (see [CamerawesomePlugin.setMotionDetection])
+class MotionEvent {
+  /// name of motion detector results in [FrameProcessorResult.processor]
+  static const String processorName = 'motion';
+
+  /// sensor timestamp of the frame
+  final int timestampNs;
+
+  /// ratio of changed blocks, from 0 to 1
+  final double score;
+
+  /// mean luma difference of changed blocks with background (0-255)
+  final double intensity;
+
+  /// changed blocks count
+  final int blocks;
+
+  /// grid size
+  final int columns;
+  final int rows;
+
+  /// changed blocks bounding box in blocks, right and bottom excluded
+  final int left;
+  final int top;
+  final int right;
+  final int bottom;
+
+  /// photo taken for this motion if auto capture is enabled,
+  /// only set on a second event of the same frame sent once the photo is written
+  final String? photoPath;
+
+  MotionEvent(this.timestampNs, this.score, this.intensity, this.blocks, this.columns, this.rows, this.left,
+      this.top, this.right, this.bottom, this.photoPath);
+
+  /// null if result doesn't come from motion detector
+  static MotionEvent? fromResult(FrameProcessorResult result) {
+    if (result.processor != processorName) {
+      return null;
+    }
+    final Map data = result.result as Map;
+    final List<dynamic> bounds = data['bounds'] as List<dynamic>;
+    return MotionEvent(
+      result.timestampNs,
+      (data['score'] as num).toDouble(),
+      (data['intensity'] as num).toDouble(),
+      data['blocks'] as int,
+      data['columns'] as int,
+      data['rows'] as int,
+      bounds[0] as int,
+      bounds[1] as int,
+      bounds[2] as int,
+      bounds[3] as int,
+      data['photoPath'] as String?,
+    );
+  }
+}
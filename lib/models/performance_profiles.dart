@@ -0,0 +1,8 @@
+/// Just for android
+/// sets together fps range, image stream size, stream converter workers and JPEG quality
+/// [LOW_POWER] saves battery and heat, [HIGH_FPS] favors smoothness
+enum PerformanceProfiles {
+  LOW_POWER,
+  BALANCED,
+  HIGH_FPS,
+}
@@ -0,0 +1,6 @@
+/// Just for android
+/// [PREVIEW_FIRST] shows the first preview frame before photo and stream outputs are ready
+enum StartupModes {
+  ALL_OUTPUTS,
+  PREVIEW_FIRST,
+}
@@ -0,0 +1,7 @@
+/// easing used by [CamerawesomePlugin.zoomTo]
+enum ZoomCurves {
+  LINEAR,
+  EASE_IN,
+  EASE_OUT,
+  EASE_IN_OUT,
+}
@@ -3,7 +3,8 @@ import 'package:flutter/widgets.dart';
 import 'camerawesome_plugin.dart';
 
 class PictureController {
-  Future<void> takePicture(String filePath, Orientation? orientation) async {
-    await CamerawesomePlugin.takePhoto(filePath, orientation);
+  /// see [CamerawesomePlugin.takePhoto] for [bestOf]
+  Future<void> takePicture(String filePath, Orientation? orientation, {int bestOf = 1}) async {
+    await CamerawesomePlugin.takePhoto(filePath, orientation, bestOf: bestOf);
   }
 }